@@ -0,0 +1,117 @@
+package org.sigar.chat.loadgen;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop STOMP load generator for the chat service.
+ *
+ * Opens the configured number of sessions, subscribes them to rooms drawn from the room distribution
+ * and then sends chat messages at a fixed mean rate (Poisson arrivals) from randomly chosen sessions to
+ * one of their rooms. Each message carries its intended and actual send time (see {@link LatencyStamp}),
+ * and every session that receives it records the delivery latency. Messages go out on schedule however
+ * slowly they come back, so a stalled server shows up as latency rather than as a lower send rate.
+ *
+ * The same run can be pointed at each CommunicationChannel; give the distributed ones two nodes and
+ * list both as targets so that half the deliveries cross between them, e.g.
+ *   java -jar CHAT_APP_REDIS_WEBAPI/target/CHAT_APP_REDIS_WEBAPI-1.0-SNAPSHOT.jar --chat.communication.channel=websocket
+ *   java -jar CHAT_APP_LOADGEN/target/CHAT_APP_LOADGEN-1.0-SNAPSHOT.jar --channel websocket --sessions 2000 --rate 1000
+ * and for the others start each node with
+ *   http   --chat.communication.channel=http --chat.http.base-url=http://localhost:8080/topic/messages
+ *   redis  --chat.communication.channel=redis --server.port=8080|8081
+ *   grpc   --chat.communication.channel=grpc --server.port=8080 --chat.grpc.node-id=node-a --chat.grpc.port=9090
+ *          --chat.grpc.peers=node-b=localhost:9091 (and the mirror image for node-b)
+ *   shm    --chat.communication.channel=shm --server.port=8080|8081 --chat.shm.node-id=node-a|node-b
+ * then run with --targets http://localhost:8080,http://localhost:8081 --channel NAME.
+ * Thousands of sessions need a file descriptor limit to match on both sides (ulimit -n).
+ * The server's ingress limits (chat.ratelimit.*) apply to generated load like any other: messages over
+ * them are dropped and show up as undelivered, so start it with chat.ratelimit.enabled=false unless
+ * the limits are what is being measured.
+ */
+public class ChatLoadGenerator {
+    // SUBSCRIBE is handled asynchronously by the server; messages sent before it lands are never delivered
+    private static final Duration SUBSCRIBE_SETTLE = Duration.ofSeconds(2);
+    private static final long DRAIN_POLL_MILLIS = 50;
+
+    private final LoadOptions options;
+
+    public ChatLoadGenerator(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        new ChatLoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        long run = System.currentTimeMillis();
+        RoomLayout layout = new RoomLayout(options, new Random(options.getSeed()));
+        DeliveryRecorder recorder = new DeliveryRecorder(run);
+
+        try (ChatSessions sessions = new ChatSessions(options, layout, recorder)) {
+            System.out.printf("Connecting %d sessions to %s%n", options.getSessions(), String.join(",", options.getTargets()));
+            long connectStart = System.nanoTime();
+            int connected = sessions.connect();
+            System.out.printf("%d sessions connected in %.1f s%n", connected, (System.nanoTime() - connectStart) / 1e9);
+            if (connected == 0) {
+                System.err.println("No session could connect; is the chat service running?");
+                recorder.outcomes().forEach((outcome, count) -> System.err.printf("  %-40s %d%n", outcome, count.sum()));
+                System.exit(1);
+                return;
+            }
+            Thread.sleep(SUBSCRIBE_SETTLE.toMillis());
+
+            Duration elapsed = send(layout, sessions, recorder, run, new Random(options.getSeed() + 1));
+            drain(recorder);
+
+            LoadReport report = new LoadReport(options, layout, recorder, connected, elapsed);
+            report.print(System.out);
+            System.out.println("\nReport written to " + report.write().toAbsolutePath());
+        }
+    }
+
+    private Duration send(RoomLayout layout, ChatSessions sessions, DeliveryRecorder recorder, long run, Random random) {
+        int[] senders = sessions.connected();
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / options.getRate();
+        long durationNanos = options.getDuration().toNanos();
+        long start = System.nanoTime();
+        recorder.measureFrom(start + options.getWarmup().toNanos());
+        long offsetNanos = 0;
+        while (true) {
+            // Exponential gaps give Poisson arrivals, so bursts happen the way they do with real users
+            offsetNanos += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+            if (offsetNanos >= durationNanos) {
+                break;
+            }
+            long intended = start + offsetNanos;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int sender = senders[random.nextInt(senders.length)];
+            int[] rooms = layout.roomsOf(sender);
+            int room = rooms[random.nextInt(rooms.length)];
+            if (sessions.send(sender, room, run, intended)) {
+                recorder.sent(sessions.subscribers(room));
+            }
+        }
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private void drain(DeliveryRecorder recorder) throws InterruptedException {
+        long deadline = System.nanoTime() + options.getDrain().toNanos();
+        while (recorder.delivered() < recorder.expected() && System.nanoTime() < deadline) {
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+    }
+}
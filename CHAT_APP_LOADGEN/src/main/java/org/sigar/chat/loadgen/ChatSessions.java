@@ -0,0 +1,215 @@
+package org.sigar.chat.loadgen;
+
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * The generator's STOMP sessions, spread over the targets in turn, each subscribed to the rooms the
+ * layout gave it. Deliveries are decoded and timed on the WebSocket client's threads as they arrive.
+ * Sessions are only ever sent on from the generator's one sending thread, since a WebSocket session
+ * does not allow concurrent writes.
+ */
+public class ChatSessions implements AutoCloseable {
+    private static final String ROOM_DESTINATION_PREFIX = "/topic/messages/";
+    private static final String ENCODING_HEADER = "chat-encoding";
+    // Coalesced frames can be well over Tomcat's 8 KB default, and the STOMP client only takes whole messages.
+    // Tomcat allocates this much per session, so it cannot be generous
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private final LoadOptions options;
+    private final RoomLayout layout;
+    private final DeliveryRecorder recorder;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final WebSocketStompClient stompClient;
+    private final AtomicReferenceArray<StompSession> sessions;
+    private final int[] connectedSubscribers;
+
+    public ChatSessions(LoadOptions options, RoomLayout layout, DeliveryRecorder recorder) {
+        this.options = options;
+        this.layout = layout;
+        this.recorder = recorder;
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(MAX_FRAME_BYTES);
+        container.setDefaultMaxBinaryMessageBufferSize(MAX_FRAME_BYTES);
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient(container);
+        WebSocketClient client = options.getTransport() == LoadOptions.Transport.SOCKJS
+                ? new SockJsClient(List.of(new WebSocketTransport(webSocketClient)))
+                : webSocketClient;
+        this.stompClient = new WebSocketStompClient(client);
+        stompClient.setInboundMessageSizeLimit(MAX_FRAME_BYTES);
+        // Heartbeats would need a scheduler ticking for every session, which is not what is being measured
+        stompClient.setDefaultHeartbeat(new long[] {0, 0});
+        this.sessions = new AtomicReferenceArray<>(layout.sessions());
+        this.connectedSubscribers = new int[options.getRooms()];
+    }
+
+    /**
+     * Opens every session, at most connect-concurrency at a time, and subscribes it to its rooms.
+     *
+     * @return the number of sessions that connected
+     */
+    public int connect() throws InterruptedException {
+        Semaphore permits = new Semaphore(options.getConnectConcurrency());
+        CountDownLatch done = new CountDownLatch(layout.sessions());
+        for (int i = 0; i < layout.sessions(); i++) {
+            permits.acquire();
+            int index = i;
+            long started = System.nanoTime();
+            StompHeaders connectHeaders = new StompHeaders();
+            if (options.getEncoding() == LoadOptions.Encoding.CBOR) {
+                connectHeaders.add(ENCODING_HEADER, "cbor");
+            }
+            stompClient.connectAsync(endpoint(index), null, connectHeaders, new SessionHandler(index))
+                    .whenComplete((session, error) -> {
+                        if (error != null) {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            recorder.outcome("connect failed: " + cause.getClass().getSimpleName());
+                        } else {
+                            recorder.connected(started, System.nanoTime());
+                            subscribe(session, layout.roomsOf(index));
+                            sessions.set(index, session);
+                        }
+                        permits.release();
+                        done.countDown();
+                    });
+        }
+        done.await();
+        int connected = 0;
+        for (int i = 0; i < layout.sessions(); i++) {
+            if (sessions.get(i) != null) {
+                connected++;
+                for (int room : layout.roomsOf(i)) {
+                    connectedSubscribers[room]++;
+                }
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Sessions that connected, to pick senders from.
+     */
+    public int[] connected() {
+        return IntStream.range(0, layout.sessions()).filter(i -> sessions.get(i) != null).toArray();
+    }
+
+    /**
+     * Connected sessions subscribed to the room, i.e. how many deliveries one message to it should make.
+     */
+    public int subscribers(int room) {
+        return connectedSubscribers[room];
+    }
+
+    /**
+     * Sends a stamped chat message from the session to the room.
+     *
+     * @return false if the session could not send it
+     */
+    public boolean send(int session, int room, long run, long intendedNanos) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination("/app/" + RoomLayout.roomName(room) + "/sendMessage");
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        String content = new LatencyStamp(run, intendedNanos, System.nanoTime()).content(options.getMessageSize());
+        byte[] payload = ("{\"sender\":\"lg-" + session + "\",\"content\":\"" + content + "\"}").getBytes(StandardCharsets.UTF_8);
+        try {
+            sessions.get(session).send(headers, payload);
+            return true;
+        } catch (RuntimeException e) {
+            recorder.outcome("send failed: " + e.getClass().getSimpleName());
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < sessions.length(); i++) {
+            StompSession session = sessions.get(i);
+            if (session != null && session.isConnected()) {
+                try {
+                    session.disconnect();
+                } catch (RuntimeException ignored) {
+                    // Already gone; nothing to tidy up
+                }
+            }
+        }
+        stompClient.stop();
+    }
+
+    private URI endpoint(int session) {
+        String target = options.getTargets().get(session % options.getTargets().size());
+        if (options.getTransport() == LoadOptions.Transport.SOCKJS) {
+            return URI.create(target + "/chat");
+        }
+        return URI.create(target.replaceFirst("^http", "ws") + "/chat/websocket");
+    }
+
+    private void subscribe(StompSession session, int[] rooms) {
+        for (int room : rooms) {
+            session.subscribe(ROOM_DESTINATION_PREFIX + RoomLayout.roomName(room), new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return byte[].class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    long received = System.nanoTime();
+                    try {
+                        for (String content : decoder.contents(headers, (byte[]) payload)) {
+                            recorder.delivered(content, received);
+                        }
+                    } catch (Exception e) {
+                        recorder.outcome("undecodable frame");
+                    }
+                }
+            });
+        }
+    }
+
+    private final class SessionHandler extends StompSessionHandlerAdapter {
+        private final int index;
+
+        private SessionHandler(int index) {
+            this.index = index;
+        }
+
+        // Only ERROR frames reach the session handler; messages go to the subscriptions
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            recorder.outcome("ERROR frame: " + headers.getFirst("message"));
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers, byte[] payload, Throwable exception) {
+            recorder.outcome("frame error: " + exception.getClass().getSimpleName());
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            // Also called for a CONNECT that fails, which connect() already counts
+            if (sessions.get(index) != null) {
+                recorder.outcome("session lost: " + exception.getClass().getSimpleName());
+            }
+        }
+    }
+}
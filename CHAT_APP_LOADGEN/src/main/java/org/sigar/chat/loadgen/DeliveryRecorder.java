@@ -0,0 +1,98 @@
+package org.sigar.chat.loadgen;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records every delivery of a stamped message to a subscribed session, in microseconds:
+ * from the intended send time (corrected for coordinated omission, the number to trust)
+ * and from the actual send time (what a closed-loop tool would report).
+ * Messages meant to be sent before the end of the warmup are counted but not timed.
+ */
+public class DeliveryRecorder {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final long run;
+    private final Histogram corrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram uncorrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram connect = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+
+    public DeliveryRecorder(long run) {
+        this.run = run;
+    }
+
+    public void measureFrom(long nanos) {
+        measureFromNanos = nanos;
+    }
+
+    public void connected(long startedNanos, long completedNanos) {
+        connect.recordValue(toMicros(completedNanos - startedNanos));
+    }
+
+    /**
+     * @param subscribers sessions in the room, each of which should receive the message once
+     */
+    public void sent(int subscribers) {
+        sent.increment();
+        expected.add(subscribers);
+    }
+
+    public void delivered(String content, long receivedNanos) {
+        LatencyStamp stamp = LatencyStamp.parse(content);
+        if (stamp == null || stamp.run() != run) {
+            outcome("unrecognised message");
+            return;
+        }
+        delivered.increment();
+        if (stamp.intendedNanos() >= measureFromNanos) {
+            corrected.recordValue(toMicros(receivedNanos - stamp.intendedNanos()));
+            uncorrected.recordValue(toMicros(receivedNanos - stamp.sentNanos()));
+        }
+    }
+
+    public void outcome(String outcome) {
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    public Histogram corrected() {
+        return corrected;
+    }
+
+    public Histogram uncorrected() {
+        return uncorrected;
+    }
+
+    public Histogram connect() {
+        return connect;
+    }
+
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long expected() {
+        return expected.sum();
+    }
+
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    public Map<String, LongAdder> outcomes() {
+        return outcomes;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)), HIGHEST_TRACKABLE_MICROS);
+    }
+}
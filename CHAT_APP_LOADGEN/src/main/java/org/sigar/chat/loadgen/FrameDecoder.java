@@ -0,0 +1,43 @@
+package org.sigar.chat.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.util.MimeType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pulls the chat message contents out of a room frame in any of the forms the chat service sends:
+ * a JSON message, a coalesced JSON array of {"id", "seq", "message"} (batch header set), or the CBOR
+ * equivalents a session gets after CONNECT with chat-encoding: cbor, where each message is an array
+ * ending in its content.
+ */
+public class FrameDecoder {
+    static final String BATCH_HEADER = "batch";
+    static final MimeType CBOR = new MimeType("application", "cbor");
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+    public List<String> contents(StompHeaders headers, byte[] body) throws IOException {
+        boolean compact = headers.getContentType() != null && CBOR.equalsTypeAndSubtype(headers.getContentType());
+        JsonNode root = (compact ? cbor : json).readTree(body);
+        if (headers.getFirst(BATCH_HEADER) == null) {
+            return List.of(content(root, compact));
+        }
+        List<String> contents = new ArrayList<>(root.size());
+        for (JsonNode entry : root) {
+            contents.add(content(compact ? entry : entry.path("message"), compact));
+        }
+        return contents;
+    }
+
+    private static String content(JsonNode message, boolean compact) {
+        JsonNode content = compact ? message.get(message.size() - 1) : message.get("content");
+        return content == null || content.isNull() ? null : content.asText();
+    }
+}
@@ -0,0 +1,49 @@
+package org.sigar.chat.loadgen;
+
+/**
+ * Send times carried at the start of a message's content as "lg:run:intended:sent:", followed by
+ * padding up to the message size. Both times are System.nanoTime of this process, which can be
+ * compared with the receive time because the same process holds the receiving sessions.
+ * run tells this run's messages apart from anything else that reaches the rooms.
+ */
+public record LatencyStamp(long run, long intendedNanos, long sentNanos) {
+    public static final String PREFIX = "lg:";
+    /** Longest a stamp can be: the prefix, three longs and their separators */
+    public static final int MAX_LENGTH = PREFIX.length() + 3 * 20 + 3;
+
+    private static final String PADDING = "the quick brown fox jumps over the lazy dog while the standup runs long ";
+
+    /**
+     * The stamp padded with text to exactly length characters.
+     */
+    public String content(int length) {
+        StringBuilder content = new StringBuilder(length)
+                .append(PREFIX).append(run).append(':').append(intendedNanos).append(':').append(sentNanos).append(':');
+        while (content.length() < length) {
+            content.append(PADDING, 0, Math.min(PADDING.length(), length - content.length()));
+        }
+        return content.toString();
+    }
+
+    /**
+     * @return the stamp at the start of content, or null if content does not start with one
+     */
+    public static LatencyStamp parse(String content) {
+        if (content == null || !content.startsWith(PREFIX)) {
+            return null;
+        }
+        int runEnd = content.indexOf(':', PREFIX.length());
+        int intendedEnd = runEnd < 0 ? -1 : content.indexOf(':', runEnd + 1);
+        int sentEnd = intendedEnd < 0 ? -1 : content.indexOf(':', intendedEnd + 1);
+        if (sentEnd < 0) {
+            return null;
+        }
+        try {
+            return new LatencyStamp(Long.parseLong(content, PREFIX.length(), runEnd, 10),
+                    Long.parseLong(content, runEnd + 1, intendedEnd, 10),
+                    Long.parseLong(content, intendedEnd + 1, sentEnd, 10));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.sigar.chat.loadgen;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line options, all given as --name value.
+ */
+@Getter
+public class LoadOptions {
+    private List<String> targets = List.of("http://localhost:8080");
+    private String channel = "unknown";
+    private Transport transport = Transport.WEBSOCKET;
+    private Encoding encoding = Encoding.JSON;
+    private int sessions = 1_000;
+    private int rooms = 100;
+    private RoomDistribution roomDistribution = RoomDistribution.ZIPF;
+    private double zipfTheta = 0.99;
+    private int roomsPerSession = 1;
+    private double rate = 500;
+    private Duration duration = Duration.ofSeconds(60);
+    private Duration warmup = Duration.ofSeconds(5);
+    private Duration drain = Duration.ofSeconds(10);
+    private int messageSize = 120;
+    private int connectConcurrency = 64;
+    private long seed = 42;
+    private Path reportDir = Path.of("target", "loadgen");
+
+    public static final String USAGE = """
+            Usage: java -jar CHAT_APP_LOADGEN.jar [options]
+              --targets URL[,URL...]        chat nodes; sessions are spread over them in turn (default http://localhost:8080)
+              --channel NAME                chat.communication.channel the nodes run, for the report (default unknown)
+              --transport websocket|sockjs  plain WebSocket at /chat/websocket or SockJS at /chat (default websocket)
+              --encoding json|cbor          room frame encoding to ask for on CONNECT; cbor needs websocket (default json)
+              --sessions N                  STOMP sessions to open (default 1000)
+              --rooms N                     rooms the sessions are spread over (default 100)
+              --room-distribution uniform|zipf
+                                            how sessions pick rooms; zipf makes a few large rooms (default zipf)
+              --zipf-theta T                room popularity skew, 0 < T < 1 (default 0.99)
+              --rooms-per-session N         rooms each session joins (default 1)
+              --rate N                      chat messages sent per second over all sessions (default 500)
+              --duration SECONDS            length of the send phase (default 60)
+              --warmup SECONDS              leading part of the send phase left out of the latencies (default 5)
+              --drain SECONDS               how long to wait for outstanding deliveries afterwards (default 10)
+              --message-size BYTES          length of each message's content (default 120)
+              --connect-concurrency N       sessions connecting at once (default 64)
+              --seed N                      random seed (default 42)
+              --report-dir DIR              where the report and .hgrm files go (default target/loadgen)
+            """;
+
+    public enum Transport {
+        WEBSOCKET, SOCKJS
+    }
+
+    public enum Encoding {
+        JSON, CBOR
+    }
+
+    public enum RoomDistribution {
+        UNIFORM, ZIPF
+    }
+
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (name.equals("--help") || name.equals("-h")) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name + "\n" + USAGE);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--targets" -> options.targets = Arrays.stream(value.split(","))
+                        .map(String::trim)
+                        .filter(target -> !target.isEmpty())
+                        .map(target -> target.endsWith("/") ? target.substring(0, target.length() - 1) : target)
+                        .toList();
+                case "--channel" -> options.channel = value;
+                case "--transport" -> options.transport = Transport.valueOf(value.toUpperCase());
+                case "--encoding" -> options.encoding = Encoding.valueOf(value.toUpperCase());
+                case "--sessions" -> options.sessions = Integer.parseInt(value);
+                case "--rooms" -> options.rooms = Integer.parseInt(value);
+                case "--room-distribution" -> options.roomDistribution = RoomDistribution.valueOf(value.toUpperCase());
+                case "--zipf-theta" -> options.zipfTheta = Double.parseDouble(value);
+                case "--rooms-per-session" -> options.roomsPerSession = Integer.parseInt(value);
+                case "--rate" -> options.rate = Double.parseDouble(value);
+                case "--duration" -> options.duration = Duration.ofSeconds(Long.parseLong(value));
+                case "--warmup" -> options.warmup = Duration.ofSeconds(Long.parseLong(value));
+                case "--drain" -> options.drain = Duration.ofSeconds(Long.parseLong(value));
+                case "--message-size" -> options.messageSize = Integer.parseInt(value);
+                case "--connect-concurrency" -> options.connectConcurrency = Integer.parseInt(value);
+                case "--seed" -> options.seed = Long.parseLong(value);
+                case "--report-dir" -> options.reportDir = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option " + name + "\n" + USAGE);
+            }
+        }
+        if (options.targets.isEmpty()) {
+            throw new IllegalArgumentException("--targets needs at least one URL");
+        }
+        if (options.rate <= 0) {
+            throw new IllegalArgumentException("--rate must be positive");
+        }
+        if (options.sessions < 1 || options.rooms < 1) {
+            throw new IllegalArgumentException("--sessions and --rooms must be positive");
+        }
+        if (options.roomsPerSession < 1 || options.roomsPerSession > options.rooms) {
+            throw new IllegalArgumentException("--rooms-per-session must be between 1 and --rooms");
+        }
+        if (options.encoding == Encoding.CBOR && options.transport == Transport.SOCKJS) {
+            throw new IllegalArgumentException("--encoding cbor needs --transport websocket; SockJS sessions always get JSON");
+        }
+        if (options.messageSize < LatencyStamp.MAX_LENGTH) {
+            throw new IllegalArgumentException("--message-size must be at least " + LatencyStamp.MAX_LENGTH);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,90 @@
+package org.sigar.chat.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes report.txt plus one .hgrm percentile distribution per measurement,
+ * which can be plotted with the HdrHistogram plotter.
+ */
+public class LoadReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LoadOptions options;
+    private final RoomLayout layout;
+    private final DeliveryRecorder recorder;
+    private final int connected;
+    private final Duration elapsed;
+
+    public LoadReport(LoadOptions options, RoomLayout layout, DeliveryRecorder recorder, int connected, Duration elapsed) {
+        this.options = options;
+        this.layout = layout;
+        this.recorder = recorder;
+        this.connected = connected;
+        this.elapsed = elapsed;
+    }
+
+    public Path write() throws IOException {
+        Files.createDirectories(options.getReportDir());
+        Path report = options.getReportDir().resolve("report.txt");
+        try (PrintStream out = new PrintStream(Files.newOutputStream(report))) {
+            print(out);
+        }
+        writeDistribution("delivery-corrected.hgrm", recorder.corrected());
+        writeDistribution("delivery-uncorrected.hgrm", recorder.uncorrected());
+        writeDistribution("connect.hgrm", recorder.connect());
+        return report;
+    }
+
+    public void print(PrintStream out) {
+        double seconds = elapsed.toNanos() / 1e9;
+        int[] sizes = layout.sizesDescending();
+        out.printf("Chat load report%n");
+        out.printf("targets %s, channel %s, transport %s, encoding %s%n", String.join(",", options.getTargets()),
+                options.getChannel(), options.getTransport().name().toLowerCase(), options.getEncoding().name().toLowerCase());
+        out.printf("%d of %d sessions connected, %d rooms (%s, %d per session), largest %d, median %d, smallest %d%n",
+                connected, options.getSessions(), options.getRooms(), options.getRoomDistribution().name().toLowerCase(),
+                options.getRoomsPerSession(), sizes[0], sizes[sizes.length / 2], sizes[sizes.length - 1]);
+        out.printf("sent %d messages of %d bytes in %.1f s (%.1f msg/s achieved, %.0f targeted)%n",
+                recorder.sent(), options.getMessageSize(), seconds, recorder.sent() / seconds, options.getRate());
+        long expected = recorder.expected();
+        out.printf("delivered %d of %d expected (%.2f%%), %.1f deliveries/s%n%n", recorder.delivered(), expected,
+                expected > 0 ? 100.0 * recorder.delivered() / expected : 0, recorder.delivered() / seconds);
+
+        out.printf("%-11s %9s %9s %9s %9s %9s %9s %9s%n",
+                "latency", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "p99.99 ms", "max ms");
+        printRow(out, "corrected", recorder.corrected());
+        printRow(out, "service", recorder.uncorrected());
+        printRow(out, "connect", recorder.connect());
+
+        out.printf("%noutcomes%n");
+        Map<String, LongAdder> sorted = new TreeMap<>(recorder.outcomes());
+        if (sorted.isEmpty()) {
+            out.printf("  none%n");
+        }
+        sorted.forEach((outcome, count) -> out.printf("  %-40s %d%n", outcome, count.sum()));
+    }
+
+    private void printRow(PrintStream out, String kind, Histogram histogram) {
+        out.printf("%-11s %9d", kind, histogram.getTotalCount());
+        for (double percentile : PERCENTILES) {
+            out.printf(" %9.2f", histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI);
+        }
+        out.printf(" %9.2f%n", histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    private void writeDistribution(String fileName, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(options.getReportDir().resolve(fileName)))) {
+            histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+        }
+    }
+}
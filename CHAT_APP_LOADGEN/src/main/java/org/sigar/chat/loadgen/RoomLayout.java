@@ -0,0 +1,82 @@
+package org.sigar.chat.loadgen;
+
+import org.sigar.loadgen.ZipfianGenerator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Which rooms each session joins. With the zipf distribution room 0 is the most popular, so a run gets
+ * a handful of large rooms and a long tail of small ones, as real chat deployments do; uniform gives
+ * rooms of roughly equal size.
+ */
+public class RoomLayout {
+    private static final int MAX_DRAWS_PER_ROOM = 100;
+
+    private final int[][] roomsOfSession;
+    private final int[] sizes;
+
+    public RoomLayout(LoadOptions options, Random random) {
+        ZipfianGenerator popularity = options.getRoomDistribution() == LoadOptions.RoomDistribution.ZIPF
+                ? new ZipfianGenerator(options.getRooms(), options.getZipfTheta(), random)
+                : null;
+        roomsOfSession = new int[options.getSessions()][];
+        sizes = new int[options.getRooms()];
+        for (int session = 0; session < roomsOfSession.length; session++) {
+            int[] joined = new int[options.getRoomsPerSession()];
+            for (int i = 0; i < joined.length; i++) {
+                int room;
+                int draws = 0;
+                do {
+                    room = popularity != null ? (int) popularity.next() : random.nextInt(options.getRooms());
+                    // A heavy skew can keep drawing rooms the session already has; fall back to any free one
+                    if (++draws > MAX_DRAWS_PER_ROOM) {
+                        room = random.nextInt(options.getRooms());
+                    }
+                } while (contains(joined, i, room));
+                joined[i] = room;
+                sizes[room]++;
+            }
+            roomsOfSession[session] = joined;
+        }
+    }
+
+    public int sessions() {
+        return roomsOfSession.length;
+    }
+
+    public int[] roomsOf(int session) {
+        return roomsOfSession[session];
+    }
+
+    public int size(int room) {
+        return sizes[room];
+    }
+
+    public static String roomName(int room) {
+        return "lg-" + room;
+    }
+
+    /**
+     * Room sizes largest first, for the report.
+     */
+    public int[] sizesDescending() {
+        int[] sorted = sizes.clone();
+        Arrays.sort(sorted);
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            int swap = sorted[i];
+            sorted[i] = sorted[j];
+            sorted[j] = swap;
+        }
+        return sorted;
+    }
+
+    private static boolean contains(int[] rooms, int count, int room) {
+        for (int i = 0; i < count; i++) {
+            if (rooms[i] == room) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+package org.sigar.chat.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameDecoderTest {
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+    @Test
+    void stampSurvivesTheRoundTripThroughAMessage() throws Exception {
+        LatencyStamp stamp = new LatencyStamp(1700000000000L, 123456789L, 123456999L);
+        String content = stamp.content(120);
+        assertEquals(120, content.length());
+
+        StompHeaders headers = new StompHeaders();
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        List<String> contents = decoder.contents(headers,
+                ("{\"sender\":\"lg-1\",\"content\":\"" + content + "\"}").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of(content), contents);
+        assertEquals(stamp, LatencyStamp.parse(contents.get(0)));
+        assertNull(LatencyStamp.parse("hello from a browser"));
+    }
+
+    @Test
+    void readsEveryMessageOfACoalescedJsonFrame() throws Exception {
+        StompHeaders headers = new StompHeaders();
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        headers.add(FrameDecoder.BATCH_HEADER, "2");
+        byte[] body = ("[{\"id\":\"1-0\",\"seq\":1,\"message\":{\"sender\":\"a\",\"content\":\"one\"}},"
+                + "{\"id\":\"2-0\",\"seq\":2,\"message\":{\"sender\":\"b\",\"content\":\"two\"}}]").getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(List.of("one", "two"), decoder.contents(headers, body));
+    }
+
+    @Test
+    void readsCompactFramesWhetherOrNotTheSenderIsDefined() throws Exception {
+        StompHeaders headers = new StompHeaders();
+        headers.setContentType(FrameDecoder.CBOR);
+        assertEquals(List.of("first"), decoder.contents(headers, cbor.writeValueAsBytes(List.of(0, "alice", "first"))));
+        assertEquals(List.of("again"), decoder.contents(headers, cbor.writeValueAsBytes(List.of(0, "again"))));
+
+        headers.add(FrameDecoder.BATCH_HEADER, "2");
+        byte[] batch = cbor.writeValueAsBytes(List.of(List.of("1-0", 1, 1, "bob", "one"), List.of("2-0", 2, 1, "two")));
+        assertEquals(List.of("one", "two"), decoder.contents(headers, batch));
+    }
+}
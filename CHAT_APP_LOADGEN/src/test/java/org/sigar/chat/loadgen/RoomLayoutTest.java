@@ -0,0 +1,40 @@
+package org.sigar.chat.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomLayoutTest {
+
+    @Test
+    void zipfLayoutGivesAFewLargeRoomsAndDistinctRoomsPerSession() {
+        LoadOptions options = LoadOptions.parse(new String[] {"--sessions", "5000", "--rooms", "200", "--rooms-per-session", "3"});
+        RoomLayout layout = new RoomLayout(options, new Random(7));
+
+        for (int session = 0; session < layout.sessions(); session++) {
+            int[] rooms = layout.roomsOf(session);
+            assertEquals(3, Arrays.stream(rooms).distinct().count(), "rooms repeated for session " + session);
+        }
+        int[] sizes = layout.sizesDescending();
+        assertEquals(15_000, Arrays.stream(sizes).sum());
+        assertTrue(sizes[0] > 10 * sizes[sizes.length / 2], "largest room should dwarf the median: " + Arrays.toString(sizes));
+    }
+
+    @Test
+    void uniformLayoutKeepsRoomsCloseInSize() {
+        LoadOptions options = LoadOptions.parse(new String[] {"--sessions", "10000", "--rooms", "10", "--room-distribution", "uniform"});
+        RoomLayout layout = new RoomLayout(options, new Random(7));
+
+        int[] sizes = layout.sizesDescending();
+        assertTrue(sizes[0] < 1.2 * sizes[sizes.length - 1], "rooms too uneven: " + Arrays.toString(sizes));
+    }
+
+    @Test
+    void rejectsCompactEncodingOverSockJs() {
+        assertThrows(IllegalArgumentException.class,
+                () -> LoadOptions.parse(new String[] {"--transport", "sockjs", "--encoding", "cbor"}));
+    }
+}
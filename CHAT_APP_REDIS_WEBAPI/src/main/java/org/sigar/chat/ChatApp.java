@@ -6,6 +6,6 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class ChatApp {
     public static void main(String[] args) {
-        SpringApplication.run(ChatApp.class);
+        SpringApplication.run(ChatApp.class, args);
     }
 }
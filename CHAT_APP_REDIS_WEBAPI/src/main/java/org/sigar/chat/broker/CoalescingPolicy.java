@@ -0,0 +1,70 @@
+package org.sigar.chat.broker;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which rooms ShardedRoomBroker may coalesce, and within what window. Off unless
+ * chat.broker.coalesce.enabled=true; then every room gets chat.broker.coalesce.window-ms (min-max in
+ * milliseconds), and chat.broker.coalesce.rooms overrides it per room, e.g. lobby=10-50,alerts=0
+ * where 0 turns coalescing off for that room.
+ */
+@Component
+public class CoalescingPolicy {
+    private final Window defaultWindow;
+    private final Map<String, Window> roomWindows = new HashMap<>();
+
+    public CoalescingPolicy(@Value("${chat.broker.coalesce.enabled:false}") boolean enabled,
+                            @Value("${chat.broker.coalesce.window-ms:5-20}") String window,
+                            @Value("${chat.broker.coalesce.rooms:}") String[] rooms) {
+        this.defaultWindow = enabled ? parse(window) : null;
+        if (!enabled) {
+            return;
+        }
+        for (String room : rooms) {
+            if (room.isBlank()) {
+                continue;
+            }
+            int separator = room.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("chat.broker.coalesce.rooms entries look like room=min-max, got " + room);
+            }
+            roomWindows.put(room.substring(0, separator).trim(), parse(room.substring(separator + 1).trim()));
+        }
+    }
+
+    public static CoalescingPolicy disabled() {
+        return new CoalescingPolicy(false, "0", new String[0]);
+    }
+
+    /**
+     * @return the window for a room destination, or null if its messages go out one frame each
+     */
+    Window windowFor(String destination) {
+        if (defaultWindow == null) {
+            return null;
+        }
+        String room = destination.substring(ShardedRoomBroker.ROOM_DESTINATION_PREFIX.length());
+        return roomWindows.getOrDefault(room, defaultWindow);
+    }
+
+    private static Window parse(String window) {
+        int separator = window.indexOf('-');
+        long min = Long.parseLong((separator < 0 ? window : window.substring(0, separator)).trim());
+        long max = separator < 0 ? min : Long.parseLong(window.substring(separator + 1).trim());
+        if (max == 0) {
+            return null;
+        }
+        if (min <= 0 || min > max) {
+            throw new IllegalArgumentException("Coalescing window must be min-max milliseconds with 0 < min <= max, got " + window);
+        }
+        return new Window(TimeUnit.MILLISECONDS.toNanos(min), TimeUnit.MILLISECONDS.toNanos(max));
+    }
+
+    record Window(long minNanos, long maxNanos) {
+    }
+}
@@ -0,0 +1,77 @@
+package org.sigar.chat.broker;
+
+import org.springframework.messaging.MessageHeaders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages held back for one room while its coalescing window is open, and the room's recent rate.
+ * Only touched from the room's dispatcher thread.
+ *
+ * The window adapts to the rate: a room that would not see two messages within the longest window is
+ * not coalesced at all, so quiet rooms pay no latency. Busier rooms wait roughly long enough to collect
+ * TARGET_BATCH messages, within the room's min and max.
+ */
+final class RoomBatch {
+    static final int MAX_MESSAGES = 256;
+    static final int MAX_BYTES = 64 * 1024;
+    private static final int TARGET_BATCH = 8;
+    // Weight of the latest gap in the moving average of gaps between messages
+    private static final double ALPHA = 0.2;
+
+    private final CoalescingPolicy.Window window;
+    private final List<MessageHeaders> headers = new ArrayList<>();
+    private final List<byte[]> payloads = new ArrayList<>();
+    private int bytes;
+    private long lastArrival;
+    private double averageGapNanos = Double.MAX_VALUE;
+
+    RoomBatch(CoalescingPolicy.Window window) {
+        this.window = window;
+    }
+
+    /**
+     * Records a message arriving and returns how long to hold it back, or 0 to send it straight away.
+     * Only meaningful while nothing is pending; otherwise the message joins the open batch.
+     */
+    long arrived(long now) {
+        if (lastArrival != 0) {
+            double gap = now - lastArrival;
+            averageGapNanos = averageGapNanos == Double.MAX_VALUE ? gap : averageGapNanos + ALPHA * (gap - averageGapNanos);
+        }
+        lastArrival = now;
+        if (averageGapNanos * 2 > window.maxNanos()) {
+            return 0;
+        }
+        return (long) Math.max(window.minNanos(), Math.min(window.maxNanos(), averageGapNanos * TARGET_BATCH));
+    }
+
+    boolean isEmpty() {
+        return payloads.isEmpty();
+    }
+
+    /**
+     * @return true once the batch is as large as a frame should get
+     */
+    boolean add(MessageHeaders messageHeaders, byte[] payload) {
+        headers.add(messageHeaders);
+        payloads.add(payload);
+        bytes += payload.length;
+        return payloads.size() >= MAX_MESSAGES || bytes >= MAX_BYTES;
+    }
+
+    List<MessageHeaders> headers() {
+        return headers;
+    }
+
+    List<byte[]> payloads() {
+        return payloads;
+    }
+
+    void clear() {
+        headers.clear();
+        payloads.clear();
+        bytes = 0;
+    }
+}
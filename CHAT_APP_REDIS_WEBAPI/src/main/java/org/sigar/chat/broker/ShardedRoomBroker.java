@@ -0,0 +1,417 @@
+package org.sigar.chat.broker;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.pipeline.ChatMetrics;
+import org.sigar.chat.pipeline.PipelineStage;
+import org.sigar.chat.pipeline.Serialization;
+import org.sigar.chat.pipeline.StageExecutors;
+import org.sigar.chat.pipeline.StageMeter;
+import org.sigar.chat.websocket.CompactEncodingNegotiator;
+import org.sigar.chat.websocket.CompactMessageEncoder;
+import org.sigar.chat.websocket.LocalSessionRegistry;
+import org.sigar.chat.websocket.SenderDictionary;
+import org.sigar.chat.websocket.SlowConsumerSessionDecorator;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process broker for chat room destinations (/topic/messages/{room}).
+ *
+ * Subscriptions are indexed by exact destination. Each room is pinned to one of a fixed set of dispatcher
+ * threads by hash, so a room's messages are fanned out one at a time and reach every session in order.
+ * A message is encoded into a STOMP frame once per distinct subscription id (normally just once, since
+ * clients number their subscriptions the same way) and that frame is queued on every subscriber's
+ * session; the socket writes happen on the client outbound pool.
+ *
+ * With coalescing on (see {@link CoalescingPolicy}) a busy room's messages are held for a few
+ * milliseconds and go out as one frame with a batch header, whose body is a JSON array of
+ * {"id": history id, "seq": room sequence, "message": chat message} like the history endpoint returns.
+ *
+ * Sessions that negotiated CBOR get binary frames instead, written per session because each one interns
+ * senders into its own dictionary (see {@link CompactMessageEncoder}). The JSON is parsed once per message
+ * for all of them. Binary frames are never dropped for a slow consumer, since a dropped frame could be
+ * the one defining a sender; such sessions are bounded by the send time limit alone.
+ *
+ * CONNECT, heartbeats and /queue destinations are still handled by the simple broker.
+ */
+@Component
+public class ShardedRoomBroker extends AbstractBrokerMessageHandler {
+    public static final String ROOM_DESTINATION_PREFIX = "/topic/messages/";
+    /** STOMP header on coalesced frames, carrying the number of messages in the array */
+    public static final String BATCH_HEADER = "batch";
+
+    private static final byte[] ID_PREFIX = "{\"id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEQUENCE_PREFIX = "\",\"seq\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_PREFIX = ",\"message\":".getBytes(StandardCharsets.UTF_8);
+
+    private final LocalSessionRegistry sessions;
+    private final Executor writer;
+    private final int shardCount;
+    private final CoalescingPolicy coalescing;
+    private final StageExecutors executors;
+    private final StageMeter meter;
+    private final ChatMetrics metrics;
+    private final StompEncoder encoder = new StompEncoder();
+    private final CompactMessageEncoder compactEncoder;
+    private final AtomicLong messageIds = new AtomicLong();
+    private final ConcurrentMap<String, Set<Subscriber>> rooms = new ConcurrentHashMap<>();
+    // sessionId -> subscriptionId -> destination, since UNSUBSCRIBE carries no destination and DISCONNECT drops them all
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> sessionSubscriptions = new ConcurrentHashMap<>();
+    // Each room's batch is only touched from the room's dispatcher thread
+    private final ConcurrentMap<String, RoomBatch> batches = new ConcurrentHashMap<>();
+    private volatile ScheduledThreadPoolExecutor[] shards;
+
+    public ShardedRoomBroker(@Qualifier("clientInboundChannel") SubscribableChannel clientInboundChannel,
+                             @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                             @Qualifier("brokerChannel") SubscribableChannel brokerChannel,
+                             @Qualifier("clientOutboundChannelExecutor") Executor writer,
+                             LocalSessionRegistry sessions,
+                             CoalescingPolicy coalescing,
+                             StageExecutors executors,
+                             ChatMetrics metrics,
+                             CompactMessageEncoder compactEncoder,
+                             @Value("${chat.broker.shards:4}") int shardCount) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, List.of(ROOM_DESTINATION_PREFIX));
+        this.sessions = sessions;
+        this.writer = writer;
+        this.shardCount = shardCount;
+        this.coalescing = coalescing;
+        this.executors = executors;
+        this.meter = executors.meter(PipelineStage.DISPATCH);
+        this.metrics = metrics;
+        this.compactEncoder = compactEncoder;
+        executors.queueDepth(PipelineStage.DISPATCH, this::queued);
+    }
+
+    @Override
+    protected void startInternal() {
+        ScheduledThreadPoolExecutor[] started = new ScheduledThreadPoolExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            // Scheduled only for closing coalescing windows; immediate tasks still run in submission order
+            started[i] = new ScheduledThreadPoolExecutor(1, executors.threadFactory("room-dispatch-" + i));
+        }
+        shards = started;
+        publishBrokerAvailableEvent();
+    }
+
+    @Override
+    protected void stopInternal() {
+        publishBrokerUnavailableEvent();
+        for (ScheduledExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (SimpMessageType.DISCONNECT.equals(type)) {
+            disconnected(sessionId);
+            return;
+        }
+        if (SimpMessageType.UNSUBSCRIBE.equals(type)) {
+            unsubscribed(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+            return;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !checkDestinationPrefix(destination)) {
+            return;
+        }
+        if (SimpMessageType.SUBSCRIBE.equals(type)) {
+            subscribed(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers), destination);
+        } else if (SimpMessageType.MESSAGE.equals(type)) {
+            if (sessionId != null) {
+                // A client SEND straight to a room would skip validation and history; chat messages go through /app
+                logger.debug("Ignoring SEND to " + destination + " from session " + sessionId);
+                return;
+            }
+            ScheduledExecutorService shard = shardFor(destination);
+            shard.execute(meter.wrap(() -> publish(shard, destination, message)));
+        }
+    }
+
+    /**
+     * Local STOMP subscriptions to a room destination, once their SUBSCRIBE has been handled.
+     */
+    public int subscribers(String destination) {
+        Set<Subscriber> subscribers = rooms.get(destination);
+        return subscribers != null ? subscribers.size() : 0;
+    }
+
+    private int queued() {
+        ScheduledThreadPoolExecutor[] current = shards;
+        int queued = 0;
+        if (current != null) {
+            for (ScheduledThreadPoolExecutor shard : current) {
+                queued += shard.getQueue().size();
+            }
+        }
+        return queued;
+    }
+
+    private ScheduledExecutorService shardFor(String destination) {
+        ScheduledExecutorService[] current = shards;
+        return current[Math.floorMod(destination.hashCode(), current.length)];
+    }
+
+    private void subscribed(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        Subscriber subscriber = new Subscriber(sessionId, subscriptionId);
+        String previous = sessionSubscriptions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        if (previous != null) {
+            // Subscription id reused without an UNSUBSCRIBE; treat it as a replacement
+            removeSubscriber(previous, subscriber);
+        }
+        rooms.compute(destination, (room, subscribers) -> {
+            Set<Subscriber> updated = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            updated.add(subscriber);
+            return updated;
+        });
+    }
+
+    private void unsubscribed(String sessionId, String subscriptionId) {
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        Map<String, String> subscriptions = sessionSubscriptions.get(sessionId);
+        String destination = subscriptions != null ? subscriptions.remove(subscriptionId) : null;
+        if (destination != null) {
+            removeSubscriber(destination, new Subscriber(sessionId, subscriptionId));
+        }
+    }
+
+    private void disconnected(String sessionId) {
+        Map<String, String> subscriptions = sessionId != null ? sessionSubscriptions.remove(sessionId) : null;
+        if (subscriptions != null) {
+            subscriptions.forEach((subscriptionId, destination) -> removeSubscriber(destination, new Subscriber(sessionId, subscriptionId)));
+        }
+    }
+
+    private void removeSubscriber(String destination, Subscriber subscriber) {
+        rooms.computeIfPresent(destination, (room, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private void publish(ScheduledExecutorService shard, String destination, Message<?> message) {
+        if (!(message.getPayload() instanceof byte[] payload)) {
+            logger.error("Expected a byte[] payload for " + destination + " but got " + message.getPayload().getClass().getName());
+            return;
+        }
+        CoalescingPolicy.Window window = coalescing.windowFor(destination);
+        if (window == null) {
+            dispatched(message.getHeaders(), dispatch(destination, message.getHeaders(), payload));
+            return;
+        }
+        RoomBatch batch = batches.computeIfAbsent(destination, room -> new RoomBatch(window));
+        long holdNanos = batch.arrived(System.nanoTime());
+        if (batch.isEmpty()) {
+            if (holdNanos == 0) {
+                dispatched(message.getHeaders(), dispatch(destination, message.getHeaders(), payload));
+                return;
+            }
+            shard.schedule(() -> flush(destination, batch), holdNanos, TimeUnit.NANOSECONDS);
+        }
+        if (batch.add(message.getHeaders(), payload)) {
+            // Full before the window closed; the scheduled flush will find it empty or holding a newer batch
+            flush(destination, batch);
+        }
+    }
+
+    private void flush(String destination, RoomBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<byte[]> payloads = batch.payloads();
+        boolean delivered;
+        if (payloads.size() == 1) {
+            delivered = dispatch(destination, batch.headers().get(0), payloads.get(0));
+        } else {
+            delivered = dispatch(destination, batchHeaders(batch.headers()), batchPayload(batch.headers(), payloads));
+        }
+        for (MessageHeaders headers : batch.headers()) {
+            dispatched(headers, delivered);
+        }
+        batch.clear();
+    }
+
+    // Counted per message rather than per frame, so coalescing does not change what the metrics say
+    private void dispatched(MessageHeaders headers, boolean delivered) {
+        if (delivered) {
+            metrics.delivered(ChatMetrics.Transport.WEBSOCKET, ChatMessageBroadcaster.ingressMicros(headers));
+        }
+    }
+
+    // False if the room has no STOMP subscribers here, e.g. when only HTTP clients are waiting on it
+    private boolean dispatch(String destination, MessageHeaders headers, byte[] payload) {
+        Set<Subscriber> subscribers = rooms.get(destination);
+        if (subscribers == null) {
+            // Nobody left to coalesce for; dropped here, on the room's own thread, so no batch is in use
+            batches.remove(destination);
+            return false;
+        }
+        String messageId = Long.toString(messageIds.incrementAndGet());
+        Map<String, TextMessage> frames = new HashMap<>(4);
+        CompactPayload compact = null;
+        for (Subscriber subscriber : subscribers) {
+            SlowConsumerSessionDecorator session = sessions.get(subscriber.sessionId());
+            if (session == null) {
+                // Session closed before its DISCONNECT (or raced past it) reached us
+                removeSubscriber(destination, subscriber);
+                continue;
+            }
+            SenderDictionary dictionary = CompactEncodingNegotiator.dictionaryOf(session);
+            if (dictionary != null) {
+                if (compact == null) {
+                    compact = parseCompact(headers, payload);
+                }
+                if (compact.entries() != null) {
+                    dispatchCompact(session, dictionary, compact, destination, subscriber.subscriptionId(), messageId, headers);
+                    continue;
+                }
+            }
+            TextMessage frame = frames.computeIfAbsent(subscriber.subscriptionId(), subscriptionId -> {
+                long encodeStart = System.nanoTime();
+                TextMessage encoded = new TextMessage(encode(destination, subscriptionId, messageId, headers, payload, null));
+                metrics.serialized(Serialization.STOMP_FRAME, encodeStart);
+                return encoded;
+            });
+            try {
+                session.sendMessageAsync(frame, writer);
+            } catch (RuntimeException e) {
+                logger.debug("Failed to queue a frame for session " + subscriber.sessionId(), e);
+            }
+        }
+        return true;
+    }
+
+    private CompactPayload parseCompact(MessageHeaders headers, byte[] payload) {
+        boolean batch = nativeHeader(headers, BATCH_HEADER, null) != null;
+        try {
+            return new CompactPayload(compactEncoder.parse(payload, batch), batch);
+        } catch (IOException e) {
+            // Validated at ingress, so not expected; such a message still reaches these sessions as JSON
+            logger.error("Cannot convert a room message to CBOR", e);
+            return new CompactPayload(null, batch);
+        }
+    }
+
+    private void dispatchCompact(SlowConsumerSessionDecorator session, SenderDictionary dictionary, CompactPayload compact,
+                                 String destination, String subscriptionId, String messageId, MessageHeaders headers) {
+        // Held until the frame is queued, so a sender is defined before any other room's frame uses its index
+        synchronized (dictionary) {
+            try {
+                long encodeStart = System.nanoTime();
+                byte[] body = compactEncoder.encode(compact.entries(), compact.batch(), dictionary);
+                BinaryMessage frame = new BinaryMessage(encode(destination, subscriptionId, messageId, headers, body,
+                        CompactMessageEncoder.CONTENT_TYPE));
+                metrics.serialized(Serialization.CBOR_FRAME, encodeStart);
+                session.sendMessageAsync(frame, writer);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to queue a frame for session " + session.getId(), e);
+            }
+        }
+    }
+
+    // contentType overrides the message's own when the body was re-encoded
+    @SuppressWarnings("unchecked")
+    private byte[] encode(String destination, String subscriptionId, String messageId, MessageHeaders headers, byte[] payload,
+                          MimeType contentType) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        Map<String, List<String>> nativeHeaders = (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        if (nativeHeaders != null) {
+            nativeHeaders.forEach((name, values) -> values.forEach(value -> accessor.addNativeHeader(name, value)));
+        }
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setMessageId(messageId);
+        Object messageContentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (contentType != null) {
+            accessor.setContentType(contentType);
+        } else if (messageContentType != null) {
+            accessor.setContentType(messageContentType instanceof MimeType mimeType ? mimeType : MimeType.valueOf(messageContentType.toString()));
+        }
+        return encoder.encode(accessor.getMessageHeaders(), payload);
+    }
+
+    // The newest message's headers, so the frame's history-id is the last one in the array
+    private static MessageHeaders batchHeaders(List<MessageHeaders> headers) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.copyHeaders(headers.get(headers.size() - 1));
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader(BATCH_HEADER, Integer.toString(headers.size()));
+        return accessor.getMessageHeaders();
+    }
+
+    // Payloads were validated at ingress as exactly one message object (see ChatMessageCodec), so they are spliced into the array without parsing
+    private static byte[] batchPayload(List<MessageHeaders> headers, List<byte[]> payloads) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payloads.size() * 128);
+        out.write('[');
+        for (int i = 0; i < payloads.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.writeBytes(ID_PREFIX);
+            out.writeBytes(JsonStringEncoder.getInstance().quoteAsUTF8(nativeHeader(headers.get(i), ChatMessageBroadcaster.HISTORY_ID_HEADER, "")));
+            out.writeBytes(SEQUENCE_PREFIX);
+            // Digits only, so it goes in as a JSON number
+            out.writeBytes(Long.toString(Long.parseLong(nativeHeader(headers.get(i), ChatMessageBroadcaster.SEQUENCE_HEADER, "0"))).getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(MESSAGE_PREFIX);
+            out.writeBytes(payloads.get(i));
+            out.write('}');
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String nativeHeader(MessageHeaders headers, String name, String defaultValue) {
+        Map<String, List<String>> nativeHeaders = (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        List<String> values = nativeHeaders != null ? nativeHeaders.get(name) : null;
+        return values != null && !values.isEmpty() ? values.get(0) : defaultValue;
+    }
+
+    private record Subscriber(String sessionId, String subscriptionId) {
+    }
+
+    // entries is null when the payload could not be parsed
+    private record CompactPayload(List<CompactMessageEncoder.Entry> entries, boolean batch) {
+    }
+}
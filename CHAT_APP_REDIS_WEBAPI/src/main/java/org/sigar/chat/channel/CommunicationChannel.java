@@ -1,10 +1,34 @@
 package org.sigar.chat.channel;
 
 public interface    CommunicationChannel {
+    /**
+     * Destinations starting with this are node-to-node traffic such as presence updates rather than
+     * chat rooms: their payload is opaque to the channel, and ChatController refuses them as room names.
+     */
+    String CONTROL_PREFIX = "_";
+
     public void connect();
     public void disconnect();
-    public void sendMessage(String destination, String message);
+    /**
+     * @param message UTF-8 JSON payload, already validated at ingress; channels forward it without re-encoding
+     */
+    public void sendMessage(String destination, byte[] message);
     public void receiveMessage(String source, MessageHandler messageHandler);
+
+    /**
+     * Stops delivering messages for a source registered with receiveMessage.
+     * Channels that only deliver locally have nothing to release.
+     */
+    default void stopReceiving(String source) {
+    }
+
+    /**
+     * Whether messages sent here reach other nodes. The http and websocket channels hand messages
+     * straight to this node's clients, so there is no one to exchange node-to-node traffic with.
+     */
+    default boolean isDistributed() {
+        return false;
+    }
 }
 
 
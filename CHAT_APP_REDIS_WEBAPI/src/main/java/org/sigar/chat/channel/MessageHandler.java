@@ -2,5 +2,5 @@ package org.sigar.chat.channel;
 
 @FunctionalInterface
 public interface MessageHandler {
-    void handleMessage(String source, String message);
+    void handleMessage(String source, byte[] message);
 }
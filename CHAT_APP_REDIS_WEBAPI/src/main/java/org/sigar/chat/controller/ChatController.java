@@ -1,29 +1,104 @@
 package org.sigar.chat.controller;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.sigar.chat.channel.CommunicationChannel;
-import org.sigar.chat.model.ChatMessage;
+import org.sigar.chat.core.ChatEnvelope;
+import org.sigar.chat.core.ChatMessageCodec;
+import org.sigar.chat.history.ChatHistoryStore;
+import org.sigar.chat.history.HistoryEntry;
+import org.sigar.chat.history.HistoryPosition;
+import org.sigar.chat.pipeline.ChatMetrics;
+import org.sigar.chat.pipeline.EpochClock;
+import org.sigar.chat.pipeline.Serialization;
+import org.sigar.chat.presence.PresenceService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.stereotype.Controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 //@CrossOrigin(origins = "http://localhost:63342")
 @Controller
 public class ChatController {
+    static final int MAX_USER_LENGTH = 64;
+
     private final CommunicationChannel communicationChannel;
+    private final ChatMessageCodec codec;
+    private final ChatHistoryStore historyStore;
+    private final PresenceService presence;
+    private final ChatMetrics metrics;
+    private final int catchUpLimit;
 
 
-    public ChatController(CommunicationChannel communicationChannel) {
+    public ChatController(CommunicationChannel communicationChannel, ChatMessageCodec codec, ChatHistoryStore historyStore,
+                          PresenceService presence, ChatMetrics metrics,
+                          @Value("${chat.history.catch-up-limit:500}") int catchUpLimit) {
         this.communicationChannel = communicationChannel;
+        this.codec = codec;
+        this.historyStore = historyStore;
+        this.presence = presence;
+        this.metrics = metrics;
+        this.catchUpLimit = catchUpLimit;
     }
 
     @MessageMapping("/{chatId}/sendMessage")
-    public void sendMessage(@DestinationVariable String chatId, ChatMessage message) throws JsonProcessingException {
-        String serializedMessage = new ObjectMapper().writeValueAsString(message);
-        System.out.printf("Got chatId as %s\n",chatId);
-        communicationChannel.sendMessage(chatId, serializedMessage);
+    public void sendMessage(@DestinationVariable String chatId, @Payload byte[] message) throws IOException {
+        // Stamped before anything else, so end-to-end latency includes validation and the history append
+        long ingressMicros = EpochClock.micros();
+        checkRoom(chatId);
+        // Validate once here; from now on the original JSON bytes are forwarded untouched
+        long parseStart = System.nanoTime();
+        codec.read(message);
+        metrics.serialized(Serialization.INGRESS_PARSE, parseStart);
+        metrics.received();
+        // Stored first: the history id and room sequence number travel with the message
+        HistoryPosition position = historyStore.append(chatId, message);
+        communicationChannel.sendMessage(chatId, ChatEnvelope.wrap(position, message, ingressMicros));
+        metrics.published();
+    }
+
+    /**
+     * Keeps the user named in the user header online in the room; clients send one every ttl/3 or so
+     * (the page does every 10 seconds) for as long as they are in the room.
+     */
+    @MessageMapping("/{chatId}/heartbeat")
+    public void heartbeat(@DestinationVariable String chatId, @Header("user") String user,
+                          @Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId) {
+        checkRoom(chatId);
+        if (user.isBlank() || user.length() > MAX_USER_LENGTH) {
+            throw new IllegalArgumentException("user must be 1 to " + MAX_USER_LENGTH + " characters");
+        }
+        presence.heartbeat(chatId, user, sessionId);
+    }
+
+    /**
+     * Catch-up after a reconnect: SUBSCRIBE to /app/{chatId}/history with a last-seen-id header and the
+     * messages missed since then come back once, oldest first. Without the header the latest messages
+     * are returned. Subscribe to the live topic first so nothing falls between the two; duplicates can
+     * be dropped by history id.
+     */
+    @SubscribeMapping("/{chatId}/history")
+    public List<HistoryEntry> catchUp(@DestinationVariable String chatId,
+                                      @Header(name = "last-seen-id", required = false) String lastSeenId) {
+        if (lastSeenId != null) {
+            return historyStore.readAfter(chatId, lastSeenId, catchUpLimit);
+        }
+        List<HistoryEntry> latest = new ArrayList<>(historyStore.readBefore(chatId, null, catchUpLimit));
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    // Destinations with the control prefix carry node-to-node traffic such as presence on the channel
+    private static void checkRoom(String chatId) {
+        if (chatId.startsWith(CommunicationChannel.CONTROL_PREFIX)) {
+            throw new IllegalArgumentException("Room names cannot start with " + CommunicationChannel.CONTROL_PREFIX);
+        }
     }
 }
\ No newline at end of file
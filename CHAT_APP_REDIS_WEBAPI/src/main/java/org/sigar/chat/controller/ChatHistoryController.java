@@ -0,0 +1,45 @@
+package org.sigar.chat.controller;
+
+import org.sigar.chat.history.ChatHistoryStore;
+import org.sigar.chat.history.HistoryEntry;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class ChatHistoryController {
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final ChatHistoryStore historyStore;
+
+    public ChatHistoryController(ChatHistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+    /**
+     * GET /history/{chatId}?before={id}&limit=50 pages backwards, newest first; pass the last id of a
+     * page as the next before. GET /history/{chatId}?after={id} reads forwards, oldest first.
+     */
+    @GetMapping("/history/{chatId}")
+    public ResponseEntity<List<HistoryEntry>> history(@PathVariable String chatId,
+                                                      @RequestParam(required = false) String before,
+                                                      @RequestParam(required = false) String after,
+                                                      @RequestParam(defaultValue = "50") int limit) {
+        if (before != null && after != null || limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        try {
+            List<HistoryEntry> page = after != null
+                    ? historyStore.readAfter(chatId, after, pageSize)
+                    : historyStore.readBefore(chatId, before, pageSize);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.sigar.chat.controller;
+
+import org.sigar.chat.core.ChatMessageCodec;
+import org.sigar.chat.inbox.InboxPage;
+import org.sigar.chat.inbox.InboxService;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.io.IOException;
+
+/**
+ * Direct messages between users. Clients SUBSCRIBE to /queue/inbox/{user} for pushes first, then to
+ * /app/inbox/{user} for what waited while they were away, and SEND /app/inbox/{user}/ack with an id
+ * header naming the last entry of each page they received.
+ */
+@Controller
+public class InboxController {
+    private final InboxService inbox;
+    private final ChatMessageCodec codec;
+
+    public InboxController(InboxService inbox, ChatMessageCodec codec) {
+        this.inbox = inbox;
+        this.codec = codec;
+    }
+
+    @MessageMapping("/direct/{recipient}")
+    public void send(@DestinationVariable String recipient, @Payload byte[] message) throws IOException {
+        checkUser(recipient);
+        codec.read(message);
+        inbox.deliver(recipient, message);
+    }
+
+    @SubscribeMapping("/inbox/{user}")
+    public InboxPage pending(@DestinationVariable String user) {
+        checkUser(user);
+        return inbox.page(user);
+    }
+
+    @MessageMapping("/inbox/{user}/ack")
+    public void acknowledge(@DestinationVariable String user, @Header("id") String id) {
+        checkUser(user);
+        inbox.acknowledge(user, id);
+    }
+
+    private static void checkUser(String user) {
+        if (user.isBlank() || user.length() > ChatController.MAX_USER_LENGTH) {
+            throw new IllegalArgumentException("user must be 1 to " + ChatController.MAX_USER_LENGTH + " characters");
+        }
+    }
+}
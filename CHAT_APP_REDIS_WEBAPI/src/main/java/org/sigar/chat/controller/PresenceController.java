@@ -0,0 +1,24 @@
+package org.sigar.chat.controller;
+
+import org.sigar.chat.presence.OnlineUsers;
+import org.sigar.chat.presence.PresenceService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class PresenceController {
+    private final PresenceService presence;
+
+    public PresenceController(PresenceService presence) {
+        this.presence = presence;
+    }
+
+    /**
+     * GET /presence/{chatId} lists the users online in the room on any node, sorted by name.
+     */
+    @GetMapping("/presence/{chatId}")
+    public OnlineUsers online(@PathVariable String chatId) {
+        return presence.online(chatId);
+    }
+}
@@ -0,0 +1,55 @@
+package org.sigar.chat.controller;
+
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.http.HttpRoomDelivery;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * Room messages for clients that cannot keep a WebSocket open. Entries look like the history
+ * endpoint's: {"id": history id, "seq": room sequence, "message": chat message}.
+ */
+@RestController
+public class RoomEventsController {
+    private final HttpRoomDelivery delivery;
+
+    public RoomEventsController(HttpRoomDelivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * GET /events/{chatId} streams the room as server-sent events, one per message with the history id
+     * as event id, so an EventSource that reconnects resumes where it left off.
+     */
+    @GetMapping(path = "/events/{chatId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> events(@PathVariable String chatId,
+                                                      @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        if (chatId.startsWith(CommunicationChannel.CONTROL_PREFIX)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(delivery.stream(chatId, lastEventId));
+    }
+
+    /**
+     * GET /poll/{chatId}?after={id} answers with the messages after id, waiting for the next ones if there
+     * are none yet; pass the last id of each answer as the next after. Without after it waits for the next
+     * messages. An empty array means the wait timed out and the client should simply poll again.
+     */
+    @GetMapping("/poll/{chatId}")
+    public DeferredResult<ResponseEntity<byte[]>> poll(@PathVariable String chatId,
+                                                       @RequestParam(required = false) String after) {
+        if (chatId.startsWith(CommunicationChannel.CONTROL_PREFIX)) {
+            DeferredResult<ResponseEntity<byte[]>> refused = new DeferredResult<>();
+            refused.setResult(ResponseEntity.badRequest().build());
+            return refused;
+        }
+        return delivery.poll(chatId, after);
+    }
+}
@@ -0,0 +1,43 @@
+package org.sigar.chat.controller;
+
+import org.sigar.chat.history.HistoryEntry;
+import org.sigar.chat.search.SearchIndex;
+import org.sigar.chat.search.SearchQuery;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class SearchController {
+    private static final int MAX_RESULTS = 200;
+
+    private final SearchIndex searchIndex;
+
+    public SearchController(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * GET /search/{chatId}?q=deploy+fail*&limit=20 returns the newest messages containing every word,
+     * where a word ending in * matches as a prefix. Entries look like the history endpoint's, so a hit's
+     * id can be passed to /history/{chatId} to read the conversation around it.
+     */
+    @GetMapping("/search/{chatId}")
+    public ResponseEntity<List<HistoryEntry>> search(@PathVariable String chatId, @RequestParam String q,
+                                                     @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        SearchQuery query;
+        try {
+            query = SearchQuery.parse(q);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(searchIndex.search(chatId, query, Math.min(limit, MAX_RESULTS)));
+    }
+}
@@ -0,0 +1,102 @@
+package org.sigar.chat.core;
+
+import org.sigar.chat.history.HistoryPosition;
+import org.sigar.chat.pipeline.EpochClock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Frames a message for the cross-node channel as "{historyId} {origin} {sequence} {ingress}\n{json}", so the
+ * message's place in history travels with the payload without touching the JSON itself. The ingress field is
+ * when ChatController received the message, in epoch microseconds (see {@link EpochClock}); it is left out
+ * when unknown, as for messages recovered from history, and envelopes without it are read the same way.
+ */
+public final class ChatEnvelope {
+    private static final byte SEPARATOR = '\n';
+    private static final char FIELD_SEPARATOR = ' ';
+
+    private ChatEnvelope() {
+    }
+
+    public static byte[] wrap(HistoryPosition position, byte[] payload) {
+        return wrap(position, payload, 0);
+    }
+
+    /**
+     * @param ingressMicros when the message was received, from {@link EpochClock#micros()}; 0 if unknown
+     */
+    public static byte[] wrap(HistoryPosition position, byte[] payload, long ingressMicros) {
+        String fields = position.id() + FIELD_SEPARATOR + position.origin() + FIELD_SEPARATOR + position.sequence();
+        if (ingressMicros > 0) {
+            fields = fields + FIELD_SEPARATOR + ingressMicros;
+        }
+        byte[] header = fields.getBytes(StandardCharsets.US_ASCII);
+        byte[] envelope = new byte[header.length + 1 + payload.length];
+        System.arraycopy(header, 0, envelope, 0, header.length);
+        envelope[header.length] = SEPARATOR;
+        System.arraycopy(payload, 0, envelope, header.length + 1, payload.length);
+        return envelope;
+    }
+
+    public static HistoryPosition position(byte[] envelope) {
+        String header = new String(envelope, 0, separatorIndex(envelope), StandardCharsets.US_ASCII);
+        int first = header.indexOf(FIELD_SEPARATOR);
+        int second = header.indexOf(FIELD_SEPARATOR, first + 1);
+        if (first < 0 || second < 0) {
+            throw new IllegalArgumentException("Not a chat envelope");
+        }
+        int third = header.indexOf(FIELD_SEPARATOR, second + 1);
+        try {
+            return new HistoryPosition(header.substring(0, first), header.substring(first + 1, second),
+                    Long.parseLong(third < 0 ? header.substring(second + 1) : header.substring(second + 1, third)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a chat envelope", e);
+        }
+    }
+
+    public static String historyId(byte[] envelope) {
+        int end = separatorIndex(envelope);
+        for (int i = 0; i < end; i++) {
+            if (envelope[i] == FIELD_SEPARATOR) {
+                end = i;
+                break;
+            }
+        }
+        return new String(envelope, 0, end, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * When ChatController received the message, in epoch microseconds, or 0 if the envelope does not say.
+     */
+    public static long ingressMicros(byte[] envelope) {
+        int end = separatorIndex(envelope);
+        int fields = 0;
+        long micros = 0;
+        for (int i = 0; i < end; i++) {
+            byte b = envelope[i];
+            if (b == FIELD_SEPARATOR) {
+                fields++;
+            } else if (fields == 3) {
+                if (b < '0' || b > '9') {
+                    return 0;
+                }
+                micros = micros * 10 + (b - '0');
+            }
+        }
+        return fields == 3 ? micros : 0;
+    }
+
+    public static byte[] payload(byte[] envelope) {
+        return Arrays.copyOfRange(envelope, separatorIndex(envelope) + 1, envelope.length);
+    }
+
+    private static int separatorIndex(byte[] envelope) {
+        for (int i = 0; i < envelope.length; i++) {
+            if (envelope[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a chat envelope");
+    }
+}
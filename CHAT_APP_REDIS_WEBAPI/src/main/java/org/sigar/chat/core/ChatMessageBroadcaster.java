@@ -1,63 +1,96 @@
 package org.sigar.chat.core;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.annotation.PostConstruct;
-import org.sigar.chat.model.ChatMessage;
 import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.history.HistoryPosition;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
 
 @Component
 public class ChatMessageBroadcaster {
+    /** STOMP header carrying the history id, which clients send back as last-seen-id when catching up */
+    public static final String HISTORY_ID_HEADER = "history-id";
+    /** STOMP header carrying the message's number in its room, without gaps */
+    public static final String SEQUENCE_HEADER = "seq";
+    /**
+     * Message header (not a STOMP one, so it never reaches clients) carrying the envelope's ingress time
+     * in epoch microseconds, for ChatMetrics to time delivery against
+     */
+    public static final String INGRESS_HEADER = "chatIngressMicros";
 
     private final SimpMessagingTemplate messagingTemplate;
     private final CommunicationChannel communicationChannel;
+    private final OrderedDelivery orderedDelivery;
 
     @Autowired
-    public ChatMessageBroadcaster(SimpMessagingTemplate messagingTemplate, CommunicationChannel communicationChannel) {
+    public ChatMessageBroadcaster(SimpMessagingTemplate messagingTemplate, CommunicationChannel communicationChannel,
+                                  OrderedDelivery orderedDelivery) {
         this.messagingTemplate = messagingTemplate;
         this.communicationChannel = communicationChannel;
+        this.orderedDelivery = orderedDelivery;
     }
 
-    @PostConstruct
-    public void setUpListeners() {
-        // Listen to messages on the Redis channel and forward them to WebSocket clients
-        communicationChannel.receiveMessage("*",this::broadcastMessageToSubscribers);
+    /**
+     * Starts forwarding a room's messages from the channel to local WebSocket clients.
+     * Called by RoomSubscriptionTracker when the first local session subscribes to the room.
+     */
+    public void startForwarding(String room) {
+        orderedDelivery.start(room, this::deliverLocally);
+        communicationChannel.receiveMessage(room, this::broadcastMessageToSubscribers);
     }
-    public void broadcastMessageToSubscribers(String destination, String message){
-        try {
-            // Deserialize the message (optional, depends on your message format)
-            ChatMessage chatMessage = new ObjectMapper().readValue(message, ChatMessage.class);
 
-            // Build the WebSocket destination
-            String messageDestination = String.format("/topic/messages/%s", destination);
+    public void stopForwarding(String room) {
+        communicationChannel.stopReceiving(room);
+        orderedDelivery.forget(room);
+    }
 
-            // Send the message to WebSocket clients
-            messagingTemplate.convertAndSend(messageDestination, chatMessage);
+    /**
+     * Channel callback: messages pass through {@link OrderedDelivery}, so redundant or reordered
+     * delivery by the channel never reaches clients.
+     */
+    public void broadcastMessageToSubscribers(String destination, byte[] message){
+        orderedDelivery.accept(destination, message, this::deliverLocally);
+    }
 
-            System.out.println("Message forwarded to WebSocket: " + message + " destination: " + messageDestination);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
+    private void deliverLocally(String room, byte[] envelope) {
+        broadcastMessageToSubscribers(messagingTemplate, room, envelope);
     }
-    public static void broadcastMessageToSubscribers(SimpMessagingTemplate messagingTemplate, String destination, String message){
-        try {
-            // Deserialize the message (optional, depends on your message format)
-            ChatMessage chatMessage = new ObjectMapper().readValue(message, ChatMessage.class);
+    /**
+     * @param message a {@link ChatEnvelope} as produced by ChatController
+     */
+    public static void broadcastMessageToSubscribers(SimpMessagingTemplate messagingTemplate, String destination, byte[] message){
+        // Build the WebSocket destination
+        String messageDestination = "/topic/messages/" + destination;
 
-            // Build the WebSocket destination
-            String messageDestination = String.format("/topic/messages/%s", destination);
+        // The payload was validated at ingress, so it goes into the STOMP frame as-is.
+        // send() skips the template's message converters, which would otherwise serialise it again
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        HistoryPosition position = ChatEnvelope.position(message);
+        accessor.setNativeHeader(HISTORY_ID_HEADER, position.id());
+        accessor.setNativeHeader(SEQUENCE_HEADER, Long.toString(position.sequence()));
+        long ingressMicros = ChatEnvelope.ingressMicros(message);
+        if (ingressMicros > 0) {
+            accessor.setHeader(INGRESS_HEADER, ingressMicros);
+        }
+        accessor.setLeaveMutable(true);
+        Message<byte[]> stompMessage = MessageBuilder.createMessage(ChatEnvelope.payload(message), accessor.getMessageHeaders());
 
-            // Send the message to WebSocket clients
-            messagingTemplate.convertAndSend(messageDestination, chatMessage);
+        // Send the message to WebSocket clients
+        messagingTemplate.send(messageDestination, stompMessage);
+    }
 
-            System.out.println("Message forwarded to WebSocket: " + message + " destination: " + messageDestination);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
+    /**
+     * The ingress time broadcastMessageToSubscribers put on a room message, or 0 if it had none.
+     */
+    public static long ingressMicros(MessageHeaders headers) {
+        return headers.get(INGRESS_HEADER) instanceof Long micros ? micros : 0;
     }
 
 }
-
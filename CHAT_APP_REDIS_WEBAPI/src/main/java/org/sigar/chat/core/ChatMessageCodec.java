@@ -0,0 +1,49 @@
+package org.sigar.chat.core;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.sigar.chat.model.ChatMessage;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Shared JSON reader and writer for chat messages. ObjectReader and ObjectWriter are immutable and
+ * thread-safe, so one instance built from the application's ObjectMapper is reused instead of a new
+ * ObjectMapper per message.
+ * <p>
+ * Accepted payloads are spliced verbatim into history entries, batches and HTTP bodies, so the reader
+ * is strict: trailing tokens and unknown properties are rejected rather than passed through.
+ */
+@Component
+public class ChatMessageCodec {
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    public ChatMessageCodec(ObjectMapper objectMapper) {
+        this.reader = objectMapper.readerFor(ChatMessage.class)
+                .with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS, DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.writer = objectMapper.writerFor(ChatMessage.class);
+    }
+
+    /**
+     * Parses a raw payload, rejecting anything that is not exactly one chat message object.
+     */
+    public ChatMessage read(byte[] payload) throws IOException {
+        ChatMessage message = reader.readValue(payload);
+        if (message == null) {
+            throw new IllegalArgumentException("Chat message payload is empty");
+        }
+        return message;
+    }
+
+    /**
+     * Only needed where a message arrives in another encoding, e.g. protobuf from a gRPC peer;
+     * JSON that came in over STOMP is forwarded as-is.
+     */
+    public byte[] write(ChatMessage message) throws IOException {
+        return writer.writeValueAsBytes(message);
+    }
+}
@@ -0,0 +1,254 @@
+package org.sigar.chat.core;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.sigar.chat.channel.MessageHandler;
+import org.sigar.chat.history.ChatHistoryStore;
+import org.sigar.chat.history.HistoryEntry;
+import org.sigar.chat.history.HistoryPosition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands each room's messages to local subscribers exactly once and in sequence order, whatever the
+ * channel did to them on the way: duplicates from redundant paths are dropped, and messages that
+ * arrive ahead of a gap are held until the gap fills.
+ *
+ * Per room (and sequence origin) only a watermark is needed for dedup: every sequence number up to
+ * it has been delivered or given up on. For sequences this node's store numbers, the watermark starts
+ * at the room's latest history entry when forwarding starts ({@link #start}), so a message that was
+ * overtaken by a later one on the way still counts as new. Other origins start just before the first
+ * message seen.
+ *
+ * A gap that is still open after gapTimeout is filled from history when this node's store numbered the
+ * messages, and skipped otherwise; so is one that holds back more than maxHeld messages. History is
+ * read on its own thread with the room unlocked, so neither the channel's listener thread nor other
+ * messages for the room wait on the store; messages keep being held while the read is in flight.
+ */
+@Component
+public class OrderedDelivery {
+    private static final Logger log = LoggerFactory.getLogger(OrderedDelivery.class);
+
+    private final ChatHistoryStore historyStore;
+    private final int maxHeld;
+    private final long gapTimeoutMillis;
+    private final Map<String, Map<String, RoomSequence>> rooms = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService gapTimers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "delivery-gaps");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService gapFetches = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "delivery-gap-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter duplicates;
+    private final Counter recovered;
+    private final Counter skipped;
+
+    public OrderedDelivery(ChatHistoryStore historyStore, MeterRegistry registry,
+                           @Value("${chat.delivery.max-held:1024}") int maxHeld,
+                           @Value("${chat.delivery.gap-timeout-ms:200}") long gapTimeoutMillis) {
+        this.historyStore = historyStore;
+        this.maxHeld = maxHeld;
+        this.gapTimeoutMillis = gapTimeoutMillis;
+        this.duplicates = Counter.builder("chat.delivery.duplicates")
+                .description("Messages dropped because their room sequence number was already delivered")
+                .register(registry);
+        this.recovered = Counter.builder("chat.delivery.gap.recovered")
+                .description("Missing messages fetched from history to close a sequence gap")
+                .register(registry);
+        this.skipped = Counter.builder("chat.delivery.gap.skipped")
+                .description("Missing messages given up on after the gap timeout")
+                .register(registry);
+    }
+
+    /**
+     * @param envelope a {@link ChatEnvelope} from the cross-node channel
+     * @param deliver  receives the envelopes to deliver, in order
+     */
+    public void accept(String room, byte[] envelope, MessageHandler deliver) {
+        HistoryPosition position = ChatEnvelope.position(envelope);
+        RoomSequence sequence = rooms.computeIfAbsent(room, r -> new ConcurrentHashMap<>())
+                .computeIfAbsent(position.origin(), origin -> new RoomSequence(room, origin, deliver));
+        sequence.accept(position, envelope);
+    }
+
+    /**
+     * Starts the watermark for this node's own sequences at the room's latest history entry. Called
+     * before the room's channel is subscribed, so anything appended after the read is still delivered.
+     */
+    public void start(String room, MessageHandler deliver) {
+        String origin = historyStore.origin();
+        RoomSequence sequence = new RoomSequence(room, origin, deliver);
+        try {
+            List<HistoryEntry> latest = historyStore.readBefore(room, null, 1);
+            sequence.seed(latest.isEmpty() ? null : latest.get(0));
+        } catch (RuntimeException e) {
+            log.warn("Could not read the latest history entry of {}; starting at the first message seen", room, e);
+        }
+        RoomSequence previous = rooms.computeIfAbsent(room, r -> new ConcurrentHashMap<>()).put(origin, sequence);
+        if (previous != null) {
+            previous.cancelGapTimer();
+        }
+    }
+
+    /**
+     * Drops a room's state once this node stops forwarding it; a later subscription starts afresh.
+     */
+    public void forget(String room) {
+        Map<String, RoomSequence> sequences = rooms.remove(room);
+        if (sequences != null) {
+            sequences.values().forEach(RoomSequence::cancelGapTimer);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        gapTimers.shutdownNow();
+        gapFetches.shutdownNow();
+    }
+
+    private final class RoomSequence {
+        private final String room;
+        private final String origin;
+        private final MessageHandler deliver;
+        private final TreeMap<Long, byte[]> held = new TreeMap<>();
+        private boolean started;
+        private long delivered;
+        private String deliveredId;
+        private ScheduledFuture<?> gapTimer;
+        private boolean filling;
+
+        private RoomSequence(String room, String origin, MessageHandler deliver) {
+            this.room = room;
+            this.origin = origin;
+            this.deliver = deliver;
+        }
+
+        synchronized void seed(HistoryEntry latest) {
+            started = true;
+            if (latest != null) {
+                delivered = latest.seq();
+                deliveredId = latest.id();
+            }
+        }
+
+        synchronized void accept(HistoryPosition position, byte[] envelope) {
+            long sequence = position.sequence();
+            if (!started) {
+                // Earlier messages went out before this node subscribed; catch-up is the client's business
+                started = true;
+                delivered = sequence - 1;
+            }
+            if (sequence <= delivered || held.containsKey(sequence)) {
+                duplicates.increment();
+                return;
+            }
+            if (sequence == delivered + 1) {
+                deliver(sequence, position.id(), envelope);
+                releaseContiguous();
+                if (held.isEmpty()) {
+                    cancelGapTimer();
+                }
+                return;
+            }
+            held.put(sequence, envelope);
+            if (filling) {
+                // The history read in flight releases everything held once it returns
+                return;
+            }
+            if (held.size() > maxHeld) {
+                cancelGapTimer();
+                closeGap();
+            } else if (gapTimer == null) {
+                gapTimer = gapTimers.schedule(this::closeGap, gapTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void cancelGapTimer() {
+            if (gapTimer != null) {
+                gapTimer.cancel(false);
+                gapTimer = null;
+            }
+        }
+
+        private synchronized void closeGap() {
+            gapTimer = null;
+            if (held.isEmpty() || filling) {
+                return;
+            }
+            // With nothing delivered yet the room's history is read from its oldest entry
+            if (origin.equals(historyStore.origin()) && (deliveredId != null || delivered == 0)) {
+                filling = true;
+                String afterId = deliveredId;
+                int limit = (int) Math.min(held.lastKey() - delivered, maxHeld * 2L);
+                gapFetches.execute(() -> fill(afterId, limit));
+                return;
+            }
+            releaseHeld();
+        }
+
+        // Runs on the gap fetch thread, so the store is read without holding the room
+        private void fill(String afterId, int limit) {
+            List<HistoryEntry> entries = List.of();
+            try {
+                entries = historyStore.readAfter(room, afterId, limit);
+            } catch (RuntimeException e) {
+                log.warn("Could not read history to close a gap in {} after {}", room, afterId, e);
+            }
+            synchronized (this) {
+                filling = false;
+                for (HistoryEntry entry : entries) {
+                    // Live messages may have moved the watermark on while the read was in flight
+                    if (entry.seq() > delivered && !held.containsKey(entry.seq())) {
+                        HistoryPosition position = new HistoryPosition(entry.id(), origin, entry.seq());
+                        held.put(entry.seq(), ChatEnvelope.wrap(position, entry.message().getBytes(StandardCharsets.UTF_8)));
+                        recovered.increment();
+                    }
+                }
+                releaseHeld();
+            }
+        }
+
+        private void releaseHeld() {
+            while (!held.isEmpty()) {
+                Map.Entry<Long, byte[]> next = held.pollFirstEntry();
+                skipped.increment(next.getKey() - delivered - 1);
+                deliver(next.getKey(), ChatEnvelope.historyId(next.getValue()), next.getValue());
+            }
+        }
+
+        private void releaseContiguous() {
+            while (!held.isEmpty() && held.firstKey() == delivered + 1) {
+                byte[] envelope = held.pollFirstEntry().getValue();
+                deliver(delivered + 1, ChatEnvelope.historyId(envelope), envelope);
+            }
+        }
+
+        private void deliver(long sequence, String historyId, byte[] envelope) {
+            delivered = sequence;
+            deliveredId = historyId;
+            try {
+                deliver.handleMessage(room, envelope);
+            } catch (RuntimeException e) {
+                log.warn("Delivering sequence {} in {} failed", sequence, room, e);
+            }
+        }
+    }
+}
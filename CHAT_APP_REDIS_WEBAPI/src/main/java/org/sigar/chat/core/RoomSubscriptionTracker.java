@@ -0,0 +1,175 @@
+package org.sigar.chat.core;
+
+import org.sigar.chat.channel.CommunicationChannel;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reference counts local STOMP subscriptions per room so this node only listens to a room's
+ * cross-node channel while at least one of its own sessions is subscribed to it. Subscribers that are
+ * not STOMP sessions, like HTTP streams and long polls, hold rooms open with {@link #retain(String)}.
+ */
+@Component
+public class RoomSubscriptionTracker {
+    static final String ROOM_DESTINATION_PREFIX = "/topic/messages/";
+
+    private final ChatMessageBroadcaster broadcaster;
+    // sessionId -> subscriptionId -> room, so UNSUBSCRIBE (which carries no destination) and DISCONNECT can be undone
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    private final Map<String, Integer> roomSubscribers = new HashMap<>();
+    // Rooms whose channel is open; changed only by reconcile, under the room's stripe
+    private final Set<String> forwarding = ConcurrentHashMap.newKeySet();
+    private final Object[] stripes = new Object[64];
+
+    public RoomSubscriptionTracker(ChatMessageBroadcaster broadcaster) {
+        this.broadcaster = broadcaster;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        subscribed(accessor.getSessionId(), accessor.getSubscriptionId(), accessor.getDestination());
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        unsubscribed(accessor.getSessionId(), accessor.getSubscriptionId());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        disconnected(event.getSessionId());
+    }
+
+    void subscribed(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null || !destination.startsWith(ROOM_DESTINATION_PREFIX)) {
+            return;
+        }
+        String room = destination.substring(ROOM_DESTINATION_PREFIX.length());
+        if (room.startsWith(CommunicationChannel.CONTROL_PREFIX)) {
+            // Not a room: forwarding it would take the channel's control traffic away from its handler
+            return;
+        }
+        String previous;
+        synchronized (this) {
+            previous = sessions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(subscriptionId, room);
+            if (previous != null && !adjust(previous, -1)) {
+                // Subscription id reused without an UNSUBSCRIBE; treat it as a replacement
+                previous = null;
+            }
+            if (!adjust(room, 1)) {
+                room = null;
+            }
+        }
+        reconcile(previous);
+        reconcile(room);
+    }
+
+    void unsubscribed(String sessionId, String subscriptionId) {
+        String room;
+        synchronized (this) {
+            Map<String, String> subscriptions = sessions.get(sessionId);
+            if (subscriptions == null) {
+                return;
+            }
+            room = subscriptions.remove(subscriptionId);
+            if (subscriptions.isEmpty()) {
+                sessions.remove(sessionId);
+            }
+            if (room == null || !adjust(room, -1)) {
+                return;
+            }
+        }
+        reconcile(room);
+    }
+
+    // DISCONNECT can be published more than once per session; the second one finds nothing to release
+    void disconnected(String sessionId) {
+        List<String> emptied = new ArrayList<>();
+        synchronized (this) {
+            Map<String, String> subscriptions = sessions.remove(sessionId);
+            if (subscriptions == null) {
+                return;
+            }
+            for (String room : subscriptions.values()) {
+                if (adjust(room, -1)) {
+                    emptied.add(room);
+                }
+            }
+        }
+        emptied.forEach(this::reconcile);
+    }
+
+    synchronized int subscribers(String room) {
+        return roomSubscribers.getOrDefault(room, 0);
+    }
+
+    public void retain(String room) {
+        boolean first;
+        synchronized (this) {
+            first = adjust(room, 1);
+        }
+        if (first) {
+            reconcile(room);
+        }
+    }
+
+    /**
+     * Undoes one {@link #retain(String)}.
+     */
+    public void release(String room) {
+        boolean last;
+        synchronized (this) {
+            last = adjust(room, -1);
+        }
+        if (last) {
+            reconcile(room);
+        }
+    }
+
+    /**
+     * @return true if the room's count crossed zero, so its channel needs opening or closing
+     */
+    private boolean adjust(String room, int delta) {
+        int count = roomSubscribers.merge(room, delta, Integer::sum);
+        if (count <= 0) {
+            roomSubscribers.remove(room);
+            return delta < 0;
+        }
+        return delta > 0 && count == 1;
+    }
+
+    /**
+     * Opens or closes the room's channel to match its current count. Runs outside the tracker's lock,
+     * since for Redis this is a SUBSCRIBE round trip; the room's stripe keeps the calls for one room in
+     * order, and whichever call runs last sees the final count.
+     */
+    private void reconcile(String room) {
+        if (room == null) {
+            return;
+        }
+        synchronized (stripes[Math.floorMod(room.hashCode(), stripes.length)]) {
+            boolean wanted = subscribers(room) > 0;
+            if (wanted && forwarding.add(room)) {
+                broadcaster.startForwarding(room);
+            } else if (!wanted && forwarding.remove(room)) {
+                broadcaster.stopForwarding(room);
+            }
+        }
+    }
+}
@@ -1,39 +1,279 @@
-package org.sigar.chat.channel;
-
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.stereotype.Component;
-
-@Component
-@ConditionalOnProperty(name = "chat.communication.channel", havingValue = "grpc")
-public class GrpcCommunicationChannel {
-//    private final GrpcStub grpcStub; // Assume a pre-configured gRPC client stub
-//
-//    public GrpcCommunicationChannel(GrpcStub grpcStub) {
-//        this.grpcStub = grpcStub;
-//    }
-//
-//    @Override
-//    public void connect() {
-//        System.out.println("gRPC channel connected");
-//    }
-//
-//    @Override
-//    public void disconnect() {
-//        System.out.println("gRPC channel disconnected");
-//    }
-//
-//    @Override
-//    public void sendMessage(String destination, String message) {
-//        grpcStub.sendMessage(destination, message); // Example method
-//    }
-//
-//    @Override
-//    public String requestResponse(String destination, String request) {
-//        return grpcStub.requestResponse(destination, request); // Example synchronous call
-//    }
-//
-//    @Override
-//    public void receiveMessage(String source, MessageHandler handler) {
-//        grpcStub.streamMessages(source, handler::handleMessage); // Example bidirectional streaming
-//    }
+package org.sigar.chat.grpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.channel.MessageHandler;
+import org.sigar.chat.grpc.proto.ChatMessage;
+import org.sigar.chat.grpc.proto.ChatRelayGrpc;
+import org.sigar.chat.grpc.proto.ControlMessage;
+import org.sigar.chat.grpc.proto.Hello;
+import org.sigar.chat.grpc.proto.RelayFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cross-node channel over gRPC, selected with chat.communication.channel=grpc (see GrpcConfig).
+ *
+ * Every pair of nodes shares one bidirectional ChatRelay.Relay stream: the node whose id sorts lower
+ * dials, the other accepts, and both send their local messages down it. Messages travel as protobuf
+ * ChatMessage carrying the envelope bytes untouched, so a hop never parses or re-encodes the JSON, and each
+ * direction is paced by HTTP/2 flow control through {@link PeerLink}. A frame a backed-up peer cannot take
+ * is dropped and counted (chat.grpc.relay.dropped, see GrpcConfig).
+ * Control destinations travel as ControlMessage with their payload untouched.
+ * A message sent on this node reaches local subscribers directly and every connected peer over its stream.
+ */
+public class GrpcCommunicationChannel implements CommunicationChannel {
+    private static final Logger log = LoggerFactory.getLogger(GrpcCommunicationChannel.class);
+    private static final String ALL_ROOMS = "*";
+    private static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final String nodeId;
+    private final Map<String, ManagedChannel> peers;
+    private final int maxPendingPerPeer;
+    private final long reconnectDelayMillis;
+    private final Map<String, MessageHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ScheduledExecutorService reconnects = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "grpc-relay-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running;
+
+    /**
+     * @param peers channel to each other node by node id; only peers whose id sorts after nodeId are dialled
+     */
+    public GrpcCommunicationChannel(String nodeId, Map<String, ManagedChannel> peers, int maxPendingPerPeer, Duration reconnectDelay) {
+        this.nodeId = nodeId;
+        this.peers = Map.copyOf(peers);
+        this.maxPendingPerPeer = maxPendingPerPeer;
+        this.reconnectDelayMillis = reconnectDelay.toMillis();
+    }
+
+    @Override
+    public void connect() {
+        running = true;
+        peers.forEach((peerId, channel) -> {
+            if (nodeId.compareTo(peerId) < 0) {
+                dial(peerId, channel, reconnectDelayMillis);
+            }
+        });
+        log.info("gRPC channel connected as {}, dialling {} of {} peers", nodeId,
+                peers.keySet().stream().filter(peerId -> nodeId.compareTo(peerId) < 0).count(), peers.size());
+    }
+
+    @Override
+    public void disconnect() {
+        running = false;
+        reconnects.shutdownNow();
+        links.values().forEach(PeerLink::complete);
+        links.clear();
+        peers.values().forEach(ManagedChannel::shutdown);
+        log.info("gRPC channel disconnected");
+    }
+
+    @Override
+    public void sendMessage(String destination, byte[] message) {
+        deliverLocally(destination, message);
+        if (links.isEmpty()) {
+            return;
+        }
+        RelayFrame frame = destination.startsWith(CONTROL_PREFIX)
+                ? RelayFrame.newBuilder().setControl(ControlMessage.newBuilder()
+                        .setDestination(destination)
+                        .setPayload(ByteString.copyFrom(message))).build()
+                : RelayFrame.newBuilder().setMessage(ChatMessage.newBuilder()
+                        .setRoom(destination)
+                        .setEnvelope(ByteString.copyFrom(message))).build();
+        for (Map.Entry<String, PeerLink> link : links.entrySet()) {
+            if (!link.getValue().offer(frame)) {
+                dropped.incrementAndGet();
+                log.debug("Relay to {} is backed up, dropped a message for {}", link.getKey(), destination);
+            }
+        }
+    }
+
+    @Override
+    public void receiveMessage(String source, MessageHandler messageHandler) {
+        handlers.put(source, messageHandler);
+    }
+
+    @Override
+    public void stopReceiving(String source) {
+        handlers.remove(source);
+    }
+
+    @Override
+    public boolean isDistributed() {
+        return true;
+    }
+
+    /**
+     * The server side of the relay; GrpcConfig binds it to chat.grpc.port.
+     */
+    public BindableService relayService() {
+        return new RelayService();
+    }
+
+    Set<String> connectedPeers() {
+        return links.keySet();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    private void dial(String peerId, ManagedChannel channel, long delayMillis) {
+        if (!running) {
+            return;
+        }
+        DialledStream stream = new DialledStream(peerId, channel, delayMillis);
+        ChatRelayGrpc.newStub(channel).relay(stream);
+        stream.link.offer(RelayFrame.newBuilder().setHello(Hello.newBuilder().setNodeId(nodeId)).build());
+        PeerLink previous = links.put(peerId, stream.link);
+        if (previous != null) {
+            previous.complete();
+        }
+    }
+
+    private void redial(String peerId, ManagedChannel channel, long delayMillis) {
+        if (!running) {
+            return;
+        }
+        try {
+            reconnects.schedule(() -> dial(peerId, channel, delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Shut down by disconnect() in the meantime
+        }
+    }
+
+    private void receive(RelayFrame frame) {
+        if (frame.hasControl()) {
+            deliverLocally(frame.getControl().getDestination(), frame.getControl().getPayload().toByteArray());
+            return;
+        }
+        if (!frame.hasMessage()) {
+            return;
+        }
+        ChatMessage message = frame.getMessage();
+        deliverLocally(message.getRoom(), message.getEnvelope().toByteArray());
+    }
+
+    private void deliverLocally(String room, byte[] envelope) {
+        MessageHandler handler = handlers.get(room);
+        if (handler == null && !room.startsWith(CONTROL_PREFIX)) {
+            handler = handlers.get(ALL_ROOMS);
+        }
+        if (handler != null) {
+            handler.handleMessage(room, envelope);
+        }
+    }
+
+    /**
+     * Stream this node opened to a peer with a higher id. Redials with exponential backoff when it ends;
+     * the delay starts over once a stream has stayed up for longer than the longest backoff.
+     */
+    private final class DialledStream implements ClientResponseObserver<RelayFrame, RelayFrame> {
+        private final String peerId;
+        private final ManagedChannel channel;
+        private final long delayMillis;
+        private final long startedAt = System.nanoTime();
+        private PeerLink link;
+
+        private DialledStream(String peerId, ManagedChannel channel, long delayMillis) {
+            this.peerId = peerId;
+            this.channel = channel;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<RelayFrame> requestStream) {
+            link = new PeerLink(requestStream, maxPendingPerPeer);
+        }
+
+        @Override
+        public void onNext(RelayFrame frame) {
+            receive(frame);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.debug("Relay stream to {} failed: {}", peerId, t.toString());
+            ended();
+        }
+
+        @Override
+        public void onCompleted() {
+            ended();
+        }
+
+        private void ended() {
+            link.close();
+            links.remove(peerId, link);
+            boolean wasStable = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) > MAX_RECONNECT_DELAY_MILLIS;
+            redial(peerId, channel, wasStable ? reconnectDelayMillis : Math.min(delayMillis * 2, MAX_RECONNECT_DELAY_MILLIS));
+        }
+    }
+
+    /**
+     * Accepts streams from peers with lower ids. The first frame names the peer; after that the
+     * response side of the call is this node's sending half of the pair's stream.
+     */
+    private final class RelayService extends ChatRelayGrpc.ChatRelayImplBase {
+        @Override
+        public StreamObserver<RelayFrame> relay(StreamObserver<RelayFrame> responseObserver) {
+            PeerLink link = new PeerLink((ServerCallStreamObserver<RelayFrame>) responseObserver, maxPendingPerPeer);
+            return new StreamObserver<>() {
+                private String peerId;
+
+                @Override
+                public void onNext(RelayFrame frame) {
+                    if (frame.hasHello()) {
+                        peerId = frame.getHello().getNodeId();
+                        PeerLink previous = links.put(peerId, link);
+                        if (previous != null && previous != link) {
+                            // The peer reconnected before this node noticed the old stream die
+                            previous.complete();
+                        }
+                    } else {
+                        receive(frame);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    link.close();
+                    forget();
+                }
+
+                @Override
+                public void onCompleted() {
+                    forget();
+                    link.complete();
+                }
+
+                private void forget() {
+                    if (peerId != null) {
+                        links.remove(peerId, link);
+                    }
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package org.sigar.chat.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPC relay between nodes, e.g. for two nodes on one host:
+ *   chat.communication.channel=grpc
+ *   chat.grpc.node-id=node-a
+ *   chat.grpc.port=9090
+ *   chat.grpc.peers=node-b=localhost:9091
+ * Every node lists every other node; which side dials is decided by node id.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.communication.channel", havingValue = "grpc")
+public class GrpcConfig {
+
+    @Bean(destroyMethod = "disconnect")
+    public GrpcCommunicationChannel grpcCommunicationChannel(MeterRegistry registry,
+                                                             @Value("${chat.grpc.node-id}") String nodeId,
+                                                             @Value("${chat.grpc.peers:}") String[] peers,
+                                                             @Value("${chat.grpc.max-pending-per-peer:10000}") int maxPendingPerPeer,
+                                                             @Value("${chat.grpc.reconnect-delay-ms:500}") long reconnectDelayMillis) {
+        Map<String, ManagedChannel> channels = new HashMap<>();
+        for (String peer : peers) {
+            if (peer.isBlank()) {
+                continue;
+            }
+            int separator = peer.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("chat.grpc.peers entries look like node-id=host:port, got " + peer);
+            }
+            channels.put(peer.substring(0, separator).trim(), NettyChannelBuilder.forTarget(peer.substring(separator + 1).trim())
+                    .usePlaintext()
+                    // Notices a peer that vanished without closing its connection
+                    .keepAliveTime(30, TimeUnit.SECONDS)
+                    .build());
+        }
+
+        GrpcCommunicationChannel channel = new GrpcCommunicationChannel(nodeId, channels, maxPendingPerPeer, Duration.ofMillis(reconnectDelayMillis));
+        FunctionCounter.builder("chat.grpc.relay.dropped", channel, GrpcCommunicationChannel::dropped)
+                .description("Messages not relayed because a peer's send queue was full")
+                .register(registry);
+        Gauge.builder("chat.grpc.relay.peers", channel, c -> c.connectedPeers().size())
+                .description("Peers with an open relay stream")
+                .register(registry);
+        channel.connect();
+        return channel;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public Server grpcRelayServer(GrpcCommunicationChannel channel, @Value("${chat.grpc.port:9090}") int port) throws IOException {
+        return NettyServerBuilder.forPort(port)
+                .addService(channel.relayService())
+                .build()
+                .start();
+    }
+}
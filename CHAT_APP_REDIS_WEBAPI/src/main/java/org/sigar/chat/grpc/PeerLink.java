@@ -0,0 +1,80 @@
+package org.sigar.chat.grpc;
+
+import io.grpc.stub.CallStreamObserver;
+import org.sigar.chat.grpc.proto.RelayFrame;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sending half of the relay stream to one peer.
+ *
+ * Frames are only handed to gRPC while the stream reports isReady(), i.e. while the peer's HTTP/2 flow
+ * control window has room. The rest wait here, up to capacity frames; beyond that offer() refuses them
+ * so a slow or stuck peer cannot grow this node's heap. The onReady callback resumes draining.
+ */
+final class PeerLink {
+    private final CallStreamObserver<RelayFrame> stream;
+    private final int capacity;
+    private final Queue<RelayFrame> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    PeerLink(CallStreamObserver<RelayFrame> stream, int capacity) {
+        this.stream = stream;
+        this.capacity = capacity;
+        // Client streams only accept this before the call starts, which is when the channel creates the link
+        stream.setOnReadyHandler(this::drain);
+    }
+
+    boolean offer(RelayFrame frame) {
+        if (closed) {
+            return false;
+        }
+        if (pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        pending.add(frame);
+        drain();
+        return true;
+    }
+
+    int pending() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Stops sending after the stream has failed or been closed by the peer.
+     */
+    void close() {
+        closed = true;
+        pending.clear();
+        pendingCount.set(0);
+    }
+
+    /**
+     * Ends a healthy stream from this side; frames still waiting for the window are dropped.
+     */
+    synchronized void complete() {
+        if (closed) {
+            return;
+        }
+        close();
+        try {
+            stream.onCompleted();
+        } catch (RuntimeException ignored) {
+            // The call was cancelled underneath us, which is as closed as it gets
+        }
+    }
+
+    // StreamObserver is not thread-safe, so one thread at a time moves frames onto the stream
+    private synchronized void drain() {
+        RelayFrame frame;
+        while (!closed && stream.isReady() && (frame = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            stream.onNext(frame);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.sigar.chat.history;
+
+import java.util.List;
+
+/**
+ * Per-room message log. Ids are opaque strings that only increase within a room. Every appended message
+ * also gets the next number in its room's sequence, taken atomically with the append so sequence order
+ * and history order agree.
+ */
+public interface ChatHistoryStore {
+    /**
+     * Appends a validated message and returns the id it was stored under and its sequence number.
+     */
+    HistoryPosition append(String room, byte[] message);
+
+    /**
+     * Who numbers this store's sequences, as reported in {@link HistoryPosition#origin()}.
+     */
+    String origin();
+
+    /**
+     * Messages strictly after afterId, oldest first. A null afterId starts at the oldest retained message.
+     * Used to catch up after a reconnect.
+     *
+     * @throws IllegalArgumentException if afterId is not an id this store hands out
+     */
+    List<HistoryEntry> readAfter(String room, String afterId, int limit);
+
+    /**
+     * Messages strictly before beforeId, newest first. A null beforeId starts at the latest message.
+     * Used to page backwards through history.
+     *
+     * @throws IllegalArgumentException if beforeId is not an id this store hands out
+     */
+    List<HistoryEntry> readBefore(String room, String beforeId, int limit);
+}
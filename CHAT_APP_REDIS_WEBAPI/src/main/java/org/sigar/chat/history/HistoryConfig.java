@@ -0,0 +1,26 @@
+package org.sigar.chat.history;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+
+@Configuration
+public class HistoryConfig {
+
+    // Shared, durable history when nodes talk over Redis
+    @Bean
+    @ConditionalOnProperty(name = "chat.communication.channel", havingValue = "redis")
+    public ChatHistoryStore redisChatHistoryStore(RedisTemplate<String, String> redisTemplate,
+                                                  @Value("${chat.history.max-length:10000}") long maxLength) {
+        return new RedisStreamChatHistoryStore(redisTemplate, maxLength);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(ChatHistoryStore.class)
+    public ChatHistoryStore inMemoryChatHistoryStore(@Value("${chat.history.max-length:10000}") int maxLength) {
+        return new InMemoryChatHistoryStore(maxLength);
+    }
+}
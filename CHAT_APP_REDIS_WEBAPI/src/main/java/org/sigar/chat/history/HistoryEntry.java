@@ -0,0 +1,10 @@
+package org.sigar.chat.history;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+/**
+ * One stored chat message. The message is the original JSON and is written out as-is.
+ * seq is the message's number in its room, or 0 for messages stored before rooms were numbered.
+ */
+public record HistoryEntry(String id, long seq, @JsonRawValue String message) {
+}
@@ -0,0 +1,9 @@
+package org.sigar.chat.history;
+
+/**
+ * Where an appended message landed: its history id, and its number in the room's gap-free sequence.
+ * The origin names whoever hands out the sequence numbers; stores shared by every node report the
+ * same origin everywhere, so sequence numbers from different origins are never compared.
+ */
+public record HistoryPosition(String id, String origin, long sequence) {
+}
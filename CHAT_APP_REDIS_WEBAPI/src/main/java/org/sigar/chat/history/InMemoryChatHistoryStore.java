@@ -0,0 +1,98 @@
+package org.sigar.chat.history;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Single-node history for the http and websocket channels. Keeps the last maxLength messages per room.
+ * Ids mimic stream ids ("{sequence}-0") so clients treat both stores the same way. Room sequence numbers
+ * are only known to this node, so the origin is unique to this store instance.
+ */
+public class InMemoryChatHistoryStore implements ChatHistoryStore {
+    private final Map<String, RoomLog> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final String origin = "local-" + Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    private final int maxLength;
+
+    public InMemoryChatHistoryStore(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public HistoryPosition append(String room, byte[] message) {
+        RoomLog log = rooms.computeIfAbsent(room, r -> new RoomLog());
+        synchronized (log) {
+            // Both numbers taken under the room lock so ids and room sequence are ordered within the deque
+            Stored stored = new Stored(sequence.incrementAndGet(), ++log.lastSequence, message);
+            log.entries.addLast(stored);
+            if (log.entries.size() > maxLength) {
+                log.entries.removeFirst();
+            }
+            return new HistoryPosition(stored.id(), origin, stored.roomSequence);
+        }
+    }
+
+    @Override
+    public String origin() {
+        return origin;
+    }
+
+    @Override
+    public List<HistoryEntry> readAfter(String room, String afterId, int limit) {
+        long after = afterId == null ? 0 : sequenceOf(afterId);
+        return read(room, limit, false, stored -> stored.sequence > after);
+    }
+
+    @Override
+    public List<HistoryEntry> readBefore(String room, String beforeId, int limit) {
+        long before = beforeId == null ? Long.MAX_VALUE : sequenceOf(beforeId);
+        return read(room, limit, true, stored -> stored.sequence < before);
+    }
+
+    private List<HistoryEntry> read(String room, int limit, boolean newestFirst, Predicate<Stored> filter) {
+        RoomLog log = rooms.get(room);
+        List<HistoryEntry> entries = new ArrayList<>();
+        if (log == null) {
+            return entries;
+        }
+        synchronized (log) {
+            Iterator<Stored> iterator = newestFirst ? log.entries.descendingIterator() : log.entries.iterator();
+            while (iterator.hasNext() && entries.size() < limit) {
+                Stored stored = iterator.next();
+                if (filter.test(stored)) {
+                    entries.add(new HistoryEntry(stored.id(), stored.roomSequence, new String(stored.message, StandardCharsets.UTF_8)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static long sequenceOf(String id) {
+        int dash = id.indexOf('-');
+        try {
+            return Long.parseLong(dash < 0 ? id : id.substring(0, dash));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid history id: " + id);
+        }
+    }
+
+    private static final class RoomLog {
+        private final Deque<Stored> entries = new ArrayDeque<>();
+        private long lastSequence;
+    }
+
+    private record Stored(long sequence, long roomSequence, byte[] message) {
+        String id() {
+            return sequence + "-0";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.sigar.chat.history;
+
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * History on one Redis Stream per room (chat:history:{room}). XADD trims approximately to
+ * maxLength, so the stream stays bounded without paying for exact trimming on every append.
+ * The room sequence is an INCR on chat:seq:{room} in the same script as the XADD, so every node
+ * numbers messages from one counter and in stream order.
+ */
+public class RedisStreamChatHistoryStore implements ChatHistoryStore {
+    private static final String KEY_PREFIX = "chat:history:";
+    private static final String SEQUENCE_KEY_PREFIX = "chat:seq:";
+    private static final String ORIGIN = "redis";
+    private static final Pattern ID = Pattern.compile("\\d+-\\d+");
+    private static final byte[] MESSAGE_FIELD = "m".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEQUENCE_FIELD = "s".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] APPEND_SCRIPT = ("""
+            local seq = redis.call('INCR', KEYS[2])
+            local id = redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[2], '*', 'm', ARGV[1], 's', seq)
+            return {id, seq}
+            """).getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long maxLength;
+
+    public RedisStreamChatHistoryStore(RedisTemplate<String, String> redisTemplate, long maxLength) {
+        this.redisTemplate = redisTemplate;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public HistoryPosition append(String room, byte[] message) {
+        byte[] maxLengthArgument = Long.toString(maxLength).getBytes(StandardCharsets.US_ASCII);
+        List<Object> result = redisTemplate.execute((RedisCallback<List<Object>>) connection -> connection.scriptingCommands()
+                .eval(APPEND_SCRIPT, ReturnType.MULTI, 2, key(room), sequenceKey(room), message, maxLengthArgument));
+        return new HistoryPosition(new String((byte[]) result.get(0), StandardCharsets.US_ASCII), ORIGIN, (Long) result.get(1));
+    }
+
+    @Override
+    public String origin() {
+        return ORIGIN;
+    }
+
+    @Override
+    public List<HistoryEntry> readAfter(String room, String afterId, int limit) {
+        checkId(afterId);
+        // Inclusive bound plus one extra record, dropping the boundary; works on servers without "(" ranges
+        Range<String> range = afterId == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.inclusive(afterId));
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xRange(key(room), range, Limit.limit().count(limit + 1)));
+        return toEntries(records, afterId, limit);
+    }
+
+    @Override
+    public List<HistoryEntry> readBefore(String room, String beforeId, int limit) {
+        checkId(beforeId);
+        Range<String> range = beforeId == null ? Range.unbounded() : Range.leftUnbounded(Range.Bound.inclusive(beforeId));
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xRevRange(key(room), range, Limit.limit().count(limit + 1)));
+        return toEntries(records, beforeId, limit);
+    }
+
+    // Redis would answer a malformed bound with an error, which callers could not tell from an outage
+    private static void checkId(String id) {
+        if (id != null && !ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid history id: " + id);
+        }
+    }
+
+    private static List<HistoryEntry> toEntries(List<ByteRecord> records, String excludedId, int limit) {
+        List<HistoryEntry> entries = new ArrayList<>(Math.min(limit, records == null ? 0 : records.size()));
+        if (records == null) {
+            return entries;
+        }
+        for (ByteRecord record : records) {
+            String id = record.getId().getValue();
+            if (id.equals(excludedId)) {
+                continue;
+            }
+            if (entries.size() == limit) {
+                break;
+            }
+            // byte[] map keys cannot be looked up by value
+            byte[] message = null;
+            long sequence = 0;
+            for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+                if (Arrays.equals(field.getKey(), MESSAGE_FIELD)) {
+                    message = field.getValue();
+                } else if (Arrays.equals(field.getKey(), SEQUENCE_FIELD)) {
+                    sequence = Long.parseLong(new String(field.getValue(), StandardCharsets.US_ASCII));
+                }
+            }
+            if (message != null) {
+                entries.add(new HistoryEntry(id, sequence, new String(message, StandardCharsets.UTF_8)));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] key(String room) {
+        return (KEY_PREFIX + room).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] sequenceKey(String room) {
+        return (SEQUENCE_KEY_PREFIX + room).getBytes(StandardCharsets.UTF_8);
+    }
+}
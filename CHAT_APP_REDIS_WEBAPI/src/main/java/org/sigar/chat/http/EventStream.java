@@ -0,0 +1,72 @@
+package org.sigar.chat.http;
+
+import org.sigar.chat.history.HistoryEntry;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A text/event-stream response for one client. Unlike SseEmitter, which writes and flushes every field
+ * of every event on its own, it writes a room's batch as one pre-encoded chunk shared by all streams.
+ *
+ * Live messages that arrive while the stream is still replaying history are held, then sent after the
+ * replay minus any the replay already covered, so the client sees each message once and in order.
+ */
+final class EventStream extends ResponseBodyEmitter {
+    private static final MediaType EVENT_STREAM = new MediaType("text", "event-stream", StandardCharsets.UTF_8);
+
+    // Live messages waiting for the replay; null once caught up
+    private List<HistoryEntry> held = new ArrayList<>();
+
+    EventStream(long timeoutMillis) {
+        super(timeoutMillis);
+    }
+
+    @Override
+    protected void extendResponse(ServerHttpResponse outputMessage) {
+        super.extendResponse(outputMessage);
+        outputMessage.getHeaders().setContentType(EVENT_STREAM);
+        outputMessage.getHeaders().setCacheControl("no-cache");
+        // Stops nginx and similar proxies from buffering the stream until it ends
+        outputMessage.getHeaders().set("X-Accel-Buffering", "no");
+    }
+
+    synchronized void deliver(List<HistoryEntry> batch, byte[] events) throws IOException {
+        if (held != null) {
+            held.addAll(batch);
+            return;
+        }
+        write(events);
+    }
+
+    synchronized void caughtUp(List<HistoryEntry> replay, Function<List<HistoryEntry>, byte[]> encoder) throws IOException {
+        List<HistoryEntry> pending = held;
+        held = null;
+        List<HistoryEntry> all = new ArrayList<>(replay);
+        Set<String> replayed = new HashSet<>();
+        replay.forEach(entry -> replayed.add(entry.id()));
+        pending.stream().filter(entry -> !replayed.contains(entry.id())).forEach(all::add);
+        write(RoomEventEncoder.OPEN);
+        if (!all.isEmpty()) {
+            write(encoder.apply(all));
+        }
+    }
+
+    synchronized void keepAlive() throws IOException {
+        if (held == null) {
+            write(RoomEventEncoder.KEEP_ALIVE);
+        }
+    }
+
+    private void write(byte[] chunk) throws IOException {
+        send(chunk, MediaType.APPLICATION_OCTET_STREAM);
+    }
+}
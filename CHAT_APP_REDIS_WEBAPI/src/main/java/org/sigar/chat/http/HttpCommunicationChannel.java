@@ -3,6 +3,8 @@ package org.sigar.chat.http;
 import org.sigar.chat.channel.CommunicationChannel;
 import org.sigar.chat.channel.MessageHandler;
 import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
@@ -11,6 +13,7 @@ import org.springframework.stereotype.Component;
 @Component
 @ConditionalOnProperty(name = "chat.communication.channel", havingValue = "http")
 public class HttpCommunicationChannel implements CommunicationChannel {
+    private static final Logger log = LoggerFactory.getLogger(HttpCommunicationChannel.class);
 
     private final SimpMessagingTemplate messagingTemplate;
 
@@ -19,22 +22,22 @@ public class HttpCommunicationChannel implements CommunicationChannel {
     }
     @Override
     public void connect() {
-        System.out.println("HTTP channel connected");
+        log.info("HTTP channel connected");
     }
 
     @Override
     public void disconnect() {
-        System.out.println("HTTP channel disconnected");
+        log.info("HTTP channel disconnected");
     }
 
     @Override
-    public void sendMessage(String destination, String message) {
+    public void sendMessage(String destination, byte[] message) {
         ChatMessageBroadcaster.broadcastMessageToSubscribers(messagingTemplate,destination,message);
     }
 
     @Override
     public void receiveMessage(String source, MessageHandler messageHandler) {
-       // throw new UnsupportedOperationException("HTTP does not support continuous message subscription");
-        System.out.println("HTTP does not support continuous message subscription,handling via stomp");
+        // Nothing to register: sendMessage already reaches this node's STOMP subscribers, and HTTP clients
+        // streaming or long-polling a room are served from the same broadcast by HttpRoomDelivery
     }
 }
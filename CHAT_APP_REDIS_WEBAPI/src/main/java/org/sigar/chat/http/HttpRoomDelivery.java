@@ -0,0 +1,290 @@
+package org.sigar.chat.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sigar.chat.broker.ShardedRoomBroker;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.core.RoomSubscriptionTracker;
+import org.sigar.chat.history.ChatHistoryStore;
+import org.sigar.chat.history.HistoryEntry;
+import org.sigar.chat.pipeline.ChatMetrics;
+import org.sigar.chat.pipeline.Serialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Room messages over plain HTTP, for clients whose proxies break WebSockets: a text/event-stream per
+ * room (GET /events/{room}) and long polling (GET /poll/{room}?after={id}), see RoomEventsController.
+ *
+ * Waiting clients are parked as async requests, so they hold no servlet thread, only a small object
+ * each in their room's {@link RoomFeed}. Messages are taken from the broker channel, where every room
+ * message for this node's clients passes whichever CommunicationChannel is active, and each room is
+ * flushed on one of a few delivery threads: whatever arrived since the last flush is encoded once and
+ * answers every parked poll and goes down every stream in one write.
+ *
+ * Rooms with HTTP clients are held open with RoomSubscriptionTracker like STOMP subscriptions are, and
+ * released once they have had no HTTP clients for chat.http.idle-release-ms, so long polls coming and
+ * going do not subscribe and unsubscribe the room on the channel each time.
+ */
+@Component
+public class HttpRoomDelivery implements MessageHandler {
+    private static final Logger log = LoggerFactory.getLogger(HttpRoomDelivery.class);
+
+    private final SubscribableChannel brokerChannel;
+    private final RoomSubscriptionTracker tracker;
+    private final ChatHistoryStore historyStore;
+    private final RoomEventEncoder encoder;
+    private final ChatMetrics metrics;
+    private final long pollTimeoutMillis;
+    private final long streamTimeoutMillis;
+    private final long keepAliveMillis;
+    private final long idleReleaseMillis;
+    private final int catchUpLimit;
+    private final Map<String, RoomFeed> feeds = new ConcurrentHashMap<>();
+    private final ExecutorService[] shards;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-delivery-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter failedStreams;
+
+    public HttpRoomDelivery(@Qualifier("brokerChannel") SubscribableChannel brokerChannel, RoomSubscriptionTracker tracker,
+                            ChatHistoryStore historyStore, ObjectMapper objectMapper, MeterRegistry registry, ChatMetrics metrics,
+                            @Value("${chat.http.long-poll-timeout-ms:25000}") long pollTimeoutMillis,
+                            @Value("${chat.http.stream-timeout-ms:600000}") long streamTimeoutMillis,
+                            @Value("${chat.http.keep-alive-ms:15000}") long keepAliveMillis,
+                            @Value("${chat.http.idle-release-ms:30000}") long idleReleaseMillis,
+                            @Value("${chat.http.delivery-threads:2}") int deliveryThreads,
+                            @Value("${chat.history.catch-up-limit:500}") int catchUpLimit) {
+        this.brokerChannel = brokerChannel;
+        this.tracker = tracker;
+        this.historyStore = historyStore;
+        this.encoder = new RoomEventEncoder(objectMapper);
+        this.metrics = metrics;
+        this.pollTimeoutMillis = pollTimeoutMillis;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+        this.keepAliveMillis = keepAliveMillis;
+        this.idleReleaseMillis = idleReleaseMillis;
+        this.catchUpLimit = catchUpLimit;
+        this.shards = new ExecutorService[deliveryThreads];
+        for (int i = 0; i < deliveryThreads; i++) {
+            String name = "http-delivery-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        Gauge.builder("chat.http.polls.parked", feeds, f -> f.values().stream().mapToInt(RoomFeed::parked).sum())
+                .description("Long polls waiting for a message")
+                .register(registry);
+        Gauge.builder("chat.http.streams.open", feeds, f -> f.values().stream().mapToInt(feed -> feed.streams().size()).sum())
+                .description("Open event streams")
+                .register(registry);
+        this.failedStreams = Counter.builder("chat.http.streams.failed")
+                .description("Event streams dropped because a write to the client failed")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        brokerChannel.subscribe(this);
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                log.warn("HTTP delivery sweep failed", e);
+            }
+        }, keepAliveMillis, keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        brokerChannel.unsubscribe(this);
+        sweeper.shutdownNow();
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        feeds.values().forEach(feed -> feed.streams().forEach(ResponseBodyEmitter::complete));
+    }
+
+    /**
+     * Parks a long poll until the room's next messages. With afterId, messages already stored after it
+     * are returned straight away instead; the body is always a JSON array of history entries, empty if
+     * nothing arrived within chat.http.long-poll-timeout-ms.
+     */
+    public DeferredResult<ResponseEntity<byte[]>> poll(String room, String afterId) {
+        ParkedPoll poll = new ParkedPoll(pollTimeoutMillis, afterId != null);
+        RoomFeed feed = join(room, candidate -> candidate.add(poll));
+        poll.result.onCompletion(() -> feed.remove(poll));
+        if (afterId != null) {
+            List<HistoryEntry> missed;
+            try {
+                missed = historyStore.readAfter(room, afterId, catchUpLimit);
+            } catch (IllegalArgumentException e) {
+                feed.remove(poll);
+                poll.result.setResult(ResponseEntity.badRequest().build());
+                return poll.result;
+            }
+            poll.caughtUp(missed, encoder::json);
+        }
+        return poll.result;
+    }
+
+    /**
+     * Opens an event stream on the room. A reconnecting EventSource sends the id of the last event it saw
+     * as lastEventId, and the messages stored after it are replayed before live ones.
+     */
+    public ResponseBodyEmitter stream(String room, String lastEventId) {
+        EventStream stream = new EventStream(streamTimeoutMillis);
+        RoomFeed feed = join(room, candidate -> candidate.add(stream));
+        stream.onCompletion(() -> feed.remove(stream));
+        List<HistoryEntry> replay = List.of();
+        if (lastEventId != null) {
+            try {
+                replay = historyStore.readAfter(room, lastEventId, catchUpLimit);
+            } catch (IllegalArgumentException e) {
+                log.debug("Not replaying {} after unknown event id {}", room, lastEventId);
+            }
+        }
+        try {
+            stream.caughtUp(replay, encoder::events);
+        } catch (IOException e) {
+            feed.remove(stream);
+        }
+        return stream;
+    }
+
+    /**
+     * Broker channel callback; the same messages ShardedRoomBroker fans out to STOMP sessions.
+     */
+    @Override
+    public void handleMessage(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (!SimpMessageType.MESSAGE.equals(SimpMessageHeaderAccessor.getMessageType(headers))
+                || SimpMessageHeaderAccessor.getSessionId(headers) != null) {
+            // Client SENDs straight to a topic never reach rooms, see ShardedRoomBroker
+            return;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(ShardedRoomBroker.ROOM_DESTINATION_PREFIX)
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return;
+        }
+        String room = destination.substring(ShardedRoomBroker.ROOM_DESTINATION_PREFIX.length());
+        RoomFeed feed = feeds.get(room);
+        if (feed == null) {
+            return;
+        }
+        String historyId = NativeMessageHeaderAccessor.getFirstNativeHeader(ChatMessageBroadcaster.HISTORY_ID_HEADER, headers);
+        String sequence = NativeMessageHeaderAccessor.getFirstNativeHeader(ChatMessageBroadcaster.SEQUENCE_HEADER, headers);
+        HistoryEntry entry = new HistoryEntry(historyId, sequence != null ? Long.parseLong(sequence) : 0,
+                new String(payload, StandardCharsets.UTF_8));
+        // Timed as it is queued for the room's clients, like ShardedRoomBroker queueing frames on sessions
+        metrics.delivered(ChatMetrics.Transport.HTTP, ChatMessageBroadcaster.ingressMicros(headers));
+        if (feed.offer(entry)) {
+            shards[Math.floorMod(room.hashCode(), shards.length)].execute(() -> flush(feed));
+        }
+    }
+
+    private RoomFeed join(String room, Predicate<RoomFeed> join) {
+        while (true) {
+            RoomFeed feed = feeds.get(room);
+            if (feed == null) {
+                RoomFeed created = new RoomFeed();
+                feed = feeds.putIfAbsent(room, created);
+                if (feed == null) {
+                    feed = created;
+                    tracker.retain(room);
+                }
+            }
+            if (join.test(feed)) {
+                return feed;
+            }
+            // Closed by the sweeper, which removes it from feeds next
+            Thread.onSpinWait();
+        }
+    }
+
+    private void flush(RoomFeed feed) {
+        List<HistoryEntry> batch = feed.drain();
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<ParkedPoll> polls = feed.takePolls();
+        if (!polls.isEmpty()) {
+            long encodeStart = System.nanoTime();
+            ResponseEntity<byte[]> response = ParkedPoll.json(encoder.json(batch));
+            metrics.serialized(Serialization.HTTP_BODY, encodeStart);
+            polls.forEach(poll -> poll.deliver(batch, response));
+        }
+        if (!feed.streams().isEmpty()) {
+            long encodeStart = System.nanoTime();
+            byte[] events = encoder.events(batch);
+            metrics.serialized(Serialization.HTTP_BODY, encodeStart);
+            for (EventStream stream : feed.streams()) {
+                try {
+                    stream.deliver(batch, events);
+                } catch (IOException | IllegalStateException e) {
+                    drop(feed, stream, e);
+                }
+            }
+        }
+    }
+
+    // Releases rooms nobody has waited on for a while, and keeps quiet streams alive through proxies
+    void sweep() {
+        long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        feeds.forEach((room, feed) -> {
+            if (feed.closeIfIdle(now, idleReleaseMillis)) {
+                feeds.remove(room, feed);
+                tracker.release(room);
+                return;
+            }
+            for (EventStream stream : feed.streams()) {
+                try {
+                    stream.keepAlive();
+                } catch (IOException | IllegalStateException e) {
+                    drop(feed, stream, e);
+                }
+            }
+        });
+    }
+
+    // The container completes the request after a failed write, so only our reference has to go
+    private void drop(RoomFeed feed, EventStream stream, Exception cause) {
+        feed.remove(stream);
+        failedStreams.increment();
+        log.debug("Dropped an event stream: {}", cause.toString());
+    }
+}
@@ -0,0 +1,60 @@
+package org.sigar.chat.http;
+
+import org.sigar.chat.history.HistoryEntry;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A long poll waiting for its room's next messages. Only the DeferredResult is held while it waits;
+ * the servlet thread went back to the pool when the controller returned.
+ *
+ * A poll that names the last message its client saw is parked before history is checked, so nothing
+ * can slip between the check and the wait. Messages delivered before the check finishes are kept and
+ * merged with whatever history returned.
+ */
+final class ParkedPoll {
+    final DeferredResult<ResponseEntity<byte[]>> result;
+    // Live messages that arrived before the history check finished; null once it has
+    private List<HistoryEntry> early;
+
+    ParkedPoll(long timeoutMillis, boolean catchingUp) {
+        this.result = new DeferredResult<>(timeoutMillis, json(RoomEventEncoder.EMPTY_BATCH));
+        this.early = catchingUp ? new ArrayList<>() : null;
+    }
+
+    synchronized void deliver(List<HistoryEntry> batch, ResponseEntity<byte[]> response) {
+        if (early != null) {
+            // Answered by caughtUp, together with whatever history returns
+            early.addAll(batch);
+            return;
+        }
+        result.setResult(response);
+    }
+
+    /**
+     * Answers the poll with the missed messages and any live ones that came meanwhile; with neither,
+     * it keeps waiting for the next flush.
+     */
+    synchronized void caughtUp(List<HistoryEntry> missed, Function<List<HistoryEntry>, byte[]> encoder) {
+        List<HistoryEntry> pending = early;
+        early = null;
+        List<HistoryEntry> all = new ArrayList<>(missed);
+        Set<String> seen = new HashSet<>();
+        missed.forEach(entry -> seen.add(entry.id()));
+        pending.stream().filter(entry -> !seen.contains(entry.id())).forEach(all::add);
+        if (!all.isEmpty()) {
+            result.setResult(json(encoder.apply(all)));
+        }
+    }
+
+    static ResponseEntity<byte[]> json(byte[] body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
@@ -0,0 +1,79 @@
+package org.sigar.chat.http;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.sigar.chat.history.HistoryEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes a batch of room messages once for every HTTP client waiting on the room: as a JSON array
+ * for long polls, shaped like the history endpoint's pages, and as text/event-stream events for streams.
+ */
+final class RoomEventEncoder {
+    private static final byte[] ID = "id:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = "data:".getBytes(StandardCharsets.US_ASCII);
+    /** SSE comment line; keeps proxies from closing a stream that has been quiet for a while */
+    static final byte[] KEEP_ALIVE = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * First chunk of every stream: how long EventSource should wait before reconnecting. Spring only sends
+     * the response headers with the first write, so without it a quiet room would not even open the stream.
+     */
+    static final byte[] OPEN = "retry:2000\n\n".getBytes(StandardCharsets.US_ASCII);
+    /** What a long poll gets when nothing arrived before it timed out */
+    static final byte[] EMPTY_BATCH = "[]".getBytes(StandardCharsets.US_ASCII);
+
+    private final ObjectWriter batchWriter;
+    private final ObjectWriter entryWriter;
+
+    RoomEventEncoder(ObjectMapper objectMapper) {
+        this.batchWriter = objectMapper.writerFor(new TypeReference<List<HistoryEntry>>() {
+        });
+        this.entryWriter = objectMapper.writerFor(HistoryEntry.class);
+    }
+
+    byte[] json(List<HistoryEntry> batch) {
+        try {
+            return batchWriter.writeValueAsBytes(batch);
+        } catch (JsonProcessingException e) {
+            // The messages are JSON validated at ingress, so this is a programming error
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * One event per message with the history id as its id, which EventSource sends back as Last-Event-ID
+     * when it reconnects. The data is the entry's JSON; raw newlines in it become extra data lines.
+     */
+    byte[] events(List<HistoryEntry> batch) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(batch.size() * 256);
+        for (HistoryEntry entry : batch) {
+            byte[] data;
+            try {
+                data = entryWriter.writeValueAsBytes(entry);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            out.writeBytes(ID);
+            out.writeBytes(entry.id().getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.writeBytes(DATA);
+            for (byte b : data) {
+                if (b == '\n') {
+                    out.write('\n');
+                    out.writeBytes(DATA);
+                } else if (b != '\r') {
+                    out.write(b);
+                }
+            }
+            out.write('\n');
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+}
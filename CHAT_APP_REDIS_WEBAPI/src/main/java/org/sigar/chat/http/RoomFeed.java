@@ -0,0 +1,111 @@
+package org.sigar.chat.http;
+
+import org.sigar.chat.history.HistoryEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HTTP clients waiting on one room, and the room's messages that have not gone out to them yet.
+ *
+ * Messages queue here until the room's delivery thread runs a flush; everything that arrived by then goes
+ * out as one batch, so a burst costs each client one response or one write rather than one per message.
+ */
+final class RoomFeed {
+    private final Queue<HistoryEntry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Set<EventStream> streams = ConcurrentHashMap.newKeySet();
+    // Swapped for a fresh set by every flush that answers them; guarded by this
+    private Set<ParkedPoll> polls = new HashSet<>();
+    private boolean closed;
+    private boolean idle;
+    private long idleSince;
+
+    /**
+     * @return true if a flush has to be scheduled for this message
+     */
+    boolean offer(HistoryEntry entry) {
+        pending.add(entry);
+        return flushScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Messages queued since the last flush; called on the room's delivery thread.
+     */
+    List<HistoryEntry> drain() {
+        // Cleared first, so a message queued from here on schedules the next flush
+        flushScheduled.set(false);
+        List<HistoryEntry> batch = new ArrayList<>();
+        HistoryEntry entry;
+        while ((entry = pending.poll()) != null) {
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    synchronized Set<ParkedPoll> takePolls() {
+        Set<ParkedPoll> taken = polls;
+        polls = new HashSet<>();
+        return taken;
+    }
+
+    Set<EventStream> streams() {
+        return streams;
+    }
+
+    /**
+     * @return false if the feed was closed in the meantime and the caller should use a new one
+     */
+    synchronized boolean add(ParkedPoll poll) {
+        if (closed) {
+            return false;
+        }
+        polls.add(poll);
+        return true;
+    }
+
+    synchronized boolean add(EventStream stream) {
+        if (closed) {
+            return false;
+        }
+        streams.add(stream);
+        return true;
+    }
+
+    synchronized void remove(ParkedPoll poll) {
+        polls.remove(poll);
+    }
+
+    void remove(EventStream stream) {
+        streams.remove(stream);
+    }
+
+    synchronized int parked() {
+        return polls.size();
+    }
+
+    /**
+     * Closes the feed once it has had no clients for idleMillis; the caller then releases the room.
+     */
+    synchronized boolean closeIfIdle(long now, long idleMillis) {
+        if (!polls.isEmpty() || !streams.isEmpty()) {
+            idle = false;
+            return false;
+        }
+        if (!idle) {
+            idle = true;
+            idleSince = now;
+        }
+        if (now - idleSince < idleMillis) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+}
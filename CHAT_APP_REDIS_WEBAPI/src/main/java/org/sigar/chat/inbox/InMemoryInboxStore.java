@@ -0,0 +1,142 @@
+package org.sigar.chat.inbox;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Single-node inboxes for the http and websocket channels, in memory like InMemoryChatHistoryStore.
+ * Each user keeps at most maxLength messages for at most ttl; an inbox left with nothing pending is
+ * dropped together with its cursor, since ids never repeat and a later message is always after it.
+ * Expired messages go when their inbox is next touched, and every SWEEP_INTERVAL appends all inboxes
+ * are checked, so users who never come back do not keep theirs forever.
+ */
+public class InMemoryInboxStore implements InboxStore {
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final Map<String, UserInbox> inboxes = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int maxLength;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    public InMemoryInboxStore(int maxLength, Duration ttl) {
+        this(maxLength, ttl, System::currentTimeMillis);
+    }
+
+    InMemoryInboxStore(int maxLength, Duration ttl, LongSupplier clock) {
+        this.maxLength = maxLength;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+    }
+
+    @Override
+    public String append(String user, byte[] message) {
+        Stored stored = null;
+        while (stored == null) {
+            UserInbox inbox = inboxes.computeIfAbsent(user, u -> new UserInbox());
+            synchronized (inbox) {
+                if (inbox.removed) {
+                    continue;
+                }
+                expireHead(inbox);
+                stored = new Stored(sequence.incrementAndGet(), clock.getAsLong(), message);
+                inbox.entries.addLast(stored);
+                if (inbox.entries.size() > maxLength) {
+                    inbox.entries.removeFirst();
+                }
+            }
+        }
+        if (stored.sequence % SWEEP_INTERVAL == 0) {
+            sweep();
+        }
+        return stored.id();
+    }
+
+    // Locks one inbox at a time and never while holding another, so two sweeping appends cannot deadlock
+    private void sweep() {
+        inboxes.forEach((user, inbox) -> {
+            synchronized (inbox) {
+                expire(user, inbox);
+            }
+        });
+    }
+
+    @Override
+    public List<InboxEntry> pending(String user, int limit) {
+        UserInbox inbox = inboxes.get(user);
+        List<InboxEntry> entries = new ArrayList<>();
+        if (inbox == null) {
+            return entries;
+        }
+        synchronized (inbox) {
+            expire(user, inbox);
+            for (Stored stored : inbox.entries) {
+                if (entries.size() == limit) {
+                    break;
+                }
+                entries.add(new InboxEntry(stored.id(), new String(stored.message, StandardCharsets.UTF_8)));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void acknowledge(String user, String id) {
+        long acknowledged = sequenceOf(id);
+        UserInbox inbox = inboxes.get(user);
+        if (inbox == null) {
+            return;
+        }
+        synchronized (inbox) {
+            // Only pending messages are kept, so the cursor is wherever the deque starts
+            while (!inbox.entries.isEmpty() && inbox.entries.peekFirst().sequence <= acknowledged) {
+                inbox.entries.removeFirst();
+            }
+            expire(user, inbox);
+        }
+    }
+
+    // Both called with the inbox locked
+    private void expire(String user, UserInbox inbox) {
+        expireHead(inbox);
+        if (inbox.entries.isEmpty()) {
+            inbox.removed = true;
+            inboxes.remove(user, inbox);
+        }
+    }
+
+    private void expireHead(UserInbox inbox) {
+        long oldest = clock.getAsLong() - ttlMillis;
+        while (!inbox.entries.isEmpty() && inbox.entries.peekFirst().storedAt < oldest) {
+            inbox.entries.removeFirst();
+        }
+    }
+
+    private static long sequenceOf(String id) {
+        int dash = id.indexOf('-');
+        try {
+            return Long.parseLong(dash < 0 ? id : id.substring(0, dash));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid inbox id: " + id);
+        }
+    }
+
+    private static final class UserInbox {
+        private final Deque<Stored> entries = new ArrayDeque<>();
+        private boolean removed;
+    }
+
+    private record Stored(long sequence, long storedAt, byte[] message) {
+        String id() {
+            return sequence + "-0";
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.sigar.chat.inbox;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+
+@Configuration
+public class InboxConfig {
+
+    // Shared inboxes whenever nodes talk to each other, so a user finds theirs on whichever node they
+    // reconnect to and every node can read what another one stored; chat.inbox.store=memory|redis overrides
+    @Bean
+    @ConditionalOnExpression("'${chat.inbox.store:}' == 'redis' or ('${chat.inbox.store:}' == ''"
+            + " and {'redis', 'grpc', 'shm'}.contains('${chat.communication.channel:}'))")
+    public InboxStore redisInboxStore(RedisTemplate<String, String> redisTemplate,
+                                      @Value("${chat.inbox.max-length:1000}") long maxLength,
+                                      @Value("${chat.inbox.ttl-ms:604800000}") long ttlMillis) {
+        return new RedisStreamInboxStore(redisTemplate, maxLength, Duration.ofMillis(ttlMillis));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(InboxStore.class)
+    public InboxStore inMemoryInboxStore(@Value("${chat.inbox.max-length:1000}") int maxLength,
+                                         @Value("${chat.inbox.ttl-ms:604800000}") long ttlMillis) {
+        return new InMemoryInboxStore(maxLength, Duration.ofMillis(ttlMillis));
+    }
+}
@@ -0,0 +1,9 @@
+package org.sigar.chat.inbox;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+/**
+ * A direct message in a user's inbox; message is the stored JSON, written out as-is.
+ */
+public record InboxEntry(String id, @JsonRawValue String message) {
+}
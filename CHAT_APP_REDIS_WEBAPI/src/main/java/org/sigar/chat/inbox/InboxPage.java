@@ -0,0 +1,10 @@
+package org.sigar.chat.inbox;
+
+import java.util.List;
+
+/**
+ * What clients receive on /queue/inbox/{user}: messages oldest first, and whether more are waiting
+ * behind them. Acknowledging the last id of a page with more brings the next one.
+ */
+public record InboxPage(List<InboxEntry> entries, boolean more) {
+}
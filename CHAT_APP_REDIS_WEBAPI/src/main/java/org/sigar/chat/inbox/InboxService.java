@@ -0,0 +1,181 @@
+package org.sigar.chat.inbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Direct messages go through the recipient's inbox whether they are online or not, so one path covers
+ * both: the message is appended, and if the recipient has a session subscribed to
+ * /queue/inbox/{user} on any node that node pushes their first pending page. Clients show entries by
+ * id, ignoring ones they already have, and acknowledge the last id of every page; a page with more
+ * behind it brings the next one once acknowledged. Anything not acknowledged is there again on the
+ * next connect, until the store's ttl.
+ *
+ * On a distributed channel the push is announced on {@link #CHANNEL} with just the user name, and
+ * every node, this one included, reads the page only if one of its own sessions is subscribed. That
+ * needs a store every node shares, so a node-local store on a distributed channel fails at startup.
+ */
+@Component
+public class InboxService {
+    /** Control destination inbox notifications are exchanged on */
+    public static final String CHANNEL = CommunicationChannel.CONTROL_PREFIX + "inbox";
+    static final String DESTINATION_PREFIX = "/queue/inbox/";
+
+    private final InboxStore store;
+    private final CommunicationChannel channel;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int pageSize;
+    // sessionId -> subscriptionId -> user, as in RoomSubscriptionTracker
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    private final Map<String, Integer> subscribers = new HashMap<>();
+    private final Counter appended;
+
+    public InboxService(InboxStore store, CommunicationChannel channel, SimpMessagingTemplate messagingTemplate,
+                        MeterRegistry registry, @Value("${chat.inbox.page-size:100}") int pageSize) {
+        this.store = store;
+        this.channel = channel;
+        this.messagingTemplate = messagingTemplate;
+        this.pageSize = pageSize;
+        this.appended = Counter.builder("chat.inbox.appended")
+                .description("Direct messages stored in an inbox")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (channel.isDistributed() && !store.isShared()) {
+            throw new IllegalStateException("Inboxes on a distributed channel must be shared between nodes,"
+                    + " set chat.inbox.store=redis");
+        }
+        if (channel.isDistributed()) {
+            channel.receiveMessage(CHANNEL, (source, message) -> push(new String(message, StandardCharsets.UTF_8)));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (channel.isDistributed()) {
+            channel.stopReceiving(CHANNEL);
+        }
+    }
+
+    /**
+     * Stores an already validated message for user and pushes it to them if they are connected.
+     */
+    public String deliver(String user, byte[] message) {
+        String id = store.append(user, message);
+        appended.increment();
+        if (channel.isDistributed()) {
+            channel.sendMessage(CHANNEL, user.getBytes(StandardCharsets.UTF_8));
+        } else {
+            push(user);
+        }
+        return id;
+    }
+
+    /**
+     * The oldest messages the user has not acknowledged yet.
+     */
+    public InboxPage page(String user) {
+        List<InboxEntry> entries = store.pending(user, pageSize + 1);
+        boolean more = entries.size() > pageSize;
+        return new InboxPage(more ? entries.subList(0, pageSize) : entries, more);
+    }
+
+    /**
+     * Moves the user's cursor to id and pushes what is still pending, if anything.
+     */
+    public void acknowledge(String user, String id) {
+        store.acknowledge(user, id);
+        InboxPage next = page(user);
+        if (!next.entries().isEmpty()) {
+            messagingTemplate.convertAndSend(DESTINATION_PREFIX + user, next);
+        }
+    }
+
+    void push(String user) {
+        if (!hasSubscribers(user)) {
+            return;
+        }
+        InboxPage page = page(user);
+        if (!page.entries().isEmpty()) {
+            messagingTemplate.convertAndSend(DESTINATION_PREFIX + user, page);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        subscribed(accessor.getSessionId(), accessor.getSubscriptionId(), accessor.getDestination());
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        unsubscribed(accessor.getSessionId(), accessor.getSubscriptionId());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        disconnected(event.getSessionId());
+    }
+
+    synchronized void subscribed(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null || !destination.startsWith(DESTINATION_PREFIX)) {
+            return;
+        }
+        String user = destination.substring(DESTINATION_PREFIX.length());
+        String previous = sessions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(subscriptionId, user);
+        if (previous != null) {
+            release(previous);
+        }
+        subscribers.merge(user, 1, Integer::sum);
+    }
+
+    synchronized void unsubscribed(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = sessions.get(sessionId);
+        if (subscriptions == null) {
+            return;
+        }
+        String user = subscriptions.remove(subscriptionId);
+        if (subscriptions.isEmpty()) {
+            sessions.remove(sessionId);
+        }
+        if (user != null) {
+            release(user);
+        }
+    }
+
+    synchronized void disconnected(String sessionId) {
+        Map<String, String> subscriptions = sessions.remove(sessionId);
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::release);
+        }
+    }
+
+    private synchronized boolean hasSubscribers(String user) {
+        return subscribers.containsKey(user);
+    }
+
+    private void release(String user) {
+        if (subscribers.merge(user, -1, Integer::sum) <= 0) {
+            subscribers.remove(user);
+        }
+    }
+}
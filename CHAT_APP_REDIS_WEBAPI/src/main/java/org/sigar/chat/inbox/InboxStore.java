@@ -0,0 +1,35 @@
+package org.sigar.chat.inbox;
+
+import java.util.List;
+
+/**
+ * Per-user log of direct messages with a delivery cursor. Ids only increase within a user's inbox;
+ * the cursor is the id of the last message the user acknowledged, and everything after it is pending.
+ * Messages older than the store's ttl are dropped whether they were delivered or not.
+ */
+public interface InboxStore {
+    /**
+     * Appends a validated message to the user's inbox and returns its id.
+     */
+    String append(String user, byte[] message);
+
+    /**
+     * Up to limit messages after the user's cursor, oldest first.
+     */
+    List<InboxEntry> pending(String user, int limit);
+
+    /**
+     * Moves the user's cursor forward to id; acknowledging an id at or behind the cursor changes nothing.
+     *
+     * @throws IllegalArgumentException if id is not an inbox id
+     */
+    void acknowledge(String user, String id);
+
+    /**
+     * Whether every node sees the same inboxes. A distributed channel needs this: nodes are told about a
+     * new message by user name only and read it from their own store.
+     */
+    default boolean isShared() {
+        return false;
+    }
+}
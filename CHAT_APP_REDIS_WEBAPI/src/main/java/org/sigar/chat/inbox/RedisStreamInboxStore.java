@@ -0,0 +1,146 @@
+package org.sigar.chat.inbox;
+
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Inboxes on one Redis Stream per user (chat:inbox:{user}), with the cursor next to it in
+ * chat:inbox-cursor:{user}; the prefixes are disjoint so no user name can make one key the other's.
+ * Appends trim approximately to maxLength and drop entries older than ttl
+ * in the same script, and both keys expire ttl after the last write, so users who never come back
+ * cost nothing after a while. Entries are still filtered by age on read, since approximate trimming
+ * leaves some behind.
+ */
+public class RedisStreamInboxStore implements InboxStore {
+    private static final String KEY_PREFIX = "chat:inbox:";
+    private static final String CURSOR_KEY_PREFIX = "chat:inbox-cursor:";
+    private static final byte[] MESSAGE_FIELD = "m".getBytes(StandardCharsets.UTF_8);
+    private static final Pattern ID = Pattern.compile("\\d+-\\d+");
+    private static final byte[] APPEND_SCRIPT = ("""
+            local id = redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[2], '*', 'm', ARGV[1])
+            redis.call('XTRIM', KEYS[1], 'MINID', '~', ARGV[3])
+            redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            redis.call('PEXPIRE', KEYS[2], ARGV[4])
+            return id
+            """).getBytes(StandardCharsets.UTF_8);
+    // Ids are "ms-seq"; the cursor only moves forward, so a late or repeated ack is harmless
+    private static final byte[] ACKNOWLEDGE_SCRIPT = ("""
+            local current = redis.call('GET', KEYS[1])
+            if current then
+                local cms, cseq = string.match(current, '(%d+)-(%d+)')
+                local ms, seq = string.match(ARGV[1], '(%d+)-(%d+)')
+                cms, cseq, ms, seq = tonumber(cms), tonumber(cseq), tonumber(ms), tonumber(seq)
+                if ms < cms or (ms == cms and seq <= cseq) then
+                    return 0
+                end
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            return 1
+            """).getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long maxLength;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    public RedisStreamInboxStore(RedisTemplate<String, String> redisTemplate, long maxLength, Duration ttl) {
+        this(redisTemplate, maxLength, ttl, System::currentTimeMillis);
+    }
+
+    RedisStreamInboxStore(RedisTemplate<String, String> redisTemplate, long maxLength, Duration ttl, LongSupplier clock) {
+        this.redisTemplate = redisTemplate;
+        this.maxLength = maxLength;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+    }
+
+    @Override
+    public String append(String user, byte[] message) {
+        byte[] id = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.scriptingCommands()
+                .eval(APPEND_SCRIPT, ReturnType.VALUE, 2, key(user), cursorKey(user), message,
+                        ascii(Long.toString(maxLength)), ascii(oldestId()), ascii(Long.toString(ttlMillis))));
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public List<InboxEntry> pending(String user, int limit) {
+        String cursor = redisTemplate.opsForValue().get(CURSOR_KEY_PREFIX + user);
+        String oldest = oldestId();
+        // Inclusive bound plus one extra record, dropping the cursor itself, as in the history store
+        String start = cursor == null || compare(cursor, oldest) < 0 ? oldest : cursor;
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xRange(key(user), Range.rightUnbounded(Range.Bound.inclusive(start)),
+                        Limit.limit().count(limit + 1)));
+        List<InboxEntry> entries = new ArrayList<>();
+        if (records == null) {
+            return entries;
+        }
+        for (ByteRecord record : records) {
+            String id = record.getId().getValue();
+            if (id.equals(cursor)) {
+                continue;
+            }
+            if (entries.size() == limit) {
+                break;
+            }
+            for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+                if (Arrays.equals(field.getKey(), MESSAGE_FIELD)) {
+                    entries.add(new InboxEntry(id, new String(field.getValue(), StandardCharsets.UTF_8)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void acknowledge(String user, String id) {
+        if (!ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid inbox id: " + id);
+        }
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.scriptingCommands()
+                .eval(ACKNOWLEDGE_SCRIPT, ReturnType.INTEGER, 1, cursorKey(user), ascii(id), ascii(Long.toString(ttlMillis))));
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    // Stream ids start with the server's clock; this uses ours, which is close enough for a ttl in days
+    private String oldestId() {
+        return (clock.getAsLong() - ttlMillis) + "-0";
+    }
+
+    private static int compare(String left, String right) {
+        int leftDash = left.indexOf('-');
+        int rightDash = right.indexOf('-');
+        int byTime = Long.compare(Long.parseLong(left.substring(0, leftDash)), Long.parseLong(right.substring(0, rightDash)));
+        return byTime != 0 ? byTime
+                : Long.compare(Long.parseLong(left.substring(leftDash + 1)), Long.parseLong(right.substring(rightDash + 1)));
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] key(String user) {
+        return (KEY_PREFIX + user).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] cursorKey(String user) {
+        return (CURSOR_KEY_PREFIX + user).getBytes(StandardCharsets.UTF_8);
+    }
+}
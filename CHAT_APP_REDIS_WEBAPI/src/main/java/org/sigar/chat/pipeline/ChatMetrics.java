@@ -0,0 +1,106 @@
+package org.sigar.chat.pipeline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts chat messages at each end of the pipeline and times them in between, all tagged with the
+ * chat.communication.channel in use:
+ * <ul>
+ *   <li>chat.messages.received: sends accepted by ChatController</li>
+ *   <li>chat.messages.published: messages handed to the channel after their history append</li>
+ *   <li>chat.messages.delivered: messages handed to this node's clients, per transport</li>
+ *   <li>chat.messages.latency: from ChatController on the receiving node to delivery on this one, per
+ *   transport, as a percentile histogram. Messages recovered from history carry no ingress time and are
+ *   not timed; stamps from a node whose clock is ahead of this one's are dropped by the timer.</li>
+ *   <li>chat.messages.serialization: time spent parsing and encoding messages, per {@link Serialization}</li>
+ * </ul>
+ * Queue depths and per-stage waits are chat.pipeline.* (see {@link StageExecutors}), and the Redis
+ * publisher's chat.redis.publish.*.
+ */
+@Component
+public class ChatMetrics {
+    /** How delivered messages leave this node */
+    public enum Transport {
+        /** STOMP frames queued on sessions by ShardedRoomBroker */
+        WEBSOCKET,
+        /** Event streams and long polls flushed by HttpRoomDelivery */
+        HTTP
+    }
+
+    private final Counter received;
+    private final Counter published;
+    private final Map<Transport, Counter> delivered = new EnumMap<>(Transport.class);
+    private final Map<Transport, Timer> latency = new EnumMap<>(Transport.class);
+    private final Map<Serialization, Timer> serialization = new EnumMap<>(Serialization.class);
+
+    public ChatMetrics(MeterRegistry registry, @Value("${chat.communication.channel}") String channel) {
+        this.received = Counter.builder("chat.messages.received")
+                .description("Chat messages accepted at ingress")
+                .tag("channel", channel)
+                .register(registry);
+        this.published = Counter.builder("chat.messages.published")
+                .description("Chat messages stored and sent on the communication channel")
+                .tag("channel", channel)
+                .register(registry);
+        for (Transport transport : Transport.values()) {
+            String tag = transport.name().toLowerCase();
+            delivered.put(transport, Counter.builder("chat.messages.delivered")
+                    .description("Chat messages handed to this node's clients")
+                    .tag("channel", channel)
+                    .tag("transport", tag)
+                    .register(registry));
+            latency.put(transport, Timer.builder("chat.messages.latency")
+                    .description("Time from a chat message's ingress to its delivery to clients")
+                    .tag("channel", channel)
+                    .tag("transport", tag)
+                    .publishPercentiles(0.5, 0.99, 0.999)
+                    .publishPercentileHistogram()
+                    // Delivery within one node is usually well under a millisecond; buckets start low enough to tell it apart
+                    .minimumExpectedValue(Duration.of(10, ChronoUnit.MICROS))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(registry));
+        }
+        for (Serialization step : Serialization.values()) {
+            serialization.put(step, Timer.builder("chat.messages.serialization")
+                    .description("Time spent parsing or encoding chat messages")
+                    .tag("channel", channel)
+                    .tag("format", step.tag())
+                    .register(registry));
+        }
+    }
+
+    public void received() {
+        received.increment();
+    }
+
+    public void published() {
+        published.increment();
+    }
+
+    /**
+     * @param ingressMicros the message's ingress stamp, from {@link EpochClock#micros()}; 0 if it has none
+     */
+    public void delivered(Transport transport, long ingressMicros) {
+        delivered.get(transport).increment();
+        if (ingressMicros > 0) {
+            latency.get(transport).record(EpochClock.micros() - ingressMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * @param startedAt System.nanoTime() from before the work
+     */
+    public void serialized(Serialization step, long startedAt) {
+        serialization.get(step).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,19 @@
+package org.sigar.chat.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock time in microseconds for stamping messages at ingress. It is read from System.nanoTime
+ * against an epoch offset taken once, so it is monotonic on a node and finer than currentTimeMillis.
+ * Stamps compared across nodes are only as good as the nodes' clock sync.
+ */
+public final class EpochClock {
+    private static final long OFFSET_NANOS = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+    private EpochClock() {
+    }
+
+    public static long micros() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() + OFFSET_NANOS);
+    }
+}
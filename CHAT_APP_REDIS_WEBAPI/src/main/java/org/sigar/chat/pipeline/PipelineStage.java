@@ -0,0 +1,28 @@
+package org.sigar.chat.pipeline;
+
+/**
+ * The hops a chat message takes through this node, each on its own threads.
+ */
+public enum PipelineStage {
+    /** STOMP frames from clients: rate limiting, controllers, history appends and the publish to the channel */
+    INBOUND("inbound"),
+    /** Room fanout in ShardedRoomBroker; one thread per shard, so a room's messages stay in order */
+    DISPATCH("dispatch"),
+    /** Messages arriving from Redis pub/sub on their way to the local broker */
+    REDIS_LISTENER("redis-listener"),
+    /** Socket writes to clients */
+    OUTBOUND("outbound");
+
+    private final String tag;
+
+    PipelineStage(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Name used in the stage's metric tags and thread names.
+     */
+    public String tag() {
+        return tag;
+    }
+}
@@ -0,0 +1,28 @@
+package org.sigar.chat.pipeline;
+
+/**
+ * The places a chat message is parsed or encoded on its way through a node, timed by chat.messages.serialization.
+ */
+public enum Serialization {
+    /** ChatController parsing the JSON a client sent, to validate it */
+    INGRESS_PARSE("ingress-parse"),
+    /** ShardedRoomBroker encoding a STOMP frame, once per distinct subscription id */
+    STOMP_FRAME("stomp-frame"),
+    /** ShardedRoomBroker encoding a CBOR frame, once per session that negotiated it */
+    CBOR_FRAME("cbor-frame"),
+    /** HttpRoomDelivery encoding a flush for event streams or long polls */
+    HTTP_BODY("http-body");
+
+    private final String tag;
+
+    Serialization(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Name used in the metric's format tag.
+     */
+    public String tag() {
+        return tag;
+    }
+}
@@ -0,0 +1,108 @@
+package org.sigar.chat.pipeline;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Builds the executors of every {@link PipelineStage}, so each stage has threads of its own and the
+ * same metrics whatever it runs on (see {@link StageMeter}).
+ *
+ * With chat.pipeline.threads=PLATFORM each pooled stage gets a fixed pool in front of a bounded queue,
+ * whose depth is exported as chat.pipeline.queued; a full queue refuses work rather than letting it pile
+ * up. With VIRTUAL every task gets a virtual thread of its own, so a task blocked on Redis or a socket
+ * holds no pool thread and nothing queues; stages that need one thread for ordering, like the room
+ * dispatchers, keep it but on a virtual thread.
+ */
+@Component
+public class StageExecutors {
+    private static final Logger log = LoggerFactory.getLogger(StageExecutors.class);
+
+    private final MeterRegistry registry;
+    private final ThreadMode mode;
+    private final Map<PipelineStage, StageMeter> meters = new EnumMap<>(PipelineStage.class);
+
+    public StageExecutors(MeterRegistry registry, @Value("${chat.pipeline.threads:PLATFORM}") ThreadMode mode) {
+        this.registry = registry;
+        if (mode == ThreadMode.VIRTUAL && !VirtualThreads.isSupported()) {
+            log.warn("chat.pipeline.threads=VIRTUAL needs Java 21, running {}; using platform threads", Runtime.version());
+            mode = ThreadMode.PLATFORM;
+        }
+        this.mode = mode;
+        for (PipelineStage stage : PipelineStage.values()) {
+            meters.put(stage, new StageMeter(registry, stage, this.mode));
+        }
+    }
+
+    /**
+     * The mode actually in use, which is PLATFORM when VIRTUAL was asked for on a JVM without virtual threads.
+     */
+    public ThreadMode mode() {
+        return mode;
+    }
+
+    public StageMeter meter(PipelineStage stage) {
+        return meters.get(stage);
+    }
+
+    /**
+     * The stage's executor: poolSize threads and queueCapacity waiting tasks, or a virtual thread per
+     * task. A pool is returned uninitialised, for Spring to start and shut down as a bean.
+     */
+    public TaskExecutor executor(PipelineStage stage, int poolSize, int queueCapacity) {
+        StageMeter meter = meter(stage);
+        if (mode == ThreadMode.VIRTUAL) {
+            ThreadFactory threads = VirtualThreads.factory("chat-" + stage.tag() + "-");
+            return task -> threads.newThread(meter.wrap(task)).start();
+        }
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                super.execute(meter.wrap(task));
+            }
+        };
+        pool.setCorePoolSize(poolSize);
+        pool.setMaxPoolSize(poolSize);
+        pool.setQueueCapacity(queueCapacity);
+        pool.setThreadNamePrefix("chat-" + stage.tag() + "-");
+        pool.setDaemon(true);
+        queueDepth(stage, pool::getQueueSize);
+        return pool;
+    }
+
+    /**
+     * Threads for a stage that manages its own executors, such as the room dispatchers; name is the
+     * thread's name.
+     */
+    public ThreadFactory threadFactory(String name) {
+        if (mode == ThreadMode.VIRTUAL) {
+            return VirtualThreads.factory(name + "-");
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Exports depth as the stage's chat.pipeline.queued.
+     */
+    public void queueDepth(PipelineStage stage, Supplier<Number> depth) {
+        Gauge.builder("chat.pipeline.queued", depth)
+                .description("Tasks waiting for a thread in a pipeline stage")
+                .tag("stage", stage.tag())
+                .tag("threads", mode.name().toLowerCase())
+                .register(registry);
+    }
+}
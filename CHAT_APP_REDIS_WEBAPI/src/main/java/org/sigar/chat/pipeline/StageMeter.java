@@ -0,0 +1,57 @@
+package org.sigar.chat.pipeline;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times one stage's tasks: how long each waited between being handed to the stage and starting
+ * (chat.pipeline.wait), how long it ran (chat.pipeline.run), and how many are running right now
+ * (chat.pipeline.active). All three are tagged with the stage and the thread mode.
+ */
+public final class StageMeter {
+    private final Timer wait;
+    private final Timer run;
+    private final AtomicInteger active = new AtomicInteger();
+
+    StageMeter(MeterRegistry registry, PipelineStage stage, ThreadMode mode) {
+        this.wait = Timer.builder("chat.pipeline.wait")
+                .description("Time a task waited for a thread in its pipeline stage")
+                .tag("stage", stage.tag())
+                .tag("threads", mode.name().toLowerCase())
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        this.run = Timer.builder("chat.pipeline.run")
+                .description("Time a task ran for in its pipeline stage")
+                .tag("stage", stage.tag())
+                .tag("threads", mode.name().toLowerCase())
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        Gauge.builder("chat.pipeline.active", active, AtomicInteger::get)
+                .description("Tasks running in a pipeline stage")
+                .tag("stage", stage.tag())
+                .tag("threads", mode.name().toLowerCase())
+                .register(registry);
+    }
+
+    /**
+     * The task, timed from now until it starts and while it runs.
+     */
+    public Runnable wrap(Runnable task) {
+        long queuedAt = System.nanoTime();
+        return () -> {
+            long startedAt = System.nanoTime();
+            wait.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+                run.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
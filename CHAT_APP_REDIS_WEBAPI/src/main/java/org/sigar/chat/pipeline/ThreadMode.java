@@ -0,0 +1,11 @@
+package org.sigar.chat.pipeline;
+
+/**
+ * What the pipeline stages run their tasks on (chat.pipeline.threads).
+ */
+public enum ThreadMode {
+    /** Fixed pools of platform threads in front of bounded queues, sized per stage */
+    PLATFORM,
+    /** A new virtual thread per task, with no pool and no queue; needs Java 21, otherwise PLATFORM is used */
+    VIRTUAL
+}
@@ -0,0 +1,9 @@
+package org.sigar.chat.presence;
+
+import java.util.List;
+
+/**
+ * Answer to "who is online in this room", across all nodes.
+ */
+public record OnlineUsers(String room, int count, List<String> users) {
+}
@@ -0,0 +1,226 @@
+package org.sigar.chat.presence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.roaringbitmap.RoaringBitmap;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks who is online per room. Sessions send heartbeats through ChatController; a user stays online
+ * in a room until all of their sessions there have disconnected or missed heartbeats for ttl.
+ *
+ * Members are RoaringBitmaps over interned user ids, one per room, so answering {@link #online(String)}
+ * is a bitmap walk rather than a scan of sessions. On a distributed channel each node also publishes
+ * its own users on {@link #CHANNEL} and merges the other nodes' snapshots. Heartbeats never go to the
+ * channel themselves: rooms that changed are collected and sent together once per publish interval,
+ * and unchanged rooms are only re-sent every ttl/3 to keep them from expiring on the other nodes.
+ */
+@Component
+public class PresenceService {
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+    /** Control destination presence snapshots are exchanged on */
+    public static final String CHANNEL = CommunicationChannel.CONTROL_PREFIX + "presence";
+
+    private final CommunicationChannel channel;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final long ttlMillis;
+    private final long publishIntervalMillis;
+    private final LongSupplier clock;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final UserInterner users = new UserInterner();
+    private final Map<String, RoomPresence> rooms = new ConcurrentHashMap<>();
+    // session id -> rooms it sent heartbeats for, so a disconnect only visits those
+    private final Map<String, Set<String>> sessionRooms = new HashMap<>();
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter published;
+
+    @Autowired
+    public PresenceService(CommunicationChannel channel, ObjectMapper objectMapper, MeterRegistry registry,
+                           @Value("${chat.presence.ttl-ms:30000}") long ttlMillis,
+                           @Value("${chat.presence.publish-interval-ms:1000}") long publishIntervalMillis) {
+        this(channel, objectMapper, registry, ttlMillis, publishIntervalMillis,
+                () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    PresenceService(CommunicationChannel channel, ObjectMapper objectMapper, MeterRegistry registry,
+                    long ttlMillis, long publishIntervalMillis, LongSupplier clock) {
+        this.channel = channel;
+        this.reader = objectMapper.readerFor(PresenceUpdate.class);
+        this.writer = objectMapper.writerFor(PresenceUpdate.class);
+        this.ttlMillis = ttlMillis;
+        this.publishIntervalMillis = publishIntervalMillis;
+        this.clock = clock;
+        Gauge.builder("chat.presence.rooms", rooms, Map::size)
+                .description("Rooms with at least one user online on any node")
+                .register(registry);
+        Gauge.builder("chat.presence.users", users, UserInterner::size)
+                .description("User names interned for the rooms' member bitmaps")
+                .register(registry);
+        this.published = Counter.builder("chat.presence.published")
+                .description("Presence snapshots sent to the other nodes")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (channel.isDistributed()) {
+            channel.receiveMessage(CHANNEL, (source, message) -> onUpdate(message));
+        }
+        publisher.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                log.warn("Presence tick failed", e);
+            }
+        }, publishIntervalMillis, publishIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        publisher.shutdownNow();
+        if (channel.isDistributed()) {
+            channel.stopReceiving(CHANNEL);
+        }
+    }
+
+    public synchronized void heartbeat(String room, String user, String sessionId) {
+        rooms.computeIfAbsent(room, name -> new RoomPresence())
+                .heartbeat(users.intern(user), sessionId, clock.getAsLong() + ttlMillis);
+        sessionRooms.computeIfAbsent(sessionId, id -> new HashSet<>()).add(room);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        disconnected(event.getSessionId());
+    }
+
+    // DISCONNECT can be published more than once per session; the second one finds nothing to remove
+    synchronized void disconnected(String sessionId) {
+        Set<String> left = sessionRooms.remove(sessionId);
+        if (left == null) {
+            return;
+        }
+        for (String room : left) {
+            RoomPresence presence = rooms.get(room);
+            if (presence != null) {
+                presence.leave(sessionId);
+            }
+        }
+    }
+
+    public OnlineUsers online(String room) {
+        RoomPresence presence = rooms.get(room);
+        if (presence == null) {
+            return new OnlineUsers(room, 0, List.of());
+        }
+        List<String> names = names(presence.online());
+        names.sort(null);
+        return new OnlineUsers(room, names.size(), names);
+    }
+
+    /**
+     * Expires missed heartbeats and stale snapshots, forgets names no room holds any more, then sends
+     * one update with every room whose local users are due to be published.
+     */
+    void tick() {
+        PresenceUpdate update;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            Map<String, List<String>> due = new HashMap<>();
+            RoaringBitmap inUse = new RoaringBitmap();
+            for (Iterator<Map.Entry<String, RoomPresence>> entries = rooms.entrySet().iterator(); entries.hasNext(); ) {
+                Map.Entry<String, RoomPresence> entry = entries.next();
+                RoomPresence presence = entry.getValue();
+                presence.expire(now);
+                if (presence.duePublish(now, ttlMillis / 3)) {
+                    due.put(entry.getKey(), names(presence.published(now)));
+                }
+                if (presence.isEmpty()) {
+                    entries.remove();
+                } else {
+                    inUse.or(presence.online());
+                }
+            }
+            users.retainOnly(inUse);
+            if (due.isEmpty() || !channel.isDistributed()) {
+                return;
+            }
+            update = new PresenceUpdate(nodeId, ttlMillis, due);
+        }
+        try {
+            channel.sendMessage(CHANNEL, writer.writeValueAsBytes(update));
+            published.increment();
+        } catch (IOException e) {
+            log.warn("Could not encode presence update", e);
+        }
+    }
+
+    void onUpdate(byte[] message) {
+        PresenceUpdate update;
+        try {
+            update = reader.readValue(message);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable presence update", e);
+            return;
+        }
+        if (nodeId.equals(update.node()) || update.rooms() == null) {
+            // Our own update, delivered back by the channel
+            return;
+        }
+        synchronized (this) {
+            long expiresAt = clock.getAsLong() + update.ttlMillis();
+            update.rooms().forEach((room, names) -> {
+                RoaringBitmap members = new RoaringBitmap();
+                names.forEach(name -> members.add(users.intern(name)));
+                if (!members.isEmpty() || rooms.containsKey(room)) {
+                    rooms.computeIfAbsent(room, name -> new RoomPresence()).merge(update.node(), members, expiresAt);
+                }
+            });
+        }
+    }
+
+    private List<String> names(RoaringBitmap members) {
+        List<String> names = new ArrayList<>(members.getCardinality());
+        members.forEach((int user) -> {
+            String name = users.name(user);
+            // Null when a sweep dropped the user after this bitmap was read
+            if (name != null) {
+                names.add(name);
+            }
+        });
+        return names;
+    }
+}
@@ -0,0 +1,12 @@
+package org.sigar.chat.presence;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One node's users per room, as sent to the other nodes on {@link PresenceService#CHANNEL}. Names
+ * travel rather than bitmaps because user ids are interned per node. Receivers keep a snapshot for
+ * ttlMillis unless a newer one replaces it; an empty list takes the node out of that room at once.
+ */
+record PresenceUpdate(String node, long ttlMillis, Map<String, List<String>> rooms) {
+}
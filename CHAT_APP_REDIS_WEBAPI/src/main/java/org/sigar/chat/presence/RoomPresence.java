@@ -0,0 +1,107 @@
+package org.sigar.chat.presence;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Who is online in one room: this node's users, kept alive by their sessions' heartbeats, plus the
+ * last snapshot each other node published. Mutated by PresenceService under its lock; {@link #online()}
+ * is an immutable union rebuilt on every change, so reads need no lock.
+ */
+final class RoomPresence {
+    // user id -> session id -> expiry; a user stays online while any of their sessions does
+    private final Map<Integer, Map<String, Long>> sessions = new HashMap<>();
+    private final RoaringBitmap local = new RoaringBitmap();
+    private final Map<String, Remote> remote = new HashMap<>();
+    private volatile RoaringBitmap online = new RoaringBitmap();
+    private boolean dirty;
+    private long publishedAt = Long.MIN_VALUE;
+
+    private record Remote(RoaringBitmap users, long expiresAt) {
+    }
+
+    void heartbeat(int user, String sessionId, long expiresAt) {
+        sessions.computeIfAbsent(user, id -> new HashMap<>()).put(sessionId, expiresAt);
+        if (local.checkedAdd(user)) {
+            changed(true);
+        }
+    }
+
+    void leave(String sessionId) {
+        boolean left = false;
+        for (Iterator<Map.Entry<Integer, Map<String, Long>>> users = sessions.entrySet().iterator(); users.hasNext(); ) {
+            Map.Entry<Integer, Map<String, Long>> user = users.next();
+            if (user.getValue().remove(sessionId) != null && user.getValue().isEmpty()) {
+                users.remove();
+                local.remove(user.getKey());
+                left = true;
+            }
+        }
+        if (left) {
+            changed(true);
+        }
+    }
+
+    void expire(long now) {
+        boolean localChanged = false;
+        for (Iterator<Map.Entry<Integer, Map<String, Long>>> users = sessions.entrySet().iterator(); users.hasNext(); ) {
+            Map.Entry<Integer, Map<String, Long>> user = users.next();
+            user.getValue().values().removeIf(expiresAt -> expiresAt <= now);
+            if (user.getValue().isEmpty()) {
+                users.remove();
+                local.remove(user.getKey());
+                localChanged = true;
+            }
+        }
+        boolean remoteChanged = remote.values().removeIf(snapshot -> snapshot.expiresAt() <= now);
+        if (localChanged || remoteChanged) {
+            changed(localChanged);
+        }
+    }
+
+    /**
+     * Replaces a node's snapshot of the room; an empty one means none of its users are left.
+     */
+    void merge(String node, RoaringBitmap users, long expiresAt) {
+        if (users.isEmpty()) {
+            if (remote.remove(node) != null) {
+                changed(false);
+            }
+            return;
+        }
+        remote.put(node, new Remote(users, expiresAt));
+        changed(false);
+    }
+
+    /**
+     * Whether this node's users should be sent to the other nodes: right after they changed, and
+     * again every refreshInterval while there are any so that peers do not expire them.
+     */
+    boolean duePublish(long now, long refreshIntervalMillis) {
+        return dirty || !local.isEmpty() && now - publishedAt >= refreshIntervalMillis;
+    }
+
+    RoaringBitmap published(long now) {
+        dirty = false;
+        publishedAt = now;
+        return local;
+    }
+
+    RoaringBitmap online() {
+        return online;
+    }
+
+    boolean isEmpty() {
+        return local.isEmpty() && remote.isEmpty() && !dirty;
+    }
+
+    private void changed(boolean localChanged) {
+        dirty |= localChanged;
+        RoaringBitmap union = local.clone();
+        remote.values().forEach(snapshot -> union.or(snapshot.users()));
+        online = union;
+    }
+}
@@ -0,0 +1,70 @@
+package org.sigar.chat.presence;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each user name a small int so rooms can keep their members in a RoaringBitmap. Ids are only
+ * meaningful on this node. Names no room holds any more are dropped by {@link #retainOnly}, so the
+ * table is bounded by the users online rather than every user ever seen. A dropped id is handed out
+ * again only after the following sweep, so a reader still walking an older bitmap finds no name for
+ * it (and skips it) rather than someone else's.
+ */
+final class UserInterner {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+    // Guarded by this: ids free to reuse, and ids dropped by the last sweep that become free at the next one
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private List<Integer> released = new ArrayList<>();
+    private int nextId;
+
+    int intern(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : allocate(name);
+    }
+
+    /**
+     * @return the name interned under id, or null if it has been dropped since the caller read it
+     */
+    String name(int id) {
+        return names.get(id);
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Drops every name whose id is not in inUse. The caller must not hand ids to rooms while inUse is
+     * taken and this runs; PresenceService does both under its lock.
+     */
+    synchronized void retainOnly(RoaringBitmap inUse) {
+        free.addAll(released);
+        released = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Integer>> entries = ids.entrySet().iterator(); entries.hasNext(); ) {
+            int id = entries.next().getValue();
+            if (!inUse.contains(id)) {
+                entries.remove();
+                names.remove(id);
+                released.add(id);
+            }
+        }
+    }
+
+    private synchronized int allocate(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int next = free.isEmpty() ? nextId++ : free.poll();
+        names.put(next, name);
+        ids.put(name, next);
+        return next;
+    }
+}
@@ -0,0 +1,39 @@
+package org.sigar.chat.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@link TokenBucket} per room on this node. A full bucket is the same as no bucket, so every
+ * SWEEP_INTERVAL new buckets the idle ones are dropped and rooms nobody writes to cost nothing.
+ */
+public class LocalRoomRateLimiter implements RoomRateLimiter {
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private final double ratePerSecond;
+    private final int burst;
+
+    public LocalRoomRateLimiter(double ratePerSecond, int burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+    }
+
+    @Override
+    public long tryAcquire(String room, long now) {
+        TokenBucket bucket = buckets.get(room);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(room, r -> new TokenBucket(ratePerSecond, burst, now));
+            if (created.incrementAndGet() % SWEEP_INTERVAL == 0) {
+                buckets.values().removeIf(b -> b.isIdle(now));
+            }
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    int size() {
+        return buckets.size();
+    }
+}
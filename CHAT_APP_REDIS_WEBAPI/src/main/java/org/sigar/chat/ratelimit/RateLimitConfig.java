@@ -0,0 +1,66 @@
+package org.sigar.chat.ratelimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+/**
+ * Session limits are always per node, since a session only ever lives on one. Room limits are shared
+ * through Redis when the nodes talk over it, and per node otherwise. chat.ratelimit.enabled=false
+ * takes the interceptor off the inbound channel altogether.
+ */
+@Configuration
+public class RateLimitConfig implements WebSocketMessageBrokerConfigurer {
+    private final RoomRateLimiter rooms;
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final double sessionRate;
+    private final int sessionBurst;
+
+    // The messaging template is built from the channels configured here, so it is only looked up on the first rejection
+    public RateLimitConfig(RoomRateLimiter rooms, ObjectProvider<SimpMessagingTemplate> messagingTemplate, MeterRegistry registry,
+                           @Value("${chat.ratelimit.enabled:true}") boolean enabled,
+                           @Value("${chat.ratelimit.session.rate:10}") double sessionRate,
+                           @Value("${chat.ratelimit.session.burst:20}") int sessionBurst) {
+        this.rooms = rooms;
+        this.messagingTemplate = messagingTemplate;
+        this.registry = registry;
+        this.enabled = enabled;
+        this.sessionRate = sessionRate;
+        this.sessionBurst = sessionBurst;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (enabled) {
+            registration.interceptors(new RateLimitInterceptor(rooms, messagingTemplate::getObject, registry, sessionRate, sessionBurst));
+        }
+    }
+
+    // Static, because this class itself needs the limiter
+    @Bean
+    @ConditionalOnProperty(name = "chat.communication.channel", havingValue = "redis")
+    public static RoomRateLimiter redisRoomRateLimiter(RedisTemplate<String, String> redisTemplate, MeterRegistry registry,
+                                                       @Value("${chat.ratelimit.room.rate:200}") double rate,
+                                                       @Value("${chat.ratelimit.room.burst:400}") int burst,
+                                                       @Value("${chat.ratelimit.redis.lease-size:20}") int leaseSize,
+                                                       @Value("${chat.ratelimit.redis.lease-ttl-ms:1000}") long leaseTtlMillis) {
+        return new RedisRoomRateLimiter(redisTemplate, registry, rate, burst, leaseSize, leaseTtlMillis);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(RoomRateLimiter.class)
+    public static RoomRateLimiter localRoomRateLimiter(@Value("${chat.ratelimit.room.rate:200}") double rate,
+                                                       @Value("${chat.ratelimit.room.burst:400}") int burst) {
+        return new LocalRoomRateLimiter(rate, burst);
+    }
+}
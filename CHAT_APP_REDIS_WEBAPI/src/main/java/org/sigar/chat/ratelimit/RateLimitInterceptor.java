@@ -0,0 +1,145 @@
+package org.sigar.chat.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Drops chat messages over their sender's or their room's rate on the client inbound channel, so a
+ * refused message is never handed to the inbound executor, parsed or fanned out. Every SEND to
+ * /app/{room}/sendMessage and /app/direct/{user} takes a token from its session's bucket, and room
+ * messages then one from the room's {@link RoomRateLimiter}. Heartbeats, acks and subscriptions are
+ * not limited.
+ *
+ * The sender hears about a dropped message on /user/queue/rejections, at most once per retry period so
+ * a client that keeps flooding does not get a notice for every frame.
+ */
+public class RateLimitInterceptor implements ChannelInterceptor {
+    static final String REJECTIONS_DESTINATION = "/queue/rejections";
+    static final String SESSION_LIMIT = "session";
+    static final String ROOM_LIMIT = "room";
+    private static final String ROOM_PREFIX = "/app/";
+    private static final String ROOM_SUFFIX = "/sendMessage";
+    private static final String DIRECT_PREFIX = "/app/direct/";
+
+    private final RoomRateLimiter rooms;
+    private final Supplier<SimpMessageSendingOperations> messagingTemplate;
+    private final double sessionRate;
+    private final int sessionBurst;
+    private final LongSupplier clock;
+    private final Map<String, SessionLimit> sessions = new ConcurrentHashMap<>();
+    private final Counter sessionRejections;
+    private final Counter roomRejections;
+
+    public RateLimitInterceptor(RoomRateLimiter rooms, Supplier<SimpMessageSendingOperations> messagingTemplate,
+                                MeterRegistry registry, double sessionRate, int sessionBurst) {
+        this(rooms, messagingTemplate, registry, sessionRate, sessionBurst, System::nanoTime);
+    }
+
+    RateLimitInterceptor(RoomRateLimiter rooms, Supplier<SimpMessageSendingOperations> messagingTemplate,
+                         MeterRegistry registry, double sessionRate, int sessionBurst, LongSupplier clock) {
+        this.rooms = rooms;
+        this.messagingTemplate = messagingTemplate;
+        this.sessionRate = sessionRate;
+        this.sessionBurst = sessionBurst;
+        this.clock = clock;
+        this.sessionRejections = rejections(registry, SESSION_LIMIT);
+        this.roomRejections = rejections(registry, ROOM_LIMIT);
+    }
+
+    private static Counter rejections(MeterRegistry registry, String limit) {
+        return Counter.builder("chat.ratelimit.rejected")
+                .description("Chat messages dropped at ingress for going over a rate limit")
+                .tag("limit", limit)
+                .register(registry);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) {
+            return message;
+        }
+        if (type == SimpMessageType.DISCONNECT) {
+            sessions.remove(sessionId);
+            return message;
+        }
+        if (type != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        String room = roomOf(destination);
+        if (room == null && (destination == null || !destination.startsWith(DIRECT_PREFIX))) {
+            return message;
+        }
+        long now = clock.getAsLong();
+        SessionLimit session = sessions.computeIfAbsent(sessionId, id -> new SessionLimit(new TokenBucket(sessionRate, sessionBurst, now), now));
+        long wait = session.bucket.tryAcquire(now);
+        if (wait > 0) {
+            sessionRejections.increment();
+            reject(sessionId, session, destination, SESSION_LIMIT, now, wait);
+            return null;
+        }
+        if (room != null) {
+            wait = rooms.tryAcquire(room, now);
+            if (wait > 0) {
+                roomRejections.increment();
+                reject(sessionId, session, destination, ROOM_LIMIT, now, wait);
+                return null;
+            }
+        }
+        return message;
+    }
+
+    private void reject(String sessionId, SessionLimit session, String destination, String limit, long now, long wait) {
+        long noticeAt = session.nextNotice;
+        if (now - noticeAt < 0) {
+            return;
+        }
+        session.nextNotice = now + wait;
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        RateLimitRejection rejection = new RateLimitRejection(destination, limit, Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+        messagingTemplate.get().convertAndSendToUser(sessionId, REJECTIONS_DESTINATION, rejection, headers.getMessageHeaders());
+    }
+
+    // /app/{room}/sendMessage -> room; anything else -> null
+    static String roomOf(String destination) {
+        if (destination == null || !destination.startsWith(ROOM_PREFIX) || !destination.endsWith(ROOM_SUFFIX)) {
+            return null;
+        }
+        int end = destination.length() - ROOM_SUFFIX.length();
+        if (end <= ROOM_PREFIX.length() || destination.indexOf('/', ROOM_PREFIX.length()) != end) {
+            return null;
+        }
+        return destination.substring(ROOM_PREFIX.length(), end);
+    }
+
+    int sessionCount() {
+        return sessions.size();
+    }
+
+    private static final class SessionLimit {
+        private final TokenBucket bucket;
+        // Racing senders on one session can at worst both send a notice, so no CAS here
+        private volatile long nextNotice;
+
+        SessionLimit(TokenBucket bucket, long now) {
+            this.bucket = bucket;
+            this.nextNotice = now;
+        }
+    }
+}
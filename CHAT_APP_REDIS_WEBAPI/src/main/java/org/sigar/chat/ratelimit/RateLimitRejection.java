@@ -0,0 +1,8 @@
+package org.sigar.chat.ratelimit;
+
+/**
+ * What a session receives on /user/queue/rejections when a SEND was dropped: the destination it went
+ * to, which limit refused it ("session" or "room"), and how long until that limit accepts again.
+ */
+public record RateLimitRejection(String destination, String limit, long retryAfterMs) {
+}
@@ -0,0 +1,224 @@
+package org.sigar.chat.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Room budgets shared by every node on Redis. Each room's bucket is a GCRA arrival time in
+ * chat:ratelimit:room:{room}, on Redis's own clock so the nodes' clocks do not matter. Going to Redis
+ * for every message would put a round trip in front of each send, so nodes lease tokens instead:
+ * up to leaseSize at a time, taken locally with a CAS, and topped up in the background once half of
+ * a lease is used. Redis is only ever called from that background thread: when a lease has run dry or
+ * expired, the next message goes through on a provisional token that the refill pays back out of
+ * what it gets, and messages arriving while the refill is on its way are asked to wait a millisecond,
+ * about one round trip. A provisional token Redis then refuses stays owed until the node's next lease.
+ * Leased tokens are dropped after leaseTtl, so a node that went quiet cannot come back with a stale
+ * burst; at worst the nodes together are ahead of the room's rate by one lease and one provisional
+ * token each.
+ *
+ * If Redis cannot be reached the room falls back to a bucket on this node with the same rate, which
+ * keeps a spammer in check without stopping the room, and the background thread keeps trying Redis.
+ */
+public class RedisRoomRateLimiter implements RoomRateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(RedisRoomRateLimiter.class);
+    static final String KEY_PREFIX = "chat:ratelimit:room:";
+    private static final int SWEEP_INTERVAL = 1024;
+    private static final long REFILL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Grants up to ARGV[3] tokens; returns {granted, micros until the next one if none}
+    private static final byte[] LEASE_SCRIPT = ("""
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+            local interval = tonumber(ARGV[1])
+            local tolerance = interval * tonumber(ARGV[2])
+            local arrival = tonumber(redis.call('GET', KEYS[1]) or now)
+            if arrival < now then
+                arrival = now
+            end
+            local granted = math.min(math.floor((now + tolerance - arrival) / interval), tonumber(ARGV[3]))
+            if granted <= 0 then
+                return {0, arrival + interval - tolerance - now}
+            end
+            arrival = arrival + granted * interval
+            redis.call('SET', KEYS[1], string.format('%d', arrival), 'PX', math.ceil((arrival - now) / 1000))
+            return {granted, 0}
+            """).getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RoomRateLimiter fallback;
+    private final byte[] intervalMicros;
+    private final byte[] burst;
+    private final int leaseSize;
+    private final byte[] leaseSizeArgument;
+    private final long leaseTtlNanos;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private final ExecutorService refills = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ratelimit-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter leased;
+    private final Counter fallbacks;
+    private volatile boolean degraded;
+
+    public RedisRoomRateLimiter(RedisTemplate<String, String> redisTemplate, MeterRegistry registry,
+                                double ratePerSecond, int burst, int leaseSize, long leaseTtlMillis) {
+        this.redisTemplate = redisTemplate;
+        this.fallback = new LocalRoomRateLimiter(ratePerSecond, burst);
+        this.intervalMicros = bytes(Long.toString(Math.max(1, (long) (TimeUnit.SECONDS.toMicros(1) / ratePerSecond))));
+        this.burst = bytes(Integer.toString(burst));
+        this.leaseSize = Math.max(1, Math.min(leaseSize, burst));
+        this.leaseSizeArgument = bytes(Integer.toString(this.leaseSize));
+        this.leaseTtlNanos = TimeUnit.MILLISECONDS.toNanos(leaseTtlMillis);
+        this.leased = Counter.builder("chat.ratelimit.redis.leases")
+                .description("Token leases taken from the shared room buckets in Redis")
+                .register(registry);
+        this.fallbacks = Counter.builder("chat.ratelimit.redis.fallbacks")
+                .description("Room checks answered by the local bucket because Redis could not be reached")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refills.shutdownNow();
+    }
+
+    @Override
+    public long tryAcquire(String room, long now) {
+        Lease lease = lease(room, now);
+        long left = lease.take(now);
+        if (left >= 0) {
+            if (left == leaseSize / 2) {
+                refillLater(room, lease);
+            }
+            return 0;
+        }
+        if (now - lease.retryAt < 0) {
+            return lease.retryAt - now;
+        }
+        if (degraded) {
+            refillLater(room, lease);
+            fallbacks.increment();
+            return fallback.tryAcquire(room, now);
+        }
+        boolean provisional = lease.borrow(now);
+        refillLater(room, lease);
+        return provisional ? 0 : REFILL_WAIT_NANOS;
+    }
+
+    private Lease lease(String room, long now) {
+        Lease lease = leases.get(room);
+        if (lease == null) {
+            lease = leases.computeIfAbsent(room, r -> new Lease(now));
+            if (created.incrementAndGet() % SWEEP_INTERVAL == 0) {
+                leases.values().removeIf(l -> l.expiresAt - now < 0 && l.retryAt - now < 0);
+            }
+        }
+        return lease;
+    }
+
+    private void refillLater(String room, Lease lease) {
+        if (!lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refills.execute(() -> {
+                try {
+                    refill(room, lease, System.nanoTime());
+                } catch (RuntimeException e) {
+                    noteFailure(e);
+                } finally {
+                    lease.refilling.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            lease.refilling.set(false);
+        }
+    }
+
+    // Only called from the refill thread
+    private void refill(String room, Lease lease, long now) {
+        List<Object> reply = redisTemplate.execute((RedisCallback<List<Object>>) connection -> connection.scriptingCommands()
+                .eval(LEASE_SCRIPT, ReturnType.MULTI, 1, bytes(KEY_PREFIX + room), intervalMicros, burst, leaseSizeArgument));
+        degraded = false;
+        long granted = (Long) reply.get(0);
+        if (granted == 0) {
+            lease.retryAt = now + TimeUnit.MICROSECONDS.toNanos((Long) reply.get(1));
+            return;
+        }
+        leased.increment();
+        if (lease.expiresAt - now < 0) {
+            // Expired tokens are dropped, a provisional one still owed is paid back
+            lease.tokens.getAndUpdate(tokens -> Math.min(tokens, 0) + granted);
+        } else {
+            lease.tokens.addAndGet(granted);
+        }
+        lease.expiresAt = now + leaseTtlNanos;
+    }
+
+    boolean degraded() {
+        return degraded;
+    }
+
+    private void noteFailure(RuntimeException e) {
+        if (!degraded) {
+            degraded = true;
+            log.warn("Redis rate limiting unavailable, limiting rooms per node until it is back", e);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Lease {
+        // Negative while a provisional token is owed
+        private final AtomicLong tokens = new AtomicLong();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        private volatile long expiresAt;
+        private volatile long retryAt;
+
+        Lease(long now) {
+            expiresAt = now;
+            retryAt = now;
+        }
+
+        // Tokens left after taking one, or -1 if there was none to take
+        long take(long now) {
+            if (expiresAt - now < 0) {
+                return -1;
+            }
+            while (true) {
+                long current = tokens.get();
+                if (current <= 0) {
+                    return -1;
+                }
+                if (tokens.compareAndSet(current, current - 1)) {
+                    return current - 1;
+                }
+            }
+        }
+
+        // Takes a token on credit if none is owed yet; whatever an expired lease had left is dropped
+        boolean borrow(long now) {
+            long current = tokens.get();
+            return current >= 0 && (current == 0 || expiresAt - now < 0) && tokens.compareAndSet(current, -1);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.sigar.chat.ratelimit;
+
+/**
+ * Budget of messages a room accepts, shared by everyone sending to it.
+ */
+public interface RoomRateLimiter {
+    /**
+     * Takes one message from the room's budget.
+     *
+     * @param now current System.nanoTime(), shared with the caller's other checks
+     * @return 0 if the message may go out, otherwise the nanos until the room accepts one again
+     */
+    long tryAcquire(String room, long now);
+}
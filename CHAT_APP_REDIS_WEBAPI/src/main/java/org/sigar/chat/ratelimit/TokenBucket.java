@@ -0,0 +1,56 @@
+package org.sigar.chat.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single theoretical arrival time (GCRA): each accepted message pushes it one
+ * interval further, and a message is refused while that would put it more than burst intervals ahead
+ * of now. That is one CAS per accepted message and no refill bookkeeping, so callers on any thread can
+ * share a bucket without locking. Times are System.nanoTime() values.
+ */
+public final class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong arrival;
+
+    /**
+     * @param ratePerSecond sustained messages per second
+     * @param burst         messages accepted back to back on a bucket that has been idle
+     * @param now           current nanoTime; a new bucket starts full
+     */
+    public TokenBucket(double ratePerSecond, int burst, long now) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be positive and burst at least 1");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.toleranceNanos = intervalNanos * burst;
+        this.arrival = new AtomicLong(now);
+    }
+
+    /**
+     * Takes one token if there is one.
+     *
+     * @return 0 if the message is accepted, otherwise the nanos until a token will be available
+     */
+    public long tryAcquire(long now) {
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long wait = next - now - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Whether the bucket is full again, i.e. indistinguishable from a new one.
+     */
+    public boolean isIdle(long now) {
+        return arrival.get() - now <= 0;
+    }
+}
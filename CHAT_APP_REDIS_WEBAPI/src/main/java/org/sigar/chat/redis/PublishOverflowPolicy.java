@@ -0,0 +1,15 @@
+package org.sigar.chat.redis;
+
+/**
+ * What RedisPublisher does when its queue is full (chat.redis.publisher.overflow).
+ */
+public enum PublishOverflowPolicy {
+    /** Discard the message being published; the default */
+    DROP_NEWEST,
+    /** Discard the oldest queued message to make room */
+    DROP_OLDEST,
+    /** Wait up to chat.redis.publisher.block-timeout-ms for space, then discard; holds the STOMP inbound thread meanwhile */
+    BLOCK,
+    /** Throw, so the STOMP inbound handler reports the failure to the sender */
+    REJECT
+}
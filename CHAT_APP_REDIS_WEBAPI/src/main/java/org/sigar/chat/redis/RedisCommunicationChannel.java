@@ -2,21 +2,31 @@ package org.sigar.chat.redis;
 
 import org.sigar.chat.channel.CommunicationChannel;
 import org.sigar.chat.channel.MessageHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Component
 @ConditionalOnProperty(name = "chat.communication.channel", havingValue = "redis")
 public class RedisCommunicationChannel implements CommunicationChannel {
+    private static final Logger log = LoggerFactory.getLogger(RedisCommunicationChannel.class);
 
-    private final RedisTemplate<String,String> redisTemplate;
+    private final RedisPublisher publisher;
     private final RedisMessageListenerContainer messageListenerContainer;
+    private final Map<String, MessageListener> listeners = new ConcurrentHashMap<>();
 
-    public RedisCommunicationChannel(RedisTemplate<String, String> redisTemplate,RedisMessageListenerContainer messageListenerContainer) {
-        this.redisTemplate = redisTemplate;
+    public RedisCommunicationChannel(RedisPublisher publisher,RedisMessageListenerContainer messageListenerContainer) {
+        this.publisher = publisher;
         this.messageListenerContainer = messageListenerContainer;
 
 
@@ -24,27 +34,50 @@ public class RedisCommunicationChannel implements CommunicationChannel {
 
     @Override
     public void connect() {
-        System.out.println("Redis Channel Connected");
+        log.info("Redis channel connected");
 
     }
 
     @Override
     public void disconnect() {
-        System.out.println("Redis channel disconnected");
+        log.info("Redis channel disconnected");
         messageListenerContainer.stop();
     }
 
     @Override
-    public void sendMessage(String destination, String message) {
-        redisTemplate.convertAndSend(destination,message);
+    public void sendMessage(String destination, byte[] message) {
+        // Queued and pipelined by the publisher thread, so a slow Redis never stalls the STOMP inbound channel
+        publisher.publish(destination, message);
     }
 
     @Override
     public void receiveMessage(String source, MessageHandler messageHandler) {
-        messageListenerContainer.addMessageListener((message, pattern) -> {
-            String channel = new String(message.getChannel());
-            String body    = new String(message.getBody());
-            messageHandler.handleMessage(channel,body);
-        },new PatternTopic(source));
+        MessageListener listener = (message, pattern) -> {
+            String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+            messageHandler.handleMessage(channel, message.getBody());
+        };
+        MessageListener previous = listeners.put(source, listener);
+        if (previous != null) {
+            messageListenerContainer.removeMessageListener(previous, topic(source));
+        }
+        messageListenerContainer.addMessageListener(listener, topic(source));
+    }
+
+    @Override
+    public void stopReceiving(String source) {
+        MessageListener listener = listeners.remove(source);
+        if (listener != null) {
+            messageListenerContainer.removeMessageListener(listener, topic(source));
+        }
+    }
+
+    @Override
+    public boolean isDistributed() {
+        return true;
+    }
+
+    // A plain SUBSCRIBE for a single room; Redis only pattern-matches when a glob is asked for
+    private static Topic topic(String source) {
+        return source.indexOf('*') >= 0 ? new PatternTopic(source) : new ChannelTopic(source);
     }
 }
@@ -1,8 +1,13 @@
 package org.sigar.chat.redis;
 
+import org.sigar.chat.pipeline.PipelineStage;
+import org.sigar.chat.pipeline.StageExecutors;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
@@ -11,15 +16,27 @@ import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 @ConditionalOnProperty(name = "chat.communication.channel", havingValue = "redis")
 public class RedisConfig {
     @Bean
-    public RedisConnectionFactory redisConnectionFactory() {
+    public LettuceConnectionFactory redisConnectionFactory() {
         return new LettuceConnectionFactory("localhost", 6379);
     }
 
+    /**
+     * Runs the listeners for messages arriving from Redis. Without it the container starts a new thread
+     * per message; OrderedDelivery puts each room back in order whichever thread a message lands on.
+     */
     @Bean
-    public RedisMessageListenerContainer redisContainer(RedisConnectionFactory connectionFactory) {
+    public TaskExecutor redisListenerExecutor(StageExecutors executors,
+                                              @Value("${chat.redis.listener.pool-size:4}") int poolSize,
+                                              @Value("${chat.redis.listener.queue-capacity:10000}") int queueCapacity) {
+        return executors.executor(PipelineStage.REDIS_LISTENER, poolSize, queueCapacity);
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisContainer(RedisConnectionFactory connectionFactory,
+                                                        @Qualifier("redisListenerExecutor") TaskExecutor listenerExecutor) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
-      //  container.setTaskExecutor(new SimpleAsyncTaskExecutor());
+        container.setTaskExecutor(listenerExecutor);
         if (!container.isRunning()) {
             container.start();
         }
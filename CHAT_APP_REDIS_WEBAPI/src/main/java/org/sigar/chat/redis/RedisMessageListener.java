@@ -1,12 +1,12 @@
 package org.sigar.chat.redis;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.sigar.chat.model.ChatMessage;
+import org.sigar.chat.core.ChatMessageBroadcaster;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
+import java.nio.charset.StandardCharsets;
+
 //@Component
 public class RedisMessageListener implements MessageListener {
   //  private static Logger logger = Logger.getAnonymousLogger();
@@ -18,17 +18,8 @@ public class RedisMessageListener implements MessageListener {
 
     @Override
     public void onMessage(Message message, byte[] pattern) {
-        String channel = new String(message.getChannel());
-        String body    = new String(message.getBody());
-        System.out.printf("\nReceived message on channel: %s\n",channel);
-        System.out.printf("Message body: %s \n", body);
-
-        ChatMessage chatMessage = null; // Deserialize JSON
-        try {
-            chatMessage = new ObjectMapper().readValue(body, ChatMessage.class);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-        messagingTemplate.convertAndSend("/topic/messages/" + channel, chatMessage);
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        // Publishers only put validated chat JSON on the channel, so the body is forwarded without parsing
+        ChatMessageBroadcaster.broadcastMessageToSubscribers(messagingTemplate, channel, message.getBody());
     }
 }
@@ -0,0 +1,212 @@
+package org.sigar.chat.redis;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves PUBLISH off the STOMP inbound threads. Producers only enqueue; one publisher thread drains the
+ * queue in batches and writes each batch as a pipeline on a dedicated Lettuce connection with auto-flush
+ * turned off, so a batch costs one flush and one round trip instead of one per message.
+ * <p>
+ * The queue is an ArrayBlockingQueue rather than a lock-free MPSC ring: producers hold its lock only to
+ * store one reference, the publisher thread takes a whole batch with one drainTo, and it gives the bounded
+ * capacity and the timed poll the drain loop parks on without another dependency. A full queue drops the
+ * new message by default, so a send never waits on Redis; chat.redis.publisher.overflow=BLOCK trades that
+ * for waiting up to block-timeout-ms on the inbound thread.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.communication.channel", havingValue = "redis")
+public class RedisPublisher {
+    private static final Logger log = LoggerFactory.getLogger(RedisPublisher.class);
+    private static final long POLL_MILLIS = 100;
+
+    private final LettuceConnectionFactory connectionFactory;
+    private final BlockingQueue<PendingPublish> queue;
+    private final int maxBatchSize;
+    private final PublishOverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final long publishTimeoutMillis;
+
+    private final DistributionSummary batchSizes;
+    private final Timer publishLatency;
+    private final Counter dropped;
+    private final Counter failed;
+
+    private StatefulRedisConnection<byte[], byte[]> connection;
+    private Thread publisherThread;
+    private volatile boolean running;
+
+    public RedisPublisher(LettuceConnectionFactory connectionFactory, MeterRegistry registry,
+                          @Value("${chat.redis.publisher.queue-capacity:10000}") int queueCapacity,
+                          @Value("${chat.redis.publisher.max-batch-size:256}") int maxBatchSize,
+                          @Value("${chat.redis.publisher.overflow:DROP_NEWEST}") PublishOverflowPolicy overflowPolicy,
+                          @Value("${chat.redis.publisher.block-timeout-ms:50}") long blockTimeoutMillis,
+                          @Value("${chat.redis.publisher.publish-timeout-ms:2000}") long publishTimeoutMillis) {
+        this.connectionFactory = connectionFactory;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.publishTimeoutMillis = publishTimeoutMillis;
+
+        Gauge.builder("chat.redis.publish.queue.depth", queue, BlockingQueue::size)
+                .description("Messages waiting to be published to Redis")
+                .register(registry);
+        this.batchSizes = DistributionSummary.builder("chat.redis.publish.batch.size")
+                .description("PUBLISH commands written per pipeline flush")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.publishLatency = Timer.builder("chat.redis.publish.latency")
+                .description("Time from enqueue until Redis acknowledged the PUBLISH")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.dropped = Counter.builder("chat.redis.publish.dropped")
+                .description("Messages discarded because the publish queue was full")
+                .tag("policy", overflowPolicy.name())
+                .register(registry);
+        this.failed = Counter.builder("chat.redis.publish.failed")
+                .description("Publishes that Redis rejected or did not acknowledge in time")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        AbstractRedisClient client = connectionFactory.getRequiredNativeClient();
+        if (!(client instanceof RedisClient redisClient)) {
+            throw new IllegalStateException("Pipelined publishing needs a standalone Redis client, got " + client.getClass().getSimpleName());
+        }
+        connection = redisClient.connect(ByteArrayCodec.INSTANCE);
+        // Commands are buffered until flushCommands(), which turns every batch into one pipeline
+        connection.setAutoFlushCommands(false);
+        running = true;
+        publisherThread = new Thread(this::drain, "redis-publisher");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (publisherThread != null) {
+            // The drain loop publishes whatever is still queued before it exits
+            publisherThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Queues a message for publishing; never blocks unless the BLOCK policy is configured.
+     */
+    public void publish(String channel, byte[] message) {
+        PendingPublish pending = new PendingPublish(channel.getBytes(StandardCharsets.UTF_8), message, System.nanoTime());
+        if (queue.offer(pending)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP_NEWEST -> dropped.increment();
+            case DROP_OLDEST -> {
+                // Several producers may race for the freed slot; whoever loses drops its own message
+                if (queue.poll() != null) {
+                    dropped.increment();
+                }
+                if (!queue.offer(pending)) {
+                    dropped.increment();
+                }
+            }
+            case BLOCK -> {
+                try {
+                    if (!queue.offer(pending, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        dropped.increment();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                }
+            }
+            case REJECT -> {
+                dropped.increment();
+                throw new IllegalStateException("Redis publish queue is full");
+            }
+        }
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    private void drain() {
+        RedisAsyncCommands<byte[], byte[]> commands = connection.async();
+        List<PendingPublish> batch = new ArrayList<>(maxBatchSize);
+        List<RedisFuture<Long>> futures = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingPublish first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                for (PendingPublish pending : batch) {
+                    futures.add(commands.publish(pending.channel(), pending.message()));
+                }
+                connection.flushCommands();
+                // Recorded before waiting, so batches that time out are counted too
+                batchSizes.record(batch.size());
+                awaitBatch(batch, futures);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failed.increment(batch.size());
+                log.warn("Publishing a batch of {} messages to Redis failed", batch.size(), e);
+            } finally {
+                batch.clear();
+                futures.clear();
+            }
+        }
+    }
+
+    private void awaitBatch(List<PendingPublish> batch, List<RedisFuture<Long>> futures) {
+        boolean completed = LettuceFutures.awaitAll(publishTimeoutMillis, TimeUnit.MILLISECONDS, futures.toArray(new RedisFuture[0]));
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            RedisFuture<Long> future = futures.get(i);
+            if (completed && !future.toCompletableFuture().isCompletedExceptionally()) {
+                publishLatency.record(now - batch.get(i).enqueuedAt(), TimeUnit.NANOSECONDS);
+            } else {
+                failed.increment();
+            }
+        }
+    }
+
+    private record PendingPublish(byte[] channel, byte[] message, long enqueuedAt) {
+    }
+}
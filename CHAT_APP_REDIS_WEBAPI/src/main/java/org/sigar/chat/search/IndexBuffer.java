@@ -0,0 +1,67 @@
+package org.sigar.chat.search;
+
+import org.sigar.chat.history.HistoryEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Where new messages are indexed until the next flush writes them out as a segment. One thread adds
+ * while searches read, so every method takes the buffer's lock; each holds it for one document or
+ * one lookup.
+ */
+final class IndexBuffer implements IndexSource {
+    private static final int[] NONE = new int[0];
+
+    private final List<HistoryEntry> documents = new ArrayList<>();
+    private final TreeMap<String, Postings.Builder> postings = new TreeMap<>();
+
+    synchronized void add(String room, HistoryEntry entry, Collection<String> terms) {
+        int ordinal = documents.size();
+        documents.add(entry);
+        for (String term : terms) {
+            postings.computeIfAbsent(IndexSource.key(room, term), key -> new Postings.Builder()).add(ordinal);
+        }
+    }
+
+    synchronized int size() {
+        return documents.size();
+    }
+
+    @Override
+    public synchronized int[] postings(String key) {
+        Postings.Builder builder = postings.get(key);
+        return builder == null ? NONE : builder.toArray();
+    }
+
+    @Override
+    public synchronized List<int[]> postingsWithPrefix(String keyPrefix, int maxTerms) {
+        List<int[]> lists = new ArrayList<>();
+        for (Map.Entry<String, Postings.Builder> entry : postings.tailMap(keyPrefix, true).entrySet()) {
+            if (lists.size() == maxTerms || !entry.getKey().startsWith(keyPrefix)) {
+                break;
+            }
+            lists.add(entry.getValue().toArray());
+        }
+        return lists;
+    }
+
+    @Override
+    public synchronized HistoryEntry document(int ordinal) {
+        return documents.get(ordinal);
+    }
+
+    // Only read by the flush, after the buffer has stopped taking documents
+    synchronized void writeTo(SegmentWriter writer) throws IOException {
+        for (HistoryEntry document : documents) {
+            writer.addDocument(document);
+        }
+        for (Map.Entry<String, Postings.Builder> entry : postings.entrySet()) {
+            writer.addTerm(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.sigar.chat.search;
+
+import org.sigar.chat.history.HistoryEntry;
+
+import java.util.List;
+
+/**
+ * One part of the index, in memory or a segment on disk. Documents are numbered from 0 in the order they
+ * were indexed, across all rooms; terms are keyed by {@link #key(String, String)} so a room's terms sort
+ * together and a prefix query is a range of keys.
+ */
+interface IndexSource {
+    char KEY_SEPARATOR = '\0';
+
+    static String key(String room, String term) {
+        return room + KEY_SEPARATOR + term;
+    }
+
+    /**
+     * Ordinals of the documents containing exactly this key, ascending; empty if there are none.
+     */
+    int[] postings(String key);
+
+    /**
+     * Posting lists of up to maxTerms keys starting with keyPrefix.
+     */
+    List<int[]> postingsWithPrefix(String keyPrefix, int maxTerms);
+
+    HistoryEntry document(int ordinal);
+}
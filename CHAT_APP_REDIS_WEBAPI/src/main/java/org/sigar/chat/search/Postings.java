@@ -0,0 +1,78 @@
+package org.sigar.chat.search;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Posting lists are ascending document ordinals stored as varint gaps, so a term seen in most messages
+ * of a room costs about a byte per message.
+ */
+final class Postings {
+    private Postings() {
+    }
+
+    /**
+     * A posting list being built in memory; ordinals must be added in ascending order.
+     */
+    static final class Builder {
+        private byte[] bytes = new byte[8];
+        private int length;
+        private int count;
+        private int last = -1;
+
+        void add(int ordinal) {
+            if (ordinal <= last) {
+                return;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            length = writeVarInt(bytes, length, ordinal - last);
+            last = ordinal;
+            count++;
+        }
+
+        int[] toArray() {
+            return decode(ByteBuffer.wrap(bytes, 0, length), count);
+        }
+    }
+
+    static void encode(int[] ordinals, int count, DataOutput out) throws IOException {
+        byte[] buffer = new byte[5];
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            int length = writeVarInt(buffer, 0, ordinals[i] - last);
+            out.write(buffer, 0, length);
+            last = ordinals[i];
+        }
+    }
+
+    static int[] decode(ByteBuffer buffer, int count) {
+        int[] ordinals = new int[count];
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            last += gap;
+            ordinals[i] = last;
+        }
+        return ordinals;
+    }
+
+    private static int writeVarInt(byte[] target, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[offset++] = (byte) value;
+        return offset;
+    }
+}
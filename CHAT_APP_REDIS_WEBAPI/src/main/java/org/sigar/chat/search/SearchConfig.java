@@ -0,0 +1,23 @@
+package org.sigar.chat.search;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The search index keeps its segments in chat.search.dir, which must not be shared between nodes;
+ * the default is per server port so nodes started side by side on one machine each get their own.
+ */
+@Configuration
+public class SearchConfig {
+
+    @Bean(destroyMethod = "close")
+    public SearchIndex searchIndex(@Value("${chat.search.dir:${java.io.tmpdir}/sigar-chat-search-${server.port:8080}}") String directory,
+                                   @Value("${chat.search.flush-documents:50000}") int flushDocuments,
+                                   @Value("${chat.search.merge-factor:10}") int mergeFactor) throws IOException {
+        return new SearchIndex(Path.of(directory), flushDocuments, mergeFactor);
+    }
+}
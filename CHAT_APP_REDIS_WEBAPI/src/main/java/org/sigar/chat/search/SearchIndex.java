@@ -0,0 +1,403 @@
+package org.sigar.chat.search;
+
+import org.sigar.chat.history.HistoryEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over room messages: per room and term, the list of messages containing it.
+ *
+ * New messages go into an in-memory {@link IndexBuffer}. {@link #flush()} writes the buffer out as an
+ * immutable segment file, and {@link #merge()} folds runs of similar-sized neighbouring segments into
+ * one, so a search touches a handful of segments however long the node has been running. Segments are
+ * kept in indexing order, and merges only combine neighbours, so walking sources newest first and each
+ * source's matches from the end gives the newest matches first without sorting.
+ *
+ * Searches read an immutable {@link View} of the sources and never wait for flushes or merges; one
+ * thread adds, and flush and merge each run on a single thread of their own.
+ */
+public class SearchIndex implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+    /** Prefix queries look at this many matching terms per source at most */
+    static final int MAX_PREFIX_TERMS = 1024;
+    /** Segments this large are left alone by merges; ordinals are ints */
+    static final int MAX_MERGED_DOCUMENTS = 100_000_000;
+    /** Rooms with longer names are not indexed; keys have to fit the segment's term dictionary */
+    static final int MAX_ROOM_LENGTH = 256;
+    /** How many flushes' worth of documents may wait in memory while the disk is not keeping up */
+    static final int MAX_BUFFERED_FLUSHES = 4;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg-(\\d+)-(\\d+)\\.idx");
+
+    private record View(List<Segment> segments, IndexBuffer flushing, IndexBuffer active) {
+    }
+
+    private final Path directory;
+    private final int flushDocuments;
+    private final int mergeFactor;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final Object viewLock = new Object();
+    private volatile View view;
+    private long generation;
+    // Generation of the buffer being flushed, kept for a retry after a failed write
+    private long flushGeneration;
+
+    public SearchIndex(Path directory, int flushDocuments, int mergeFactor) throws IOException {
+        this.directory = directory;
+        this.flushDocuments = flushDocuments;
+        // Bounded so that mergeFactor segments below MAX_MERGED_DOCUMENTS still number their documents in an int
+        this.mergeFactor = Math.max(2, Math.min(16, mergeFactor));
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("write.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IllegalStateException(directory + " is used by another search index; set chat.search.dir per node");
+        }
+        this.lock = acquired;
+        List<Segment> segments = load();
+        this.generation = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).lastGeneration();
+        this.view = new View(segments, null, new IndexBuffer());
+    }
+
+    /**
+     * Indexes a message under the given terms. Returns false without indexing it when flushes have
+     * fallen so far behind that memory would run out, for example because the disk is full.
+     */
+    public boolean add(String room, HistoryEntry entry, Collection<String> terms) {
+        if (room.length() > MAX_ROOM_LENGTH || terms.isEmpty()) {
+            return true;
+        }
+        synchronized (viewLock) {
+            if (view.active.size() >= MAX_BUFFERED_FLUSHES * flushDocuments) {
+                return false;
+            }
+            view.active.add(room, entry, terms);
+            return true;
+        }
+    }
+
+    public boolean isFull() {
+        return view.active.size() >= flushDocuments;
+    }
+
+    public int segmentCount() {
+        return view.segments.size();
+    }
+
+    /**
+     * Writes what has been indexed since the last flush to a new segment. Flushes have to run one at a
+     * time. If writing fails the documents stay searchable in memory and the next flush tries them again.
+     */
+    public void flush() throws IOException {
+        IndexBuffer flushing;
+        synchronized (viewLock) {
+            View current = view;
+            flushing = current.flushing;
+            if (flushing == null) {
+                if (current.active.size() == 0) {
+                    return;
+                }
+                flushing = current.active;
+                flushGeneration = ++generation;
+                view = new View(current.segments, flushing, new IndexBuffer());
+            }
+        }
+        Segment segment = write(flushGeneration, flushGeneration, flushing::writeTo);
+        synchronized (viewLock) {
+            List<Segment> segments = new ArrayList<>(view.segments);
+            segments.add(segment);
+            view = new View(segments, null, view.active);
+        }
+    }
+
+    /**
+     * Merges the oldest run of mergeFactor neighbouring segments of the same size class, if there is one.
+     * Call it until it returns false to bring the index back to few segments.
+     */
+    public boolean merge() throws IOException {
+        List<Segment> segments = view.segments;
+        int runStart = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i).documentCount() >= MAX_MERGED_DOCUMENTS) {
+                runStart = i + 1;
+                continue;
+            }
+            if (sizeClass(segments.get(i)) != sizeClass(segments.get(runStart))) {
+                runStart = i;
+            }
+            if (i - runStart + 1 == mergeFactor) {
+                merge(segments.subList(runStart, i + 1));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Newest messages in room matching every clause of the query, at most limit of them.
+     */
+    public List<HistoryEntry> search(String room, SearchQuery query, int limit) {
+        View current = acquire();
+        try {
+            Map<String, HistoryEntry> hits = new LinkedHashMap<>();
+            List<IndexSource> sources = new ArrayList<>();
+            sources.add(current.active);
+            if (current.flushing != null) {
+                sources.add(current.flushing);
+            }
+            for (int i = current.segments.size() - 1; i >= 0; i--) {
+                sources.add(current.segments.get(i));
+            }
+            for (IndexSource source : sources) {
+                int[] matches = match(source, room, query);
+                for (int i = matches.length - 1; i >= 0 && hits.size() < limit; i--) {
+                    HistoryEntry entry = source.document(matches[i]);
+                    hits.putIfAbsent(entry.id(), entry);
+                }
+                if (hits.size() == limit) {
+                    break;
+                }
+            }
+            return new ArrayList<>(hits.values());
+        } finally {
+            current.segments.forEach(Segment::release);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (viewLock) {
+            view.segments.forEach(segment -> segment.retire(false));
+            view = new View(List.of(), null, new IndexBuffer());
+        }
+        lock.release();
+        lockChannel.close();
+    }
+
+    private static int[] match(IndexSource source, String room, SearchQuery query) {
+        int[] matches = null;
+        for (SearchQuery.Clause clause : query.clauses()) {
+            String key = IndexSource.key(room, clause.term());
+            int[] postings = clause.prefix() ? union(source.postingsWithPrefix(key, MAX_PREFIX_TERMS)) : source.postings(key);
+            matches = matches == null ? postings : intersect(matches, postings);
+            if (matches.length == 0) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    static int[] intersect(int[] left, int[] right) {
+        int[] result = new int[Math.min(left.length, right.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                result[count++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    static int[] union(List<int[]> lists) {
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        // k-way merge of ascending lists, dropping repeats
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(Comparator.comparingInt((int[] cursor) -> lists.get(cursor[0])[cursor[1]]));
+        int total = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            if (lists.get(i).length > 0) {
+                cursors.add(new int[]{i, 0});
+                total += lists.get(i).length;
+            }
+        }
+        int[] result = new int[total];
+        int count = 0;
+        while (!cursors.isEmpty()) {
+            int[] cursor = cursors.poll();
+            int[] list = lists.get(cursor[0]);
+            int ordinal = list[cursor[1]];
+            if (count == 0 || result[count - 1] != ordinal) {
+                result[count++] = ordinal;
+            }
+            if (++cursor[1] < list.length) {
+                cursors.add(cursor);
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    // Takes a reference on every segment of the current view; a segment retired in between means a newer view
+    private View acquire() {
+        while (true) {
+            View current = view;
+            List<Segment> retained = new ArrayList<>(current.segments.size());
+            for (Segment segment : current.segments) {
+                if (!segment.retain()) {
+                    break;
+                }
+                retained.add(segment);
+            }
+            if (retained.size() == current.segments.size()) {
+                return current;
+            }
+            retained.forEach(Segment::release);
+        }
+    }
+
+    private int sizeClass(Segment segment) {
+        int size = 0;
+        for (long documents = segment.documentCount(); documents > flushDocuments; documents /= mergeFactor) {
+            size++;
+        }
+        return size;
+    }
+
+    private void merge(List<Segment> run) throws IOException {
+        List<Segment> merging = List.copyOf(run);
+        Segment merged = write(merging.get(0).firstGeneration(), merging.get(merging.size() - 1).lastGeneration(),
+                writer -> mergeInto(merging, writer));
+        synchronized (viewLock) {
+            List<Segment> segments = new ArrayList<>(view.segments);
+            int at = segments.indexOf(merging.get(0));
+            segments.subList(at, at + merging.size()).clear();
+            segments.add(at, merged);
+            view = new View(segments, view.flushing, view.active);
+        }
+        merging.forEach(segment -> segment.retire(true));
+        log.debug("Merged {} search segments into {}", merging.size(), merged.path().getFileName());
+    }
+
+    private static void mergeInto(List<Segment> segments, SegmentWriter writer) throws IOException {
+        int[] bases = new int[segments.size()];
+        for (int s = 0; s < segments.size(); s++) {
+            bases[s] = writer.documents();
+            Segment segment = segments.get(s);
+            for (int ordinal = 0; ordinal < segment.documentCount(); ordinal++) {
+                writer.addDocument(segment.document(ordinal));
+            }
+        }
+        // Walk all term dictionaries in key order; a key's lists are joined oldest segment first, so they stay ascending
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(Comparator
+                .comparing((int[] cursor) -> segments.get(cursor[0]).key(cursor[1]))
+                .thenComparingInt(cursor -> cursor[0]));
+        for (int s = 0; s < segments.size(); s++) {
+            if (segments.get(s).termCount() > 0) {
+                cursors.add(new int[]{s, 0});
+            }
+        }
+        while (!cursors.isEmpty()) {
+            String key = segments.get(cursors.peek()[0]).key(cursors.peek()[1]);
+            List<int[]> parts = new ArrayList<>();
+            int total = 0;
+            while (!cursors.isEmpty() && segments.get(cursors.peek()[0]).key(cursors.peek()[1]).equals(key)) {
+                int[] cursor = cursors.poll();
+                int[] postings = segments.get(cursor[0]).postingsAt(cursor[1]);
+                int base = bases[cursor[0]];
+                for (int i = 0; i < postings.length; i++) {
+                    postings[i] += base;
+                }
+                parts.add(postings);
+                total += postings.length;
+                if (++cursor[1] < segments.get(cursor[0]).termCount()) {
+                    cursors.add(cursor);
+                }
+            }
+            int[] joined = new int[total];
+            int at = 0;
+            for (int[] part : parts) {
+                System.arraycopy(part, 0, joined, at, part.length);
+                at += part.length;
+            }
+            writer.addTerm(key, joined);
+        }
+    }
+
+    private interface SegmentContent {
+        void writeTo(SegmentWriter writer) throws IOException;
+    }
+
+    private Segment write(long firstGeneration, long lastGeneration, SegmentContent content) throws IOException {
+        String name = "seg-" + firstGeneration + "-" + lastGeneration + ".idx";
+        Path target = directory.resolve(name);
+        try (SegmentWriter writer = new SegmentWriter(directory.resolve(name + ".tmp"))) {
+            content.writeTo(writer);
+            writer.finish(target);
+        }
+        return Segment.open(target, firstGeneration, lastGeneration);
+    }
+
+    // Segments on disk in generation order. A crash between writing a merge and deleting what it replaced
+    // leaves both; the merged segment covers the others' generations and wins.
+    private List<Segment> load() throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (matcher.matches()) {
+                    ranges.add(new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))});
+                    paths.add(file);
+                } else if (name.endsWith(".idx.tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            long[] range = ranges.get(i);
+            boolean covered = false;
+            for (long[] other : ranges) {
+                if (other != range && other[0] <= range[0] && range[1] <= other[1] && other[1] - other[0] > range[1] - range[0]) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (covered) {
+                Files.delete(paths.get(i));
+                continue;
+            }
+            try {
+                segments.add(Segment.open(paths.get(i), range[0], range[1]));
+            } catch (IOException e) {
+                log.warn("Skipping unreadable search segment {}", paths.get(i), e);
+            }
+        }
+        segments.sort(Comparator.comparingLong(Segment::firstGeneration));
+        return segments;
+    }
+}
@@ -0,0 +1,186 @@
+package org.sigar.chat.search;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sigar.chat.broker.ShardedRoomBroker;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.core.ChatMessageCodec;
+import org.sigar.chat.history.HistoryEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Feeds the {@link SearchIndex} from the broker channel, where ChatMessageBroadcaster puts every room
+ * message this node delivers, whichever CommunicationChannel is active. On the distributed channels a
+ * node only receives rooms its own clients are in, so search covers those rooms from the time they were
+ * first joined here, while on the http and websocket channels it covers every message.
+ *
+ * Tokenising and indexing happen on one "search-indexer" thread behind a bounded queue, so the broadcast
+ * path only pays for an enqueue; when the queue is full messages are left out of the index and counted.
+ * Flushes run on "search-flusher", every chat.search.flush-interval-ms or when the buffer is full, and
+ * merges after them on "search-merger", so a long merge never holds up a flush.
+ */
+@Component
+public class SearchIndexer implements MessageHandler {
+    private static final Logger log = LoggerFactory.getLogger(SearchIndexer.class);
+
+    private final SubscribableChannel brokerChannel;
+    private final SearchIndex index;
+    private final ChatMessageCodec codec;
+    private final long flushIntervalMillis;
+    private final ThreadPoolExecutor indexer;
+    private final ScheduledExecutorService flusher = daemonScheduler("search-flusher");
+    private final ScheduledExecutorService merger = daemonScheduler("search-merger");
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final Counter indexed;
+    private final Counter dropped;
+
+    public SearchIndexer(@Qualifier("brokerChannel") SubscribableChannel brokerChannel, SearchIndex index,
+                         ChatMessageCodec codec, MeterRegistry registry,
+                         @Value("${chat.search.queue-capacity:100000}") int queueCapacity,
+                         @Value("${chat.search.flush-interval-ms:10000}") long flushIntervalMillis) {
+        this.brokerChannel = brokerChannel;
+        this.index = index;
+        this.codec = codec;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.indexer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "search-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("chat.search.segments", index, SearchIndex::segmentCount)
+                .description("Search index segments on disk")
+                .register(registry);
+        Gauge.builder("chat.search.queue", indexer, executor -> executor.getQueue().size())
+                .description("Messages waiting to be indexed")
+                .register(registry);
+        this.indexed = Counter.builder("chat.search.indexed")
+                .description("Messages added to the search index")
+                .register(registry);
+        this.dropped = Counter.builder("chat.search.dropped")
+                .description("Messages left out of the search index because indexing fell behind")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        brokerChannel.subscribe(this);
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        // Segments left from the last run may be due for merging
+        merger.execute(this::merge);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        brokerChannel.unsubscribe(this);
+        indexer.shutdown();
+        indexer.awaitTermination(5, TimeUnit.SECONDS);
+        merger.shutdownNow();
+        merger.awaitTermination(5, TimeUnit.SECONDS);
+        // What is still in memory goes to disk, so a restart does not lose it
+        flusher.execute(this::flush);
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Broker channel callback; the same messages ShardedRoomBroker fans out to STOMP sessions.
+     */
+    @Override
+    public void handleMessage(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (!SimpMessageType.MESSAGE.equals(SimpMessageHeaderAccessor.getMessageType(headers))
+                || SimpMessageHeaderAccessor.getSessionId(headers) != null) {
+            return;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String historyId = NativeMessageHeaderAccessor.getFirstNativeHeader(ChatMessageBroadcaster.HISTORY_ID_HEADER, headers);
+        if (destination == null || !destination.startsWith(ShardedRoomBroker.ROOM_DESTINATION_PREFIX)
+                || historyId == null || !(message.getPayload() instanceof byte[] payload)) {
+            return;
+        }
+        String room = destination.substring(ShardedRoomBroker.ROOM_DESTINATION_PREFIX.length());
+        String sequence = NativeMessageHeaderAccessor.getFirstNativeHeader(ChatMessageBroadcaster.SEQUENCE_HEADER, headers);
+        HistoryEntry entry = new HistoryEntry(historyId, sequence != null ? Long.parseLong(sequence) : 0,
+                new String(payload, StandardCharsets.UTF_8));
+        try {
+            indexer.execute(() -> index(room, entry, payload));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    private void index(String room, HistoryEntry entry, byte[] payload) {
+        try {
+            if (index.add(room, entry, Tokenizer.terms(codec.read(payload).getContent()))) {
+                indexed.increment();
+            } else {
+                dropped.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Not indexing a message in {}: {}", room, e.toString());
+            dropped.increment();
+        }
+        if (index.isFull() && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushQueued.set(false);
+        try {
+            index.flush();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Flushing the search index failed", e);
+            return;
+        }
+        try {
+            merger.execute(this::merge);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the next start merges
+        }
+    }
+
+    private void merge() {
+        try {
+            while (index.merge()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Merging search segments failed", e);
+        }
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package org.sigar.chat.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search over one room: every clause has to match. Words match whole terms, and a word ending in *
+ * matches any term starting with it, e.g. "deploy fail*" finds "deploy failed" and "Failure in deploy".
+ */
+public record SearchQuery(List<Clause> clauses) {
+
+    public record Clause(String term, boolean prefix) {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text has nothing to search for
+     */
+    public static SearchQuery parse(String text) {
+        List<Clause> clauses = new ArrayList<>();
+        for (String word : text.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            List<String> terms = new ArrayList<>(Tokenizer.terms(prefix ? word.substring(0, word.length() - 1) : word));
+            for (int i = 0; i < terms.size(); i++) {
+                // Only the last piece of "re-deploy*" is a prefix
+                clauses.add(new Clause(terms.get(i), prefix && i == terms.size() - 1));
+            }
+        }
+        if (clauses.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to search for in: " + text);
+        }
+        return new SearchQuery(clauses);
+    }
+}
@@ -0,0 +1,216 @@
+package org.sigar.chat.search;
+
+import org.sigar.chat.history.HistoryEntry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A segment file written by {@link SegmentWriter}, covering the flushes numbered firstGeneration to
+ * lastGeneration. Only the term dictionary is held in memory; postings and documents are read from the
+ * file when a search needs them, with positional reads that any number of searches can share.
+ *
+ * Segments are reference counted: the index holds one reference and every search in progress another,
+ * so a segment replaced by a merge is closed and deleted only once the last search using it is done.
+ */
+final class Segment implements IndexSource {
+    private static final int[] NONE = new int[0];
+
+    private final Path path;
+    private final long firstGeneration;
+    private final long lastGeneration;
+    private final FileChannel channel;
+    private final String[] keys;
+    private final long[] postingsOffsets;
+    private final int[] counts;
+    private final long termsOffset;
+    private final long documentIndexOffset;
+    private final int documentCount;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean deleteWhenReleased;
+
+    private Segment(Path path, long firstGeneration, long lastGeneration, FileChannel channel, String[] keys,
+                    long[] postingsOffsets, int[] counts, long termsOffset, long documentIndexOffset, int documentCount) {
+        this.path = path;
+        this.firstGeneration = firstGeneration;
+        this.lastGeneration = lastGeneration;
+        this.channel = channel;
+        this.keys = keys;
+        this.postingsOffsets = postingsOffsets;
+        this.counts = counts;
+        this.termsOffset = termsOffset;
+        this.documentIndexOffset = documentIndexOffset;
+        this.documentCount = documentCount;
+    }
+
+    static Segment open(Path path, long firstGeneration, long lastGeneration) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < SegmentWriter.FOOTER_LENGTH) {
+                throw new IOException("Not a segment: " + path);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(SegmentWriter.FOOTER_LENGTH);
+            readFully(channel, footer, size - SegmentWriter.FOOTER_LENGTH);
+            footer.flip();
+            long documentIndexOffset = footer.getLong();
+            int documentCount = footer.getInt();
+            long termsOffset = footer.getLong();
+            int termCount = footer.getInt();
+            if (footer.getInt() != SegmentWriter.MAGIC) {
+                throw new IOException("Not a segment: " + path);
+            }
+            String[] keys = new String[termCount];
+            long[] postingsOffsets = new long[termCount];
+            int[] counts = new int[termCount];
+            // Not closed: closing the stream would close the channel too
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(termsOffset)), 1 << 16));
+            for (int i = 0; i < termCount; i++) {
+                keys[i] = in.readUTF();
+                postingsOffsets[i] = in.readLong();
+                counts[i] = in.readInt();
+            }
+            return new Segment(path, firstGeneration, lastGeneration, channel, keys, postingsOffsets, counts,
+                    termsOffset, documentIndexOffset, documentCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long firstGeneration() {
+        return firstGeneration;
+    }
+
+    long lastGeneration() {
+        return lastGeneration;
+    }
+
+    int documentCount() {
+        return documentCount;
+    }
+
+    int termCount() {
+        return keys.length;
+    }
+
+    String key(int term) {
+        return keys[term];
+    }
+
+    @Override
+    public int[] postings(String key) {
+        int term = Arrays.binarySearch(keys, key);
+        return term < 0 ? NONE : postingsAt(term);
+    }
+
+    @Override
+    public List<int[]> postingsWithPrefix(String keyPrefix, int maxTerms) {
+        int term = Arrays.binarySearch(keys, keyPrefix);
+        if (term < 0) {
+            term = -term - 1;
+        }
+        List<int[]> lists = new ArrayList<>();
+        for (; term < keys.length && lists.size() < maxTerms && keys[term].startsWith(keyPrefix); term++) {
+            lists.add(postingsAt(term));
+        }
+        return lists;
+    }
+
+    int[] postingsAt(int term) {
+        long end = term + 1 < keys.length ? postingsOffsets[term + 1] : termsOffset;
+        ByteBuffer bytes = read(postingsOffsets[term], (int) (end - postingsOffsets[term]));
+        return Postings.decode(bytes, counts[term]);
+    }
+
+    @Override
+    public HistoryEntry document(int ordinal) {
+        boolean last = ordinal + 1 == documentCount;
+        ByteBuffer index = read(documentIndexOffset + 8L * ordinal, last ? 8 : 16);
+        long start = index.getLong();
+        long end = last ? documentIndexOffset : index.getLong();
+        ByteBuffer record = read(start, (int) (end - start));
+        long seq = record.getLong();
+        byte[] id = new byte[Short.toUnsignedInt(record.getShort())];
+        record.get(id);
+        byte[] message = new byte[record.getInt()];
+        record.get(message);
+        // Ids are history ids, ASCII, so their modified UTF-8 is plain ASCII too
+        return new HistoryEntry(new String(id, StandardCharsets.US_ASCII), seq, new String(message, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Takes a reference for a search; false if the segment has already been released for good.
+     */
+    boolean retain() {
+        while (true) {
+            int current = references.get();
+            if (current == 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+                if (deleteWhenReleased) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Drops the index's own reference, deleting the file once searches still reading it are done.
+     */
+    void retire(boolean delete) {
+        deleteWhenReleased = delete;
+        release();
+    }
+
+    private ByteBuffer read(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            readFully(channel, buffer, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
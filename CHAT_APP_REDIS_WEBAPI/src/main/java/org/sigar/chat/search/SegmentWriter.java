@@ -0,0 +1,151 @@
+package org.sigar.chat.search;
+
+import org.sigar.chat.history.HistoryEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a segment file. Documents come first, in ordinal order, then terms in ascending key order:
+ * <pre>
+ *   documents   per document: long seq, UTF id, int length, message bytes
+ *   doc index   long offset of each document
+ *   postings    per term: varint gaps, see {@link Postings}
+ *   terms       per term: UTF key, long postings offset, int document count
+ *   footer      long doc index offset, int documents, long terms offset, int terms, int MAGIC
+ * </pre>
+ * The file is written next to its final name and moved into place by {@link #finish(Path)}, so a
+ * segment either exists complete or not at all.
+ */
+final class SegmentWriter implements Closeable {
+    static final int MAGIC = 0x53434831;
+    static final int FOOTER_LENGTH = 8 + 4 + 8 + 4 + 4;
+
+    private final Path temporary;
+    private final FileOutputStream file;
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private long[] documentOffsets = new long[1024];
+    private int documents;
+    private long documentIndexOffset = -1;
+    private final List<String> keys = new ArrayList<>();
+    private long[] postingsOffsets = new long[1024];
+    private int[] counts = new int[1024];
+    private boolean finished;
+
+    SegmentWriter(Path temporary) throws IOException {
+        this.temporary = temporary;
+        this.file = new FileOutputStream(temporary.toFile());
+        this.counter = new CountingOutputStream(new BufferedOutputStream(file, 1 << 16));
+        this.out = new DataOutputStream(counter);
+    }
+
+    void addDocument(HistoryEntry document) throws IOException {
+        if (documentIndexOffset >= 0) {
+            throw new IllegalStateException("Documents have to be added before terms");
+        }
+        if (documents == documentOffsets.length) {
+            documentOffsets = Arrays.copyOf(documentOffsets, documents * 2);
+        }
+        documentOffsets[documents++] = counter.position;
+        byte[] message = document.message().getBytes(StandardCharsets.UTF_8);
+        out.writeLong(document.seq());
+        out.writeUTF(document.id());
+        out.writeInt(message.length);
+        out.write(message);
+    }
+
+    int documents() {
+        return documents;
+    }
+
+    void addTerm(String key, int[] ordinals) throws IOException {
+        finishDocuments();
+        if (!keys.isEmpty() && keys.get(keys.size() - 1).compareTo(key) >= 0) {
+            throw new IllegalStateException("Terms have to be added in ascending order");
+        }
+        int index = keys.size();
+        if (index == counts.length) {
+            postingsOffsets = Arrays.copyOf(postingsOffsets, index * 2);
+            counts = Arrays.copyOf(counts, index * 2);
+        }
+        keys.add(key);
+        postingsOffsets[index] = counter.position;
+        counts[index] = ordinals.length;
+        Postings.encode(ordinals, ordinals.length, out);
+    }
+
+    /**
+     * Completes the file and moves it to target.
+     */
+    void finish(Path target) throws IOException {
+        finishDocuments();
+        long termsOffset = counter.position;
+        for (int i = 0; i < keys.size(); i++) {
+            out.writeUTF(keys.get(i));
+            out.writeLong(postingsOffsets[i]);
+            out.writeInt(counts[i]);
+        }
+        out.writeLong(documentIndexOffset);
+        out.writeInt(documents);
+        out.writeLong(termsOffset);
+        out.writeInt(keys.size());
+        out.writeInt(MAGIC);
+        out.flush();
+        file.getChannel().force(true);
+        out.close();
+        finished = true;
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            out.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void finishDocuments() throws IOException {
+        if (documentIndexOffset >= 0) {
+            return;
+        }
+        documentIndexOffset = counter.position;
+        for (int i = 0; i < documents; i++) {
+            out.writeLong(documentOffsets[i]);
+        }
+    }
+
+    // DataOutputStream.size() stops counting at 2 GB
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long position;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+}
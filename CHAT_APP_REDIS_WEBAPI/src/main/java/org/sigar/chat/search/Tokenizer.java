@@ -0,0 +1,41 @@
+package org.sigar.chat.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits text into index terms: runs of letters and digits, lower-cased. Queries go through the same
+ * rules, so "Don't" finds messages containing "don" and "t" like the message side was indexed.
+ */
+final class Tokenizer {
+    /** Longer runs, like pasted tokens or base64, are left out of the index */
+    static final int MAX_TERM_LENGTH = 40;
+
+    private Tokenizer() {
+    }
+
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,264 @@
+package org.sigar.chat.shm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Memory-mapped append-only ring of chat messages with one writer (the node that owns the file) and any
+ * number of readers in other processes, each with its own {@link Cursor}.
+ *
+ * Layout: a 128-byte header holding the magic, the data capacity, the owner's heartbeat and the write
+ * position, then the data area. The write position counts bytes ever written, so a reader compares it
+ * with its own position to see both what is new and whether the writer has lapped it. Each record is
+ * [int length][int roomLength][long sequence][room][payload], padded to 8 bytes; a negative length marks
+ * padding up to the end of the data area when a record does not fit before it. The sequence numbers the
+ * records from 0, which tells a reader that skipped ahead how many it missed.
+ *
+ * The writer fills in a record and then publishes it with a release store of the write position;
+ * readers load the position with acquire semantics. Nothing ever blocks the writer, so a reader that
+ * falls more than a lap behind loses messages: after copying a record it checks the writer has not come
+ * round to it in the meantime, and if it has it discards the copy and jumps to the current position.
+ */
+final class RingFile {
+    private static final int MAGIC = 0x43485232; // "CHR2"
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    // Epoch milliseconds, renewed by the owner every rescan; written about once a second, so it can share the line
+    private static final int HEARTBEAT_OFFSET = 8;
+    // On its own cache line, away from the read-mostly fields above
+    private static final int WRITE_POSITION_OFFSET = 64;
+    static final int HEADER_SIZE = 128;
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int maxRecordSize;
+    private final int maxLag;
+    private final Object fileKey;
+    // Only used by the writer, which is the only one to move the write position
+    private long writePosition;
+    private long nextSequence;
+
+    private RingFile(Path path, MappedByteBuffer buffer, Object fileKey) {
+        this.path = path;
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+        this.capacity = this.buffer.getInt(CAPACITY_OFFSET);
+        this.mask = capacity - 1;
+        // Bounds how far a record being written can reach ahead of the published write position
+        this.maxRecordSize = capacity / 8;
+        // A write in progress may cover padding plus one record past the published position, so a reader
+        // further behind than this could be reading bytes the writer is already replacing
+        this.maxLag = capacity - 2 * maxRecordSize;
+        this.fileKey = fileKey;
+        this.writePosition = publishedPosition();
+    }
+
+    /**
+     * Creates the ring this node writes to. The file is built under a temporary name and renamed into
+     * place, so readers never map a half-initialised file, and readers of a previous file at the same
+     * path (this node before a restart) keep their mapping instead of faulting on a truncated one.
+     */
+    static RingFile create(Path path, int capacity) throws IOException {
+        if (capacity < 1024 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two of at least 1024 bytes, got " + capacity);
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_SIZE + capacity);
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putLong(HEARTBEAT_OFFSET, System.currentTimeMillis());
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new RingFile(path, buffer, fileKey(path));
+        }
+    }
+
+    /**
+     * Maps another node's ring for reading.
+     */
+    static RingFile open(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() < HEADER_SIZE) {
+                throw new IOException(path + " is too small to be a chat ring");
+            }
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC || file.size() != (long) HEADER_SIZE + buffer.getInt(CAPACITY_OFFSET)) {
+                throw new IOException(path + " is not a chat ring");
+            }
+            return new RingFile(path, buffer, fileKey(path));
+        }
+    }
+
+    static Object fileKey(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    Path path() {
+        return path;
+    }
+
+    Object fileKey() {
+        return fileKey;
+    }
+
+    /**
+     * Tells readers the owner is alive. Owner only.
+     */
+    void beat(long epochMillis) {
+        LONGS.setRelease(buffer, HEARTBEAT_OFFSET, epochMillis);
+    }
+
+    /**
+     * @return when the owner last called {@link #beat}, in epoch milliseconds
+     */
+    long heartbeat() {
+        return (long) LONGS.getAcquire(buffer, HEARTBEAT_OFFSET);
+    }
+
+    /**
+     * Appends one record. Single writer only: the caller serialises calls.
+     *
+     * @return false if the record is too large for this ring
+     */
+    boolean append(byte[] room, byte[] payload) {
+        int length = RECORD_HEADER_SIZE + room.length + payload.length;
+        int aligned = (length + 7) & ~7;
+        if (aligned > maxRecordSize) {
+            return false;
+        }
+        long position = writePosition;
+        int offset = (int) (position & mask);
+        int remaining = capacity - offset;
+        if (aligned > remaining) {
+            buffer.putInt(HEADER_SIZE + offset, -remaining);
+            position += remaining;
+            offset = 0;
+        }
+        int at = HEADER_SIZE + offset;
+        buffer.putInt(at, length);
+        buffer.putInt(at + 4, room.length);
+        buffer.putLong(at + 8, nextSequence++);
+        buffer.put(at + RECORD_HEADER_SIZE, room);
+        buffer.put(at + RECORD_HEADER_SIZE + room.length, payload);
+        writePosition = position + aligned;
+        LONGS.setRelease(buffer, WRITE_POSITION_OFFSET, writePosition);
+        return true;
+    }
+
+    /**
+     * @param fromStart read everything written so far instead of only what is appended from now on
+     */
+    Cursor cursor(boolean fromStart) {
+        // Where reading starts mid-ring the first sequence is not known, so nothing before it counts as skipped
+        return fromStart ? new Cursor(0, 0) : new Cursor(publishedPosition(), -1);
+    }
+
+    private long publishedPosition() {
+        return (long) LONGS.getAcquire(buffer, WRITE_POSITION_OFFSET);
+    }
+
+    @FunctionalInterface
+    interface RecordHandler {
+        void onRecord(String room, byte[] payload);
+    }
+
+    /**
+     * One reader's position in the ring. Not thread-safe; each reader thread owns its cursors.
+     */
+    final class Cursor {
+        private long position;
+        private long expectedSequence;
+        private long lapped;
+        private long skipped;
+
+        private Cursor(long position, long expectedSequence) {
+            this.position = position;
+            this.expectedSequence = expectedSequence;
+        }
+
+        /**
+         * Hands up to limit new records to the handler.
+         *
+         * @return the number of records read
+         */
+        int poll(RecordHandler handler, int limit) {
+            long published = publishedPosition();
+            int read = 0;
+            while (position < published && read < limit) {
+                if (published - position > maxLag) {
+                    resync(published);
+                    return read;
+                }
+                int at = HEADER_SIZE + (int) (position & mask);
+                int length = buffer.getInt(at);
+                if (length < 0) {
+                    position -= length;
+                    continue;
+                }
+                int roomLength = buffer.getInt(at + 4);
+                long sequence = buffer.getLong(at + 8);
+                if (length < RECORD_HEADER_SIZE || length > maxRecordSize || roomLength < 0 || roomLength > length - RECORD_HEADER_SIZE) {
+                    // Only a record overwritten while being read looks like this
+                    resync(publishedPosition());
+                    return read;
+                }
+                byte[] room = new byte[roomLength];
+                byte[] payload = new byte[length - RECORD_HEADER_SIZE - roomLength];
+                buffer.get(at + RECORD_HEADER_SIZE, room);
+                buffer.get(at + RECORD_HEADER_SIZE + roomLength, payload);
+                // The copies must be complete before the position is checked again
+                VarHandle.loadLoadFence();
+                long now = publishedPosition();
+                if (now - position > maxLag) {
+                    resync(now);
+                    return read;
+                }
+                position += (length + 7) & ~7;
+                read++;
+                if (expectedSequence >= 0 && sequence > expectedSequence) {
+                    skipped += sequence - expectedSequence;
+                }
+                expectedSequence = sequence + 1;
+                handler.onRecord(new String(room, StandardCharsets.UTF_8), payload);
+            }
+            return read;
+        }
+
+        /**
+         * How often this reader fell a lap behind and skipped ahead, losing whatever it had not read.
+         */
+        long lapped() {
+            return lapped;
+        }
+
+        /**
+         * Records this reader never saw because it skipped ahead; counted when the next record after a skip is read.
+         */
+        long skipped() {
+            return skipped;
+        }
+
+        private void resync(long published) {
+            lapped++;
+            position = published;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.sigar.chat.shm;
+
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.channel.MessageHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cross-node channel for nodes on the same host, selected with chat.communication.channel=shm (see ShmConfig).
+ *
+ * Every node appends its messages to its own {@link RingFile}, &lt;nodeId&gt;.ring in a shared directory,
+ * and one reader thread tails the rings of all other nodes there. Nothing crosses a socket and there is
+ * no broker: a message costs a copy into the mapped file and a copy out. Put the directory on tmpfs
+ * (/dev/shm on Linux) so the kernel never writes the rings back to disk.
+ *
+ * The reader spins briefly when the rings are quiet, then parks, which bounds the delivery latency of the
+ * first message after a lull by the park time. A reader that falls more than a lap behind a ring skips
+ * to its head; those messages are lost and counted.
+ *
+ * Each scan of the directory also renews this node's heartbeat in its ring. A ring whose heartbeat is
+ * older than {@link #STALE_RESCANS} scans (and at least {@link #MIN_STALE_MILLIS}) belongs to a node that
+ * died without removing it, so the scan stops reading it and deletes the file. A node that was only
+ * paused for that long finds its ring gone at its next scan and creates a new one.
+ */
+public class ShmCommunicationChannel implements CommunicationChannel {
+    private static final Logger log = LoggerFactory.getLogger(ShmCommunicationChannel.class);
+    private static final String ALL_ROOMS = "*";
+    private static final String RING_SUFFIX = ".ring";
+    private static final int POLL_BATCH = 256;
+    private static final int SPIN_ITERATIONS = 100;
+    private static final int YIELD_ITERATIONS = 10;
+    private static final int STALE_RESCANS = 10;
+    private static final long MIN_STALE_MILLIS = 2000;
+
+    private final Path directory;
+    private final String nodeId;
+    private final int capacity;
+    private final long rescanIntervalNanos;
+    private final long staleAfterMillis;
+    private final long idleParkNanos;
+    private final Map<String, MessageHandler> handlers = new ConcurrentHashMap<>();
+    // Only touched by the reader thread, apart from connect() before it starts
+    private final Map<Path, PeerRing> peers = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private RingFile ring;
+    private Thread reader;
+    private volatile boolean running;
+
+    public ShmCommunicationChannel(Path directory, String nodeId, int capacity, Duration rescanInterval, Duration idlePark) {
+        this.directory = directory;
+        this.nodeId = nodeId;
+        this.capacity = capacity;
+        this.rescanIntervalNanos = rescanInterval.toNanos();
+        this.staleAfterMillis = Math.max(MIN_STALE_MILLIS, rescanInterval.toMillis() * STALE_RESCANS);
+        this.idleParkNanos = idlePark.toNanos();
+    }
+
+    @Override
+    public void connect() {
+        try {
+            Files.createDirectories(directory);
+            ring = RingFile.create(directory.resolve(nodeId + RING_SUFFIX), capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the chat ring in " + directory, e);
+        }
+        // Peers already running: only what they write from now on is of interest
+        rescan(false);
+        running = true;
+        reader = new Thread(this::readLoop, "shm-reader");
+        reader.setDaemon(true);
+        reader.start();
+        log.info("Shared memory channel connected as {} in {}, {} peers", nodeId, directory, peers.size());
+    }
+
+    @Override
+    public void disconnect() {
+        running = false;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ring != null) {
+            try {
+                Files.deleteIfExists(ring.path());
+            } catch (IOException e) {
+                log.warn("Could not remove {}", ring.path(), e);
+            }
+        }
+        log.info("Shared memory channel disconnected");
+    }
+
+    @Override
+    public void sendMessage(String destination, byte[] message) {
+        deliverLocally(destination, message);
+        byte[] room = destination.getBytes(StandardCharsets.UTF_8);
+        boolean appended;
+        // Single writer per ring: threads of this node take turns
+        synchronized (writeLock) {
+            appended = ring.append(room, message);
+        }
+        if (!appended) {
+            dropped.incrementAndGet();
+            log.warn("Message for {} is too large for a {} byte ring, dropped", destination, capacity);
+        }
+    }
+
+    @Override
+    public void receiveMessage(String source, MessageHandler messageHandler) {
+        handlers.put(source, messageHandler);
+    }
+
+    @Override
+    public void stopReceiving(String source) {
+        handlers.remove(source);
+    }
+
+    @Override
+    public boolean isDistributed() {
+        return true;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    long lost() {
+        return lost.get();
+    }
+
+    Set<Path> peerRings() {
+        return peers.keySet();
+    }
+
+    private void readLoop() {
+        long nextRescan = System.nanoTime() + rescanIntervalNanos;
+        int idle = 0;
+        while (running) {
+            if (System.nanoTime() - nextRescan >= 0) {
+                // Nodes that started since the last scan are read from the start of their ring
+                rescan(true);
+                nextRescan = System.nanoTime() + rescanIntervalNanos;
+            }
+            int read = 0;
+            for (PeerRing peer : peers.values()) {
+                read += peer.poll();
+            }
+            if (read > 0) {
+                idle = 0;
+            } else if (++idle <= SPIN_ITERATIONS) {
+                Thread.onSpinWait();
+            } else if (idle <= SPIN_ITERATIONS + YIELD_ITERATIONS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(idleParkNanos);
+            }
+        }
+    }
+
+    private void rescan(boolean fromStart) {
+        beat();
+        long staleBefore = System.currentTimeMillis() - staleAfterMillis;
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + RING_SUFFIX)) {
+            for (Path path : files) {
+                if (path.equals(ring.path())) {
+                    continue;
+                }
+                PeerRing peer = peers.get(path);
+                try {
+                    if (peer == null || !peer.ring.fileKey().equals(RingFile.fileKey(path))) {
+                        // A node we have not seen, or one that restarted and replaced its ring
+                        RingFile peerRing = RingFile.open(path);
+                        peer = new PeerRing(peerRing, peerRing.cursor(fromStart));
+                        peers.put(path, peer);
+                        log.info("Reading chat ring {}", path.getFileName());
+                    }
+                    if (peer.ring.heartbeat() < staleBefore) {
+                        // Its node crashed, or it would have renewed the heartbeat or removed the ring on disconnect
+                        Files.deleteIfExists(path);
+                        log.info("Removed chat ring {}, its node stopped updating it", path.getFileName());
+                        continue;
+                    }
+                    present.add(path);
+                } catch (IOException e) {
+                    // Removed or replaced between listing and opening; the next scan sorts it out
+                    log.debug("Skipping {}: {}", path, e.toString());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list chat rings in {}", directory, e);
+            return;
+        }
+        peers.keySet().retainAll(present);
+    }
+
+    private void beat() {
+        if (!Files.exists(ring.path())) {
+            // A peer took this node for dead, e.g. after a long pause, and removed the ring
+            try {
+                synchronized (writeLock) {
+                    ring = RingFile.create(ring.path(), capacity);
+                }
+                log.warn("Chat ring {} was removed, created a new one", ring.path().getFileName());
+            } catch (IOException e) {
+                log.warn("Could not recreate {}", ring.path(), e);
+                return;
+            }
+        }
+        ring.beat(System.currentTimeMillis());
+    }
+
+    private void deliverLocally(String room, byte[] envelope) {
+        MessageHandler handler = handlers.get(room);
+        if (handler == null && !room.startsWith(CONTROL_PREFIX)) {
+            handler = handlers.get(ALL_ROOMS);
+        }
+        if (handler != null) {
+            handler.handleMessage(room, envelope);
+        }
+    }
+
+    private final class PeerRing {
+        private final RingFile ring;
+        private final RingFile.Cursor cursor;
+        private long lapped;
+        private long skipped;
+
+        private PeerRing(RingFile ring, RingFile.Cursor cursor) {
+            this.ring = ring;
+            this.cursor = cursor;
+        }
+
+        int poll() {
+            int read;
+            try {
+                read = cursor.poll(ShmCommunicationChannel.this::deliverLocally, POLL_BATCH);
+            } catch (RuntimeException e) {
+                // The cursor moved past the record before handing it over, so a failing handler loses only that one
+                log.warn("Delivering a message from {} failed", ring.path().getFileName(), e);
+                read = 1;
+            }
+            if (cursor.lapped() != lapped) {
+                lapped = cursor.lapped();
+                log.warn("Fell a lap behind {}, skipped to its latest message", ring.path().getFileName());
+            }
+            if (cursor.skipped() != skipped) {
+                lost.addAndGet(cursor.skipped() - skipped);
+                skipped = cursor.skipped();
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.sigar.chat.shm;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Shared memory channel between nodes on one host, e.g.:
+ *   chat.communication.channel=shm
+ *   chat.shm.dir=/dev/shm/sigar-chat
+ * All nodes point at the same directory. The node id names this node's ring and defaults to the process id.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.communication.channel", havingValue = "shm")
+public class ShmConfig {
+
+    @Bean(destroyMethod = "disconnect")
+    public ShmCommunicationChannel shmCommunicationChannel(MeterRegistry registry,
+                                                           @Value("${chat.shm.dir:${java.io.tmpdir}/sigar-chat-shm}") String directory,
+                                                           @Value("${chat.shm.node-id:}") String nodeId,
+                                                           @Value("${chat.shm.capacity-bytes:8388608}") int capacity,
+                                                           @Value("${chat.shm.idle-park-us:50}") long idleParkMicros,
+                                                           @Value("${chat.shm.rescan-interval-ms:1000}") long rescanIntervalMillis) {
+        ShmCommunicationChannel channel = new ShmCommunicationChannel(Path.of(directory),
+                nodeId.isBlank() ? String.valueOf(ProcessHandle.current().pid()) : nodeId,
+                capacity, Duration.ofMillis(rescanIntervalMillis), Duration.ofNanos(idleParkMicros * 1000));
+        FunctionCounter.builder("chat.shm.dropped", channel, ShmCommunicationChannel::dropped)
+                .description("Messages too large for the ring")
+                .register(registry);
+        FunctionCounter.builder("chat.shm.lost", channel, ShmCommunicationChannel::lost)
+                .description("Messages from peers' rings this node skipped after falling a lap behind")
+                .register(registry);
+        Gauge.builder("chat.shm.peers", channel, c -> c.peerRings().size())
+                .description("Peer rings this node is reading")
+                .register(registry);
+        channel.connect();
+        return channel;
+    }
+}
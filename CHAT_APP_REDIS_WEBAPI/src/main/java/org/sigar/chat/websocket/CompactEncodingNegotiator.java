@@ -0,0 +1,61 @@
+package org.sigar.chat.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+/**
+ * Lets a client ask for room frames in CBOR (see {@link CompactMessageEncoder}) by sending
+ * chat-encoding: cbor with CONNECT. Only plain WebSocket connections (/chat/websocket) get it: SockJS
+ * frames are text, so SockJS sessions keep receiving JSON whatever they ask for. Clients tell which
+ * they got from each frame's content-type.
+ */
+@Component
+public class CompactEncodingNegotiator {
+    public static final String ENCODING_HEADER = "chat-encoding";
+    public static final String CBOR = "cbor";
+
+    private static final String DICTIONARY_ATTRIBUTE = CompactEncodingNegotiator.class.getName() + ".dictionary";
+
+    private final LocalSessionRegistry sessions;
+    private final int dictionarySize;
+    private final Counter negotiated;
+
+    public CompactEncodingNegotiator(LocalSessionRegistry sessions, MeterRegistry registry,
+                                     @Value("${chat.websocket.compact.dictionary-size:1024}") int dictionarySize) {
+        this.sessions = sessions;
+        this.dictionarySize = dictionarySize;
+        this.negotiated = Counter.builder("chat.websocket.compact.sessions")
+                .description("Sessions that negotiated CBOR room frames")
+                .register(registry);
+    }
+
+    // Published on the connection's own thread before CONNECT reaches the inbound channel, so ahead of any SUBSCRIBE
+    @EventListener
+    public void connected(SessionConnectEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        if (!CBOR.equalsIgnoreCase(accessor.getFirstNativeHeader(ENCODING_HEADER))) {
+            return;
+        }
+        SlowConsumerSessionDecorator session = sessions.get(accessor.getSessionId());
+        if (session == null || WebSocketSessionDecorator.unwrap(session) instanceof SockJsSession) {
+            return;
+        }
+        session.getAttributes().put(DICTIONARY_ATTRIBUTE, new SenderDictionary(dictionarySize));
+        negotiated.increment();
+    }
+
+    /**
+     * @return the session's sender dictionary if it negotiated CBOR, otherwise null
+     */
+    public static SenderDictionary dictionaryOf(WebSocketSession session) {
+        return (SenderDictionary) session.getAttributes().get(DICTIONARY_ATTRIBUTE);
+    }
+}
@@ -0,0 +1,118 @@
+package org.sigar.chat.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CBOR bodies for room frames going to sessions that negotiated chat-encoding: cbor.
+ *
+ * A chat message {"sender": s, "content": c} becomes [index, s, c] the first time s is sent to the session
+ * and [index, c] from then on, index being the sender's slot in the session's {@link SenderDictionary};
+ * a message without a sender has null for index. A coalesced frame's array of {"id", "seq", "message"}
+ * becomes an array of [id, seq, index, s, c] entries, again without s once the client has it.
+ *
+ * A room message is parsed once and the result shared by all its compact subscribers; only the dictionary
+ * lookups and the CBOR writing are per session. Parsing goes through a reader of the application's
+ * ObjectMapper, as in ChatMessageCodec.
+ */
+@Component
+public class CompactMessageEncoder {
+    public static final MimeType CONTENT_TYPE = new MimeType("application", "cbor");
+
+    private final ObjectReader reader;
+    private final CBORFactory cbor = new CBORFactory();
+
+    public CompactMessageEncoder(ObjectMapper objectMapper) {
+        this.reader = objectMapper.reader();
+    }
+
+    /**
+     * @param batch whether payload is a coalesced array rather than a single chat message
+     */
+    public List<Entry> parse(byte[] payload, boolean batch) throws IOException {
+        JsonNode root = reader.readTree(payload);
+        if (!batch) {
+            return List.of(entry(null, 0, root));
+        }
+        List<Entry> entries = new ArrayList<>(root.size());
+        for (JsonNode item : root) {
+            entries.add(entry(item.path("id").asText(), item.path("seq").asLong(), item.path("message")));
+        }
+        return entries;
+    }
+
+    /**
+     * Writes entries for one session, defining any sender it has not been sent yet. The caller holds the
+     * dictionary's monitor until the frame is queued.
+     */
+    public byte[] encode(List<Entry> entries, boolean batch, SenderDictionary dictionary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(entries.size() * 64);
+        try (CBORGenerator generator = cbor.createGenerator(out)) {
+            if (batch) {
+                generator.writeStartArray(entries, entries.size());
+            }
+            for (Entry entry : entries) {
+                write(generator, entry, batch, dictionary);
+            }
+            if (batch) {
+                generator.writeEndArray();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(CBORGenerator generator, Entry entry, boolean batch, SenderDictionary dictionary) throws IOException {
+        int index = -1;
+        boolean defining = false;
+        if (entry.sender() != null) {
+            index = dictionary.lookup(entry.sender());
+            if (index < 0) {
+                index = dictionary.define(entry.sender());
+                defining = true;
+            }
+        }
+        generator.writeStartArray(entry, (batch ? 4 : 2) + (defining ? 1 : 0));
+        if (batch) {
+            generator.writeString(entry.id());
+            generator.writeNumber(entry.seq());
+        }
+        if (index < 0) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(index);
+        }
+        if (defining) {
+            generator.writeString(entry.sender());
+        }
+        if (entry.content() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(entry.content());
+        }
+        generator.writeEndArray();
+    }
+
+    private static Entry entry(String id, long seq, JsonNode message) {
+        return new Entry(id, seq, text(message.get("sender")), text(message.get("content")));
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+
+    /**
+     * One chat message of a room frame; id and seq are only set for the entries of a coalesced frame.
+     */
+    public record Entry(String id, long seq, String sender, String content) {
+    }
+}
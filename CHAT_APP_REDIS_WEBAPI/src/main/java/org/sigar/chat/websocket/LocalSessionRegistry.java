@@ -0,0 +1,32 @@
+package org.sigar.chat.websocket;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Open WebSocket sessions on this node by session id, as decorated by SlowConsumerSubProtocolWebSocketHandler.
+ * Lets the room broker write pre-encoded frames straight to sessions.
+ */
+@Component
+public class LocalSessionRegistry {
+    private final Map<String, SlowConsumerSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    public void register(SlowConsumerSessionDecorator session) {
+        sessions.put(session.getId(), session);
+    }
+
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    public SlowConsumerSessionDecorator get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public Collection<SlowConsumerSessionDecorator> sessions() {
+        return sessions.values();
+    }
+}
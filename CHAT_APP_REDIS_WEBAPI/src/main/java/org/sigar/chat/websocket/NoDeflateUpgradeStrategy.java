@@ -0,0 +1,83 @@
+package org.sigar.chat.websocket;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.RequestUpgradeStrategy;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upgrade strategy for chat.websocket.compression=false. Tomcat implements permessage-deflate (RFC 7692)
+ * and accepts it whenever the client offers it, reading the offer from the servlet request rather than
+ * from the extensions Spring selects, so the offer is hidden from the request before the upgrade.
+ * Frames then go out uncompressed and sessions cost no deflate CPU.
+ */
+class NoDeflateUpgradeStrategy implements RequestUpgradeStrategy {
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final RequestUpgradeStrategy delegate;
+
+    NoDeflateUpgradeStrategy(RequestUpgradeStrategy delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String[] getSupportedVersions() {
+        return delegate.getSupportedVersions();
+    }
+
+    @Override
+    public List<WebSocketExtension> getSupportedExtensions(ServerHttpRequest request) {
+        return delegate.getSupportedExtensions(request).stream()
+                .filter(extension -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+                .toList();
+    }
+
+    @Override
+    public void upgrade(ServerHttpRequest request, ServerHttpResponse response, String selectedProtocol,
+                        List<WebSocketExtension> selectedExtensions, Principal user, WebSocketHandler wsHandler,
+                        Map<String, Object> attributes) throws HandshakeFailureException {
+        if (request instanceof ServletServerHttpRequest servletRequest) {
+            request = new ServletServerHttpRequest(new WithoutExtensions(servletRequest.getServletRequest()));
+        }
+        delegate.upgrade(request, response, selectedProtocol, selectedExtensions, user, wsHandler, attributes);
+    }
+
+    private static final class WithoutExtensions extends HttpServletRequestWrapper {
+        private WithoutExtensions(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isExtensions(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isExtensions(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !isExtensions(name))
+                    .toList());
+        }
+
+        private static boolean isExtensions(String name) {
+            return WebSocketHttpHeaders.SEC_WEBSOCKET_EXTENSIONS.equalsIgnoreCase(name);
+        }
+    }
+}
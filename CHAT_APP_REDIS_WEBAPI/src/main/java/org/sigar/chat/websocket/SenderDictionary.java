@@ -0,0 +1,52 @@
+package org.sigar.chat.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sender names a compact session has already been sent, by the index the client stores them under.
+ * Slots are handed out round-robin, so once the dictionary is full the next new name takes the oldest
+ * slot; the frame that introduces a name always carries it, and the client simply overwrites that slot.
+ *
+ * Not thread-safe: rooms on different dispatcher threads share a session's dictionary, so callers hold
+ * its monitor from encoding a frame until the frame is queued, which keeps definitions ahead of their uses.
+ */
+public final class SenderDictionary {
+    private final String[] names;
+    private final Map<String, Integer> indices;
+    private int next;
+
+    public SenderDictionary(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Dictionary capacity must be positive: " + capacity);
+        }
+        this.names = new String[capacity];
+        this.indices = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * @return the index the client already has the sender under, or -1 if it has to be defined
+     */
+    int lookup(String sender) {
+        Integer index = indices.get(sender);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Gives the sender the next slot, evicting whichever name held it.
+     */
+    int define(String sender) {
+        int index = next;
+        next = (next + 1) % names.length;
+        if (names[index] != null) {
+            indices.remove(names[index]);
+        }
+        names[index] = sender;
+        indices.put(sender, index);
+        return index;
+    }
+
+    int size() {
+        return indices.size();
+    }
+}
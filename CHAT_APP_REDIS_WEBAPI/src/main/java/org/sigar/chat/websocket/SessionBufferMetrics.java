@@ -0,0 +1,66 @@
+package org.sigar.chat.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Outbound buffer meters for WebSocket sessions.
+ * Session ids are not used as tags; the per-session picture comes from the backlog distribution and the max gauge.
+ */
+@Component
+public class SessionBufferMetrics {
+    private final MeterRegistry registry;
+    private final DistributionSummary backlog;
+    private final Counter sendTimeLimitExceeded;
+    private final Counter bufferLimitExceeded;
+
+    public SessionBufferMetrics(MeterRegistry registry, LocalSessionRegistry sessions) {
+        this.registry = registry;
+        Gauge.builder("chat.websocket.outbound.buffered.bytes", sessions, s -> s.sessions().stream()
+                        .mapToLong(SlowConsumerSessionDecorator::getBufferSize).sum())
+                .description("Bytes queued for all local WebSocket sessions")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.websocket.outbound.buffered.bytes.max", sessions, s -> s.sessions().stream()
+                        .mapToLong(SlowConsumerSessionDecorator::getBufferSize).max().orElse(0))
+                .description("Bytes queued for the most backed-up WebSocket session")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("chat.websocket.outbound.sessions", sessions, s -> s.sessions().size())
+                .description("Open WebSocket sessions with an outbound buffer")
+                .register(registry);
+        this.backlog = DistributionSummary.builder("chat.websocket.outbound.session.buffered.bytes")
+                .description("Bytes a session had queued each time a frame had to wait behind an in-flight send")
+                .baseUnit("bytes")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        this.sendTimeLimitExceeded = disconnectCounter("send-time-limit");
+        this.bufferLimitExceeded = disconnectCounter("buffer-size-limit");
+    }
+
+    void backlogged(int bufferedBytes) {
+        backlog.record(bufferedBytes);
+    }
+
+    void dropped(SlowConsumerPolicy policy, int frames) {
+        registry.counter("chat.websocket.outbound.dropped", "policy", policy.name()).increment(frames);
+    }
+
+    void sendTimeLimitExceeded() {
+        sendTimeLimitExceeded.increment();
+    }
+
+    void bufferLimitExceeded() {
+        bufferLimitExceeded.increment();
+    }
+
+    private Counter disconnectCounter(String reason) {
+        return Counter.builder("chat.websocket.outbound.disconnected")
+                .description("Slow sessions closed by the server")
+                .tag("reason", reason)
+                .register(registry);
+    }
+}
@@ -0,0 +1,73 @@
+package org.sigar.chat.websocket;
+
+import org.sigar.chat.pipeline.PipelineStage;
+import org.sigar.chat.pipeline.StageExecutors;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+/**
+ * Stands in for @EnableWebSocketMessageBroker so the STOMP handler can be swapped for one that applies
+ * chat.websocket.slow-consumer-policy, and so the client channels run on {@link StageExecutors} rather
+ * than on pools sized through ChannelRegistration. Everything else is still configured through
+ * WebSocketConfig and the other WebSocketMessageBrokerConfigurer beans.
+ */
+@Configuration
+public class SlowConsumerBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+    private final SlowConsumerPolicy policy;
+    private final SessionBufferMetrics metrics;
+    private final LocalSessionRegistry sessions;
+    private final StageExecutors executors;
+    private final int inboundPoolSize;
+    private final int inboundQueueCapacity;
+    private final int outboundPoolSize;
+    private final int outboundQueueCapacity;
+
+    public SlowConsumerBrokerConfiguration(@Value("${chat.websocket.slow-consumer-policy:DROP_OLDEST}") SlowConsumerPolicy policy,
+                                           SessionBufferMetrics metrics, LocalSessionRegistry sessions, StageExecutors executors,
+                                           @Value("${chat.websocket.inbound.pool-size:16}") int inboundPoolSize,
+                                           @Value("${chat.websocket.inbound.queue-capacity:10000}") int inboundQueueCapacity,
+                                           @Value("${chat.websocket.outbound.pool-size:8}") int outboundPoolSize,
+                                           @Value("${chat.websocket.outbound.queue-capacity:10000}") int outboundQueueCapacity) {
+        this.policy = policy;
+        this.metrics = metrics;
+        this.sessions = sessions;
+        this.executors = executors;
+        this.inboundPoolSize = inboundPoolSize;
+        this.inboundQueueCapacity = inboundQueueCapacity;
+        this.outboundPoolSize = outboundPoolSize;
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    /**
+     * Client frames, from rate limiting through the controllers. Controllers append to history and may
+     * wait on Redis, so under PLATFORM threads this pool bounds how many sends are in flight at once.
+     */
+    @Override
+    @Bean
+    public TaskExecutor clientInboundChannelExecutor() {
+        return executors.executor(PipelineStage.INBOUND, inboundPoolSize, inboundQueueCapacity);
+    }
+
+    /**
+     * Frames going to clients. Slow sessions only ever hold one of these threads, while their frames
+     * wait in the session's own buffer.
+     */
+    @Override
+    @Bean
+    public TaskExecutor clientOutboundChannelExecutor() {
+        return executors.executor(PipelineStage.OUTBOUND, outboundPoolSize, outboundQueueCapacity);
+    }
+
+    @Override
+    @Bean
+    public WebSocketHandler subProtocolWebSocketHandler(@Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+                                                        @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel) {
+        return new SlowConsumerSubProtocolWebSocketHandler(clientInboundChannel, clientOutboundChannel, policy, metrics, sessions);
+    }
+}
@@ -0,0 +1,14 @@
+package org.sigar.chat.websocket;
+
+/**
+ * What a WebSocket session does with its outbound buffer once it grows past the send buffer size limit,
+ * i.e. when the browser reads frames slower than the room produces them.
+ */
+public enum SlowConsumerPolicy {
+    /** Discard the oldest queued chat messages until the buffer fits again */
+    DROP_OLDEST,
+    /** Keep only the newest queued message per subscription, then drop oldest if that is still not enough */
+    COALESCE,
+    /** Close the session; the client reconnects and catches up from history */
+    DISCONNECT
+}
@@ -0,0 +1,297 @@
+package org.sigar.chat.websocket;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-session outbound buffer in the style of Spring's ConcurrentWebSocketSessionDecorator, with a
+ * choice of what to do when the buffer outgrows its limit instead of always closing the session.
+ *
+ * Only one thread writes to the socket at a time. Outbound channel threads that find a write in
+ * progress queue their frame and return straight away, so a stalled browser costs one blocked thread
+ * and at most bufferSizeLimit bytes, and never holds up delivery to other sessions. A single write
+ * that takes longer than sendTimeLimit closes the session whatever the policy.
+ *
+ * Only STOMP MESSAGE frames are ever dropped; CONNECTED, RECEIPT, ERROR and heartbeats always go out.
+ */
+public class SlowConsumerSessionDecorator extends WebSocketSessionDecorator {
+    private static final String MESSAGE_COMMAND = "MESSAGE\n";
+    private static final String SUBSCRIPTION_HEADER = "\nsubscription:";
+
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+    private final SlowConsumerPolicy policy;
+    private final SessionBufferMetrics metrics;
+
+    // Guarded by itself; bufferSize is only changed while holding it
+    private final Deque<WebSocketMessage<?>> buffer = new ArrayDeque<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Lock closeLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile long sendStartTime;
+    private volatile boolean limitExceeded;
+    private volatile boolean closeInProgress;
+
+    public SlowConsumerSessionDecorator(WebSocketSession delegate, int sendTimeLimit, int bufferSizeLimit,
+                                        SlowConsumerPolicy policy, SessionBufferMetrics metrics) {
+        super(delegate);
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.policy = policy;
+        this.metrics = metrics;
+    }
+
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    public long getTimeSinceSendStarted() {
+        long start = sendStartTime;
+        return start > 0 ? System.currentTimeMillis() - start : 0;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (shouldNotSend()) {
+            return;
+        }
+        enqueue(message);
+        do {
+            if (!tryFlushMessageBuffer()) {
+                // Another thread is writing; leave the frame to it and make sure the backlog stays bounded
+                metrics.backlogged(bufferSize.get());
+                checkSessionLimits();
+                break;
+            }
+        }
+        while (!isBufferEmpty() && !shouldNotSend());
+    }
+
+    /**
+     * Queues a frame without ever writing on the calling thread; the write happens on the given executor.
+     * Frames queued by one thread go out in the order they were queued, which is what keeps a room's
+     * messages in order when the room broker fans them out from its dispatcher thread.
+     */
+    public void sendMessageAsync(WebSocketMessage<?> message, Executor writer) {
+        if (shouldNotSend()) {
+            return;
+        }
+        enqueue(message);
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduleDrain(writer);
+            return;
+        }
+        metrics.backlogged(bufferSize.get());
+        try {
+            checkSessionLimits();
+        } catch (SessionLimitExceededException e) {
+            // Closing may itself block on a stalled socket, so keep it off the caller's thread
+            writer.execute(() -> closeQuietly(e.getStatus()));
+        }
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        closeLock.lock();
+        try {
+            if (closeInProgress) {
+                return;
+            }
+            closeInProgress = true;
+            super.close(limitExceeded ? CloseStatus.SESSION_NOT_RELIABLE : status);
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    private void drainOn(Executor writer) {
+        try {
+            do {
+                if (!tryFlushMessageBuffer()) {
+                    // Whoever holds the lock re-checks the buffer after releasing it
+                    break;
+                }
+            }
+            while (!isBufferEmpty() && !shouldNotSend());
+        } catch (IOException e) {
+            closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+        } finally {
+            flushScheduled.set(false);
+        }
+        // A frame queued between the last check and the reset above would otherwise wait for the next one.
+        // If another thread holds the lock it re-checks the buffer itself once it lets go
+        if (!isBufferEmpty() && !shouldNotSend() && !flushLock.isLocked() && flushScheduled.compareAndSet(false, true)) {
+            scheduleDrain(writer);
+        }
+    }
+
+    private void scheduleDrain(Executor writer) {
+        try {
+            writer.execute(() -> drainOn(writer));
+        } catch (RejectedExecutionException e) {
+            // Leave the frames queued; the next send gets another chance to schedule the drain
+            flushScheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        try {
+            close(status);
+        } catch (IOException ignored) {
+            // The transport is already gone
+        }
+    }
+
+    private void enqueue(WebSocketMessage<?> message) {
+        synchronized (buffer) {
+            buffer.add(message);
+            bufferSize.addAndGet(message.getPayloadLength());
+        }
+    }
+
+    private boolean shouldNotSend() {
+        return limitExceeded || closeInProgress;
+    }
+
+    private boolean isBufferEmpty() {
+        synchronized (buffer) {
+            return buffer.isEmpty();
+        }
+    }
+
+    private WebSocketMessage<?> poll() {
+        synchronized (buffer) {
+            WebSocketMessage<?> message = buffer.poll();
+            if (message != null) {
+                bufferSize.addAndGet(-message.getPayloadLength());
+            }
+            return message;
+        }
+    }
+
+    private boolean tryFlushMessageBuffer() throws IOException {
+        if (!flushLock.tryLock()) {
+            return false;
+        }
+        try {
+            WebSocketMessage<?> message;
+            while (!shouldNotSend() && (message = poll()) != null) {
+                sendStartTime = System.currentTimeMillis();
+                getDelegate().sendMessage(message);
+                sendStartTime = 0;
+            }
+        } finally {
+            sendStartTime = 0;
+            flushLock.unlock();
+        }
+        return true;
+    }
+
+    private void checkSessionLimits() {
+        if (shouldNotSend() || !closeLock.tryLock()) {
+            return;
+        }
+        try {
+            long sendTime = getTimeSinceSendStarted();
+            if (sendTime > sendTimeLimit) {
+                metrics.sendTimeLimitExceeded();
+                limitExceeded("Send time " + sendTime + " (ms) for session '" + getId() + "' exceeded the allowed limit " + sendTimeLimit);
+            } else if (bufferSize.get() > bufferSizeLimit) {
+                if (policy == SlowConsumerPolicy.DISCONNECT) {
+                    metrics.bufferLimitExceeded();
+                    limitExceeded("Buffer size " + bufferSize.get() + " bytes for session '" + getId() + "' exceeds the allowed limit " + bufferSizeLimit);
+                }
+                int dropped = trimBuffer();
+                if (dropped > 0) {
+                    metrics.dropped(policy, dropped);
+                }
+            }
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    private void limitExceeded(String reason) {
+        limitExceeded = true;
+        // SubProtocolWebSocketHandler closes the session when it sees this exception
+        throw new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private int trimBuffer() {
+        synchronized (buffer) {
+            int dropped = policy == SlowConsumerPolicy.COALESCE ? coalesce() : 0;
+            Iterator<WebSocketMessage<?>> oldestFirst = buffer.iterator();
+            while (bufferSize.get() > bufferSizeLimit && oldestFirst.hasNext()) {
+                WebSocketMessage<?> message = oldestFirst.next();
+                if (subscriptionOf(message) != null) {
+                    oldestFirst.remove();
+                    bufferSize.addAndGet(-message.getPayloadLength());
+                    dropped++;
+                }
+            }
+            return dropped;
+        }
+    }
+
+    // Walks newest to oldest so the frame kept for each subscription is the latest one
+    private int coalesce() {
+        Set<String> seen = new HashSet<>();
+        int dropped = 0;
+        Iterator<WebSocketMessage<?>> newestFirst = buffer.descendingIterator();
+        while (newestFirst.hasNext()) {
+            WebSocketMessage<?> message = newestFirst.next();
+            String subscription = subscriptionOf(message);
+            if (subscription != null && !seen.add(subscription)) {
+                newestFirst.remove();
+                bufferSize.addAndGet(-message.getPayloadLength());
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the subscription id of a STOMP MESSAGE frame, or null for frames that must not be dropped
+     */
+    static String subscriptionOf(WebSocketMessage<?> message) {
+        if (!(message instanceof TextMessage textMessage)) {
+            return null;
+        }
+        String frame = textMessage.getPayload();
+        if (!frame.startsWith(MESSAGE_COMMAND)) {
+            return null;
+        }
+        int headersEnd = frame.indexOf("\n\n");
+        int start = frame.indexOf(SUBSCRIPTION_HEADER);
+        if (start < 0 || (headersEnd >= 0 && start > headersEnd)) {
+            return null;
+        }
+        start += SUBSCRIPTION_HEADER.length();
+        int end = frame.indexOf('\n', start);
+        return frame.substring(start, end < 0 ? frame.length() : end);
+    }
+
+    @Override
+    public String toString() {
+        return getDelegate() + " [policy=" + policy + ", buffered=" + getBufferSize() + " bytes]";
+    }
+}
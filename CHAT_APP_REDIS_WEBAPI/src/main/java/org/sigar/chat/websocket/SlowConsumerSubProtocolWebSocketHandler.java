@@ -0,0 +1,41 @@
+package org.sigar.chat.websocket;
+
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * SubProtocolWebSocketHandler that buffers each session with a {@link SlowConsumerSessionDecorator}
+ * instead of the built-in decorator, which can only close the session on overflow.
+ */
+class SlowConsumerSubProtocolWebSocketHandler extends SubProtocolWebSocketHandler {
+    private final SlowConsumerPolicy policy;
+    private final SessionBufferMetrics metrics;
+    private final LocalSessionRegistry sessions;
+
+    SlowConsumerSubProtocolWebSocketHandler(MessageChannel clientInboundChannel, SubscribableChannel clientOutboundChannel,
+                                            SlowConsumerPolicy policy, SessionBufferMetrics metrics, LocalSessionRegistry sessions) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.policy = policy;
+        this.metrics = metrics;
+        this.sessions = sessions;
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        SlowConsumerSessionDecorator decorated = new SlowConsumerSessionDecorator(session, getSendTimeLimit(), getSendBufferSizeLimit(), policy, metrics);
+        sessions.register(decorated);
+        return decorated;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        try {
+            super.afterConnectionClosed(session, closeStatus);
+        } finally {
+            sessions.unregister(session.getId());
+        }
+    }
+}
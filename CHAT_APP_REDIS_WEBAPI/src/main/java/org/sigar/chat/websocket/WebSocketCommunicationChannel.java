@@ -3,6 +3,8 @@ package org.sigar.chat.websocket;
 import org.sigar.chat.channel.CommunicationChannel;
 import org.sigar.chat.channel.MessageHandler;
 import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
@@ -10,6 +12,7 @@ import org.springframework.stereotype.Component;
 @Component
 @ConditionalOnProperty(name = "chat.communication.channel", havingValue = "websocket")
 public class WebSocketCommunicationChannel implements CommunicationChannel {
+    private static final Logger log = LoggerFactory.getLogger(WebSocketCommunicationChannel.class);
 
     private final SimpMessagingTemplate simpMessagingTemplate;
 
@@ -19,22 +22,21 @@ public class WebSocketCommunicationChannel implements CommunicationChannel {
 
     @Override
     public void connect() {
-        System.out.println("Websocket channel connected");
+        log.info("WebSocket channel connected");
     }
 
     @Override
     public void disconnect() {
-        System.out.println("Websocket channel disconnected");
+        log.info("WebSocket channel disconnected");
     }
 
     @Override
-    public void sendMessage(String destination,String message) {
+    public void sendMessage(String destination, byte[] message) {
         ChatMessageBroadcaster.broadcastMessageToSubscribers(simpMessagingTemplate,destination,message);
     }
 
     @Override
     public void receiveMessage(String source, MessageHandler messageHandler) {
-        System.out.println("WebSocket subscriptions handled by Spring controllers");
-
+        // Nothing to register: sendMessage already reaches this node's subscribers through the broker channel
     }
 }
@@ -1,14 +1,28 @@
 package org.sigar.chat.websocket;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
+// The broker itself is enabled by SlowConsumerBrokerConfiguration rather than @EnableWebSocketMessageBroker
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    private final int sendBufferSizeLimit;
+    private final int sendTimeLimitMillis;
+    private final boolean compression;
+
+    public WebSocketConfig(@Value("${chat.websocket.send-buffer-size-limit:524288}") int sendBufferSizeLimit,
+                           @Value("${chat.websocket.send-time-limit-ms:10000}") int sendTimeLimitMillis,
+                           @Value("${chat.websocket.compression:true}") boolean compression) {
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.compression = compression;
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry){
@@ -18,13 +32,33 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 //                .setRelayPort(6379);                          // Redis port
 //                .setClientLogin("guest")                     // Redis login (if any)
 //                .setClientPasscode("guest");
+        // Room destinations (/topic/messages/...) are served by ShardedRoomBroker; the simple broker still
+        // answers CONNECT and heartbeats and handles everything under /queue
+        registry.enableSimpleBroker("/queue");
         registry.setApplicationDestinationPrefixes("/app");
 
     }
 
+    /**
+     * Bytes queued and time spent on a single write before a session counts as slow;
+     * what happens next is decided by chat.websocket.slow-consumer-policy.
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setSendTimeLimit(sendTimeLimitMillis);
+    }
+
+    /**
+     * SockJS at /chat, and plain WebSocket at /chat/websocket for clients that want CBOR room frames
+     * (see CompactEncodingNegotiator). Tomcat negotiates permessage-deflate on both whenever the client
+     * offers it; chat.websocket.compression=false turns that off to save the per-session deflate CPU.
+     */
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/chat")
+                .setHandshakeHandler(compression ? new DefaultHandshakeHandler()
+                        : new DefaultHandshakeHandler(new NoDeflateUpgradeStrategy(new StandardWebSocketUpgradeStrategy())))
                 .setAllowedOrigins("http://localhost:63342")  // Allow frontend origin
                 .withSockJS();
     }
@@ -0,0 +1,139 @@
+package org.sigar.chat.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.core.ChatEnvelope;
+import org.sigar.chat.history.HistoryPosition;
+import org.sigar.chat.redis.PublishOverflowPolicy;
+import org.sigar.chat.redis.RedisCommunicationChannel;
+import org.sigar.chat.redis.RedisPublisher;
+import org.sigar.chat.shm.ShmCommunicationChannel;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.FileSystemUtils;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Round trip between two chat nodes in one JVM: node A sends on "ping", node B answers every ping on
+ * "pong", and the benchmark waits for A to receive it. One operation is two node-to-node hops.
+ *
+ * redis is the Redis channel as configured in production: RedisPublisher queue and pipeline, PUBLISH to
+ * an embedded redis-server over loopback, delivery through RedisMessageListenerContainer.
+ * shm is the shared memory channel: each node appends to its ring file and the other node's reader
+ * thread picks it up.
+ * Both nodes' delivery threads and the benchmark thread are busy at once, so run on a machine with at
+ * least three cores for numbers that mean anything.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChannelLatencyBenchmark {
+    private static final String PING = "ping";
+    private static final String PONG = "pong";
+
+    @Param({"shm", "redis"})
+    private String channel;
+
+    private final AtomicLong pongs = new AtomicLong();
+    private byte[] message;
+    private CommunicationChannel nodeA;
+    private CommunicationChannel nodeB;
+    private Path ringDirectory;
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisPublisher[] publishers;
+    private RedisMessageListenerContainer[] containers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        message = ChatEnvelope.wrap(new HistoryPosition("1700000000000-0", "redis", 42),
+                "{\"sender\":\"alice\",\"content\":\"See you at the standup in five minutes\"}".getBytes(StandardCharsets.UTF_8));
+        if (channel.equals("shm")) {
+            ringDirectory = Files.createTempDirectory("chat-rings");
+            nodeA = shmNode("node-a");
+            nodeB = shmNode("node-b");
+        } else {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            redisServer = new RedisServer(port);
+            redisServer.start();
+            connectionFactory = new LettuceConnectionFactory("localhost", port);
+            connectionFactory.afterPropertiesSet();
+            publishers = new RedisPublisher[2];
+            containers = new RedisMessageListenerContainer[2];
+            nodeA = redisNode(0);
+            nodeB = redisNode(1);
+        }
+        nodeB.receiveMessage(PING, (room, ping) -> nodeB.sendMessage(PONG, ping));
+        nodeA.receiveMessage(PONG, (room, pong) -> pongs.incrementAndGet());
+
+        // Subscriptions and ring discovery complete asynchronously; ping until the path works
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pongs.get() == 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("No pong from node B over " + channel);
+            }
+            nodeA.sendMessage(PING, message);
+            Thread.sleep(100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        nodeA.disconnect();
+        nodeB.disconnect();
+        if (ringDirectory != null) {
+            FileSystemUtils.deleteRecursively(ringDirectory);
+        }
+        if (publishers != null) {
+            for (RedisPublisher publisher : publishers) {
+                publisher.stop();
+            }
+            connectionFactory.destroy();
+            redisServer.stop();
+        }
+    }
+
+    @Benchmark
+    public long roundTrip() {
+        long expected = pongs.get() + 1;
+        nodeA.sendMessage(PING, message);
+        while (pongs.get() < expected) {
+            // Leaves the core to the delivery threads on small machines
+            Thread.yield();
+        }
+        return expected;
+    }
+
+    private CommunicationChannel shmNode(String nodeId) {
+        ShmCommunicationChannel node = new ShmCommunicationChannel(ringDirectory, nodeId, 8 << 20, Duration.ofMillis(100), Duration.ofNanos(50_000));
+        node.connect();
+        return node;
+    }
+
+    private CommunicationChannel redisNode(int index) throws Exception {
+        publishers[index] = new RedisPublisher(connectionFactory, new SimpleMeterRegistry(), 10_000, 256, PublishOverflowPolicy.BLOCK, 50, 2000);
+        publishers[index].start();
+        containers[index] = new RedisMessageListenerContainer();
+        containers[index].setConnectionFactory(connectionFactory);
+        containers[index].afterPropertiesSet();
+        containers[index].start();
+        RedisCommunicationChannel node = new RedisCommunicationChannel(publishers[index], containers[index]);
+        node.connect();
+        return node;
+    }
+}
@@ -0,0 +1,128 @@
+package org.sigar.chat.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.channel.MessageHandler;
+import org.sigar.chat.core.ChatEnvelope;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.core.ChatMessageCodec;
+import org.sigar.chat.history.HistoryPosition;
+import org.sigar.chat.model.ChatMessage;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One chat message from the controller to the encoded STOMP frame, through an in-memory channel.
+ *
+ * legacy reproduces the old path: controller serialises with a new ObjectMapper, the broadcaster
+ * parses with another new ObjectMapper and convertAndSend serialises a third time.
+ * passThrough validates once with the shared reader and forwards the original bytes.
+ * Run with -prof gc for allocations per message (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagePathBenchmark {
+    private static final String CHAT_ID = "room-42";
+
+    private byte[] payload;
+    private ChatMessage parsed;
+    private ChatMessageCodec codec;
+    private CommunicationChannel channel;
+    private SimpMessagingTemplate template;
+    private FrameSink sink;
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        payload = "{\"sender\":\"alice\",\"content\":\"See you at the standup in five minutes, bring the release notes\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        parsed = objectMapper.readValue(payload, ChatMessage.class);
+        codec = new ChatMessageCodec(objectMapper);
+
+        sink = new FrameSink();
+        template = new SimpMessagingTemplate(sink);
+        // Same converters the broker template is configured with
+        template.setMessageConverter(new CompositeMessageConverter(List.of(
+                new StringMessageConverter(), new ByteArrayMessageConverter(), new MappingJackson2MessageConverter())));
+        channel = new InMemoryChannel(template);
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) throws Exception {
+        // ChatController: the STOMP payload has already been converted to a ChatMessage by Spring
+        String serialized = new ObjectMapper().writeValueAsString(parsed);
+        // ChatMessageBroadcaster: parse again, then convertAndSend serialises again
+        ChatMessage chatMessage = new ObjectMapper().readValue(serialized, ChatMessage.class);
+        template.convertAndSend(String.format("/topic/messages/%s", CHAT_ID), chatMessage);
+        blackhole.consume(sink.lastFrame);
+    }
+
+    @Benchmark
+    public void passThrough(Blackhole blackhole) throws Exception {
+        codec.read(payload);
+        channel.sendMessage(CHAT_ID, ChatEnvelope.wrap(new HistoryPosition("1700000000000-0", "redis", 42), payload));
+        blackhole.consume(sink.lastFrame);
+    }
+
+    /**
+     * Stands in for the broker and the client session: encodes every message into a STOMP MESSAGE frame.
+     */
+    private static final class FrameSink implements MessageChannel {
+        private final StompEncoder encoder = new StompEncoder();
+        private byte[] lastFrame;
+
+        @Override
+        public boolean send(Message<?> message, long timeout) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+            accessor.setDestination((String) message.getHeaders().get("simpDestination"));
+            accessor.setSubscriptionId("sub-0");
+            accessor.setMessageId("1");
+            lastFrame = encoder.encode(MessageBuilder.createMessage((byte[]) message.getPayload(), accessor.getMessageHeaders()));
+            return true;
+        }
+    }
+
+    private static final class InMemoryChannel implements CommunicationChannel {
+        private final SimpMessagingTemplate template;
+
+        private InMemoryChannel(SimpMessagingTemplate template) {
+            this.template = template;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void sendMessage(String destination, byte[] message) {
+            ChatMessageBroadcaster.broadcastMessageToSubscribers(template, destination, message);
+        }
+
+        @Override
+        public void receiveMessage(String source, MessageHandler messageHandler) {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.sigar.chat.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.websocket.CompactMessageEncoder;
+import org.sigar.chat.websocket.SenderDictionary;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Bytes on the wire and CPU per chat message for each way a room frame can reach a session.
+ *
+ * json is the STOMP text frame sent today; jsonDeflate adds permessage-deflate the way Tomcat applies
+ * it (raw deflate, one context per connection kept across messages, sync flush with the trailing
+ * 00 00 ff ff left off); cbor is the frame CompactMessageEncoder writes for a session that negotiated
+ * it, and cborDeflate is both. parse is the one-off JSON parse the room broker does per message before
+ * writing CBOR for any number of sessions.
+ *
+ * Everything except json and parse is per session: the deflate context and the sender dictionary belong
+ * to the connection, so unlike the JSON frame they cannot be encoded once and shared by a room's
+ * subscribers. Messages cycle through a room of 50 senders. Bytes per message, frame headers included,
+ * are printed after each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadEncodingBenchmark {
+    private static final int MESSAGES = 1024;
+    private static final String DESTINATION = "/topic/messages/lobby";
+    private static final String[] WORDS = {"the", "release", "notes", "are", "up", "see", "you", "at", "standup",
+            "in", "five", "minutes", "deploy", "looks", "good", "to", "me", "rollback", "queue", "latency"};
+
+    private final StompEncoder encoder = new StompEncoder();
+    private final CompactMessageEncoder compactEncoder = new CompactMessageEncoder(new ObjectMapper());
+    private final byte[] deflated = new byte[64 * 1024];
+    private byte[][] payloads;
+    private List<List<CompactMessageEncoder.Entry>> parsed;
+    private SenderDictionary dictionary;
+    private Deflater deflater;
+    private int next;
+    private long bytes;
+    private long messages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        payloads = new byte[MESSAGES][];
+        parsed = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int words = 3 + random.nextInt(12); words > 0; words--) {
+                content.append(WORDS[random.nextInt(WORDS.length)]).append(words > 1 ? " " : "");
+            }
+            payloads[i] = ("{\"sender\":\"user-" + random.nextInt(50) + "\",\"content\":\"" + content + "\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            parsed.add(compactEncoder.parse(payloads[i], false));
+        }
+        dictionary = new SenderDictionary(1024);
+        // As Tomcat's PerMessageDeflate sets it up: default level, no zlib header, context kept between messages
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deflater.end();
+        if (messages > 0) {
+            System.out.printf("%n%.1f bytes/message over %d messages%n", (double) bytes / messages, messages);
+        }
+    }
+
+    @Benchmark
+    public int json() {
+        return count(jsonFrame());
+    }
+
+    @Benchmark
+    public int jsonDeflate() {
+        return count(deflate(jsonFrame()));
+    }
+
+    @Benchmark
+    public int cbor() throws IOException {
+        return count(cborFrame());
+    }
+
+    @Benchmark
+    public int cborDeflate() throws IOException {
+        return count(deflate(cborFrame()));
+    }
+
+    @Benchmark
+    public List<CompactMessageEncoder.Entry> parse() throws IOException {
+        return compactEncoder.parse(payloads[advance()], false);
+    }
+
+    private byte[] jsonFrame() {
+        return frame(payloads[advance()], MimeTypeUtils.APPLICATION_JSON);
+    }
+
+    private byte[] cborFrame() throws IOException {
+        byte[] body = compactEncoder.encode(parsed.get(advance()), false, dictionary);
+        return frame(body, CompactMessageEncoder.CONTENT_TYPE);
+    }
+
+    // The headers ShardedRoomBroker puts on a room frame
+    private byte[] frame(byte[] body, MimeType contentType) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.addNativeHeader(ChatMessageBroadcaster.HISTORY_ID_HEADER, "1700000000000-" + next);
+        accessor.addNativeHeader(ChatMessageBroadcaster.SEQUENCE_HEADER, Integer.toString(next));
+        accessor.setDestination(DESTINATION);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId(Integer.toString(next));
+        accessor.setContentType(contentType);
+        return encoder.encode(accessor.getMessageHeaders(), body);
+    }
+
+    private byte[] deflate(byte[] frame) {
+        deflater.setInput(frame);
+        int length = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH);
+        byte[] message = new byte[length - 4];
+        System.arraycopy(deflated, 0, message, 0, message.length);
+        return message;
+    }
+
+    private int count(byte[] message) {
+        bytes += message.length;
+        messages++;
+        return message.length;
+    }
+
+    private int advance() {
+        int current = next;
+        next = (next + 1) % MESSAGES;
+        return current;
+    }
+}
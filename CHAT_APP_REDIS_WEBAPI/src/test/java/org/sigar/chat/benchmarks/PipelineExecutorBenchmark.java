@@ -0,0 +1,101 @@
+package org.sigar.chat.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.sigar.chat.pipeline.PipelineStage;
+import org.sigar.chat.pipeline.StageExecutors;
+import org.sigar.chat.pipeline.ThreadMode;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Chat messages through the pipeline's executors, as StageExecutors builds them for each
+ * chat.pipeline.threads mode: an inbound task that waits blockMicros (the history append's round trip
+ * to Redis), a hop onto one of four room dispatchers, and a fanout of one outbound task per subscriber.
+ * Each JMH thread is a client sending its next message once the last one reached every subscriber, so
+ * with 32 of them the 16 inbound pool threads are oversubscribed whenever inbound blocks.
+ *
+ * Throughput is messages per second through the whole pipeline and SampleTime its latency percentiles.
+ * VIRTUAL needs Java 21 (JAVA_HOME pointing at one when running -Pbenchmark); on 17 StageExecutors falls
+ * back to PLATFORM, and the mode actually used is printed after each trial.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class PipelineExecutorBenchmark {
+    private static final int INBOUND_POOL = 16;
+    private static final int OUTBOUND_POOL = 8;
+    private static final int QUEUE_CAPACITY = 100_000;
+    private static final int SHARDS = 4;
+    private static final int SUBSCRIBERS = 8;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private ThreadMode threads;
+
+    @Param({"0", "200"})
+    private long blockMicros;
+
+    private StageExecutors executors;
+    private TaskExecutor inbound;
+    private TaskExecutor outbound;
+    private ScheduledThreadPoolExecutor[] shards;
+    private final AtomicInteger rooms = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executors = new StageExecutors(new SimpleMeterRegistry(), threads);
+        inbound = start(executors.executor(PipelineStage.INBOUND, INBOUND_POOL, QUEUE_CAPACITY));
+        outbound = start(executors.executor(PipelineStage.OUTBOUND, OUTBOUND_POOL, QUEUE_CAPACITY));
+        shards = new ScheduledThreadPoolExecutor[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new ScheduledThreadPoolExecutor(1, executors.threadFactory("room-dispatch-" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n  threads %s (asked for %s)%n", executors.mode(), threads);
+        for (TaskExecutor executor : new TaskExecutor[]{inbound, outbound}) {
+            if (executor instanceof ThreadPoolTaskExecutor pool) {
+                pool.shutdown();
+            }
+        }
+        for (ScheduledThreadPoolExecutor shard : shards) {
+            shard.shutdownNow();
+        }
+    }
+
+    private static TaskExecutor start(TaskExecutor executor) {
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            pool.initialize();
+        }
+        return executor;
+    }
+
+    @Benchmark
+    public void message() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(SUBSCRIBERS);
+        ScheduledThreadPoolExecutor shard = shards[Math.floorMod(rooms.getAndIncrement(), SHARDS)];
+        inbound.execute(() -> {
+            if (blockMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+            }
+            shard.execute(() -> {
+                for (int i = 0; i < SUBSCRIBERS; i++) {
+                    outbound.execute(delivered::countDown);
+                }
+            });
+        });
+        delivered.await();
+    }
+}
@@ -0,0 +1,67 @@
+package org.sigar.chat.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.sigar.chat.ratelimit.LocalRoomRateLimiter;
+import org.sigar.chat.ratelimit.RateLimitInterceptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the ingress rate limiter costs an accepted chat message: one session bucket and one room bucket
+ * per SEND, against the same message going through without a check. Limits are set high enough that
+ * nothing is ever refused; messages cycle through 64 sessions in four rooms. Run with -t 4 to see the
+ * buckets' CASes contended, which takes rooms far busier than any chat room gets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimitBenchmark {
+    private static final int SESSIONS = 64;
+    private static final int ROOMS = 4;
+
+    private RateLimitInterceptor interceptor;
+    private Message<?>[] messages;
+
+    @Setup
+    public void setUp() {
+        interceptor = new RateLimitInterceptor(new LocalRoomRateLimiter(1e12, Integer.MAX_VALUE), () -> null,
+                new SimpleMeterRegistry(), 1e12, Integer.MAX_VALUE);
+        byte[] payload = "{\"sender\":\"alice\",\"content\":\"See you at the standup\"}".getBytes(StandardCharsets.UTF_8);
+        messages = new Message<?>[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setSessionId("session-" + i);
+            accessor.setDestination("/app/room-" + (i % ROOMS) + "/sendMessage");
+            messages[i] = MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        Message<?> next(Message<?>[] messages) {
+            next = (next + 1) % messages.length;
+            return messages[next];
+        }
+    }
+
+    @Benchmark
+    public Message<?> unlimited(Cursor cursor) {
+        return cursor.next(messages);
+    }
+
+    @Benchmark
+    public Message<?> limited(Cursor cursor) {
+        return interceptor.preSend(cursor.next(messages), null);
+    }
+}
@@ -0,0 +1,255 @@
+package org.sigar.chat.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.sigar.chat.broker.CoalescingPolicy;
+import org.sigar.chat.broker.ShardedRoomBroker;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.pipeline.ChatMetrics;
+import org.sigar.chat.pipeline.StageExecutors;
+import org.sigar.chat.pipeline.ThreadMode;
+import org.sigar.chat.websocket.CompactMessageEncoder;
+import org.sigar.chat.websocket.LocalSessionRegistry;
+import org.sigar.chat.websocket.SessionBufferMetrics;
+import org.sigar.chat.websocket.SlowConsumerPolicy;
+import org.sigar.chat.websocket.SlowConsumerSessionDecorator;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One chat message fanned out to every subscriber of a single room, until the last session has its frame.
+ *
+ * simpleBroker is the previous setup: SimpleBrokerMessageHandler copies the message for each subscriber
+ * and StompSubProtocolHandler encodes a frame per session.
+ * shardedBroker is ShardedRoomBroker: the frame is encoded once and the same instance is queued on
+ * every session.
+ * Sessions discard what they are sent and writes run on the delivering thread, so both numbers are the
+ * CPU cost of fanout alone. Run with -prof gc for allocations per message (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomFanoutBenchmark {
+    private static final String DESTINATION = "/topic/messages/lobby";
+
+    @Param("10000")
+    private int subscribers;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private SimpleBrokerMessageHandler simpleBroker;
+    private ShardedRoomBroker shardedBroker;
+    private Message<byte[]> message;
+
+    @Setup
+    public void setUp() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(DESTINATION);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader(ChatMessageBroadcaster.HISTORY_ID_HEADER, "1700000000000-0");
+        message = MessageBuilder.createMessage(
+                "{\"sender\":\"alice\",\"content\":\"See you at the standup in five minutes, bring the release notes\"}"
+                        .getBytes(StandardCharsets.UTF_8),
+                accessor.getMessageHeaders());
+
+        setUpSimpleBroker();
+        setUpShardedBroker();
+    }
+
+    @TearDown
+    public void tearDown() {
+        simpleBroker.stop();
+        shardedBroker.stop();
+    }
+
+    @Benchmark
+    public void simpleBroker() {
+        fanOut(simpleBroker);
+    }
+
+    @Benchmark
+    public void shardedBroker() {
+        fanOut(shardedBroker);
+    }
+
+    private void fanOut(AbstractBrokerMessageHandler broker) {
+        long target = delivered.get() + subscribers;
+        broker.handleMessage(message);
+        while (delivered.get() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void setUpSimpleBroker() {
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        simpleBroker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(), outbound, new ExecutorSubscribableChannel(), List.of("/topic"));
+        simpleBroker.start();
+
+        // What SubProtocolWebSocketHandler does with each copy the broker puts on the outbound channel
+        StompSubProtocolHandler stompHandler = new StompSubProtocolHandler();
+        Map<String, WebSocketSession> sessions = new HashMap<>();
+        outbound.subscribe(copy -> stompHandler.handleMessageToClient(
+                sessions.get(SimpMessageHeaderAccessor.getSessionId(copy.getHeaders())), copy));
+
+        for (int i = 0; i < subscribers; i++) {
+            String sessionId = "simple-" + i;
+            sessions.put(sessionId, new ConcurrentWebSocketSessionDecorator(new DiscardingSession(sessionId, delivered), 10_000, 512 * 1024));
+            // The simple broker only delivers to sessions it has seen CONNECT
+            simpleBroker.handleMessage(connect(sessionId));
+            simpleBroker.handleMessage(subscribe(sessionId));
+        }
+    }
+
+    private void setUpShardedBroker() {
+        LocalSessionRegistry sessions = new LocalSessionRegistry();
+        SessionBufferMetrics metrics = new SessionBufferMetrics(new SimpleMeterRegistry(), sessions);
+        shardedBroker = new ShardedRoomBroker(new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(),
+                Runnable::run, sessions, CoalescingPolicy.disabled(),
+                new StageExecutors(new SimpleMeterRegistry(), ThreadMode.PLATFORM),
+                new ChatMetrics(new SimpleMeterRegistry(), "websocket"), new CompactMessageEncoder(new ObjectMapper()), 1);
+        shardedBroker.start();
+
+        for (int i = 0; i < subscribers; i++) {
+            String sessionId = "sharded-" + i;
+            sessions.register(new SlowConsumerSessionDecorator(new DiscardingSession(sessionId, delivered), 10_000, 512 * 1024,
+                    SlowConsumerPolicy.DROP_OLDEST, metrics));
+            shardedBroker.handleMessage(subscribe(sessionId));
+        }
+    }
+
+    private static Message<byte[]> connect(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> subscribe(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        // stomp.js numbers subscriptions per connection, so every client's first one is sub-0
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(DESTINATION);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    /**
+     * Open session that counts frames and drops them.
+     */
+    private static final class DiscardingSession implements WebSocketSession {
+        private final String id;
+        private final AtomicLong delivered;
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        private DiscardingSession(String id, AtomicLong delivered) {
+            this.id = id;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return HttpHeaders.EMPTY;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return "v12.stomp";
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+        }
+    }
+}
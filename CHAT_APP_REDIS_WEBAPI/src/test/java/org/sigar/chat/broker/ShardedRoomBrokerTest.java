@@ -0,0 +1,258 @@
+package org.sigar.chat.broker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.pipeline.ChatMetrics;
+import org.sigar.chat.pipeline.EpochClock;
+import org.sigar.chat.pipeline.StageExecutors;
+import org.sigar.chat.pipeline.ThreadMode;
+import org.sigar.chat.websocket.CompactMessageEncoder;
+import org.sigar.chat.websocket.LocalSessionRegistry;
+import org.sigar.chat.websocket.SessionBufferMetrics;
+import org.sigar.chat.websocket.SlowConsumerPolicy;
+import org.sigar.chat.websocket.SlowConsumerSessionDecorator;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ShardedRoomBrokerTest {
+    private static final String ROOM = ShardedRoomBroker.ROOM_DESTINATION_PREFIX + "r1";
+
+    private SimpleMeterRegistry registry;
+    private LocalSessionRegistry sessions;
+    private SessionBufferMetrics metrics;
+    private ShardedRoomBroker broker;
+    private final Map<String, List<TextMessage>> received = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setup() {
+        registry = new SimpleMeterRegistry();
+        sessions = new LocalSessionRegistry();
+        metrics = new SessionBufferMetrics(registry, sessions);
+        broker = startBroker(CoalescingPolicy.disabled());
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.stop();
+    }
+
+    @Test
+    void shouldDeliverOneSharedFramePerSubscriptionIdInRoomOrder() throws Exception {
+        for (String sessionId : List.of("s1", "s2", "s3")) {
+            connect(sessionId);
+        }
+        broker.handleMessage(subscribe("s1", "sub-0", ROOM));
+        broker.handleMessage(subscribe("s2", "sub-0", ROOM));
+        broker.handleMessage(subscribe("s3", "sub-7", ROOM));
+
+        for (int i = 0; i < 50; i++) {
+            broker.handleMessage(publish(ROOM, String.valueOf(i)));
+        }
+        awaitFrames(50, "s1", "s2", "s3");
+
+        List<String> expected = IntStream.range(0, 50).mapToObj(String::valueOf).toList();
+        for (String sessionId : List.of("s1", "s2", "s3")) {
+            assertEquals(expected, received.get(sessionId).stream().map(ShardedRoomBrokerTest::body).toList(), "Room order for " + sessionId);
+        }
+        assertSame(received.get("s1").get(0), received.get("s2").get(0), "Sessions with the same subscription id should share one encoded frame");
+        String frame = received.get("s3").get(0).getPayload();
+        assertTrue(frame.startsWith("MESSAGE\n"));
+        assertTrue(frame.contains("\nsubscription:sub-7\n"));
+        assertTrue(frame.contains("\ndestination:" + ROOM + "\n"));
+        assertTrue(frame.contains("\nhistory-id:h-0\n"), "Native headers from the publisher should be kept");
+        assertTrue(frame.contains("\ncontent-type:application/json\n"));
+    }
+
+    @Test
+    void shouldTimeDeliveryFromTheIngressStamp() throws Exception {
+        connect("s1");
+        broker.handleMessage(subscribe("s1", "sub-0", ROOM));
+        broker.handleMessage(MessageBuilder.fromMessage(publish(ROOM, "stamped"))
+                .setHeader(ChatMessageBroadcaster.INGRESS_HEADER, EpochClock.micros() - 5_000)
+                .build());
+        broker.handleMessage(publish(ROOM, "recovered"));
+        broker.handleMessage(publish(ShardedRoomBroker.ROOM_DESTINATION_PREFIX + "empty", "unheard"));
+        awaitFrames(2, "s1");
+
+        assertEquals(2, registry.get("chat.messages.delivered").tag("transport", "websocket").counter().count(),
+                "Messages for rooms without subscribers here are not delivered");
+        Timer latency = registry.get("chat.messages.latency").tag("transport", "websocket").timer();
+        assertEquals(1, latency.count(), "Only stamped messages are timed");
+        assertTrue(latency.max(TimeUnit.MILLISECONDS) >= 5);
+        assertEquals(2, registry.get("chat.messages.serialization").tag("format", "stomp-frame").timer().count());
+        assertFalse(received.get("s1").get(0).getPayload().contains(ChatMessageBroadcaster.INGRESS_HEADER),
+                "The stamp is not a STOMP header");
+    }
+
+    @Test
+    void shouldForgetSubscriptionsOnUnsubscribeAndDisconnect() {
+        broker.handleMessage(subscribe("s1", "sub-0", ROOM));
+        broker.handleMessage(subscribe("s1", "sub-1", ShardedRoomBroker.ROOM_DESTINATION_PREFIX + "r2"));
+        broker.handleMessage(subscribe("s2", "sub-0", ROOM));
+        assertEquals(2, broker.subscribers(ROOM));
+
+        broker.handleMessage(control(SimpMessageType.UNSUBSCRIBE, "s2", "sub-0"));
+        assertEquals(1, broker.subscribers(ROOM));
+
+        broker.handleMessage(control(SimpMessageType.DISCONNECT, "s1", null));
+        assertEquals(0, broker.subscribers(ROOM));
+        assertEquals(0, broker.subscribers(ShardedRoomBroker.ROOM_DESTINATION_PREFIX + "r2"));
+    }
+
+    @Test
+    void shouldIgnoreOtherDestinationsAndClientSendsToRooms() throws Exception {
+        connect("s1");
+        broker.handleMessage(subscribe("s1", "sub-0", "/queue/errors"));
+        broker.handleMessage(subscribe("s1", "sub-1", ROOM));
+        assertEquals(0, broker.subscribers("/queue/errors"));
+
+        Message<byte[]> clientSend = MessageBuilder.fromMessage(publish(ROOM, "spoofed"))
+                .setHeader(SimpMessageHeaderAccessor.SESSION_ID_HEADER, "s1")
+                .build();
+        broker.handleMessage(clientSend);
+        broker.handleMessage(publish(ROOM, "genuine"));
+        awaitFrames(1, "s1");
+
+        // Same room, same dispatcher thread: had the spoofed message been accepted it would have arrived first
+        assertEquals(List.of("genuine"), received.get("s1").stream().map(ShardedRoomBrokerTest::body).toList());
+    }
+
+    @Test
+    void shouldCoalesceABusyRoomIntoArrayFramesInOrder() throws Exception {
+        broker.stop();
+        broker = startBroker(new CoalescingPolicy(true, "20-20", new String[0]));
+        connect("s1");
+        broker.handleMessage(subscribe("s1", "sub-0", ROOM));
+
+        for (int i = 0; i < 100; i++) {
+            broker.handleMessage(publish(ROOM, "{\"content\":\"" + i + "\"}"));
+        }
+        List<String> contents = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (contents.size() < 100 && System.nanoTime() < deadline) {
+            Thread.sleep(25);
+            contents.clear();
+            for (TextMessage frame : received.get("s1")) {
+                JsonNode body = new ObjectMapper().readTree(body(frame));
+                if (frame.getPayload().contains("\n" + ShardedRoomBroker.BATCH_HEADER + ":")) {
+                    assertTrue(body.isArray());
+                    assertTrue(frame.getPayload().contains("\n" + ShardedRoomBroker.BATCH_HEADER + ":" + body.size() + "\n"));
+                    body.forEach(entry -> {
+                        assertEquals("h-" + entry.get("message").toString(), entry.get("id").asText(), "Each entry keeps its history id");
+                        assertEquals(entry.get("message").get("content").asLong(), entry.get("seq").asLong());
+                        contents.add(entry.get("message").get("content").asText());
+                    });
+                } else {
+                    contents.add(body.get("content").asText());
+                }
+            }
+        }
+
+        assertEquals(IntStream.range(0, 100).mapToObj(String::valueOf).toList(), contents);
+        assertTrue(received.get("s1").size() < 100, "Back-to-back messages should share frames, got " + received.get("s1").size());
+    }
+
+    @Test
+    void shouldNotHoldBackMessagesInQuietRoomsOrRoomsTurnedOff() throws Exception {
+        broker.stop();
+        broker = startBroker(new CoalescingPolicy(true, "20-20", new String[]{"r2=0"}));
+        String otherRoom = ShardedRoomBroker.ROOM_DESTINATION_PREFIX + "r2";
+        connect("s1");
+        broker.handleMessage(subscribe("s1", "sub-0", ROOM));
+        broker.handleMessage(subscribe("s1", "sub-1", otherRoom));
+
+        broker.handleMessage(publish(ROOM, "{}"));
+        for (int i = 0; i < 20; i++) {
+            broker.handleMessage(publish(otherRoom, "{}"));
+        }
+        awaitFrames(21, "s1");
+        assertTrue(received.get("s1").stream().noneMatch(frame -> frame.getPayload().contains("\n" + ShardedRoomBroker.BATCH_HEADER + ":")));
+    }
+
+    private ShardedRoomBroker startBroker(CoalescingPolicy coalescing) {
+        ShardedRoomBroker started = new ShardedRoomBroker(new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(),
+                Runnable::run, sessions, coalescing, new StageExecutors(registry, ThreadMode.PLATFORM),
+                new ChatMetrics(registry, "websocket"), new CompactMessageEncoder(new ObjectMapper()), 2);
+        started.start();
+        return started;
+    }
+
+    private void connect(String sessionId) throws Exception {
+        List<TextMessage> frames = new CopyOnWriteArrayList<>();
+        received.put(sessionId, frames);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> frames.add(invocation.getArgument(0))).when(session).sendMessage(any());
+        sessions.register(new SlowConsumerSessionDecorator(session, 10_000, 1 << 20, SlowConsumerPolicy.DROP_OLDEST, metrics));
+    }
+
+    private void awaitFrames(int count, String... sessionIds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (String sessionId : sessionIds) {
+            while (received.get(sessionId).size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, received.get(sessionId).size(), "Frames for " + sessionId);
+        }
+    }
+
+    private static Message<byte[]> subscribe(String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> control(SimpMessageType type, String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    // Shaped like what ChatMessageBroadcaster sends through the broker channel
+    private static Message<byte[]> publish(String destination, String body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader("history-id", "h-" + body);
+        if (body.startsWith("{\"content\":\"")) {
+            accessor.setNativeHeader("seq", body.replaceAll("\\D", ""));
+        }
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static String body(TextMessage frame) {
+        String payload = frame.getPayload();
+        return payload.substring(payload.indexOf("\n\n") + 2, payload.length() - 1);
+    }
+}
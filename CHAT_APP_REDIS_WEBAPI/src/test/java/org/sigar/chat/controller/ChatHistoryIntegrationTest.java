@@ -0,0 +1,153 @@
+package org.sigar.chat.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.broker.ShardedRoomBroker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ChatHistoryIntegrationTest {
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private ShardedRoomBroker broker;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private WebSocketStompClient stompClient;
+    private StompSession session;
+
+    @BeforeEach
+    void connect() throws Exception {
+        stompClient = new WebSocketStompClient(new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        session = stompClient.connectAsync("http://localhost:" + port + "/chat", new StompSessionHandlerAdapter() {
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void disconnect() {
+        session.disconnect();
+        stompClient.stop();
+    }
+
+    @Test
+    void shouldStampLiveMessagesAndServeThemFromHistory() throws Exception {
+        BlockingQueue<Received> live = subscribe("/topic/messages/it-room", new StompHeaders());
+        // The inbound channel runs on a thread pool, so only sends that wait for each other are ordered
+        send("it-room", "first");
+        Received one = live.poll(10, TimeUnit.SECONDS);
+        assertNotNull(one, "The first message should reach the live subscriber");
+        send("it-room", "second");
+        Received two = live.poll(10, TimeUnit.SECONDS);
+        assertNotNull(two, "The second message should reach the live subscriber");
+        assertEquals("first", one.json().get("content").asText());
+        assertEquals("second", two.json().get("content").asText());
+        assertNotNull(one.historyId());
+        assertNotNull(two.historyId());
+
+        JsonNode page = objectMapper.readTree(restTemplate.getForObject("/history/it-room?limit=2", String.class));
+        assertEquals(2, page.size());
+        assertEquals(List.of(two.historyId(), one.historyId()), List.of(page.get(0).get("id").asText(), page.get(1).get("id").asText()),
+                "History pages are newest first, in the order one sender's messages were stored");
+        assertTrue(page.get(0).get("message").isObject(), "Stored JSON should be returned as an object");
+        String newest = page.get(0).get("id").asText();
+        String older = page.get(1).get("id").asText();
+
+        StompHeaders catchUpHeaders = new StompHeaders();
+        catchUpHeaders.add("last-seen-id", older);
+        BlockingQueue<Received> catchUp = subscribe("/app/it-room/history", catchUpHeaders);
+        JsonNode missed = catchUp.poll(10, TimeUnit.SECONDS).json();
+        assertEquals(1, missed.size(), "Only messages after last-seen-id should be replayed");
+        assertEquals(newest, missed.get(0).get("id").asText());
+    }
+
+    @Test
+    void shouldStreamRoomMessagesAsServerSentEvents() throws Exception {
+        HttpResponse<Stream<String>> response = HttpClient.newHttpClient()
+                .sendAsync(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/events/sse-room")).build(),
+                        HttpResponse.BodyHandlers.ofLines())
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream"));
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> response.body().forEach(lines::add));
+        reader.setDaemon(true);
+        reader.start();
+
+        assertEquals("retry:2000", lines.poll(10, TimeUnit.SECONDS));
+        assertEquals("", lines.poll(10, TimeUnit.SECONDS));
+        send("sse-room", "streamed");
+        String id = lines.poll(10, TimeUnit.SECONDS);
+        String data = lines.poll(10, TimeUnit.SECONDS);
+        assertNotNull(data, "The message should arrive as an event");
+        assertTrue(id.startsWith("id:"));
+        JsonNode entry = objectMapper.readTree(data.substring("data:".length()));
+        assertEquals(id.substring("id:".length()), entry.get("id").asText());
+        assertEquals("streamed", entry.get("message").get("content").asText());
+        response.body().close();
+    }
+
+    private void send(String room, String content) {
+        session.send("/app/" + room + "/sendMessage", Map.of("sender", "it", "content", content));
+    }
+
+    private BlockingQueue<Received> subscribe(String destination, StompHeaders headers) throws InterruptedException {
+        BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+        headers.setDestination(destination);
+        session.subscribe(headers, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return JsonNode.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add(new Received(headers.getFirst("history-id"), (JsonNode) payload));
+            }
+        });
+        if (destination.startsWith(ShardedRoomBroker.ROOM_DESTINATION_PREFIX)) {
+            // SUBSCRIBE is processed asynchronously and STOMP gives no receipt for it, so wait for the broker
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (broker.subscribers(destination) == 0) {
+                assertTrue(System.nanoTime() < deadline, "Broker never registered the subscription to " + destination);
+                Thread.sleep(10);
+            }
+        }
+        return received;
+    }
+
+    private record Received(String historyId, JsonNode json) {
+    }
+}
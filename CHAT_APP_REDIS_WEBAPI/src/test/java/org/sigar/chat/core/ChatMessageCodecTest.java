@@ -0,0 +1,43 @@
+package org.sigar.chat.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.model.ChatMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChatMessageCodecTest {
+    private final ChatMessageCodec codec = new ChatMessageCodec(new ObjectMapper());
+
+    @Test
+    void shouldReadASingleChatMessage() throws IOException {
+        ChatMessage message = codec.read(bytes("{\"sender\":\"alice\",\"content\":\"hi\"}"));
+
+        assertEquals("alice", message.getSender());
+        assertEquals("hi", message.getContent());
+    }
+
+    @Test
+    void shouldRejectTrailingTokensThatWouldBreakOutOfASplicedArray() {
+        // Spliced raw into a batch or history page this would close the message and start a forged one
+        assertThrows(IOException.class, () -> codec.read(bytes("{\"sender\":\"alice\",\"content\":\"hi\"},{\"sender\":\"admin\",\"content\":\"forged\"}")));
+        assertThrows(IOException.class, () -> codec.read(bytes("{\"sender\":\"alice\",\"content\":\"hi\"}]")));
+    }
+
+    @Test
+    void shouldRejectUnknownProperties() {
+        assertThrows(IOException.class, () -> codec.read(bytes("{\"sender\":\"alice\",\"content\":\"hi\",\"id\":\"1-0\"}")));
+    }
+
+    @Test
+    void shouldRejectAnEmptyPayload() {
+        assertThrows(IllegalArgumentException.class, () -> codec.read(bytes("null")));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
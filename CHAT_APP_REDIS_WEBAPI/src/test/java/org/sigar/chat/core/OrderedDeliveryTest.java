@@ -0,0 +1,166 @@
+package org.sigar.chat.core;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.channel.MessageHandler;
+import org.sigar.chat.history.HistoryEntry;
+import org.sigar.chat.history.HistoryPosition;
+import org.sigar.chat.history.InMemoryChatHistoryStore;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrderedDeliveryTest {
+    private InMemoryChatHistoryStore historyStore;
+    private SimpleMeterRegistry registry;
+    private OrderedDelivery delivery;
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+    private final MessageHandler recorder = (room, envelope) ->
+            delivered.add(room + ":" + ChatEnvelope.position(envelope).sequence() + ":" + new String(ChatEnvelope.payload(envelope), StandardCharsets.UTF_8));
+
+    @BeforeEach
+    void setup() {
+        historyStore = new InMemoryChatHistoryStore(100);
+        registry = new SimpleMeterRegistry();
+        delivery = new OrderedDelivery(historyStore, registry, 4, 50);
+    }
+
+    @AfterEach
+    void tearDown() {
+        delivery.stop();
+    }
+
+    @Test
+    void shouldDropDuplicatesFromRedundantPaths() {
+        List<byte[]> envelopes = store("r1", "a", "b");
+        for (byte[] envelope : List.of(envelopes.get(0), envelopes.get(0), envelopes.get(1), envelopes.get(0), envelopes.get(1))) {
+            delivery.accept("r1", envelope, recorder);
+        }
+
+        assertEquals(List.of("r1:1:a", "r1:2:b"), delivered);
+        assertEquals(3, registry.counter("chat.delivery.duplicates").count());
+    }
+
+    @Test
+    void shouldHoldMessagesBackUntilTheGapFills() {
+        List<byte[]> envelopes = store("r1", "a", "b", "c", "d");
+        delivery.accept("r1", envelopes.get(0), recorder);
+        delivery.accept("r1", envelopes.get(2), recorder);
+        delivery.accept("r1", envelopes.get(3), recorder);
+        assertEquals(List.of("r1:1:a"), delivered);
+
+        delivery.accept("r1", envelopes.get(1), recorder);
+        assertEquals(List.of("r1:1:a", "r1:2:b", "r1:3:c", "r1:4:d"), delivered);
+    }
+
+    @Test
+    void shouldFillAGapFromHistoryAfterTheTimeout() throws Exception {
+        List<byte[]> envelopes = store("r1", "a", "lost", "c");
+        delivery.accept("r1", envelopes.get(0), recorder);
+        delivery.accept("r1", envelopes.get(2), recorder);
+
+        awaitDelivered(3);
+        assertEquals(List.of("r1:1:a", "r1:2:lost", "r1:3:c"), delivered);
+        assertEquals(1, registry.counter("chat.delivery.gap.recovered").count());
+        assertEquals(0, registry.counter("chat.delivery.gap.skipped").count());
+    }
+
+    @Test
+    void shouldSkipGapsItCannotFillAndKeepOriginsApart() throws Exception {
+        // Numbered by another node's store: nothing to look up locally, so the gap is skipped
+        delivery.accept("r1", envelope("x-1", "node-b", 1, "b1"), recorder);
+        delivery.accept("r1", envelope("x-3", "node-b", 3, "b3"), recorder);
+        // Same sequence numbers from another origin are different messages
+        delivery.accept("r1", envelope("y-1", "node-c", 1, "c1"), recorder);
+
+        awaitDelivered(3);
+        assertEquals(List.of("r1:1:b1", "r1:1:c1", "r1:3:b3"), delivered);
+        assertEquals(1, registry.counter("chat.delivery.gap.skipped").count());
+    }
+
+    @Test
+    void shouldReleaseEarlyWhenTooManyMessagesAreHeld() {
+        delivery.accept("r1", envelope("x-1", "node-b", 1, "m1"), recorder);
+        for (int sequence = 3; sequence <= 7; sequence++) {
+            delivery.accept("r1", envelope("x-" + sequence, "node-b", sequence, "m" + sequence), recorder);
+        }
+
+        // maxHeld is 4, so the fifth held message closes the gap at once
+        assertEquals(List.of("r1:1:m1", "r1:3:m3", "r1:4:m4", "r1:5:m5", "r1:6:m6", "r1:7:m7"), delivered);
+    }
+
+    @Test
+    void shouldDeliverAMessageOvertakenByALaterOneOnceStarted() {
+        store("r1", "before");
+        delivery.start("r1", recorder);
+        List<byte[]> envelopes = store("r1", "b", "c");
+
+        delivery.accept("r1", envelopes.get(1), recorder);
+        delivery.accept("r1", envelopes.get(0), recorder);
+
+        assertEquals(List.of("r1:2:b", "r1:3:c"), delivered);
+        assertEquals(0, registry.counter("chat.delivery.duplicates").count());
+    }
+
+    @Test
+    void shouldKeepAcceptingWhileHistoryIsReadForAGap() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        historyStore = new InMemoryChatHistoryStore(100) {
+            @Override
+            public List<HistoryEntry> readAfter(String room, String afterId, int limit) {
+                reading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.readAfter(room, afterId, limit);
+            }
+        };
+        delivery.stop();
+        delivery = new OrderedDelivery(historyStore, registry, 4, 50);
+        List<byte[]> envelopes = store("r1", "a", "lost", "c", "d");
+        delivery.accept("r1", envelopes.get(0), recorder);
+        delivery.accept("r1", envelopes.get(2), recorder);
+        assertTrue(reading.await(5, TimeUnit.SECONDS), "The gap timer should start a history read");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> delivery.accept("r1", envelopes.get(3), recorder),
+                "The room must not be locked while its history is read");
+        assertEquals(List.of("r1:1:a"), delivered);
+
+        release.countDown();
+        awaitDelivered(4);
+        assertEquals(List.of("r1:1:a", "r1:2:lost", "r1:3:c", "r1:4:d"), delivered);
+    }
+
+    private List<byte[]> store(String room, String... messages) {
+        List<byte[]> envelopes = new ArrayList<>();
+        for (String message : messages) {
+            byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+            envelopes.add(ChatEnvelope.wrap(historyStore.append(room, payload), payload));
+        }
+        return envelopes;
+    }
+
+    private static byte[] envelope(String historyId, String origin, long sequence, String message) {
+        return ChatEnvelope.wrap(new HistoryPosition(historyId, origin, sequence), message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delivered.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, delivered.size(), "Delivered: " + delivered);
+    }
+}
@@ -0,0 +1,123 @@
+package org.sigar.chat.core;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.channel.MessageHandler;
+import org.sigar.chat.history.InMemoryChatHistoryStore;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomSubscriptionTrackerTest {
+
+    private RecordingChannel channel;
+    private RoomSubscriptionTracker tracker;
+
+    @BeforeEach
+    void setup() {
+        channel = new RecordingChannel();
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        OrderedDelivery orderedDelivery = new OrderedDelivery(new InMemoryChatHistoryStore(10), new SimpleMeterRegistry(), 16, 100);
+        tracker = new RoomSubscriptionTracker(new ChatMessageBroadcaster(template, channel, orderedDelivery));
+    }
+
+    @Test
+    void shouldSubscribeToRoomOnlyOnceForSeveralLocalSessions() {
+        tracker.subscribed("s1", "sub-0", "/topic/messages/room1");
+        tracker.subscribed("s2", "sub-0", "/topic/messages/room1");
+
+        assertEquals(List.of("room1"), channel.received, "Only the first local subscriber should open the room channel");
+        assertEquals(2, tracker.subscribers("room1"));
+    }
+
+    @Test
+    void shouldUnsubscribeFromRoomWhenLastSessionLeaves() {
+        tracker.subscribed("s1", "sub-0", "/topic/messages/room1");
+        tracker.subscribed("s2", "sub-7", "/topic/messages/room1");
+
+        tracker.unsubscribed("s1", "sub-0");
+        assertTrue(channel.stopped.isEmpty(), "Room should stay subscribed while s2 is still listening");
+
+        tracker.disconnected("s2");
+        assertEquals(List.of("room1"), channel.stopped);
+        assertEquals(0, tracker.subscribers("room1"));
+    }
+
+    @Test
+    void shouldReleaseEveryRoomOfADisconnectedSessionOnce() {
+        tracker.subscribed("s1", "sub-0", "/topic/messages/room1");
+        tracker.subscribed("s1", "sub-1", "/topic/messages/room2");
+
+        tracker.disconnected("s1");
+        tracker.disconnected("s1");
+
+        assertEquals(2, channel.stopped.size());
+        assertTrue(channel.stopped.containsAll(List.of("room1", "room2")));
+    }
+
+    @Test
+    void shouldIgnoreDestinationsOutsideChatRooms() {
+        tracker.subscribed("s1", "sub-0", "/user/queue/errors");
+        tracker.unsubscribed("s1", "sub-0");
+
+        assertTrue(channel.received.isEmpty());
+        assertTrue(channel.stopped.isEmpty());
+    }
+
+    @Test
+    void shouldOpenAndCloseRoomChannelsOutsideTheTrackerLock() {
+        tracker.subscribed("s1", "sub-0", "/topic/messages/room1");
+        tracker.retain("room2");
+        tracker.release("room2");
+        tracker.disconnected("s1");
+
+        assertEquals(List.of("room1", "room2"), channel.received);
+        assertEquals(List.of("room2", "room1"), channel.stopped);
+        assertFalse(channel.calledUnderTrackerLock, "Channel calls can block on Redis and must not hold the tracker");
+    }
+
+    @Test
+    void shouldMoveAReusedSubscriptionIdToTheNewRoom() {
+        tracker.subscribed("s1", "sub-0", "/topic/messages/room1");
+        tracker.subscribed("s1", "sub-0", "/topic/messages/room2");
+
+        assertEquals(List.of("room1"), channel.stopped);
+        assertEquals(0, tracker.subscribers("room1"));
+        assertEquals(1, tracker.subscribers("room2"));
+    }
+
+    private class RecordingChannel implements CommunicationChannel {
+        private final List<String> received = new ArrayList<>();
+        private final List<String> stopped = new ArrayList<>();
+        private boolean calledUnderTrackerLock;
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void sendMessage(String destination, byte[] message) {
+        }
+
+        @Override
+        public void receiveMessage(String source, MessageHandler messageHandler) {
+            received.add(source);
+            calledUnderTrackerLock |= Thread.holdsLock(tracker);
+        }
+
+        @Override
+        public void stopReceiving(String source) {
+            stopped.add(source);
+            calledUnderTrackerLock |= Thread.holdsLock(tracker);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.sigar.chat.grpc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.CallStreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.core.ChatEnvelope;
+import org.sigar.chat.core.ChatMessageCodec;
+import org.sigar.chat.grpc.proto.RelayFrame;
+import org.sigar.chat.history.HistoryPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GrpcCommunicationChannelTest {
+    private final ChatMessageCodec codec = new ChatMessageCodec(new ObjectMapper());
+    private final List<String> receivedByA = new CopyOnWriteArrayList<>();
+    private final List<String> receivedByB = new CopyOnWriteArrayList<>();
+    private GrpcCommunicationChannel nodeA;
+    private GrpcCommunicationChannel nodeB;
+    private Server serverA;
+    private Server serverB;
+
+    @BeforeEach
+    void setup() throws Exception {
+        nodeA = new GrpcCommunicationChannel("node-a", Map.of("node-b", channelTo("relay-b")), 100, Duration.ofMillis(20));
+        nodeB = new GrpcCommunicationChannel("node-b", Map.of("node-a", channelTo("relay-a")), 100, Duration.ofMillis(20));
+        serverA = serve("relay-a", nodeA);
+        serverB = serve("relay-b", nodeB);
+        nodeA.receiveMessage("*", (room, envelope) -> receivedByA.add(describe(room, envelope)));
+        nodeB.receiveMessage("*", (room, envelope) -> receivedByB.add(describe(room, envelope)));
+        nodeA.connect();
+        nodeB.connect();
+        await(() -> nodeA.connectedPeers().contains("node-b") && nodeB.connectedPeers().contains("node-a"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodeA.disconnect();
+        nodeB.disconnect();
+        serverA.shutdownNow();
+        serverB.shutdownNow();
+    }
+
+    @Test
+    void shouldRelayBothWaysOverOneStreamPerPair() throws Exception {
+        nodeA.sendMessage("r1", envelope("h-1", "{\"sender\":\"alice\",\"content\":\"hi\"}"));
+        nodeB.sendMessage("r2", envelope("h-2", "{\"sender\":\"bob\"}"));
+
+        await(() -> receivedByA.size() == 2 && receivedByB.size() == 2);
+        String fromA = "r1|h-1#1|alice|hi";
+        String fromB = "r2|h-2#2|bob|null";
+        // Each node sees its own message locally and the other's over the stream, in no particular order
+        assertEquals(Set.of(fromA, fromB), Set.copyOf(receivedByA));
+        assertEquals(Set.of(fromA, fromB), Set.copyOf(receivedByB));
+        assertEquals(1, nodeA.connectedPeers().size());
+        assertEquals(1, nodeB.connectedPeers().size());
+        assertEquals(0, nodeA.dropped());
+    }
+
+    @Test
+    void shouldRelayTheEnvelopeBytesUntouched() throws Exception {
+        List<byte[]> relayed = new CopyOnWriteArrayList<>();
+        nodeB.receiveMessage("r1", (room, envelope) -> relayed.add(envelope));
+        // Spacing and field order a parse and re-encode would not keep
+        byte[] sent = envelope("h-4", "{ \"content\" : \"raw\", \"sender\" : \"carol\" }");
+
+        nodeA.sendMessage("r1", sent);
+        await(() -> relayed.size() == 1);
+        assertArrayEquals(sent, relayed.get(0));
+    }
+
+    @Test
+    void shouldPreferRoomHandlersAndHonourStopReceiving() throws Exception {
+        List<String> roomOnly = new CopyOnWriteArrayList<>();
+        nodeB.receiveMessage("r1", (room, envelope) -> roomOnly.add(describe(room, envelope)));
+
+        nodeA.sendMessage("r1", envelope("h-1", "{\"content\":\"one\"}"));
+        await(() -> roomOnly.size() == 1);
+        assertTrue(receivedByB.isEmpty(), "The room handler should win over the catch-all");
+
+        nodeB.stopReceiving("r1");
+        nodeA.sendMessage("r1", envelope("h-2", "{\"content\":\"two\"}"));
+        await(() -> receivedByB.size() == 1);
+        assertEquals(1, roomOnly.size());
+        assertEquals("r1|h-2#2|null|two", receivedByB.get(0));
+    }
+
+    @Test
+    void shouldRelayControlDestinationsAsOpaqueBytes() throws Exception {
+        List<String> control = new CopyOnWriteArrayList<>();
+        nodeB.receiveMessage("_presence", (destination, payload) -> control.add(destination + "|" + new String(payload, StandardCharsets.UTF_8)));
+
+        nodeA.sendMessage("_presence", "not an envelope".getBytes(StandardCharsets.UTF_8));
+        await(() -> control.size() == 1);
+        assertEquals("_presence|not an envelope", control.get(0));
+        assertTrue(receivedByB.isEmpty());
+        assertTrue(nodeA.isDistributed());
+    }
+
+    @Test
+    void shouldRedialAfterPeerRestarts() throws Exception {
+        serverB.shutdownNow();
+        await(() -> nodeA.connectedPeers().isEmpty() && nodeB.connectedPeers().isEmpty());
+
+        serverB = serve("relay-b", nodeB);
+        await(() -> nodeA.connectedPeers().contains("node-b") && nodeB.connectedPeers().contains("node-a"));
+
+        nodeA.sendMessage("r1", envelope("h-3", "{\"content\":\"back\"}"));
+        await(() -> receivedByB.size() == 1);
+        assertEquals("r1|h-3#3|null|back", receivedByB.get(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRefuseFramesBeyondCapacityWhileThePeerIsNotReady() {
+        CallStreamObserver<RelayFrame> stream = mock(CallStreamObserver.class);
+        when(stream.isReady()).thenReturn(false);
+        PeerLink link = new PeerLink(stream, 2);
+        RelayFrame frame = RelayFrame.getDefaultInstance();
+
+        assertTrue(link.offer(frame));
+        assertTrue(link.offer(frame));
+        assertFalse(link.offer(frame));
+        assertEquals(2, link.pending());
+        verify(stream, never()).onNext(any());
+
+        link.close();
+        assertFalse(link.offer(frame));
+        assertEquals(0, link.pending());
+    }
+
+    private static ManagedChannel channelTo(String name) {
+        return InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    private static Server serve(String name, GrpcCommunicationChannel node) throws Exception {
+        return InProcessServerBuilder.forName(name).directExecutor().addService(node.relayService()).build().start();
+    }
+
+    private static byte[] envelope(String historyId, String json) {
+        return ChatEnvelope.wrap(new HistoryPosition(historyId, "redis", Long.parseLong(historyId.substring(2))), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String describe(String room, byte[] envelope) {
+        try {
+            var message = codec.read(ChatEnvelope.payload(envelope));
+            HistoryPosition position = ChatEnvelope.position(envelope);
+            return room + "|" + position.id() + "#" + position.sequence() + "|" + message.getSender() + "|" + message.getContent();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean(), "Timed out waiting for the relay");
+    }
+}
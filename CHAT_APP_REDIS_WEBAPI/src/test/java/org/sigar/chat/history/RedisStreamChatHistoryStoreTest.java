@@ -0,0 +1,126 @@
+package org.sigar.chat.history;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisStreamChatHistoryStoreTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private RedisStreamChatHistoryStore store;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setup() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+        store = new RedisStreamChatHistoryStore(redisTemplate, 1000);
+    }
+
+    @Test
+    void shouldReplayOnlyMessagesAfterLastSeenId() {
+        String first = store.append("room1", message("one")).id();
+        store.append("room1", message("two"));
+        store.append("room1", message("three"));
+
+        List<HistoryEntry> missed = store.readAfter("room1", first, 10);
+
+        assertEquals(List.of(json("two"), json("three")), missed.stream().map(HistoryEntry::message).toList());
+    }
+
+    @Test
+    void shouldPageBackwardsByStreamId() {
+        for (int i = 1; i <= 5; i++) {
+            store.append("room1", message("m" + i));
+        }
+
+        List<HistoryEntry> latest = store.readBefore("room1", null, 2);
+        List<HistoryEntry> previous = store.readBefore("room1", latest.get(1).id(), 2);
+
+        assertEquals(List.of(json("m5"), json("m4")), latest.stream().map(HistoryEntry::message).toList());
+        assertEquals(List.of(json("m3"), json("m2")), previous.stream().map(HistoryEntry::message).toList());
+    }
+
+    @Test
+    void shouldRejectIdsThatAreNotStreamIds() {
+        store.append("room1", message("one"));
+
+        assertThrows(IllegalArgumentException.class, () -> store.readAfter("room1", "not-an-id", 10));
+        assertThrows(IllegalArgumentException.class, () -> store.readBefore("room1", "+", 10));
+    }
+
+    @Test
+    void shouldKeepRoomsSeparateAndEmptyRoomsEmpty() {
+        store.append("room1", message("hello"));
+
+        assertTrue(store.readAfter("room2", null, 10).isEmpty());
+        assertEquals(1, store.readBefore("room1", null, 10).size());
+    }
+
+    @Test
+    void shouldTrimStreamToRoughlyMaxLength() {
+        RedisStreamChatHistoryStore small = new RedisStreamChatHistoryStore(redisTemplate, 10);
+        for (int i = 0; i < 500; i++) {
+            small.append("busy", message("m" + i));
+        }
+
+        // MAXLEN ~ trims whole radix tree nodes, so the stream may keep somewhat more than asked for
+        long length = redisTemplate.opsForStream().size("chat:history:busy");
+        assertTrue(length < 500, "Stream should have been trimmed but has " + length + " entries");
+    }
+
+    @Test
+    void shouldNumberEachRoomFromOneInStreamOrder() {
+        HistoryPosition first = store.append("room1", message("one"));
+        HistoryPosition second = store.append("room1", message("two"));
+        HistoryPosition other = store.append("room2", message("elsewhere"));
+
+        assertEquals(List.of(1L, 2L, 1L), List.of(first.sequence(), second.sequence(), other.sequence()));
+        assertEquals("redis", first.origin());
+        assertEquals(store.origin(), first.origin());
+        assertEquals(List.of(1L, 2L), store.readAfter("room1", null, 10).stream().map(HistoryEntry::seq).toList());
+        assertEquals(second.id(), store.readBefore("room1", null, 1).get(0).id());
+    }
+
+    private static byte[] message(String content) {
+        return json(content).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String json(String content) {
+        return "{\"sender\":\"alice\",\"content\":\"" + content + "\"}";
+    }
+}
@@ -0,0 +1,152 @@
+package org.sigar.chat.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.core.ChatEnvelope;
+import org.sigar.chat.core.ChatMessageBroadcaster;
+import org.sigar.chat.core.RoomSubscriptionTracker;
+import org.sigar.chat.history.HistoryPosition;
+import org.sigar.chat.history.InMemoryChatHistoryStore;
+import org.sigar.chat.pipeline.ChatMetrics;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class HttpRoomDeliveryTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ExecutorSubscribableChannel brokerChannel;
+    private SimpMessagingTemplate template;
+    private RoomSubscriptionTracker tracker;
+    private InMemoryChatHistoryStore history;
+    private HttpRoomDelivery delivery;
+
+    @BeforeEach
+    void setup() {
+        brokerChannel = new ExecutorSubscribableChannel();
+        template = new SimpMessagingTemplate(brokerChannel);
+        tracker = mock(RoomSubscriptionTracker.class);
+        history = new InMemoryChatHistoryStore(100);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        delivery = new HttpRoomDelivery(brokerChannel, tracker, history, objectMapper, registry, new ChatMetrics(registry, "http"),
+                60_000, 60_000, 3_600_000, 0, 2, 500);
+        delivery.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        delivery.stop();
+    }
+
+    @Test
+    void shouldAnswerEveryParkedPollWithOneSharedBatch() throws Exception {
+        List<DeferredResult<ResponseEntity<byte[]>>> polls = List.of(
+                delivery.poll("r1", null), delivery.poll("r1", null), delivery.poll("r1", null));
+        assertTrue(polls.stream().noneMatch(DeferredResult::hasResult), "Polls without after should wait");
+
+        publish("r1", "hello");
+        await(() -> polls.stream().allMatch(DeferredResult::hasResult));
+
+        byte[] body = body(polls.get(0));
+        polls.forEach(poll -> assertSame(body, body(poll), "The batch should be encoded once for all polls"));
+        JsonNode batch = objectMapper.readTree(body);
+        assertEquals(1, batch.size());
+        assertEquals("hello", batch.get(0).get("message").get("content").asText());
+        assertEquals(1, batch.get(0).get("seq").asLong());
+        verify(tracker).retain("r1");
+    }
+
+    @Test
+    void shouldCatchUpFromHistoryBeforeWaiting() throws Exception {
+        HistoryPosition first = publish("r1", "one");
+        HistoryPosition second = publish("r1", "two");
+
+        DeferredResult<ResponseEntity<byte[]>> behind = delivery.poll("r1", first.id());
+        assertTrue(behind.hasResult(), "Missed messages should be answered without waiting");
+        JsonNode missed = objectMapper.readTree(body(behind));
+        assertEquals(1, missed.size());
+        assertEquals(second.id(), missed.get(0).get("id").asText());
+
+        DeferredResult<ResponseEntity<byte[]>> current = delivery.poll("r1", second.id());
+        assertFalse(current.hasResult());
+        HistoryPosition third = publish("r1", "three");
+        await(current::hasResult);
+        assertEquals(third.id(), objectMapper.readTree(body(current)).get(0).get("id").asText());
+
+        DeferredResult<ResponseEntity<byte[]>> unknown = delivery.poll("r1", "not-an-id");
+        assertEquals(400, ((ResponseEntity<?>) unknown.getResult()).getStatusCode().value());
+    }
+
+    @Test
+    void shouldOnlyDeliverRoomMessagesFromTheBroadcaster() throws Exception {
+        DeferredResult<ResponseEntity<byte[]>> poll = delivery.poll("r1", null);
+        publish("r2", "other room");
+        Message<byte[]> clientSend = MessageBuilder.withPayload("{\"content\":\"spoofed\"}".getBytes(StandardCharsets.UTF_8))
+                .setHeader(SimpMessageHeaderAccessor.DESTINATION_HEADER, "/topic/messages/r1")
+                .setHeader(SimpMessageHeaderAccessor.MESSAGE_TYPE_HEADER, SimpMessageType.MESSAGE)
+                .setHeader(SimpMessageHeaderAccessor.SESSION_ID_HEADER, "s1")
+                .build();
+        brokerChannel.send(clientSend);
+        publish("r1", "genuine");
+
+        await(poll::hasResult);
+        JsonNode batch = objectMapper.readTree(body(poll));
+        assertEquals(1, batch.size());
+        assertEquals("genuine", batch.get(0).get("message").get("content").asText());
+    }
+
+    @Test
+    void shouldReleaseARoomOnlyAfterItHasHadNoClientsForAWhile() throws Exception {
+        DeferredResult<ResponseEntity<byte[]>> poll = delivery.poll("r1", null);
+        delivery.sweep();
+        verify(tracker, times(0)).release("r1");
+
+        publish("r1", "answered");
+        await(poll::hasResult);
+        delivery.sweep();
+        delivery.sweep();
+        verify(tracker).release("r1");
+
+        delivery.poll("r1", null);
+        verify(tracker, times(2)).retain("r1");
+    }
+
+    // What ChatController and the channel do for a message on this node
+    private HistoryPosition publish(String room, String content) {
+        byte[] json = ("{\"sender\":\"it\",\"content\":\"" + content + "\"}").getBytes(StandardCharsets.UTF_8);
+        HistoryPosition position = history.append(room, json);
+        ChatMessageBroadcaster.broadcastMessageToSubscribers(template, room, ChatEnvelope.wrap(position, json));
+        return position;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] body(DeferredResult<ResponseEntity<byte[]>> poll) {
+        return ((ResponseEntity<byte[]>) poll.getResult()).getBody();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean(), "Timed out waiting for delivery");
+    }
+}
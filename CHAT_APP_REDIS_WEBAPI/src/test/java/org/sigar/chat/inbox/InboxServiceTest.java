@@ -0,0 +1,101 @@
+package org.sigar.chat.inbox;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class InboxServiceTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private SimpMessagingTemplate messagingTemplate;
+    private SimpleMeterRegistry registry;
+    private InboxService inbox;
+
+    @BeforeEach
+    void setup() {
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        registry = new SimpleMeterRegistry();
+        InMemoryInboxStore store = new InMemoryInboxStore(100, Duration.ofMinutes(10), clock::get);
+        inbox = new InboxService(store, mock(CommunicationChannel.class), messagingTemplate, registry, 2);
+    }
+
+    @Test
+    void shouldKeepMessagesForUsersWhoAreNotSubscribed() {
+        inbox.deliver("bob", message("one"));
+        inbox.deliver("bob", message("two"));
+        inbox.deliver("bob", message("three"));
+
+        verifyNoInteractions(messagingTemplate);
+        InboxPage page = inbox.page("bob");
+        assertEquals(2, page.entries().size());
+        assertTrue(page.more());
+        assertEquals(3, registry.get("chat.inbox.appended").counter().count());
+    }
+
+    @Test
+    void shouldPushToSubscribersUntilTheirSessionsLeave() {
+        inbox.subscribed("s1", "sub-0", "/queue/inbox/bob");
+        inbox.deliver("bob", message("one"));
+        verify(messagingTemplate).convertAndSend(eq("/queue/inbox/bob"), any(InboxPage.class));
+
+        inbox.disconnected("s1");
+        inbox.deliver("bob", message("two"));
+        verifyNoMoreInteractions(messagingTemplate);
+    }
+
+    @Test
+    void shouldPushTheNextPageOnAcknowledge() {
+        String first = inbox.deliver("bob", message("one"));
+        inbox.deliver("bob", message("two"));
+        String third = inbox.deliver("bob", message("three"));
+
+        inbox.acknowledge("bob", inbox.page("bob").entries().get(1).id());
+        ArgumentCaptor<InboxPage> pushed = ArgumentCaptor.forClass(InboxPage.class);
+        verify(messagingTemplate).convertAndSend(eq("/queue/inbox/bob"), pushed.capture());
+        assertEquals(third, pushed.getValue().entries().get(0).id());
+        assertFalse(pushed.getValue().more());
+
+        // An earlier id leaves "three" pending and pushed again; an emptied inbox is not pushed
+        inbox.acknowledge("bob", first);
+        inbox.acknowledge("bob", third);
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/queue/inbox/bob"), any(InboxPage.class));
+        assertTrue(inbox.page("bob").entries().isEmpty());
+    }
+
+    @Test
+    void shouldExpireMessagesAfterTheTtl() {
+        inbox.deliver("bob", message("old"));
+        clock.addAndGet(Duration.ofMinutes(11).toMillis());
+        inbox.deliver("bob", message("new"));
+
+        InboxPage page = inbox.page("bob");
+        assertEquals(1, page.entries().size());
+        assertTrue(page.entries().get(0).message().contains("new"));
+    }
+
+    @Test
+    void shouldRefuseANodeLocalStoreOnADistributedChannel() {
+        CommunicationChannel channel = mock(CommunicationChannel.class);
+        when(channel.isDistributed()).thenReturn(true);
+        InboxService distributed = new InboxService(new InMemoryInboxStore(100, Duration.ofMinutes(10)), channel,
+                messagingTemplate, registry, 2);
+
+        assertThrows(IllegalStateException.class, distributed::start);
+        verify(channel, never()).receiveMessage(any(), any());
+    }
+
+    private static byte[] message(String content) {
+        return ("{\"sender\":\"s\",\"content\":\"" + content + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+}
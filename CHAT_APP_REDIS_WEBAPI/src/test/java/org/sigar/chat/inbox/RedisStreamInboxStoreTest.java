@@ -0,0 +1,154 @@
+package org.sigar.chat.inbox;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sigar.chat.shm.ShmCommunicationChannel;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class RedisStreamInboxStoreTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private final AtomicLong clock = new AtomicLong();
+    private RedisStreamInboxStore store;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setup() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+        clock.set(System.currentTimeMillis());
+        store = new RedisStreamInboxStore(redisTemplate, 1000, Duration.ofHours(1), clock::get);
+    }
+
+    @Test
+    void shouldKeepMessagesPendingUntilAcknowledged() {
+        String first = store.append("bob", message("one"));
+        String second = store.append("bob", message("two"));
+        store.append("bob", message("three"));
+        store.append("alice", message("other"));
+
+        assertEquals(List.of("one", "two"), contents(store.pending("bob", 2)));
+        assertEquals(first, store.pending("bob", 2).get(0).id());
+
+        store.acknowledge("bob", second);
+        assertEquals(List.of("three"), contents(store.pending("bob", 10)));
+        assertEquals(List.of("other"), contents(store.pending("alice", 10)));
+    }
+
+    @Test
+    void shouldNeverMoveTheCursorBack() {
+        String first = store.append("bob", message("one"));
+        String second = store.append("bob", message("two"));
+        store.append("bob", message("three"));
+
+        store.acknowledge("bob", second);
+        store.acknowledge("bob", first);
+
+        assertEquals(List.of("three"), contents(store.pending("bob", 10)));
+        assertThrows(IllegalArgumentException.class, () -> store.acknowledge("bob", "not-an-id"));
+    }
+
+    @Test
+    void shouldKeepAUserNamedLikeACursorApartFromThatCursor() {
+        String first = store.append("bob", message("one"));
+        store.append("bob", message("two"));
+        store.acknowledge("bob", first);
+
+        store.append("cursor:bob", message("hello"));
+
+        assertEquals(List.of("two"), contents(store.pending("bob", 10)));
+        assertEquals(List.of("hello"), contents(store.pending("cursor:bob", 10)));
+    }
+
+    @Test
+    void shouldDropMessagesOlderThanTheTtl() {
+        store.append("bob", message("old"));
+        clock.addAndGet(Duration.ofMinutes(61).toMillis());
+
+        assertTrue(store.pending("bob", 10).isEmpty());
+        Long ttl = redisTemplate.getExpire("chat:inbox:bob");
+        assertTrue(ttl != null && ttl > 0 && ttl <= 3600, "inbox key should expire with the ttl, was " + ttl);
+    }
+
+    @Test
+    void shouldDeliverToAUserConnectedToAnotherNode(@TempDir Path directory) {
+        // Two nodes on the shm channel sharing this store; node B connects last, so it reads A's ring from the start
+        ShmCommunicationChannel channelA = new ShmCommunicationChannel(directory, "node-a", 1 << 16, Duration.ofMillis(20), Duration.ofMillis(1));
+        ShmCommunicationChannel channelB = new ShmCommunicationChannel(directory, "node-b", 1 << 16, Duration.ofMillis(20), Duration.ofMillis(1));
+        SimpMessagingTemplate templateA = mock(SimpMessagingTemplate.class);
+        SimpMessagingTemplate templateB = mock(SimpMessagingTemplate.class);
+        InboxService nodeA = new InboxService(store, channelA, templateA, new SimpleMeterRegistry(), 100);
+        InboxService nodeB = new InboxService(store, channelB, templateB, new SimpleMeterRegistry(), 100);
+        channelA.connect();
+        channelB.connect();
+        try {
+            nodeA.start();
+            nodeB.start();
+            nodeB.subscribed("s1", "sub-0", "/queue/inbox/bob");
+
+            String id = nodeA.deliver("bob", message("hello"));
+
+            verify(templateB, timeout(5000)).convertAndSend(eq("/queue/inbox/bob"), any(InboxPage.class));
+            verifyNoInteractions(templateA);
+            assertEquals(id, nodeB.page("bob").entries().get(0).id());
+        } finally {
+            nodeA.stop();
+            nodeB.stop();
+            channelA.disconnect();
+            channelB.disconnect();
+        }
+    }
+
+    private static byte[] message(String content) {
+        return ("{\"sender\":\"s\",\"content\":\"" + content + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> contents(List<InboxEntry> entries) {
+        return entries.stream()
+                .map(entry -> entry.message().replaceAll(".*\"content\":\"([^\"]*)\".*", "$1"))
+                .toList();
+    }
+}
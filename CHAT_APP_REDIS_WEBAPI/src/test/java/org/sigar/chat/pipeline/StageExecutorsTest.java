@@ -0,0 +1,121 @@
+package org.sigar.chat.pipeline;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StageExecutorsTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setup() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void shouldMeterPooledStage() throws InterruptedException {
+        StageExecutors executors = new StageExecutors(registry, ThreadMode.PLATFORM);
+        ThreadPoolTaskExecutor pool = (ThreadPoolTaskExecutor) executors.executor(PipelineStage.INBOUND, 1, 10);
+        pool.initialize();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(2);
+            AtomicReference<String> threadName = new AtomicReference<>();
+            pool.execute(() -> {
+                threadName.set(Thread.currentThread().getName());
+                started.countDown();
+                await(release);
+                done.countDown();
+            });
+            pool.execute(done::countDown);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertEquals(1, gauge("chat.pipeline.queued", "inbound"));
+            assertEquals(1, gauge("chat.pipeline.active", "inbound"));
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            assertTrue(threadName.get().startsWith("chat-inbound-"), threadName.get());
+            assertEquals(0, gauge("chat.pipeline.queued", "inbound"));
+            assertEquals(2, registry.get("chat.pipeline.wait").tag("stage", "inbound").timer().count());
+            waitUntilRun(2);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRefuseTasksOnceQueueIsFull() {
+        StageExecutors executors = new StageExecutors(registry, ThreadMode.PLATFORM);
+        ThreadPoolTaskExecutor pool = (ThreadPoolTaskExecutor) executors.executor(PipelineStage.OUTBOUND, 1, 1);
+        pool.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.execute(() -> await(release));
+            pool.execute(() -> { });
+            assertThrows(TaskRejectedException.class, () -> pool.execute(() -> { }));
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void shouldUseVirtualThreadsWhereTheJvmHasThem() throws InterruptedException {
+        StageExecutors executors = new StageExecutors(registry, ThreadMode.VIRTUAL);
+        assertEquals(VirtualThreads.isSupported() ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM, executors.mode());
+
+        TaskExecutor executor = executors.executor(PipelineStage.REDIS_LISTENER, 1, 10);
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            pool.initialize();
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> threadName = new AtomicReference<>();
+        executor.execute(() -> {
+            threadName.set(Thread.currentThread().getName());
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        }
+        assertTrue(threadName.get().startsWith("chat-redis-listener-"), threadName.get());
+        assertEquals(1, registry.get("chat.pipeline.wait").tag("stage", "redis-listener")
+                .tag("threads", executors.mode().name().toLowerCase()).timer().count());
+
+        Thread dispatcher = executors.threadFactory("room-dispatch-0").newThread(() -> { });
+        assertTrue(dispatcher.getName().startsWith("room-dispatch-0"), dispatcher.getName());
+    }
+
+    private double gauge(String name, String stage) {
+        return registry.get(name).tag("stage", stage).gauge().value();
+    }
+
+    // The run timer is recorded after the task itself finished, so it may trail the latch slightly
+    private void waitUntilRun(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("chat.pipeline.run").tag("stage", "inbound").timer().count() < count) {
+            assertTrue(System.nanoTime() < deadline, "run timer never reached " + count);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
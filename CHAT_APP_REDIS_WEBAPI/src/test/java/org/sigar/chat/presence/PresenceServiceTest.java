@@ -0,0 +1,226 @@
+package org.sigar.chat.presence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sigar.chat.channel.CommunicationChannel;
+import org.sigar.chat.channel.MessageHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceServiceTest {
+    private static final long TTL = 30_000;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final List<PresenceService> started = new ArrayList<>();
+    private Bus bus;
+
+    @BeforeEach
+    void setup() {
+        bus = new Bus();
+    }
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(PresenceService::stop);
+    }
+
+    @Test
+    void shouldListUsersWithAHeartbeatByRoom() {
+        PresenceService presence = start(bus.node());
+        presence.heartbeat("r1", "bob", "s1");
+        presence.heartbeat("r1", "alice", "s2");
+        presence.heartbeat("r2", "alice", "s2");
+
+        assertEquals(new OnlineUsers("r1", 2, List.of("alice", "bob")), presence.online("r1"));
+        assertEquals(List.of("alice"), presence.online("r2").users());
+        assertEquals(0, presence.online("r3").count());
+    }
+
+    @Test
+    void shouldExpireUsersThatStopSendingHeartbeats() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PresenceService presence = start(bus.node(), registry);
+        presence.heartbeat("r1", "alice", "s1");
+        presence.heartbeat("r1", "bob", "s2");
+
+        clock.addAndGet(TTL / 2);
+        presence.heartbeat("r1", "bob", "s2");
+        clock.addAndGet(TTL / 2);
+        presence.tick();
+        assertEquals(List.of("bob"), presence.online("r1").users());
+
+        clock.addAndGet(TTL);
+        presence.tick();
+        assertEquals(0, presence.online("r1").count());
+        assertEquals(0, registry.get("chat.presence.rooms").gauge().value(), "Empty rooms should be dropped");
+    }
+
+    @Test
+    void shouldForgetUserNamesOnceNoRoomHoldsThem() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PresenceService presence = start(bus.node(), registry);
+        for (int i = 0; i < 100; i++) {
+            presence.heartbeat("r1", "guest-" + i, "s" + i);
+            presence.disconnected("s" + i);
+        }
+        presence.heartbeat("r1", "alice", "s-alice");
+        assertEquals(101, registry.get("chat.presence.users").gauge().value());
+
+        presence.tick();
+        assertEquals(1, registry.get("chat.presence.users").gauge().value(), "Only alice is still in a room");
+        // Freed ids are reused from the sweep after next, and never rename alice
+        presence.tick();
+        presence.heartbeat("r2", "bob", "s-bob");
+        assertEquals(List.of("alice"), presence.online("r1").users());
+        assertEquals(List.of("bob"), presence.online("r2").users());
+    }
+
+    @Test
+    void shouldKeepAUserOnlineUntilTheirLastSessionDisconnects() {
+        PresenceService presence = start(bus.node());
+        presence.heartbeat("r1", "alice", "s1");
+        presence.heartbeat("r1", "alice", "s2");
+
+        presence.disconnected("s1");
+        assertEquals(List.of("alice"), presence.online("r1").users());
+        presence.disconnected("s2");
+        presence.disconnected("s2");
+        assertEquals(0, presence.online("r1").count());
+    }
+
+    @Test
+    void shouldMergeOtherNodesUsersThroughTheChannel() {
+        PresenceService first = start(bus.node());
+        PresenceService second = start(bus.node());
+        first.heartbeat("r1", "alice", "s1");
+        second.heartbeat("r1", "bob", "s2");
+        first.tick();
+        second.tick();
+
+        assertEquals(List.of("alice", "bob"), first.online("r1").users());
+        assertEquals(List.of("alice", "bob"), second.online("r1").users());
+
+        first.disconnected("s1");
+        first.tick();
+        assertEquals(List.of("bob"), second.online("r1").users(), "A node whose users left should say so on its next tick");
+
+        // A node that goes quiet without saying goodbye drops out after the ttl it announced
+        first.heartbeat("r1", "alice", "s3");
+        first.tick();
+        assertEquals(List.of("alice", "bob"), second.online("r1").users());
+        clock.addAndGet(TTL / 2);
+        second.heartbeat("r1", "bob", "s2");
+        clock.addAndGet(TTL / 2);
+        second.tick();
+        assertEquals(List.of("bob"), second.online("r1").users());
+    }
+
+    @Test
+    void shouldCoalesceHeartbeatsIntoOneUpdatePerTick() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Bus.Node node = bus.node();
+        PresenceService presence = start(node, registry);
+        for (int i = 0; i < 100; i++) {
+            presence.heartbeat("r" + i % 10, "user-" + i, "s" + i);
+        }
+        presence.tick();
+        assertEquals(1, node.sent.size());
+        assertEquals(1, registry.get("chat.presence.published").counter().count());
+
+        presence.heartbeat("r0", "user-0", "s0");
+        presence.tick();
+        assertEquals(1, node.sent.size(), "Heartbeats that change nothing should not be sent");
+
+        clock.addAndGet(TTL / 3);
+        presence.tick();
+        assertEquals(2, node.sent.size(), "Users should be re-sent before peers expire them");
+
+        PresenceService local = start(new Bus().node(false));
+        local.heartbeat("r1", "alice", "s1");
+        local.tick();
+        assertEquals(List.of("alice"), local.online("r1").users());
+    }
+
+    private PresenceService start(CommunicationChannel channel) {
+        return start(channel, new SimpleMeterRegistry());
+    }
+
+    private PresenceService start(CommunicationChannel channel, SimpleMeterRegistry registry) {
+        // Ticks are driven by the tests
+        PresenceService presence = new PresenceService(channel, new ObjectMapper(), registry, TTL, 3_600_000, clock::get);
+        presence.start();
+        started.add(presence);
+        return presence;
+    }
+
+    /**
+     * Delivers every message to every node, the sender included, like the Redis channel does.
+     */
+    private static final class Bus {
+        private final List<Node> nodes = new CopyOnWriteArrayList<>();
+
+        Node node() {
+            return node(true);
+        }
+
+        Node node(boolean distributed) {
+            Node node = new Node(distributed);
+            nodes.add(node);
+            return node;
+        }
+
+        private final class Node implements CommunicationChannel {
+            private final boolean distributed;
+            private final Map<String, MessageHandler> handlers = new ConcurrentHashMap<>();
+            private final List<byte[]> sent = new CopyOnWriteArrayList<>();
+
+            private Node(boolean distributed) {
+                this.distributed = distributed;
+            }
+
+            @Override
+            public void connect() {
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public void sendMessage(String destination, byte[] message) {
+                sent.add(message);
+                for (Node node : nodes) {
+                    MessageHandler handler = node.handlers.get(destination);
+                    if (handler != null) {
+                        handler.handleMessage(destination, message);
+                    }
+                }
+            }
+
+            @Override
+            public void receiveMessage(String source, MessageHandler messageHandler) {
+                handlers.put(source, messageHandler);
+            }
+
+            @Override
+            public void stopReceiving(String source) {
+                handlers.remove(source);
+            }
+
+            @Override
+            public boolean isDistributed() {
+                return distributed;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.sigar.chat.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class RateLimitInterceptorTest {
+
+    private final AtomicLong clock = new AtomicLong(-TimeUnit.SECONDS.toNanos(100));
+    private SimpMessageSendingOperations messagingTemplate;
+    private SimpleMeterRegistry registry;
+    private RateLimitInterceptor interceptor;
+
+    @BeforeEach
+    void setup() {
+        messagingTemplate = mock(SimpMessageSendingOperations.class);
+        registry = new SimpleMeterRegistry();
+        // 2 per second and 3 back to back per session, 10 per second and 5 back to back per room
+        interceptor = new RateLimitInterceptor(new LocalRoomRateLimiter(10, 5), () -> messagingTemplate,
+                registry, 2, 3, clock::get);
+    }
+
+    @Test
+    void shouldAcceptBurstThenRejectSessionAndTellSenderOnce() {
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(send("s1", "/app/lobby/sendMessage"));
+        }
+        assertNull(send("s1", "/app/lobby/sendMessage"));
+        assertNull(send("s1", "/app/lobby/sendMessage"));
+
+        ArgumentCaptor<RateLimitRejection> rejection = ArgumentCaptor.forClass(RateLimitRejection.class);
+        verify(messagingTemplate, times(1)).convertAndSendToUser(eq("s1"), eq(RateLimitInterceptor.REJECTIONS_DESTINATION),
+                rejection.capture(), any(MessageHeaders.class));
+        assertEquals(new RateLimitRejection("/app/lobby/sendMessage", RateLimitInterceptor.SESSION_LIMIT, 500), rejection.getValue());
+        assertEquals(2, registry.counter("chat.ratelimit.rejected", "limit", "session").count());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertNotNull(send("s1", "/app/lobby/sendMessage"));
+        assertNull(send("s1", "/app/lobby/sendMessage"));
+        verify(messagingTemplate, times(2)).convertAndSendToUser(eq("s1"), any(), any(), any(MessageHeaders.class));
+    }
+
+    @Test
+    void shouldShareRoomBudgetAcrossSessions() {
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(send("s" + i, "/app/lobby/sendMessage"));
+        }
+        assertNull(send("s5", "/app/lobby/sendMessage"));
+        assertNotNull(send("s5", "/app/other/sendMessage"));
+        assertEquals(1, registry.counter("chat.ratelimit.rejected", "limit", "room").count());
+    }
+
+    @Test
+    void shouldLimitDirectMessagesBySessionOnly() {
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(send("s1", "/app/direct/bob"));
+        }
+        assertNull(send("s1", "/app/direct/bob"));
+        assertNotNull(send("s2", "/app/direct/bob"));
+    }
+
+    @Test
+    void shouldNotLimitOtherDestinationsAndForgetDisconnectedSessions() {
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(send("s1", "/app/lobby/heartbeat"));
+            assertNotNull(send("s1", "/app/inbox/bob/ack"));
+        }
+        send("s1", "/app/lobby/sendMessage");
+        assertEquals(1, interceptor.sessionCount());
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        accessor.setSessionId("s1");
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+        assertEquals(0, interceptor.sessionCount());
+        verifyNoInteractions(messagingTemplate);
+    }
+
+    @Test
+    void shouldFindRoomInSendDestination() {
+        assertEquals("lobby", RateLimitInterceptor.roomOf("/app/lobby/sendMessage"));
+        assertNull(RateLimitInterceptor.roomOf("/app/lobby/heartbeat"));
+        assertNull(RateLimitInterceptor.roomOf("/app//sendMessage"));
+        assertNull(RateLimitInterceptor.roomOf("/app/a/b/sendMessage"));
+        assertNull(RateLimitInterceptor.roomOf(null));
+    }
+
+    private Message<?> send(String sessionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        return interceptor.preSend(MessageBuilder.createMessage("{}".getBytes(), accessor.getMessageHeaders()), null);
+    }
+}
@@ -0,0 +1,156 @@
+package org.sigar.chat.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class RedisRoomRateLimiterTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private SimpleMeterRegistry registry;
+    private RedisRoomRateLimiter first;
+    private RedisRoomRateLimiter second;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setup() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+        registry = new SimpleMeterRegistry();
+        // One message a minute sustained, so only the burst of 40 is available during the test
+        first = new RedisRoomRateLimiter(redisTemplate, registry, 1.0 / 60, 40, 10, 60_000);
+        second = new RedisRoomRateLimiter(redisTemplate, registry, 1.0 / 60, 40, 10, 60_000);
+    }
+
+    @AfterEach
+    void stop() {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    void shouldShareRoomBudgetBetweenNodes() throws InterruptedException {
+        // Leases arrive in the background, so keep sending until Redis tells both nodes the room is spent
+        int accepted = 0;
+        long[] waits = new long[2];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (waits[0] < TimeUnit.SECONDS.toNanos(50) || waits[1] < TimeUnit.SECONDS.toNanos(50)) {
+            assertTrue(System.nanoTime() - deadline < 0, "accepted " + accepted + " before timing out");
+            for (int i = 0; i < 10; i++) {
+                waits[i % 2] = (i % 2 == 0 ? first : second).tryAcquire("lobby", System.nanoTime());
+                if (waits[i % 2] == 0) {
+                    accepted++;
+                }
+            }
+            Thread.sleep(5);
+        }
+        // Provisional tokens are paid back out of the leases; one Redis refused may still be owed per node
+        assertTrue(accepted >= 40 && accepted <= 42, "accepted " + accepted);
+        assertEquals(0, second.tryAcquire("other", System.nanoTime()));
+        assertEquals(0, registry.counter("chat.ratelimit.redis.fallbacks").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldNeverCallRedisFromTheInboundThread() throws InterruptedException {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        Set<Thread> callers = ConcurrentHashMap.newKeySet();
+        CountDownLatch redisAnswers = new CountDownLatch(1);
+        when(template.execute(any(RedisCallback.class))).thenAnswer(invocation -> {
+            callers.add(Thread.currentThread());
+            redisAnswers.await();
+            return List.of(10L, 0L);
+        });
+        // Leases expire after a millisecond, so the dry and the expired paths both come up
+        RedisRoomRateLimiter limiter = new RedisRoomRateLimiter(template, registry, 1000, 40, 10, 1);
+        try {
+            // Redis has not answered yet: the first message goes through on credit, the next one waits
+            assertEquals(0, limiter.tryAcquire("lobby", System.nanoTime()));
+            assertTrue(limiter.tryAcquire("lobby", System.nanoTime()) > 0);
+            redisAnswers.countDown();
+            await(() -> limiter.tryAcquire("lobby", System.nanoTime()) == 0);
+            for (int i = 0; i < 200; i++) {
+                limiter.tryAcquire("lobby", System.nanoTime());
+                limiter.tryAcquire("room-" + i, System.nanoTime());
+                if (i % 20 == 0) {
+                    Thread.sleep(2);
+                }
+            }
+        } finally {
+            limiter.stop();
+        }
+        assertFalse(callers.isEmpty());
+        assertFalse(callers.contains(Thread.currentThread()), "Redis was called from the inbound thread");
+    }
+
+    @Test
+    void shouldFallBackToLocalBucketWithoutRedis() throws InterruptedException {
+        LettuceConnectionFactory unreachable = new LettuceConnectionFactory("localhost", 1);
+        unreachable.afterPropertiesSet();
+        RedisRoomRateLimiter limiter = new RedisRoomRateLimiter(new StringRedisTemplate(unreachable), registry, 1.0 / 60, 3, 10, 60_000);
+        try {
+            // Redis is only found missing by the refill the first message starts
+            assertEquals(0, limiter.tryAcquire("lobby", System.nanoTime()));
+            await(limiter::degraded);
+            assertEquals(0, limiter.tryAcquire("lobby", System.nanoTime()));
+            assertEquals(0, limiter.tryAcquire("lobby", System.nanoTime()));
+            assertEquals(0, limiter.tryAcquire("lobby", System.nanoTime()));
+            assertTrue(limiter.tryAcquire("lobby", System.nanoTime()) > 0);
+            assertEquals(4, registry.counter("chat.ratelimit.redis.fallbacks").count());
+        } finally {
+            limiter.stop();
+            unreachable.destroy();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.sigar.chat.redis;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisPublisherTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Test
+    void shouldPublishEveryMessageInOrder() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        StatefulRedisPubSubConnection<String, String> subscriber =
+                ((RedisClient) connectionFactory.getRequiredNativeClient()).connectPubSub(StringCodec.UTF8);
+        subscriber.addListener(new RedisPubSubAdapter<>() {
+            @Override
+            public void message(String channel, String message) {
+                received.add(message);
+            }
+        });
+        subscriber.sync().subscribe("room1");
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisPublisher publisher = new RedisPublisher(connectionFactory, registry, 1000, 16, PublishOverflowPolicy.BLOCK, 50, 2000);
+        publisher.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                publisher.publish("room1", ("m" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (received.size() < 200 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            publisher.stop();
+            subscriber.close();
+        }
+
+        assertEquals(200, received.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("m" + i, received.get(i));
+        }
+        assertEquals(200, registry.get("chat.redis.publish.latency").timer().count());
+        assertTrue(registry.get("chat.redis.publish.batch.size").summary().max() <= 16, "Batches should respect max-batch-size");
+    }
+
+    @Test
+    void shouldDropNewestWhenQueueIsFull() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Not started, so nothing drains the queue
+        RedisPublisher publisher = new RedisPublisher(connectionFactory, registry, 2, 16, PublishOverflowPolicy.DROP_NEWEST, 0, 2000);
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publish("room1", new byte[]{(byte) i});
+        }
+
+        assertEquals(2, publisher.queued());
+        assertEquals(3.0, registry.get("chat.redis.publish.dropped").counter().count());
+    }
+
+    @Test
+    void shouldRejectWhenConfiguredTo() {
+        RedisPublisher publisher = new RedisPublisher(connectionFactory, new SimpleMeterRegistry(), 1, 16, PublishOverflowPolicy.REJECT, 0, 2000);
+
+        publisher.publish("room1", new byte[]{1});
+
+        assertThrows(IllegalStateException.class, () -> publisher.publish("room1", new byte[]{2}));
+    }
+}
@@ -0,0 +1,107 @@
+package org.sigar.chat.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sigar.chat.history.HistoryEntry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+    private static final int FLUSH_DOCUMENTS = 4;
+    private static final int MERGE_FACTOR = 3;
+
+    @TempDir
+    Path directory;
+
+    private SearchIndex index;
+    private long sequence;
+
+    @BeforeEach
+    void setup() throws IOException {
+        index = new SearchIndex(directory, FLUSH_DOCUMENTS, MERGE_FACTOR);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    void shouldFindTermsAndPrefixesWithinARoom() {
+        add("r1", "Deploy failed on node 3");
+        add("r1", "deploy finished");
+        add("r1", "Failure: DEPLOY again");
+        add("r2", "deploy failed in another room");
+
+        assertEquals(List.of(3L, 1L), seqs("r1", "fail*"));
+        assertEquals(List.of(3L, 1L), seqs("r1", "deploy fail*"));
+        assertEquals(List.of(2L), seqs("r1", "finished"));
+        assertEquals(List.of(), seqs("r1", "fin"));
+        assertEquals(List.of(4L), seqs("r2", "deploy"));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parse(" * !"));
+    }
+
+    @Test
+    void shouldReturnNewestFirstAcrossMemoryAndSegments() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            add("r1", "message number " + i);
+            if (index.isFull()) {
+                index.flush();
+            }
+        }
+        assertEquals(2, index.segmentCount());
+
+        assertEquals(List.of(10L, 9L, 8L, 7L, 6L), seqs("r1", "message", 5));
+        assertEquals(List.of(4L), seqs("r1", "3"));
+        HistoryEntry hit = index.search("r1", SearchQuery.parse("3"), 1).get(0);
+        assertEquals("4-0", hit.id());
+        assertTrue(hit.message().contains("message number 3"));
+    }
+
+    @Test
+    void shouldMergeSegmentsAndKeepThemAcrossRestarts() throws IOException {
+        for (int i = 0; i < 3 * FLUSH_DOCUMENTS; i++) {
+            add(i % 2 == 0 ? "even" : "odd", "item " + i + (i % 3 == 0 ? " fizz" : ""));
+            if (index.isFull()) {
+                index.flush();
+            }
+        }
+        assertEquals(3, index.segmentCount());
+        assertTrue(index.merge());
+        assertFalse(index.merge());
+        assertEquals(1, index.segmentCount());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".idx")).count());
+        }
+        List<Long> fizz = seqs("even", "fizz");
+        assertEquals(List.of(7L, 1L), fizz);
+
+        index.close();
+        index = new SearchIndex(directory, FLUSH_DOCUMENTS, MERGE_FACTOR);
+        assertEquals(1, index.segmentCount());
+        assertEquals(fizz, seqs("even", "fizz"));
+        assertEquals(List.of(12L, 10L, 8L, 6L, 4L, 2L), seqs("odd", "item"));
+    }
+
+    private void add(String room, String content) {
+        sequence++;
+        String message = "{\"sender\":\"s\",\"content\":\"" + content + "\"}";
+        index.add(room, new HistoryEntry(sequence + "-0", sequence, message), Tokenizer.terms(content));
+    }
+
+    private List<Long> seqs(String room, String query) {
+        return seqs(room, query, 100);
+    }
+
+    private List<Long> seqs(String room, String query, int limit) {
+        return index.search(room, SearchQuery.parse(query), limit).stream().map(HistoryEntry::seq).toList();
+    }
+}
@@ -0,0 +1,171 @@
+package org.sigar.chat.shm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShmCommunicationChannelTest {
+    private static final int CAPACITY = 4096;
+
+    @TempDir
+    Path directory;
+
+    private final List<ShmCommunicationChannel> nodes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(ShmCommunicationChannel::disconnect);
+    }
+
+    @Test
+    void shouldExchangeMessagesBetweenNodesSharingADirectory() throws Exception {
+        ShmCommunicationChannel nodeA = node("node-a");
+        ShmCommunicationChannel nodeB = node("node-b");
+        List<String> receivedByA = new CopyOnWriteArrayList<>();
+        List<String> receivedByB = new CopyOnWriteArrayList<>();
+        nodeA.receiveMessage("*", (room, message) -> receivedByA.add(room + "|" + text(message)));
+        nodeB.receiveMessage("r1", (room, message) -> receivedByB.add(room + "|" + text(message)));
+        await(() -> nodeA.peerRings().size() == 1 && nodeB.peerRings().size() == 1);
+
+        nodeA.sendMessage("r1", bytes("from a"));
+        nodeB.sendMessage("r2", bytes("from b"));
+        nodeA.sendMessage("r3", bytes("not for b"));
+
+        await(() -> receivedByA.size() == 3 && receivedByB.size() == 1);
+        assertTrue(receivedByA.containsAll(List.of("r1|from a", "r2|from b", "r3|not for b")), "Local and remote messages: " + receivedByA);
+        assertEquals(List.of("r1|from a"), receivedByB);
+
+        nodeB.stopReceiving("r1");
+        nodeA.sendMessage("r1", bytes("ignored"));
+        nodeA.sendMessage("r2", bytes("marker"));
+        await(() -> receivedByA.size() == 5);
+        Thread.sleep(50);
+        assertEquals(1, receivedByB.size());
+    }
+
+    @Test
+    void shouldFollowAPeerThatRestarts() throws Exception {
+        ShmCommunicationChannel nodeA = node("node-a");
+        ShmCommunicationChannel nodeB = node("node-b");
+        List<String> receivedByA = new CopyOnWriteArrayList<>();
+        nodeA.receiveMessage("*", (room, message) -> receivedByA.add(text(message)));
+        await(() -> nodeA.peerRings().size() == 1);
+        Object before = RingFile.fileKey(directory.resolve("node-b.ring"));
+
+        nodeB.disconnect();
+        nodes.remove(nodeB);
+        assertFalse(Files.exists(directory.resolve("node-b.ring")));
+        ShmCommunicationChannel restarted = node("node-b");
+        assertNotEquals(before, RingFile.fileKey(directory.resolve("node-b.ring")));
+        // Sent before A's next scan finds the new ring; read from its start all the same
+        restarted.sendMessage("r1", bytes("after restart"));
+
+        await(() -> receivedByA.contains("after restart"));
+        assertEquals(List.of("after restart"), receivedByA);
+    }
+
+    @Test
+    void shouldReadRecordsInOrderAcrossWrapAround() throws Exception {
+        RingFile writer = RingFile.create(directory.resolve("w.ring"), CAPACITY);
+        RingFile.Cursor cursor = RingFile.open(writer.path()).cursor(true);
+        List<String> received = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            // 8 + 2 + 11..13 bytes: never divides the capacity, so records straddle the end and get padded
+            assertTrue(writer.append(bytes("r" + (i % 3)), bytes("message-" + i)));
+            if (i % 7 == 6) {
+                cursor.poll((room, payload) -> received.add(text(payload)), Integer.MAX_VALUE);
+            }
+        }
+        cursor.poll((room, payload) -> received.add(text(payload)), Integer.MAX_VALUE);
+
+        assertEquals(500, received.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("message-" + i, received.get(i));
+        }
+        assertEquals(0, cursor.lapped());
+    }
+
+    @Test
+    void shouldSkipAheadWhenLappedAndRefuseOversizedRecords() throws Exception {
+        RingFile writer = RingFile.create(directory.resolve("w.ring"), CAPACITY);
+        RingFile.Cursor cursor = RingFile.open(writer.path()).cursor(true);
+        for (int i = 0; i < 200; i++) {
+            writer.append(bytes("r"), bytes("message-" + i));
+        }
+        List<String> received = new ArrayList<>();
+
+        assertEquals(0, cursor.poll((room, payload) -> received.add(text(payload)), Integer.MAX_VALUE));
+        assertEquals(1, cursor.lapped());
+        writer.append(bytes("r"), bytes("fresh"));
+        cursor.poll((room, payload) -> received.add(text(payload)), Integer.MAX_VALUE);
+        assertEquals(List.of("fresh"), received);
+        assertEquals(200, cursor.skipped(), "Every record written before the skip was missed");
+
+        assertFalse(writer.append(bytes("r"), new byte[CAPACITY / 8]));
+    }
+
+    @Test
+    void shouldRemoveTheRingOfANodeThatDied() throws Exception {
+        // What a crashed node leaves behind: a ring nobody renews the heartbeat of
+        RingFile dead = RingFile.create(directory.resolve("node-dead.ring"), CAPACITY);
+        dead.beat(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+        ShmCommunicationChannel nodeA = node("node-a");
+        node("node-b");
+
+        await(() -> !Files.exists(dead.path()) && nodeA.peerRings().contains(directory.resolve("node-b.ring")));
+        assertEquals(1, nodeA.peerRings().size());
+    }
+
+    @Test
+    void shouldRecreateItsRingWhenAPeerRemovedIt() throws Exception {
+        ShmCommunicationChannel nodeA = node("node-a");
+        ShmCommunicationChannel nodeB = node("node-b");
+        List<String> receivedByB = new CopyOnWriteArrayList<>();
+        nodeB.receiveMessage("*", (room, message) -> receivedByB.add(text(message)));
+        await(() -> nodeB.peerRings().size() == 1);
+
+        // As a peer does when this node was paused for longer than the stale limit
+        Files.delete(directory.resolve("node-a.ring"));
+        await(() -> Files.exists(directory.resolve("node-a.ring")));
+        await(() -> nodeB.peerRings().size() == 1);
+        nodeA.sendMessage("r1", bytes("still here"));
+
+        await(() -> receivedByB.contains("still here"));
+    }
+
+    private ShmCommunicationChannel node(String nodeId) {
+        ShmCommunicationChannel node = new ShmCommunicationChannel(directory, nodeId, CAPACITY, Duration.ofMillis(20), Duration.ofMillis(1));
+        node.connect();
+        nodes.add(node);
+        return node;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean(), "Timed out waiting for the ring");
+    }
+}
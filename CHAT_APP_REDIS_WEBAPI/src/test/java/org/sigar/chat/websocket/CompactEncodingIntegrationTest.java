@@ -0,0 +1,138 @@
+package org.sigar.chat.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class CompactEncodingIntegrationTest {
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+    @LocalServerPort
+    private int port;
+
+    private WebSocketStompClient stompClient;
+
+    @BeforeEach
+    void setup() {
+        // The default SimpleMessageConverter passes byte[] bodies through in both directions
+        stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    }
+
+    @AfterEach
+    void tearDown() {
+        stompClient.stop();
+    }
+
+    @Test
+    void shouldNegotiatePerMessageDeflate() throws Exception {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketExtensions(List.of(new WebSocketExtension(NoDeflateUpgradeStrategy.PERMESSAGE_DEFLATE)));
+
+        WebSocketSession session = new StandardWebSocketClient()
+                .execute(new AbstractWebSocketHandler() {
+                }, headers, URI.create("ws://localhost:" + port + "/chat/websocket"))
+                .get(10, TimeUnit.SECONDS);
+        try {
+            assertTrue(session.getExtensions().stream().anyMatch(extension -> extension.getName().equals(NoDeflateUpgradeStrategy.PERMESSAGE_DEFLATE)),
+                    "The server should accept permessage-deflate: " + session.getExtensions());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    void shouldSendCborRoomFramesOnlyToSessionsThatAskForThem() throws Exception {
+        StompSession compact = connect(CompactEncodingNegotiator.CBOR);
+        StompSession plain = connect(null);
+        BlockingQueue<Frame> compactFrames = subscribe(compact, "/topic/messages/cbor-room");
+        BlockingQueue<Frame> plainFrames = subscribe(plain, "/topic/messages/cbor-room");
+        // SUBSCRIBE is processed asynchronously; give the broker a moment before publishing
+        Thread.sleep(200);
+
+        send(plain, "{\"sender\":\"alice\",\"content\":\"first\"}");
+        Frame first = compactFrames.poll(10, TimeUnit.SECONDS);
+        send(plain, "{\"sender\":\"alice\",\"content\":\"second\"}");
+        Frame second = compactFrames.poll(10, TimeUnit.SECONDS);
+
+        assertNotNull(second, "Both messages should reach the compact session");
+        assertEquals(CompactMessageEncoder.CONTENT_TYPE, first.headers().getContentType());
+        assertNotNull(first.headers().getFirst("history-id"));
+        JsonNode defined = cbor.readTree(first.body());
+        assertEquals("alice", defined.get(1).asText());
+        assertEquals("first", defined.get(2).asText());
+        JsonNode interned = cbor.readTree(second.body());
+        assertEquals(2, interned.size(), "The sender should not be repeated");
+        assertEquals(defined.get(0).asInt(), interned.get(0).asInt());
+        assertEquals("second", interned.get(1).asText());
+
+        Frame json = plainFrames.poll(10, TimeUnit.SECONDS);
+        assertEquals("application/json", json.headers().getContentType().toString());
+        assertEquals("{\"sender\":\"alice\",\"content\":\"first\"}", new String(json.body(), StandardCharsets.UTF_8));
+
+        compact.disconnect();
+        plain.disconnect();
+    }
+
+    private StompSession connect(String encoding) throws Exception {
+        StompHeaders connectHeaders = new StompHeaders();
+        if (encoding != null) {
+            connectHeaders.add(CompactEncodingNegotiator.ENCODING_HEADER, encoding);
+        }
+        return stompClient.connectAsync(URI.create("ws://localhost:" + port + "/chat/websocket"), null, connectHeaders,
+                new StompSessionHandlerAdapter() {
+                }).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void send(StompSession session, String json) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination("/app/cbor-room/sendMessage");
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        session.send(headers, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static BlockingQueue<Frame> subscribe(StompSession session, String destination) {
+        BlockingQueue<Frame> received = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add(new Frame(headers, (byte[]) payload));
+            }
+        });
+        return received;
+    }
+
+    private record Frame(StompHeaders headers, byte[] body) {
+    }
+}
@@ -0,0 +1,65 @@
+package org.sigar.chat.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactMessageEncoderTest {
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+    private CompactMessageEncoder encoder;
+
+    @BeforeEach
+    void setup() {
+        encoder = new CompactMessageEncoder(new ObjectMapper());
+    }
+
+    @Test
+    void shouldSendASenderNameOnlyOnce() throws Exception {
+        SenderDictionary dictionary = new SenderDictionary(16);
+
+        JsonNode first = encode("{\"sender\":\"alice\",\"content\":\"hi\"}", dictionary);
+        JsonNode second = encode("{\"sender\":\"alice\",\"content\":\"still here\"}", dictionary);
+        JsonNode anonymous = encode("{\"content\":\"who?\"}", dictionary);
+
+        assertEquals("[0,\"alice\",\"hi\"]", first.toString());
+        assertEquals("[0,\"still here\"]", second.toString());
+        assertEquals("[null,\"who?\"]", anonymous.toString());
+        byte[] json = "{\"sender\":\"alice\",\"content\":\"still here\"}".getBytes(StandardCharsets.UTF_8);
+        assertTrue(encoder.encode(encoder.parse(json, false), false, dictionary).length < json.length / 2);
+    }
+
+    @Test
+    void shouldRedefineASenderWhoseSlotWasReused() throws Exception {
+        SenderDictionary dictionary = new SenderDictionary(2);
+        encode("{\"sender\":\"alice\",\"content\":\"1\"}", dictionary);
+        encode("{\"sender\":\"bob\",\"content\":\"2\"}", dictionary);
+
+        // The dictionary is full, so carol takes the oldest slot and alice has to be sent again
+        assertEquals("[0,\"carol\",\"3\"]", encode("{\"sender\":\"carol\",\"content\":\"3\"}", dictionary).toString());
+        assertEquals("[1,\"alice\",\"4\"]", encode("{\"sender\":\"alice\",\"content\":\"4\"}", dictionary).toString());
+        assertEquals("[0,\"5\"]", encode("{\"sender\":\"carol\",\"content\":\"5\"}", dictionary).toString());
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    void shouldEncodeEachEntryOfABatch() throws Exception {
+        SenderDictionary dictionary = new SenderDictionary(16);
+        byte[] batch = ("[{\"id\":\"1-0\",\"seq\":7,\"message\":{\"sender\":\"alice\",\"content\":\"a\"}},"
+                + "{\"id\":\"2-0\",\"seq\":8,\"message\":{\"sender\":\"alice\",\"content\":\"b\"}}]").getBytes(StandardCharsets.UTF_8);
+
+        JsonNode encoded = cbor.readTree(encoder.encode(encoder.parse(batch, true), true, dictionary));
+
+        assertEquals("[[\"1-0\",7,0,\"alice\",\"a\"],[\"2-0\",8,0,\"b\"]]", encoded.toString());
+    }
+
+    private JsonNode encode(String json, SenderDictionary dictionary) throws Exception {
+        byte[] body = encoder.encode(encoder.parse(json.getBytes(StandardCharsets.UTF_8), false), false, dictionary);
+        return cbor.readTree(body);
+    }
+}
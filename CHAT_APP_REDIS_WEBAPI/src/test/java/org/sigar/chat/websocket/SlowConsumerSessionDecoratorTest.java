@@ -0,0 +1,179 @@
+package org.sigar.chat.websocket;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SlowConsumerSessionDecoratorTest {
+    private static final int NO_TIME_LIMIT = 60_000;
+
+    private SimpleMeterRegistry registry;
+    private SessionBufferMetrics metrics;
+    private CountDownLatch release;
+    private ExecutorService outbound;
+
+    @BeforeEach
+    void setup() {
+        registry = new SimpleMeterRegistry();
+        metrics = new SessionBufferMetrics(registry, new LocalSessionRegistry());
+        release = new CountDownLatch(1);
+        // Stands in for the clientOutboundChannel pool: one task per frame per session
+        outbound = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        outbound.shutdownNow();
+    }
+
+    @Test
+    void shouldKeepHealthySessionLatencyWhileAnotherStalls() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        SlowConsumerSessionDecorator slow = new SlowConsumerSessionDecorator(
+                stalledSession("slow", stalled, new CopyOnWriteArrayList<>()), NO_TIME_LIMIT, 4096, SlowConsumerPolicy.DROP_OLDEST, metrics);
+        List<Long> latencies = new CopyOnWriteArrayList<>();
+        SlowConsumerSessionDecorator healthy = new SlowConsumerSessionDecorator(
+                healthySession("healthy", latencies), NO_TIME_LIMIT, 4096, SlowConsumerPolicy.DROP_OLDEST, metrics);
+
+        int frames = 2000;
+        for (int i = 0; i < frames; i++) {
+            // Stamped when the broker hands the frame over, so queueing in the pool counts towards latency
+            TextMessage message = frame("sub-0", String.valueOf(System.nanoTime()));
+            outbound.execute(() -> send(slow, message));
+            outbound.execute(() -> send(healthy, message));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (latencies.size() < frames && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(stalled.await(1, TimeUnit.SECONDS), "The slow session should be stuck in a write");
+        assertEquals(frames, latencies.size(), "The healthy session should get every frame while the other one is stalled");
+        long slowest = latencies.stream().mapToLong(Long::longValue).max().orElseThrow();
+        assertTrue(slowest < TimeUnit.SECONDS.toNanos(2), "Healthy session waited " + TimeUnit.NANOSECONDS.toMillis(slowest) + " ms for a frame");
+        assertTrue(slow.getBufferSize() <= 4096 + frame("sub-0", String.valueOf(System.nanoTime())).getPayloadLength(),
+                "The stalled session's backlog should stay near its limit, was " + slow.getBufferSize());
+        assertTrue(registry.counter("chat.websocket.outbound.dropped", "policy", "DROP_OLDEST").count() > 0);
+        assertEquals(0, healthy.getBufferSize());
+    }
+
+    @Test
+    void shouldCoalesceToNewestFramePerSubscription() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        List<String> sent = new CopyOnWriteArrayList<>();
+        int frameLength = frame("a", "1").getPayloadLength();
+        SlowConsumerSessionDecorator session = new SlowConsumerSessionDecorator(
+                stalledSession("coalesce", stalled, sent), NO_TIME_LIMIT, frameLength * 2 + frameLength / 2, SlowConsumerPolicy.COALESCE, metrics);
+        outbound.execute(() -> send(session, frame("a", "0")));
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        TextMessage receipt = new TextMessage("RECEIPT\nreceipt-id:r-1\n\n\0");
+        for (WebSocketMessage<?> message : List.of(frame("a", "1"), receipt, frame("a", "2"), frame("a", "3"), frame("b", "1"), frame("a", "4"), frame("b", "2"))) {
+            session.sendMessage(message);
+        }
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sent.size() < 4 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(frame("a", "0").getPayload(), receipt.getPayload(), frame("a", "4").getPayload(), frame("b", "2").getPayload()), sent,
+                "Only the newest frame per subscription should survive, and never control frames");
+    }
+
+    @Test
+    void shouldDisconnectWhenBufferLimitExceeded() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        List<String> sent = new CopyOnWriteArrayList<>();
+        SlowConsumerSessionDecorator session = new SlowConsumerSessionDecorator(
+                stalledSession("disconnect", stalled, sent), NO_TIME_LIMIT, 100, SlowConsumerPolicy.DISCONNECT, metrics);
+        outbound.execute(() -> send(session, frame("a", "0")));
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        session.sendMessage(frame("a", "1"));
+        assertThrows(SessionLimitExceededException.class, () -> session.sendMessage(frame("a", "2")));
+        // Once the limit has been hit the session is on its way out and further frames are ignored
+        session.sendMessage(frame("a", "3"));
+        assertEquals(1.0, registry.counter("chat.websocket.outbound.disconnected", "reason", "buffer-size-limit").count());
+    }
+
+    @Test
+    void shouldDisconnectStalledWriteAfterSendTimeLimitWhateverThePolicy() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        SlowConsumerSessionDecorator session = new SlowConsumerSessionDecorator(
+                stalledSession("timeout", stalled, new CopyOnWriteArrayList<>()), 50, 1 << 20, SlowConsumerPolicy.DROP_OLDEST, metrics);
+        outbound.execute(() -> send(session, frame("a", "0")));
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(100);
+        assertThrows(SessionLimitExceededException.class, () -> session.sendMessage(frame("a", "1")));
+        assertEquals(1.0, registry.counter("chat.websocket.outbound.disconnected", "reason", "send-time-limit").count());
+    }
+
+    @Test
+    void shouldOnlyTreatMessageFramesAsDroppable() {
+        assertEquals("sub-7", SlowConsumerSessionDecorator.subscriptionOf(frame("sub-7", "{}")));
+        assertNull(SlowConsumerSessionDecorator.subscriptionOf(new TextMessage("RECEIPT\nreceipt-id:r-1\n\n\0")));
+        assertNull(SlowConsumerSessionDecorator.subscriptionOf(new TextMessage("\n")));
+        // A body that happens to contain the header text does not count
+        assertNull(SlowConsumerSessionDecorator.subscriptionOf(new TextMessage("MESSAGE\ndestination:/x\n\n\nsubscription:1\0")));
+    }
+
+    private static TextMessage frame(String subscription, String body) {
+        return new TextMessage("MESSAGE\nsubscription:" + subscription + "\ndestination:/topic/messages/room\n\n" + body + "\0");
+    }
+
+    private static void send(WebSocketSession session, WebSocketMessage<?> message) {
+        try {
+            session.sendMessage(message);
+        } catch (Exception ignored) {
+            // Limit violations are asserted by the tests that expect them
+        }
+    }
+
+    private WebSocketSession stalledSession(String id, CountDownLatch stalled, List<String> sent) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            stalled.countDown();
+            // Blocks like a write to a browser that has stopped reading, until the test lets it go
+            release.await();
+            sent.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static WebSocketSession healthySession(String id, List<Long> latencies) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            String frame = ((TextMessage) invocation.getArgument(0)).getPayload();
+            long sentAt = Long.parseLong(frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1));
+            latencies.add(System.nanoTime() - sentAt);
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+}
@@ -0,0 +1,54 @@
+package org.sigar.loadgen;
+
+import java.util.Random;
+
+/**
+ * Zipfian ranks in [0, items) using the rejection-free method from Gray et al.,
+ * "Quickly Generating Billion-Record Synthetic Databases" (the same one YCSB uses).
+ * Rank 0 is the most popular item.
+ */
+public class ZipfianGenerator {
+    private final long items;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final Random random;
+
+    public ZipfianGenerator(long items, double theta, Random random) {
+        if (items < 1) {
+            throw new IllegalArgumentException("items must be positive: " + items);
+        }
+        if (theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("theta must be in (0, 1): " + theta);
+        }
+        this.items = items;
+        this.theta = theta;
+        this.random = random;
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(2, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    public long next() {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return Math.min(1, items - 1);
+        }
+        long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(rank, items - 1);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
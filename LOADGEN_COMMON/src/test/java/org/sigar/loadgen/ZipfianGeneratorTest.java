@@ -0,0 +1,44 @@
+package org.sigar.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipfianGeneratorTest {
+
+    @Test
+    void ranksStayInRangeAndFavourTheHead() {
+        int items = 1_000;
+        ZipfianGenerator generator = new ZipfianGenerator(items, 0.99, new Random(7));
+        long[] counts = new long[items];
+        for (int i = 0; i < 200_000; i++) {
+            long rank = generator.next();
+            assertTrue(rank >= 0 && rank < items, "rank out of range: " + rank);
+            counts[(int) rank]++;
+        }
+        assertTrue(counts[0] > counts[1]);
+        assertTrue(counts[1] > counts[10]);
+        long head = 0;
+        for (int i = 0; i < items / 10; i++) {
+            head += counts[i];
+        }
+        // With theta 0.99 the top 10% of items take well over half of the requests
+        assertTrue(head > 100_000, "head share too low: " + head);
+    }
+
+    @Test
+    void singleItemAlwaysReturnsRankZero() {
+        ZipfianGenerator generator = new ZipfianGenerator(1, 0.5, new Random(1));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, generator.next());
+        }
+    }
+
+    @Test
+    void rejectsThetaOutsideOpenUnitInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new ZipfianGenerator(10, 1.0, new Random()));
+        assertThrows(IllegalArgumentException.class, () -> new ZipfianGenerator(10, 0.0, new Random()));
+    }
+}
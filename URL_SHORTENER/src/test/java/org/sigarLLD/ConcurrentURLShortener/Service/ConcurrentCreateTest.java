@@ -0,0 +1,190 @@
+package org.sigarLLD.ConcurrentURLShortener.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.sigarLLD.ConcurrentURLShortener.Controller.URLController;
+import org.sigarLLD.ConcurrentURLShortener.DTO.UrlRequest;
+import org.sigarLLD.ConcurrentURLShortener.Model.UrlShortened;
+import org.sigarLLD.ConcurrentURLShortener.Repo.UrlRepo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Creates racing each other on the in-memory H2 database of the h2 profile: every request of a round is
+ * released at the same moment, so they meet inside the insert-or-ignore statements.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("h2")
+public class ConcurrentCreateTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+
+    @Autowired
+    private URLController controller;
+    @Autowired
+    private URLService urlService;
+    @Autowired
+    private UrlRepo urlRepo;
+    @Autowired
+    private ScriptedTinyUrls tinyUrls;
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    void sameKeyAndSameUrlShouldAllGetTheWinnersRow() throws Exception {
+        double collisionsBefore = collisions();
+        for (int round = 0; round < ROUNDS; round++) {
+            String url = "https://example.com/same-key/" + round;
+            String key = "same-key-" + round;
+            if (round % 2 == 0) {
+                // With the URL already stored the requests meet only on the key
+                urlService.createShortenedUrl(url);
+            }
+            List<ResponseEntity<UrlShortened>> responses = race(i -> controller.storeURL(request(url), key));
+
+            Set<Long> ids = new HashSet<>();
+            for (ResponseEntity<UrlShortened> response : responses) {
+                assertEquals(HttpStatus.CREATED, response.getStatusCode(), "Round " + round);
+                assertEquals(url, response.getBody().getUrl());
+                ids.add(response.getBody().getId());
+            }
+            assertEquals(1, ids.size(), "Every retry of a key should be answered with the same row");
+        }
+        assertEquals(collisionsBefore, collisions(), 0.0, "Losing the race for a key is not a tiny URL collision");
+    }
+
+    @Test
+    void sameKeyWithDifferentUrlsShouldConflict() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            String key = "different-body-" + round;
+            int finalRound = round;
+            List<ResponseEntity<UrlShortened>> responses = race(i ->
+                    controller.storeURL(request("https://example.com/different-body/" + finalRound + "/" + i), key));
+
+            List<UrlShortened> created = new ArrayList<>();
+            for (ResponseEntity<UrlShortened> response : responses) {
+                if (response.getStatusCode() == HttpStatus.CREATED) {
+                    created.add(response.getBody());
+                } else {
+                    assertEquals(HttpStatus.CONFLICT, response.getStatusCode(), "Round " + round);
+                }
+            }
+            assertEquals(1, created.size(), "Exactly one URL should own the key");
+            UrlShortened winner = created.get(0);
+            for (int i = 0; i < THREADS; i++) {
+                String url = "https://example.com/different-body/" + round + "/" + i;
+                if (url.equals(winner.getUrl())) {
+                    assertEquals(winner.getId(), controller.storeURL(request(url), key).getBody().getId());
+                } else {
+                    assertEquals(HttpStatus.CONFLICT, controller.storeURL(request(url), key).getStatusCode());
+                    // The losers' URL rows roll back with their key
+                    assertNull(urlRepo.findByUrl(url));
+                }
+            }
+        }
+    }
+
+    @Test
+    void tinyUrlCollisionsShouldBeRetriedWithAFreshTinyUrl() throws Exception {
+        UrlShortened taken = urlService.createShortenedUrl("https://example.com/collision/taken");
+        double collisionsBefore = collisions();
+        for (int i = 0; i < THREADS; i++) {
+            tinyUrls.force("https://example.com/collision/" + i, taken.getTinyUrl());
+        }
+
+        List<UrlShortened> created = race(i -> urlService.createShortenedUrl("https://example.com/collision/" + i));
+
+        Set<String> tiny = new HashSet<>();
+        tiny.add(taken.getTinyUrl());
+        for (UrlShortened urlShortened : created) {
+            assertTrue(tiny.add(urlShortened.getTinyUrl()), "Each create should end with its own tiny URL");
+        }
+        assertEquals(THREADS, collisions() - collisionsBefore, 0.0);
+    }
+
+    private double collisions() {
+        return registry.counter("shortener.create.tinyurl.collisions").count();
+    }
+
+    private static UrlRequest request(String url) {
+        UrlRequest request = new UrlRequest();
+        request.setUrl(url);
+        return request;
+    }
+
+    private interface Attempt<T> {
+        T run(int thread) throws Exception;
+    }
+
+    private static <T> List<T> race(Attempt<T> attempt) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                Callable<T> call = () -> {
+                    start.await();
+                    return attempt.run(thread);
+                };
+                futures.add(pool.submit(call));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The counter generator, except that the first tiny URL for a URL can be forced with force().
+     */
+    static class ScriptedTinyUrls implements TinyURLGenerator {
+        private final TinyURLGenerator counter = new TinyURLGeneratorWithCounter();
+        private final Map<String, String> forced = new ConcurrentHashMap<>();
+
+        void force(String originalUrl, String tinyUrl) {
+            forced.put(originalUrl, tinyUrl);
+        }
+
+        @Override
+        public String generateTinyURL(String originalURL) throws Exception {
+            String tinyUrl = forced.remove(originalURL);
+            return tinyUrl != null ? tinyUrl : counter.generateTinyURL(originalURL);
+        }
+    }
+
+    @TestConfiguration
+    static class TinyUrlConfig {
+        @Bean
+        @Primary
+        ScriptedTinyUrls scriptedTinyUrls() {
+            return new ScriptedTinyUrls();
+        }
+    }
+}
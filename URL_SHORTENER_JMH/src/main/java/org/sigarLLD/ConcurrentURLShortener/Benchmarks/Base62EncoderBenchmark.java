@@ -0,0 +1,37 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.sigarLLD.ConcurrentURLShortener.Helper.Base62Encoder;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base62EncoderBenchmark {
+    private static final String BASE62 = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    // First ID, a typical ID after a few range allocations, and the longest possible code
+    @Param({"1", "52000000", "9223372036854775807"})
+    public long id;
+
+    @Benchmark
+    public String encode() {
+        return Base62Encoder.encode(id);
+    }
+
+    // The StringBuilder + reverse version the generators used before Base62Encoder, kept as a baseline
+    @Benchmark
+    public String stringBuilderBaseline() {
+        long value = id;
+        StringBuilder shortURL = new StringBuilder();
+        while (value > 0) {
+            shortURL.append(BASE62.charAt((int) (value % BASE62.length())));
+            value /= BASE62.length();
+        }
+        return shortURL.reverse().toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs every benchmark once per thread count with the GC profiler attached and writes all
+ * results to a single JSON file, so runs from different releases can be diffed.
+ *
+ * StartupBenchmark is run once, single threaded, whenever jmh.include matches it.
+ *
+ * System properties: jmh.include (regex), jmh.threads (e.g. 1,2,4,8), jmh.result (output path).
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = System.getProperty("jmh.include", ".*");
+        Path resultFile = Path.of(System.getProperty("jmh.result", "target/jmh/results.json"));
+        int[] threadCounts = Arrays.stream(System.getProperty("jmh.threads", "1,2,4,8").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .exclude(StartupBenchmark.class.getName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            results.addAll(run(options));
+        }
+        // Every startup measurement launches its own JVM, so running it on several threads would only measure CPU contention
+        if (Pattern.compile(include).matcher(StartupBenchmark.class.getName()).find()) {
+            Options options = new OptionsBuilder()
+                    .include(StartupBenchmark.class.getName())
+                    .threads(1)
+                    .build();
+            results.addAll(run(options));
+        }
+        if (results.isEmpty()) {
+            throw new NoBenchmarksException();
+        }
+
+        if (resultFile.getParent() != null) {
+            Files.createDirectories(resultFile.getParent());
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(resultFile))) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Wrote " + results.size() + " results to " + resultFile.toAbsolutePath());
+    }
+
+    private static Collection<RunResult> run(Options options) throws RunnerException {
+        try {
+            return new Runner(options).run();
+        } catch (NoBenchmarksException e) {
+            // The include pattern may only match benchmarks of the other pass
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.sigarLLD.ConcurrentURLShortener.Service.TinyURLGeneratorWithCounter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups against the in-process URL maps held by TinyURLGeneratorWithCounter:
+ * tiny -> original hits and misses, and re-shortening a URL that is already known.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheLayerBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int entries;
+
+    private TinyURLGeneratorWithCounter generator;
+    private String[] urls;
+    private String[] tinyUrls;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        generator = new TinyURLGeneratorWithCounter();
+        urls = new String[entries];
+        tinyUrls = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            urls[i] = "https://example.com/page/" + i;
+            tinyUrls[i] = generator.generateTinyURL(urls[i]);
+        }
+    }
+
+    @Benchmark
+    public String tinyToOriginalHit() {
+        return generator.getOriginalURL(tinyUrls[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    public String tinyToOriginalMiss() {
+        return generator.getOriginalURL("~" + ThreadLocalRandom.current().nextInt(entries));
+    }
+
+    @Benchmark
+    public String shortenKnownUrl() {
+        return generator.generateTinyURL(urls[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+}
@@ -0,0 +1,72 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sigarLLD.ConcurrentURLShortener.ConcurrentApp;
+import org.sigarLLD.ConcurrentURLShortener.Service.URLService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duplicate-heavy create load: every new URL is shortened several times in a row by whichever
+ * threads pick it up, so concurrent creates of the same URL race each other. Failed creates are
+ * reported as the "failed" secondary metric.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DuplicateCreateBenchmark {
+
+    @Param({"4"})
+    public int duplicatesPerUrl;
+
+    private TestingServer zookeeper;
+    private ConfigurableApplicationContext context;
+    private URLService urlService;
+    private final AtomicLong requests = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void startApplication() throws Exception {
+        zookeeper = new TestingServer(true);
+        context = new SpringApplicationBuilder(ConcurrentApp.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.profiles.active=h2",
+                        "--shortener.id-generator=zookeeper",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--logging.level.org.springframework=WARN",
+                        "--zookeeper.connect-string=" + zookeeper.getConnectString());
+        urlService = context.getBean(URLService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() throws Exception {
+        context.close();
+        zookeeper.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcomes {
+        public long failed;
+    }
+
+    @Benchmark
+    public void createDuplicates(Outcomes outcomes, Blackhole blackhole) {
+        long url = requests.getAndIncrement() / duplicatesPerUrl;
+        try {
+            blackhole.consume(urlService.createShortenedUrl("https://example.com/duplicate/" + url));
+        } catch (RuntimeException e) {
+            outcomes.failed++;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+import org.sigarLLD.ConcurrentURLShortener.ConcurrentApp;
+import org.sigarLLD.ConcurrentURLShortener.Helper.CustomOptimisticLockException;
+import org.sigarLLD.ConcurrentURLShortener.Model.UrlShortened;
+import org.sigarLLD.ConcurrentURLShortener.Service.URLService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Create and redirect through the real JpaURLService, backed by an in-memory H2 database
+ * and an in-process ZooKeeper, so the numbers include JPA, the connection pool and ID allocation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JpaURLServiceBenchmark {
+    private static final int PRELOADED_URLS = 10_000;
+
+    private TestingServer zookeeper;
+    private ConfigurableApplicationContext context;
+    private URLService urlService;
+    private String[] urls;
+    private String[] tinyUrls;
+    private final AtomicLong newUrls = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void startApplication() throws Exception {
+        zookeeper = new TestingServer(true);
+        // The h2 profile swaps Postgres for H2; ID allocation goes back to ZooKeeper so it is measured too
+        context = new SpringApplicationBuilder(ConcurrentApp.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.profiles.active=h2",
+                        "--shortener.id-generator=zookeeper",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--logging.level.org.springframework=WARN",
+                        "--zookeeper.connect-string=" + zookeeper.getConnectString());
+        urlService = context.getBean(URLService.class);
+
+        urls = new String[PRELOADED_URLS];
+        tinyUrls = new String[PRELOADED_URLS];
+        for (int i = 0; i < PRELOADED_URLS; i++) {
+            urls[i] = "https://example.com/preloaded/" + i;
+            tinyUrls[i] = urlService.createShortenedUrl(urls[i]).getTinyUrl();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() throws Exception {
+        context.close();
+        zookeeper.close();
+    }
+
+    @Benchmark
+    public UrlShortened createNew() {
+        return urlService.createShortenedUrl("https://example.com/new/" + newUrls.incrementAndGet());
+    }
+
+    @Benchmark
+    public UrlShortened createExisting() {
+        return urlService.createShortenedUrl(urls[ThreadLocalRandom.current().nextInt(PRELOADED_URLS)]);
+    }
+
+    @Benchmark
+    public UrlShortened redirect() {
+        try {
+            return urlService.getOriginalUrl(tinyUrls[ThreadLocalRandom.current().nextInt(PRELOADED_URLS)]);
+        } catch (CustomOptimisticLockException e) {
+            // Two threads hit the same URL; the conflict itself is part of what is measured
+            return null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time-to-first-redirect: from launching a fresh shortener JVM until a freshly created tiny URL
+ * resolves over HTTP. Each measurement starts a new process, so this runs single threaded
+ * (see BenchmarkRunner).
+ *
+ * The classpath, aot and aot-cds modes need the fast-start build with the h2 profile baked in:
+ *   mvn -pl URL_SHORTENER -am install -Pfast-start -Dfast-start.profiles=h2
+ * Process output goes to target/startup/&lt;mode&gt;.log.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class StartupBenchmark {
+    private static final String APP_CLASS = "org.sigarLLD.ConcurrentURLShortener.ConcurrentApp";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+    private static final Pattern TINY_URL = Pattern.compile("\"tinyUrl\"\\s*:\\s*\"([^\"]+)\"");
+
+    @Param({"fatjar", "classpath", "aot", "aot-cds"})
+    public String mode;
+
+    private Path target;
+    private Path log;
+    private HttpClient client;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void locateBuild() throws IOException {
+        target = Path.of(System.getProperty("shortener.target", "../URL_SHORTENER/target")).toAbsolutePath().normalize();
+        for (Path required : required()) {
+            if (!Files.exists(required)) {
+                throw new IllegalStateException(required + " is missing; build URL_SHORTENER with -Pfast-start -Dfast-start.profiles=h2");
+            }
+        }
+        log = Path.of("target", "startup", mode + ".log");
+        Files.createDirectories(log.getParent());
+        client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopApplication() throws InterruptedException {
+        if (process != null) {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            process = null;
+        }
+    }
+
+    @Benchmark
+    public int timeToFirstRedirect() throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArguments());
+        command.add("--spring.profiles.active=h2");
+        command.add("--server.port=" + port);
+        process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+
+        String base = "http://localhost:" + port + "/api/shortener";
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        HttpResponse<String> created = null;
+        while (created == null) {
+            if (!process.isAlive() || System.nanoTime() > deadline) {
+                throw new IllegalStateException("Shortener did not start in " + mode + " mode, see " + log.toAbsolutePath());
+            }
+            try {
+                created = client.send(HttpRequest.newBuilder(URI.create(base + "/create"))
+                                .header("Content-Type", "application/json")
+                                .POST(HttpRequest.BodyPublishers.ofString("{\"url\":\"https://example.com/startup\"}"))
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString());
+            } catch (ConnectException e) {
+                Thread.sleep(5);
+            }
+        }
+        Matcher tinyUrl = TINY_URL.matcher(created.body());
+        if (created.statusCode() != 201 || !tinyUrl.find()) {
+            throw new IllegalStateException("Create failed with " + created.statusCode() + ": " + created.body());
+        }
+        HttpResponse<String> redirect = client.send(HttpRequest.newBuilder(URI.create(base + "/" + tinyUrl.group(1))).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (redirect.statusCode() != 200) {
+            throw new IllegalStateException("Redirect failed with " + redirect.statusCode());
+        }
+        return redirect.statusCode();
+    }
+
+    private List<Path> required() {
+        return switch (mode) {
+            case "fatjar" -> List.of(target.resolve("URL_SHORTENER-1.0-SNAPSHOT-exec.jar"));
+            case "classpath", "aot" -> List.of(target.resolve("URL_SHORTENER-1.0-SNAPSHOT.jar"), target.resolve("fast-start/lib"));
+            case "aot-cds" -> List.of(target.resolve("URL_SHORTENER-1.0-SNAPSHOT.jar"), target.resolve("fast-start/shortener.jsa"));
+            default -> throw new IllegalArgumentException("Unknown mode " + mode);
+        };
+    }
+
+    private List<String> jvmArguments() {
+        String classpath = target.resolve("URL_SHORTENER-1.0-SNAPSHOT.jar") + File.pathSeparator
+                + target.resolve("fast-start/lib") + File.separator + "*";
+        return switch (mode) {
+            case "fatjar" -> List.of("-jar", target.resolve("URL_SHORTENER-1.0-SNAPSHOT-exec.jar").toString());
+            case "classpath" -> List.of("-cp", classpath, APP_CLASS);
+            case "aot" -> List.of("-Dspring.aot.enabled=true", "-cp", classpath, APP_CLASS);
+            case "aot-cds" -> List.of("-XX:SharedArchiveFile=" + target.resolve("fast-start/shortener.jsa"),
+                    "-Dspring.aot.enabled=true", "-cp", classpath, APP_CLASS);
+            default -> throw new IllegalArgumentException("Unknown mode " + mode);
+        };
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
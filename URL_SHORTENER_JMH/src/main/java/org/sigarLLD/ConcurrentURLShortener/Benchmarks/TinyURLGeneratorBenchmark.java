@@ -0,0 +1,76 @@
+package org.sigarLLD.ConcurrentURLShortener.Benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+import org.sigarLLD.ConcurrentURLShortener.Metrics.ShortenerMetrics;
+import org.sigarLLD.ConcurrentURLShortener.Service.TinyURLGenerator;
+import org.sigarLLD.ConcurrentURLShortener.Service.TinyURLGeneratorWithCounter;
+import org.sigarLLD.ConcurrentURLShortener.Service.TinyURLGeneratorWithZookeeper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the in-memory counter generator with the ZooKeeper range generator.
+ * The ZooKeeper generator runs against an in-process TestingServer; a small batch size
+ * makes range allocation show up in the numbers, the production batch size hides it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class TinyURLGeneratorBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int batchSize;
+
+    private TestingServer zookeeper;
+    private TinyURLGeneratorWithZookeeper zookeeperGenerator;
+    private TinyURLGenerator counterGenerator;
+
+    @Setup(Level.Trial)
+    public void startZookeeper() throws Exception {
+        zookeeper = new TestingServer(true);
+        zookeeperGenerator = new TinyURLGeneratorWithZookeeper(zookeeper.getConnectString(), batchSize,
+                new ShortenerMetrics(new SimpleMeterRegistry()));
+    }
+
+    // The counter generator remembers every URL it has seen, so start each iteration empty
+    @Setup(Level.Iteration)
+    public void resetCounterGenerator() {
+        counterGenerator = new TinyURLGeneratorWithCounter();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopZookeeper() throws Exception {
+        zookeeperGenerator.close();
+        zookeeper.close();
+    }
+
+    @Benchmark
+    public String counter(UrlSource urls) throws Exception {
+        return counterGenerator.generateTinyURL(urls.next());
+    }
+
+    @Benchmark
+    public String zookeeper(UrlSource urls) throws Exception {
+        return zookeeperGenerator.generateTinyURL(urls.next());
+    }
+
+    @State(Scope.Thread)
+    public static class UrlSource {
+        private String prefix;
+        private long next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            prefix = "https://example.com/" + Thread.currentThread().getId() + "/";
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latency twice per request, in microseconds:
+ * from the intended send time (corrected for coordinated omission, the number to trust)
+ * and from the actual send time (service time, what a closed-loop tool would report).
+ */
+public class LatencyRecorder {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Map<RequestType, Histogram> corrected = new EnumMap<>(RequestType.class);
+    private final Map<RequestType, Histogram> uncorrected = new EnumMap<>(RequestType.class);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    public LatencyRecorder() {
+        for (RequestType type : RequestType.values()) {
+            corrected.put(type, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            uncorrected.put(type, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+        }
+    }
+
+    public void record(RequestType type, long intendedNanos, long sentNanos, long completedNanos, String outcome) {
+        corrected.get(type).recordValue(toMicros(completedNanos - intendedNanos));
+        uncorrected.get(type).recordValue(toMicros(completedNanos - sentNanos));
+        outcomes.computeIfAbsent(type + " " + outcome, key -> new LongAdder()).increment();
+    }
+
+    public void skipped(RequestType type, String reason) {
+        outcomes.computeIfAbsent(type + " skipped: " + reason, key -> new LongAdder()).increment();
+    }
+
+    public Histogram corrected(RequestType type) {
+        return corrected.get(type);
+    }
+
+    public Histogram uncorrected(RequestType type) {
+        return uncorrected.get(type);
+    }
+
+    public Map<String, LongAdder> outcomes() {
+        return outcomes;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)), HIGHEST_TRACKABLE_MICROS);
+    }
+}
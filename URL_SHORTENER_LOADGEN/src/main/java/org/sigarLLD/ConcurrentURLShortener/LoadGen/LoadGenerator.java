@@ -0,0 +1,195 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the shortener API.
+ *
+ * Requests are sent on the workload's schedule regardless of how fast responses come back, and latency
+ * is measured from the scheduled time. A stalled server therefore shows up as queueing delay in the
+ * numbers instead of silently lowering the request rate (coordinated omission).
+ *
+ * Start the app with H2 first, e.g.
+ *   java -jar URL_SHORTENER/target/URL_SHORTENER-1.0-SNAPSHOT-exec.jar --spring.profiles.active=h2
+ *   java -jar URL_SHORTENER_LOADGEN/target/URL_SHORTENER_LOADGEN-1.0-SNAPSHOT.jar --rate 1000 --duration 30
+ */
+public class LoadGenerator {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final LoadOptions options;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, String> tinyUrls = new ConcurrentHashMap<>();
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    public LoadGenerator(LoadOptions options) {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        Workload workload = options.getReplay() != null
+                ? new RecordedWorkload(options.getReplay(), options.getReplaySpeed())
+                : new SyntheticWorkload(options);
+
+        seed(workload.urlsToSeed());
+
+        long sent = 0;
+        Semaphore inFlight = new Semaphore(options.getMaxInFlight());
+        BufferedWriter log = options.getWriteLog() != null ? Files.newBufferedWriter(options.getWriteLog()) : null;
+        long start = System.nanoTime();
+        try {
+            ScheduledRequest request;
+            while ((request = workload.next()) != null) {
+                long intended = start + request.offsetNanos();
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                // Waiting for a permit delays sending, but latency is still measured from the intended time
+                inFlight.acquire();
+                send(request, intended).whenComplete((ignored, error) -> inFlight.release());
+                sent++;
+                if (log != null) {
+                    log.write(TimeUnit.NANOSECONDS.toMillis(request.offsetNanos()) + "," + request.type() + "," + request.longUrl());
+                    log.newLine();
+                }
+            }
+            inFlight.acquire(options.getMaxInFlight());
+        } finally {
+            if (log != null) {
+                log.close();
+            }
+            if (workload instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        LoadReport report = new LoadReport(options, recorder, elapsed, sent);
+        report.print(System.out);
+        System.out.println("\nReport written to " + report.write().toAbsolutePath());
+    }
+
+    private void seed(Set<String> urls) throws InterruptedException {
+        if (urls.isEmpty()) {
+            return;
+        }
+        System.out.printf("Seeding %d URLs against %s%n", urls.size(), options.getTarget());
+        Semaphore permits = new Semaphore(options.getSeedConcurrency());
+        AtomicLong failures = new AtomicLong();
+        for (String url : urls) {
+            permits.acquire();
+            client.sendAsync(createRequest(url), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        if (error != null || !rememberTinyUrl(url, response)) {
+                            failures.incrementAndGet();
+                        }
+                        permits.release();
+                    });
+        }
+        permits.acquire(options.getSeedConcurrency());
+        if (failures.get() > 0) {
+            System.out.printf("%d of %d seed requests failed; redirects to them will be skipped%n", failures.get(), urls.size());
+        }
+    }
+
+    private CompletableFuture<?> send(ScheduledRequest request, long intended) {
+        HttpRequest httpRequest;
+        if (request.type() == RequestType.CREATE) {
+            httpRequest = createRequest(request.longUrl());
+        } else {
+            String tinyUrl = tinyUrls.get(request.longUrl());
+            if (tinyUrl == null) {
+                recorder.skipped(RequestType.REDIRECT, "unknown tiny URL");
+                return CompletableFuture.completedFuture(null);
+            }
+            httpRequest = HttpRequest.newBuilder(URI.create(options.getTarget() + "/shortener/"
+                            + URLEncoder.encode(tinyUrl, StandardCharsets.UTF_8)))
+                    .timeout(REQUEST_TIMEOUT)
+                    .GET()
+                    .build();
+        }
+        long sentAt = System.nanoTime();
+        return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    long completed = System.nanoTime();
+                    String outcome;
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        outcome = cause.getClass().getSimpleName();
+                    } else {
+                        outcome = String.valueOf(response.statusCode());
+                        if (request.type() == RequestType.CREATE) {
+                            rememberTinyUrl(request.longUrl(), response);
+                        }
+                    }
+                    recorder.record(request.type(), intended, sentAt, completed, outcome);
+                });
+    }
+
+    private HttpRequest createRequest(String longUrl) {
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(Map.of("url", longUrl));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return HttpRequest.newBuilder(URI.create(options.getTarget() + "/shortener/create"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private boolean rememberTinyUrl(String longUrl, HttpResponse<String> response) {
+        if (response.statusCode() / 100 != 2) {
+            return false;
+        }
+        try {
+            JsonNode tinyUrl = objectMapper.readTree(response.body()).path("tinyUrl");
+            if (tinyUrl.isTextual()) {
+                tinyUrls.put(longUrl, tinyUrl.asText());
+                return true;
+            }
+        } catch (IOException ignored) {
+            // Counted as a failure by the caller
+        }
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Command line options, all given as --name value.
+ */
+@Getter
+public class LoadOptions {
+    private String target = "http://localhost:8080/api";
+    private double rate = 200;
+    private Duration duration = Duration.ofSeconds(60);
+    private double redirectRatio = 0.9;
+    private double duplicateCreateRatio = 0.0;
+    private int urls = 10_000;
+    private double zipfTheta = 0.99;
+    private int maxInFlight = 1_000;
+    private int seedConcurrency = 32;
+    private long seed = 42;
+    private Path replay;
+    private double replaySpeed = 1.0;
+    private Path writeLog;
+    private Path reportDir = Path.of("target", "loadgen");
+
+    public static final String USAGE = """
+            Usage: java -jar URL_SHORTENER_LOADGEN.jar [options]
+              --target URL                  base URL of the shortener (default http://localhost:8080/api)
+              --rate N                      target requests per second (default 200)
+              --duration SECONDS            length of the synthetic run (default 60)
+              --redirect-ratio R            share of redirects vs creates, 0..1 (default 0.9)
+              --duplicate-create-ratio R    share of creates that re-shorten a popular URL (default 0)
+              --urls N                      number of URLs seeded before the run (default 10000)
+              --zipf-theta T                popularity skew, 0 < T < 1 (default 0.99)
+              --max-in-flight N             cap on outstanding requests (default 1000)
+              --seed-concurrency N          parallel creates while seeding (default 32)
+              --seed N                      random seed (default 42)
+              --replay FILE                 replay a log of offsetMillis,CREATE|REDIRECT,longUrl lines
+              --replay-speed X              replay faster (>1) or slower (<1) than recorded (default 1)
+              --write-log FILE              write the requests that were sent in replay format
+              --report-dir DIR              where the report and .hgrm files go (default target/loadgen)
+            """;
+
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (name.equals("--help") || name.equals("-h")) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name + "\n" + USAGE);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--target" -> options.target = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "--rate" -> options.rate = Double.parseDouble(value);
+                case "--duration" -> options.duration = Duration.ofSeconds(Long.parseLong(value));
+                case "--redirect-ratio" -> options.redirectRatio = Double.parseDouble(value);
+                case "--duplicate-create-ratio" -> options.duplicateCreateRatio = Double.parseDouble(value);
+                case "--urls" -> options.urls = Integer.parseInt(value);
+                case "--zipf-theta" -> options.zipfTheta = Double.parseDouble(value);
+                case "--max-in-flight" -> options.maxInFlight = Integer.parseInt(value);
+                case "--seed-concurrency" -> options.seedConcurrency = Integer.parseInt(value);
+                case "--seed" -> options.seed = Long.parseLong(value);
+                case "--replay" -> options.replay = Path.of(value);
+                case "--replay-speed" -> options.replaySpeed = Double.parseDouble(value);
+                case "--write-log" -> options.writeLog = Path.of(value);
+                case "--report-dir" -> options.reportDir = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option " + name + "\n" + USAGE);
+            }
+        }
+        if (options.rate <= 0) {
+            throw new IllegalArgumentException("--rate must be positive");
+        }
+        return options;
+    }
+}
@@ -0,0 +1,82 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes report.txt plus one .hgrm percentile distribution per request type and measurement,
+ * which can be plotted with the HdrHistogram plotter.
+ */
+public class LoadReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LoadOptions options;
+    private final LatencyRecorder recorder;
+    private final Duration elapsed;
+    private final long sent;
+
+    public LoadReport(LoadOptions options, LatencyRecorder recorder, Duration elapsed, long sent) {
+        this.options = options;
+        this.recorder = recorder;
+        this.elapsed = elapsed;
+        this.sent = sent;
+    }
+
+    public Path write() throws IOException {
+        Files.createDirectories(options.getReportDir());
+        Path report = options.getReportDir().resolve("report.txt");
+        try (PrintStream out = new PrintStream(Files.newOutputStream(report))) {
+            print(out);
+        }
+        for (RequestType type : RequestType.values()) {
+            writeDistribution(type.name().toLowerCase() + "-corrected.hgrm", recorder.corrected(type));
+            writeDistribution(type.name().toLowerCase() + "-uncorrected.hgrm", recorder.uncorrected(type));
+        }
+        return report;
+    }
+
+    public void print(PrintStream out) {
+        double seconds = elapsed.toNanos() / 1e9;
+        out.printf("URL shortener load report%n");
+        out.printf("target %s, workload %s%n", options.getTarget(),
+                options.getReplay() != null ? "replay of " + options.getReplay() + " x" + options.getReplaySpeed()
+                        : String.format("synthetic, %.0f req/s, redirect ratio %.2f, duplicate creates %.2f, %d urls, zipf %.2f",
+                        options.getRate(), options.getRedirectRatio(), options.getDuplicateCreateRatio(),
+                        options.getUrls(), options.getZipfTheta()));
+        out.printf("sent %d requests in %.1f s (%.1f req/s achieved)%n%n", sent, seconds, sent / seconds);
+
+        out.printf("%-9s %-11s %9s %9s %9s %9s %9s %9s %9s%n",
+                "type", "latency", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "p99.99 ms", "max ms");
+        for (RequestType type : RequestType.values()) {
+            printRow(out, type, "corrected", recorder.corrected(type));
+            printRow(out, type, "service", recorder.uncorrected(type));
+        }
+
+        out.printf("%noutcomes%n");
+        Map<String, LongAdder> sorted = new TreeMap<>(recorder.outcomes());
+        sorted.forEach((outcome, count) -> out.printf("  %-40s %d%n", outcome, count.sum()));
+    }
+
+    private void printRow(PrintStream out, RequestType type, String kind, Histogram histogram) {
+        out.printf("%-9s %-11s %9d", type, kind, histogram.getTotalCount());
+        for (double percentile : PERCENTILES) {
+            out.printf(" %9.2f", histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI);
+        }
+        out.printf(" %9.2f%n", histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    private void writeDistribution(String fileName, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(options.getReportDir().resolve(fileName)))) {
+            histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+        }
+    }
+}
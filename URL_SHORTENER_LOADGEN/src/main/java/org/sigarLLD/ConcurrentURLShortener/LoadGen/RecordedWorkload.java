@@ -0,0 +1,93 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a request log with one request per line: offsetMillis,CREATE|REDIRECT,longUrl.
+ * Blank lines and lines starting with # are ignored. Offsets are divided by the replay speed.
+ */
+public class RecordedWorkload implements Workload, AutoCloseable {
+    private final Path log;
+    private final double speed;
+    private final BufferedReader reader;
+    private int lineNumber;
+
+    public RecordedWorkload(Path log, double speed) throws IOException {
+        this.log = log;
+        this.speed = speed;
+        this.reader = Files.newBufferedReader(log);
+    }
+
+    @Override
+    public ScheduledRequest next() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                ScheduledRequest request = parse(line, lineNumber);
+                if (request != null) {
+                    return request;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Redirect targets that are not created earlier in the log must already exist on a fresh server
+    @Override
+    public Set<String> urlsToSeed() {
+        Set<String> created = new LinkedHashSet<>();
+        Set<String> seed = new LinkedHashSet<>();
+        try (BufferedReader scan = Files.newBufferedReader(log)) {
+            String line;
+            int scanned = 0;
+            while ((line = scan.readLine()) != null) {
+                scanned++;
+                ScheduledRequest request = parse(line, scanned);
+                if (request == null) {
+                    continue;
+                }
+                if (request.type() == RequestType.CREATE) {
+                    created.add(request.longUrl());
+                } else if (!created.contains(request.longUrl())) {
+                    seed.add(request.longUrl());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return seed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // number is the line's 1-based position in the log, counting blank and comment lines
+    private ScheduledRequest parse(String line, int number) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] fields = trimmed.split(",", 3);
+        if (fields.length != 3) {
+            throw new IllegalArgumentException(log + ":" + number + " expected offsetMillis,TYPE,url but got: " + line);
+        }
+        try {
+            long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fields[0].trim())) / speed);
+            return new ScheduledRequest(offsetNanos, RequestType.valueOf(fields[1].trim().toUpperCase()), fields[2].trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(log + ":" + number + " expected offsetMillis,TYPE,url but got: " + line, e);
+        }
+    }
+}
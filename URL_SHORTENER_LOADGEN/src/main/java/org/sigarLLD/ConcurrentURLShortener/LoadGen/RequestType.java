@@ -0,0 +1,6 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+public enum RequestType {
+    CREATE,
+    REDIRECT
+}
@@ -0,0 +1,9 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+/**
+ * One request of the workload. The offset is relative to the start of the run and is the time
+ * the request should have been sent, which is what latency is measured from.
+ * Redirects are keyed by long URL; the tiny URL is looked up when the request is sent.
+ */
+public record ScheduledRequest(long offsetNanos, RequestType type, String longUrl) {
+}
@@ -0,0 +1,63 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import org.sigar.loadgen.ZipfianGenerator;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Poisson arrivals at a fixed mean rate. Redirects pick a seeded URL by Zipfian popularity;
+ * creates either shorten a brand-new URL or, with the duplicate ratio, re-shorten a popular one.
+ */
+public class SyntheticWorkload implements Workload {
+    private final String[] population;
+    private final double meanGapNanos;
+    private final long endNanos;
+    private final double redirectRatio;
+    private final double duplicateCreateRatio;
+    private final ZipfianGenerator popularity;
+    private final Random random;
+    private long offsetNanos;
+    private long freshUrls;
+
+    public SyntheticWorkload(LoadOptions options) {
+        this.random = new Random(options.getSeed());
+        this.population = new String[options.getUrls()];
+        for (int i = 0; i < population.length; i++) {
+            population[i] = "https://loadgen.example.com/seed/" + i;
+        }
+        this.meanGapNanos = TimeUnit.SECONDS.toNanos(1) / options.getRate();
+        this.endNanos = options.getDuration().toNanos();
+        this.redirectRatio = options.getRedirectRatio();
+        this.duplicateCreateRatio = options.getDuplicateCreateRatio();
+        this.popularity = new ZipfianGenerator(population.length, options.getZipfTheta(), random);
+    }
+
+    @Override
+    public ScheduledRequest next() {
+        // Exponential gaps give Poisson arrivals, so bursts happen the way they do in production
+        offsetNanos += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+        if (offsetNanos >= endNanos) {
+            return null;
+        }
+        if (random.nextDouble() < redirectRatio) {
+            return new ScheduledRequest(offsetNanos, RequestType.REDIRECT, popularUrl());
+        }
+        String url = random.nextDouble() < duplicateCreateRatio
+                ? popularUrl()
+                : "https://loadgen.example.com/fresh/" + random.nextLong() + "/" + freshUrls++;
+        return new ScheduledRequest(offsetNanos, RequestType.CREATE, url);
+    }
+
+    @Override
+    public Set<String> urlsToSeed() {
+        return new LinkedHashSet<>(Arrays.asList(population));
+    }
+
+    private String popularUrl() {
+        return population[(int) popularity.next()];
+    }
+}
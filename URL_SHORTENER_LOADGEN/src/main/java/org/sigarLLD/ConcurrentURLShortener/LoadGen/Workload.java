@@ -0,0 +1,15 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import java.util.Set;
+
+public interface Workload {
+    /**
+     * @return the next request in offset order, or null when the workload is exhausted
+     */
+    ScheduledRequest next();
+
+    /**
+     * Long URLs that redirects will ask for; they are created before the measured run starts.
+     */
+    Set<String> urlsToSeed();
+}
@@ -0,0 +1,56 @@
+package org.sigarLLD.ConcurrentURLShortener.LoadGen;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordedWorkloadTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reportsTheLineOfAMalformedRequestCountingSkippedLines() throws IOException {
+        Path log = write("# recorded\n\n0,CREATE,https://a.example\n10,REDIRECT\n");
+
+        try (RecordedWorkload workload = new RecordedWorkload(log, 1.0)) {
+            IllegalArgumentException seeding = assertThrows(IllegalArgumentException.class, workload::urlsToSeed);
+            assertTrue(seeding.getMessage().startsWith(log + ":4 "), seeding.getMessage());
+
+            assertEquals(RequestType.CREATE, workload.next().type());
+            IllegalArgumentException replay = assertThrows(IllegalArgumentException.class, workload::next);
+            assertTrue(replay.getMessage().startsWith(log + ":4 "), replay.getMessage());
+        }
+    }
+
+    @Test
+    void reportsTheLineOfAnUnparseableOffset() throws IOException {
+        Path log = write("0,CREATE,https://a.example\nsoon,REDIRECT,https://a.example\n");
+
+        try (RecordedWorkload workload = new RecordedWorkload(log, 1.0)) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, workload::urlsToSeed);
+            assertTrue(e.getMessage().startsWith(log + ":2 "), e.getMessage());
+        }
+    }
+
+    @Test
+    void seedsOnlyRedirectTargetsNotCreatedEarlier() throws IOException {
+        Path log = write("0,REDIRECT,https://old.example\n5,CREATE,https://new.example\n9,REDIRECT,https://new.example\n");
+
+        try (RecordedWorkload workload = new RecordedWorkload(log, 2.0)) {
+            assertEquals(Set.of("https://old.example"), workload.urlsToSeed());
+            assertEquals(0, workload.next().offsetNanos());
+            assertEquals(2_500_000, workload.next().offsetNanos());
+        }
+    }
+
+    private Path write(String content) throws IOException {
+        return Files.writeString(dir.resolve("requests.log"), content);
+    }
+}
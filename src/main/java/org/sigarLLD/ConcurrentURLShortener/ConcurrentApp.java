@@ -3,9 +3,9 @@ package org.sigarLLD.ConcurrentURLShortener;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-//@SpringBootApplication
+@SpringBootApplication
 public class ConcurrentApp {
     public static void main(String[] args) {
-        SpringApplication.run(ConcurrentApp.class);
+        SpringApplication.run(ConcurrentApp.class, args);
     }
 }
@@ -0,0 +1,18 @@
+package org.sigarLLD.ConcurrentURLShortener.Config;
+
+import org.sigarLLD.ConcurrentURLShortener.Service.TinyURLGenerator;
+import org.sigarLLD.ConcurrentURLShortener.Service.TinyURLGeneratorWithCounter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    // Single-node ID generator for local runs without ZooKeeper (shortener.id-generator=counter)
+    @Bean
+    @ConditionalOnProperty(name = "shortener.id-generator", havingValue = "counter")
+    public TinyURLGenerator counterTinyUrlGenerator() {
+        return new TinyURLGeneratorWithCounter();
+    }
+}
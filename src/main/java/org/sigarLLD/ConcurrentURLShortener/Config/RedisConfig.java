@@ -12,7 +12,8 @@ public class RedisConfig {
 
     @Bean
     public RedisCacheManager cacheManager(RedisConnectionFactory connectionFactory) {
-        return RedisCacheManager.builder(connectionFactory).build();
+        // Statistics let actuator's cache metrics report hits and misses per cache
+        return RedisCacheManager.builder(connectionFactory).enableStatistics().build();
     }
 
     @Bean
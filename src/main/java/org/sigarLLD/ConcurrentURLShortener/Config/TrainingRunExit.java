@@ -0,0 +1,28 @@
+package org.sigarLLD.ConcurrentURLShortener.Config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops the application as soon as it is ready when shortener.training-run=true.
+ * Used by the fast-start build to record the classes loaded during startup into an AppCDS archive.
+ * The flag is read at runtime rather than through a condition so it still works in an AOT-processed build.
+ */
+@Component
+public class TrainingRunExit implements ApplicationListener<ApplicationReadyEvent> {
+    private final boolean trainingRun;
+
+    public TrainingRunExit(@Value("${shortener.training-run:false}") boolean trainingRun) {
+        this.trainingRun = trainingRun;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (trainingRun) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.sigarLLD.ConcurrentURLShortener.Controller;
 
+import org.sigarLLD.ConcurrentURLShortener.Helper.IdempotencyKeyConflictException;
 import org.sigarLLD.ConcurrentURLShortener.Helper.InvalidUrlException;
 import org.sigarLLD.ConcurrentURLShortener.DTO.UrlRequest;
+import org.sigarLLD.ConcurrentURLShortener.Model.IdempotencyRecord;
 import org.sigarLLD.ConcurrentURLShortener.Model.UrlShortened;
 import org.sigarLLD.ConcurrentURLShortener.Service.URLService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,17 +20,23 @@ public class URLController {
         this.urlService = service;
     }
     @PostMapping("/create")
-    public ResponseEntity<UrlShortened> storeURL(@RequestBody UrlRequest urlRequest){
+    public ResponseEntity<UrlShortened> storeURL(@RequestBody UrlRequest urlRequest,
+                                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey){
 
 //        UrlShortened urlShortened = urlService.createShortenedUrl(urlRequest.getUrl());
 //        System.out.println("SAVED " + urlShortened.getUrl() + " tinyUrl " + urlShortened.getTinyUrl());
 //        return urlShortened;
 
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > IdempotencyRecord.MAX_KEY_LENGTH)) {
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
         try {
-            UrlShortened urlShortened = urlService.createShortenedUrl(urlRequest.getUrl());
+            UrlShortened urlShortened = urlService.createShortenedUrl(urlRequest.getUrl(), idempotencyKey);
             return new ResponseEntity<>(urlShortened, HttpStatus.CREATED);
         } catch (InvalidUrlException e) {
             return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        } catch (IdempotencyKeyConflictException e) {
+            return new ResponseEntity<>(null, HttpStatus.CONFLICT);
         } catch (Exception e) {
             return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -46,7 +54,6 @@ public class URLController {
             if (urlShortened == null) {
                 return new ResponseEntity<>("URL not found", HttpStatus.NOT_FOUND);
             }
-            System.out.println("Redirecting for " + tinyURL + "  to  " + urlShortened.getUrl());
             // urlService.updateUrlAnalytics(tinyURL); // Increment hit counter
             return new ResponseEntity<>(urlShortened.getUrl(), HttpStatus.OK);
         } catch (Exception e) {
@@ -0,0 +1,23 @@
+package org.sigarLLD.ConcurrentURLShortener.Helper;
+
+public class Base62Encoder {
+
+    private static final char[] BASE62 = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+    private static final int BASE = BASE62.length;
+    // 62^11 > Long.MAX_VALUE, so 11 digits always fit
+    private static final int MAX_LENGTH = 11;
+
+    private Base62Encoder() {
+    }
+
+    // Fills the digits from the end of a fixed buffer, so there is no StringBuilder growth or reverse pass
+    public static String encode(long id) {
+        char[] buffer = new char[MAX_LENGTH];
+        int position = MAX_LENGTH;
+        while (id > 0) {
+            buffer[--position] = BASE62[(int) (id % BASE)];
+            id /= BASE;
+        }
+        return new String(buffer, position, MAX_LENGTH - position);
+    }
+}
@@ -0,0 +1,7 @@
+package org.sigarLLD.ConcurrentURLShortener.Helper;
+
+public class IdempotencyKeyConflictException extends RuntimeException {
+    public IdempotencyKeyConflictException(String message) {
+        super(message);
+    }
+}
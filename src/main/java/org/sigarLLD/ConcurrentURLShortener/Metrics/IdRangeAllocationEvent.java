@@ -0,0 +1,24 @@
+package org.sigarLLD.ConcurrentURLShortener.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event covering one ID range reservation against ZooKeeper (lock, read, write, unlock).
+ */
+@Name("org.sigar.shortener.IdRangeAllocation")
+@Label("ID Range Allocation")
+@Category({"URL Shortener", "ZooKeeper"})
+@Description("Reservation of a new block of IDs from the shared ZooKeeper counter")
+@StackTrace(false)
+public class IdRangeAllocationEvent extends Event {
+    @Label("Range Start")
+    public long rangeStart;
+
+    @Label("Range End")
+    public long rangeEnd;
+}
@@ -0,0 +1,122 @@
+package org.sigarLLD.ConcurrentURLShortener.Metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Central place for the shortener's Micrometer meters.
+ * Timers publish p50/p99/p999 plus a percentile histogram so they can be aggregated across nodes.
+ */
+@Component
+public class ShortenerMetrics {
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private final MeterRegistry registry;
+    private final Timer redirectTimer;
+    private final Timer createTimer;
+    private final Timer idBlockAllocationTimer;
+    private final Counter redirectNotFound;
+    private final Counter invalidUrls;
+    private final Counter optimisticLockConflicts;
+    private final Counter hitUpdateRetries;
+    private final Counter duplicateCreateRaces;
+    private final Counter idempotentReplays;
+    private final Counter tinyUrlCollisions;
+    private final Map<String, Timer> repositoryTimers = new ConcurrentHashMap<>();
+
+    public ShortenerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.redirectTimer = timer("shortener.redirect", "Resolve a tiny URL and record the hit");
+        this.createTimer = timer("shortener.create", "Create or look up a shortened URL");
+        this.idBlockAllocationTimer = timer("shortener.idblock.allocate", "Reserve a new ID range from ZooKeeper");
+        this.redirectNotFound = Counter.builder("shortener.redirect.notfound")
+                .description("Redirects for unknown tiny URLs")
+                .register(registry);
+        this.invalidUrls = Counter.builder("shortener.create.invalid")
+                .description("Create requests rejected because the URL was malformed")
+                .register(registry);
+        this.optimisticLockConflicts = Counter.builder("shortener.optimisticlock.conflicts")
+                .description("Saves rejected because of a concurrent update")
+                .register(registry);
+        this.hitUpdateRetries = Counter.builder("shortener.redirect.retries")
+                .description("Hit count updates retried after an optimistic lock conflict")
+                .register(registry);
+        this.duplicateCreateRaces = Counter.builder("shortener.create.race.lost")
+                .description("Creates that found the URL already inserted by a concurrent request")
+                .register(registry);
+        this.idempotentReplays = Counter.builder("shortener.create.idempotent.replays")
+                .description("Creates answered from a previously seen Idempotency-Key")
+                .register(registry);
+        this.tinyUrlCollisions = Counter.builder("shortener.create.tinyurl.collisions")
+                .description("Inserts retried because the generated tiny URL was already taken")
+                .register(registry);
+    }
+
+    public Timer redirectTimer() {
+        return redirectTimer;
+    }
+
+    public Timer createTimer() {
+        return createTimer;
+    }
+
+    public Timer idBlockAllocationTimer() {
+        return idBlockAllocationTimer;
+    }
+
+    public void redirectNotFound() {
+        redirectNotFound.increment();
+    }
+
+    public void invalidUrl() {
+        invalidUrls.increment();
+    }
+
+    public void optimisticLockConflict() {
+        optimisticLockConflicts.increment();
+    }
+
+    public void hitUpdateRetry() {
+        hitUpdateRetries.increment();
+    }
+
+    public void duplicateCreateRaceLost() {
+        duplicateCreateRaces.increment();
+    }
+
+    public void idempotentReplay() {
+        idempotentReplays.increment();
+    }
+
+    public void tinyUrlCollision() {
+        tinyUrlCollisions.increment();
+    }
+
+    /**
+     * Times a single repository call, tagged with the repository method name.
+     */
+    public <T> T repository(String operation, Supplier<T> call) {
+        return repositoryTimers
+                .computeIfAbsent(operation, op -> Timer.builder("shortener.repository")
+                        .description("Latency of UrlRepo calls")
+                        .tag("operation", op)
+                        .publishPercentiles(PERCENTILES)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(call);
+    }
+
+    private Timer timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
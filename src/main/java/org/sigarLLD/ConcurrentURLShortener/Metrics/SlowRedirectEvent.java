@@ -0,0 +1,27 @@
+package org.sigarLLD.ConcurrentURLShortener.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event committed only when a redirect takes longer than the configured threshold.
+ * Override the threshold with a JFR settings file, e.g. org.sigar.shortener.SlowRedirect#threshold=10 ms.
+ */
+@Name("org.sigar.shortener.SlowRedirect")
+@Label("Slow Redirect")
+@Category({"URL Shortener", "Redirect"})
+@Description("Redirect that exceeded the slow-request threshold")
+@Threshold("50 ms")
+@StackTrace(false)
+public class SlowRedirectEvent extends Event {
+    @Label("Tiny URL")
+    public String tinyUrl;
+
+    @Label("Found")
+    public boolean found;
+}
@@ -0,0 +1,25 @@
+package org.sigarLLD.ConcurrentURLShortener.Model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Remembers which shortened URL a client's Idempotency-Key produced, so a retried create returns the same result.
+ */
+@Entity
+@Table(name = "concurrent_idempotency_keys")
+@Getter
+@NoArgsConstructor
+public class IdempotencyRecord {
+    public static final int MAX_KEY_LENGTH = 128;
+
+    @Id
+    @Column(name = "idempotency_key", length = MAX_KEY_LENGTH)
+    private String key;
+    @Column(nullable = false)
+    private Long urlId;
+    private LocalDateTime created_on;
+}
@@ -39,7 +39,6 @@ public class UrlShortened {
         hits = 0;
     }
     public void incrementHits() {
-        System.out.println("Incrementing hits for " + url);
         this.hits += 1;
     }
 
@@ -0,0 +1,9 @@
+package org.sigarLLD.ConcurrentURLShortener.Repo;
+
+import org.sigarLLD.ConcurrentURLShortener.Model.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface IdempotencyRepo extends JpaRepository<IdempotencyRecord, String> {
+}
@@ -0,0 +1,90 @@
+package org.sigarLLD.ConcurrentURLShortener.Repo;
+
+import org.sigarLLD.ConcurrentURLShortener.Model.UrlShortened;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Insert-or-ignore statements used instead of check-then-insert, so two concurrent creates of the
+ * same URL (or the same idempotency key) end with one row and no constraint violation.
+ * PostgreSQL uses INSERT ... ON CONFLICT DO NOTHING RETURNING; H2 uses MERGE ... WHEN NOT MATCHED.
+ * Only a conflict on the url (or idempotency key) column is ignored; a clash on tiny_url is still
+ * thrown as a DuplicateKeyException for the caller to retry with another tiny URL.
+ */
+@Repository
+public class UrlInsertRepository {
+    private static final String POSTGRES_INSERT_URL =
+            "INSERT INTO concurrent_urls (url, tiny_url, created_on, expiry, hits, version) VALUES (?, ?, ?, ?, ?, 0) " +
+            "ON CONFLICT (url) DO NOTHING RETURNING id";
+    private static final String H2_MERGE_URL =
+            "MERGE INTO concurrent_urls t USING (VALUES (CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS TIMESTAMP), CAST(? AS TIMESTAMP), CAST(? AS INTEGER))) " +
+            "s(url, tiny_url, created_on, expiry, hits) ON t.url = s.url " +
+            "WHEN NOT MATCHED THEN INSERT (url, tiny_url, created_on, expiry, hits, version) " +
+            "VALUES (s.url, s.tiny_url, s.created_on, s.expiry, s.hits, 0)";
+    private static final String URL_EXISTS = "SELECT COUNT(*) FROM concurrent_urls WHERE url = ?";
+
+    private static final String POSTGRES_INSERT_KEY =
+            "INSERT INTO concurrent_idempotency_keys (idempotency_key, url_id, created_on) VALUES (?, ?, ?) " +
+            "ON CONFLICT (idempotency_key) DO NOTHING RETURNING url_id";
+    private static final String H2_MERGE_KEY =
+            "MERGE INTO concurrent_idempotency_keys t USING (VALUES (CAST(? AS VARCHAR), CAST(? AS BIGINT), CAST(? AS TIMESTAMP))) " +
+            "s(idempotency_key, url_id, created_on) ON t.idempotency_key = s.idempotency_key " +
+            "WHEN NOT MATCHED THEN INSERT (idempotency_key, url_id, created_on) VALUES (s.idempotency_key, s.url_id, s.created_on)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean postgres;
+
+    public UrlInsertRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) throws MetaDataAccessException {
+        this.jdbcTemplate = jdbcTemplate;
+        String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        this.postgres = product != null && product.toLowerCase().contains("postgres");
+    }
+
+    /**
+     * @return true if this call inserted the row, false if a row for the same URL already existed
+     */
+    public boolean insertIfAbsent(UrlShortened urlShortened) {
+        Object[] args = {urlShortened.getUrl(), urlShortened.getTinyUrl(),
+                Timestamp.valueOf(urlShortened.getCreated_on()), Timestamp.valueOf(urlShortened.getExpiry()),
+                urlShortened.getHits()};
+        return insertOrIgnore(POSTGRES_INSERT_URL, H2_MERGE_URL, URL_EXISTS, args);
+    }
+
+    /**
+     * @return true if this call recorded the key, false if the key was already recorded
+     */
+    public boolean insertIdempotencyKeyIfAbsent(String key, Long urlId) {
+        Object[] args = {key, urlId, Timestamp.valueOf(LocalDateTime.now())};
+        // The key is the table's only unique column, so any clash is on the key
+        return insertOrIgnore(POSTGRES_INSERT_KEY, H2_MERGE_KEY, null, args);
+    }
+
+    // existsSql checks the conflict column, which is always the first argument; null when no other column is unique
+    private boolean insertOrIgnore(String postgresSql, String h2Sql, String existsSql, Object[] args) {
+        if (postgres) {
+            return !jdbcTemplate.queryForList(postgresSql, Long.class, args).isEmpty();
+        }
+        try {
+            return jdbcTemplate.update(h2Sql, args) > 0;
+        } catch (DuplicateKeyException e) {
+            // H2's MERGE checks and inserts without a lock, so two sessions can both miss and one then hits the constraint.
+            // That only means "already there" if the row now exists; otherwise another unique column clashed
+            if (existsSql == null) {
+                return false;
+            }
+            Integer existing = jdbcTemplate.queryForObject(existsSql, Integer.class, args[0]);
+            if (existing != null && existing > 0) {
+                return false;
+            }
+            throw e;
+        }
+    }
+}
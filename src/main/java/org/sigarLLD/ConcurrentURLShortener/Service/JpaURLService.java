@@ -3,52 +3,202 @@ package org.sigarLLD.ConcurrentURLShortener.Service;
 
 import jakarta.persistence.OptimisticLockException;
 import org.sigarLLD.ConcurrentURLShortener.Helper.CustomOptimisticLockException;
+import org.sigarLLD.ConcurrentURLShortener.Helper.IdempotencyKeyConflictException;
 import org.sigarLLD.ConcurrentURLShortener.Helper.InvalidUrlException;
 import org.sigarLLD.ConcurrentURLShortener.Helper.ResourceNotFoundException;
+import org.sigarLLD.ConcurrentURLShortener.Metrics.ShortenerMetrics;
+import org.sigarLLD.ConcurrentURLShortener.Metrics.SlowRedirectEvent;
+import org.sigarLLD.ConcurrentURLShortener.Model.IdempotencyRecord;
 import org.sigarLLD.ConcurrentURLShortener.Model.UrlShortened;
+import org.sigarLLD.ConcurrentURLShortener.Repo.IdempotencyRepo;
+import org.sigarLLD.ConcurrentURLShortener.Repo.UrlInsertRepository;
 import org.sigarLLD.ConcurrentURLShortener.Repo.UrlRepo;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 @Service
 public class JpaURLService implements URLService {
+    private static final int MAX_TINY_URL_ATTEMPTS = 3;
+
     private  final UrlRepo urlRepository;
-    private final TinyURLGenerator tinyUrlGenerator = new TinyURLGeneratorWithZookeeper();
+    private final UrlInsertRepository urlInsertRepository;
+    private final IdempotencyRepo idempotencyRepository;
+    private final TinyURLGenerator tinyUrlGenerator;
+    private final ShortenerMetrics metrics;
+    private final TransactionTemplate transactions;
+    private final int maxHitUpdateAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
     @Autowired
-    JpaURLService(UrlRepo urlRepo) throws Exception{
+    JpaURLService(UrlRepo urlRepo, UrlInsertRepository urlInsertRepository, IdempotencyRepo idempotencyRepo,
+                  TinyURLGenerator tinyUrlGenerator, ShortenerMetrics metrics, PlatformTransactionManager transactionManager,
+                  @Value("${shortener.optimistic-lock.max-attempts:5}") int maxHitUpdateAttempts,
+                  @Value("${shortener.optimistic-lock.initial-backoff-ms:2}") long initialBackoffMillis,
+                  @Value("${shortener.optimistic-lock.max-backoff-ms:50}") long maxBackoffMillis) throws Exception{
 
         this.urlRepository = urlRepo;
+        this.urlInsertRepository = urlInsertRepository;
+        this.idempotencyRepository = idempotencyRepo;
+        this.tinyUrlGenerator = tinyUrlGenerator;
+        this.metrics = metrics;
+        this.transactions = new TransactionTemplate(transactionManager);
+        this.maxHitUpdateAttempts = Math.max(1, maxHitUpdateAttempts);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
     }
 
     @Override
     public UrlShortened getOriginalUrl(String tinyUrl) {
-        UrlShortened urlShortened= urlRepository.findByTinyUrl(tinyUrl);
+        SlowRedirectEvent event = new SlowRedirectEvent();
+        event.begin();
+        try {
+            return metrics.redirectTimer().record(() -> redirect(tinyUrl, event));
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.tinyUrl = tinyUrl;
+                event.commit();
+            }
+        }
+    }
+
+    private UrlShortened redirect(String tinyUrl, SlowRedirectEvent event) {
+        UrlShortened urlShortened= metrics.repository("findByTinyUrl", () -> urlRepository.findByTinyUrl(tinyUrl));
         if(urlShortened == null){
+            metrics.redirectNotFound();
             throw new ResourceNotFoundException("URL not found for tinyURL: " + tinyUrl);
         }
-//
-        urlShortened.incrementHits();
-        return urlRepository.save(urlShortened);
-        //return urlShortened;
+        event.found = true;
+        // Concurrent redirects of the same tiny URL race on the version column; retry a few times
+        // with a fresh copy instead of failing the redirect
+        for (int attempt = 1; ; attempt++) {
+            urlShortened.incrementHits();
+            try {
+                return saveUrl(urlShortened);
+            } catch (CustomOptimisticLockException e) {
+                if (attempt >= maxHitUpdateAttempts) {
+                    throw e;
+                }
+                metrics.hitUpdateRetry();
+                backoff(attempt);
+                urlShortened = metrics.repository("findByTinyUrl", () -> urlRepository.findByTinyUrl(tinyUrl));
+                if (urlShortened == null) {
+                    metrics.redirectNotFound();
+                    throw new ResourceNotFoundException("URL not found for tinyURL: " + tinyUrl);
+                }
+            }
+        }
+    }
+
+    /**
+     * Full-jitter exponential backoff: a random pause between 0 and min(max, initial * 2^(attempt-1)).
+     */
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        if (ceiling > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling + 1)));
+        }
     }
 
     @Override
     public UrlShortened createShortenedUrl(String originalUrl) {
-        if(!isUrlValid(originalUrl))
+        return createShortenedUrl(originalUrl, null);
+    }
+
+    @Override
+    public UrlShortened createShortenedUrl(String originalUrl, String idempotencyKey) {
+        return metrics.createTimer().record(() -> create(originalUrl, idempotencyKey));
+    }
+
+    private UrlShortened create(String originalUrl, String idempotencyKey) {
+        if(!isUrlValid(originalUrl)) {
+            metrics.invalidUrl();
             throw new InvalidUrlException("Invalid URL: " + originalUrl);
-        UrlShortened existingUrlShortened = urlRepository.findByUrl(originalUrl);
-        if (existingUrlShortened != null) {
-            return existingUrlShortened; // Return existing TinyURL
         }
-        try {
-            return generateShortUrl(originalUrl);
-        }catch (RuntimeException e){
-            throw new InvalidUrlException(e.toString());
+        if (idempotencyKey != null) {
+            UrlShortened replayed = replay(idempotencyKey, originalUrl);
+            if (replayed != null) {
+                metrics.idempotentReplay();
+                return replayed;
+            }
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                // The URL row and the idempotency key commit together, so a crash in between cannot leave
+                // a created URL its key does not know about
+                return transactions.execute(status -> findOrInsert(originalUrl, idempotencyKey));
+            } catch (DuplicateKeyException e) {
+                // Only a taken tiny URL gets here (see UrlInsertRepository); a fresh one is tried
+                metrics.tinyUrlCollision();
+                if (attempt >= MAX_TINY_URL_ATTEMPTS) {
+                    throw e;
+                }
+            } catch (ConcurrencyFailureException e) {
+                // Lost the race but the winner's row was not yet readable here; a new transaction finds it
+                if (attempt >= MAX_TINY_URL_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private UrlShortened findOrInsert(String originalUrl, String idempotencyKey) {
+        UrlShortened urlShortened = metrics.repository("findByUrl", () -> urlRepository.findByUrl(originalUrl));
+        if (urlShortened == null) {
+            urlShortened = generateShortUrl(originalUrl);
+        }
+        if (idempotencyKey != null) {
+            return rememberIdempotencyKey(idempotencyKey, urlShortened);
+        }
+        return urlShortened;
+    }
+
+    /**
+     * @return the URL previously created under this key, or null if the key has not been seen
+     */
+    private UrlShortened replay(String idempotencyKey, String originalUrl) {
+        IdempotencyRecord record = metrics.repository("findIdempotencyKey",
+                () -> idempotencyRepository.findById(idempotencyKey).orElse(null));
+        if (record == null) {
+            return null;
+        }
+        UrlShortened urlShortened = metrics.repository("findById", () -> urlRepository.findById(record.getUrlId()).orElse(null));
+        if (urlShortened == null || !urlShortened.getUrl().equals(originalUrl)) {
+            throw new IdempotencyKeyConflictException("Idempotency key " + idempotencyKey + " was already used for a different URL");
         }
+        return urlShortened;
+    }
+
+    /**
+     * @return the URL the key stands for: this one if the key was recorded now, otherwise the one recorded
+     * by the request that got there first
+     */
+    private UrlShortened rememberIdempotencyKey(String idempotencyKey, UrlShortened urlShortened) {
+        boolean recorded = metrics.repository("insertIdempotencyKey",
+                () -> urlInsertRepository.insertIdempotencyKeyIfAbsent(idempotencyKey, urlShortened.getId()));
+        if (recorded) {
+            return urlShortened;
+        }
+        // Another request with the same key got there first; it must have been for the same URL
+        UrlShortened winner = replay(idempotencyKey, urlShortened.getUrl());
+        if (winner == null) {
+            throw new ConcurrencyFailureException("Idempotency key " + idempotencyKey + " not yet visible after losing the insert race");
+        }
+        metrics.idempotentReplay();
+        return winner;
     }
 
     @Override
@@ -56,15 +206,27 @@ public class JpaURLService implements URLService {
         return false;
     }
 
-    private UrlShortened generateShortUrl(String originalUrl) throws RuntimeException {
+    private UrlShortened generateShortUrl(String originalUrl) {
+        String tinyUrl;
         try {
-            String tinyUrl = tinyUrlGenerator.generateTinyURL(originalUrl);
-            UrlShortened newUrlShortened = new UrlShortened(originalUrl, tinyUrl);
-            newUrlShortened = saveUrl(newUrlShortened);
-            return newUrlShortened; // Return the newly generated TinyURL
-        }catch (Exception exception){
-            throw new RuntimeException("Failed to generate tiny URL from Zookeeper", exception);
+            tinyUrl = tinyUrlGenerator.generateTinyURL(originalUrl);
+        } catch (Exception exception) {
+            throw new IllegalStateException("Failed to generate tiny URL from Zookeeper", exception);
+        }
+        UrlShortened newUrlShortened = new UrlShortened(originalUrl, tinyUrl);
+        // Insert-or-ignore instead of save(): when a concurrent create wins the race on the unique url
+        // column this returns quietly and the winner's row is read back below
+        boolean inserted = metrics.repository("insertIfAbsent", () -> urlInsertRepository.insertIfAbsent(newUrlShortened));
+        if (!inserted) {
+            metrics.duplicateCreateRaceLost();
+            // Never stored, so the next create can have it rather than a new ID
+            tinyUrlGenerator.release(tinyUrl);
+        }
+        UrlShortened stored = metrics.repository("findByUrl", () -> urlRepository.findByUrl(originalUrl));
+        if (stored == null) {
+            throw new ConcurrencyFailureException("Row for " + originalUrl + " not yet visible after losing the insert race");
         }
+        return stored; // Return the newly generated (or concurrently created) TinyURL
     }
 
     @Override
@@ -75,7 +237,6 @@ public class JpaURLService implements URLService {
             new java.net.URL(uri.toString()); // Convert to URL
             return true;
         } catch (MalformedURLException | URISyntaxException e)  {
-            System.out.println("Invalid URL exception: " + e.getMessage());
             return false;
         }
     }
@@ -84,9 +245,10 @@ public class JpaURLService implements URLService {
     public UrlShortened saveUrl(UrlShortened urlShortened) throws CustomOptimisticLockException {
 
             try {
-                return urlRepository.save(urlShortened);
-            } catch (OptimisticLockException e) {
-                // Handle the exception, e.g., retry the operation or notify the user
+                return metrics.repository("save", () -> urlRepository.save(urlShortened));
+            } catch (OptimisticLockException | OptimisticLockingFailureException e) {
+                // Spring translates the JPA exception on repository proxies, so both forms are caught here
+                metrics.optimisticLockConflict();
                 throw new CustomOptimisticLockException("Update conflict occurred for URL: " + urlShortened.getUrl(), e);
             }
         }
@@ -2,4 +2,11 @@ package org.sigarLLD.ConcurrentURLShortener.Service;
 
 public interface TinyURLGenerator {
     String generateTinyURL(String originalURL) throws Exception;
+
+    /**
+     * Hands back a tiny URL that was generated but never stored, e.g. by a create that lost the race
+     * for its long URL, so a later call can use it instead of spending a new ID.
+     */
+    default void release(String tinyUrl) {
+    }
 }
@@ -1,26 +1,22 @@
 package org.sigarLLD.ConcurrentURLShortener.Service;
 
+import org.sigarLLD.ConcurrentURLShortener.Helper.Base62Encoder;
+
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-public class TinyURLGeneratorWithCounter {
-        private static final String BASE62 = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-        private static final int BASE = BASE62.length();
+public class TinyURLGeneratorWithCounter implements TinyURLGenerator {
         private AtomicLong counter = new AtomicLong(1); // Thread-safe counter
         private Map<String, String> urlMap = new ConcurrentHashMap<>(); // Thread-safe map
         private Map<String, String> reverseMap = new ConcurrentHashMap<>(); // Thread-safe reverse map
 
         // Method to encode ID to a Base62 short UrlShortened
         public String idToShortURL(long id) {
-            StringBuilder shortURL = new StringBuilder();
-            while (id > 0) {
-                shortURL.append(BASE62.charAt((int) (id % BASE)));
-                id /= BASE;
-            }
-            return shortURL.reverse().toString();
+            return Base62Encoder.encode(id);
         }
 
         // Method to generate TinyURL (Thread-safe)
+        @Override
         public String generateTinyURL(String originalURL) {
             // Check if TinyURL already exists for the original UrlShortened
             if (reverseMap.containsKey(originalURL)) {
@@ -1,64 +1,106 @@
 package org.sigarLLD.ConcurrentURLShortener.Service;
 
+import jakarta.annotation.PreDestroy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.KeeperException;
+import org.sigarLLD.ConcurrentURLShortener.Helper.Base62Encoder;
+import org.sigarLLD.ConcurrentURLShortener.Metrics.IdRangeAllocationEvent;
+import org.sigarLLD.ConcurrentURLShortener.Metrics.ShortenerMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 @Service
+@ConditionalOnProperty(name = "shortener.id-generator", havingValue = "zookeeper", matchIfMissing = true)
 public class TinyURLGeneratorWithZookeeper implements TinyURLGenerator {
-    private static final String BASE62 = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-    private static final int BASE = BASE62.length();
     private static final int BATCH_SIZE = 1000000; // Each server gets a batch of 1 million unique IDs
+    private static final String COUNTER_PATH = "/url-shortener/counter";
 
     private AtomicLong counter; // Current counter for this instance
     private long maxCounter; // Max counter for this instance
+    private final Deque<String> released = new ArrayDeque<>(); // Generated but never stored; guarded by this
 
 //    private final UrlRepo urlRepo;
     private final CuratorFramework client;
     private final InterProcessMutex lock;
+    private final ShortenerMetrics metrics;
+    private final int batchSize;
 
     @Autowired
-    public TinyURLGeneratorWithZookeeper() throws Exception {
+    public TinyURLGeneratorWithZookeeper(@Value("${zookeeper.connect-string:localhost:2181}") String connectString,
+                                         ShortenerMetrics metrics) throws Exception {
+        this(connectString, BATCH_SIZE, metrics);
+    }
+
+    public TinyURLGeneratorWithZookeeper(String connectString, int batchSize, ShortenerMetrics metrics) throws Exception {
+        this.metrics = metrics;
+        this.batchSize = batchSize;
 
 //    public TinyURLGeneratorWithZookeeper(UrlRepo urlRepo) throws Exception {
 //        this.urlRepo = urlRepo;
 
-        // Connect to Zookeeper using Curator
-        this.client = CuratorFrameworkFactory.newClient("localhost:2181", new ExponentialBackoffRetry(1000, 3));
-        this.client.start();
+        // The client is only started on the first generateTinyURL call, so a node can finish booting
+        // (and serve redirects) before ZooKeeper is reachable
+        this.client = CuratorFrameworkFactory.newClient(connectString, new ExponentialBackoffRetry(1000, 3));
 
         // Lock for controlling the ID range allocation
         this.lock = new InterProcessMutex(client, "/url-shortener/locks");
+    }
+
+    private void connect() throws Exception {
+        // A previous attempt may have started the client and then failed to reach ZooKeeper
+        if (client.getState() == CuratorFrameworkState.LATENT) {
+            client.start();
+        }
+        createCounterIfMissing();
 
         // Fetch an initial range of IDs from Zookeeper
         allocateNewRange();
     }
 
+    private void createCounterIfMissing() throws Exception {
+        if (client.checkExists().forPath(COUNTER_PATH) != null) {
+            return;
+        }
+        try {
+            client.create().creatingParentsIfNeeded().forPath(COUNTER_PATH, "1".getBytes());
+        } catch (KeeperException.NodeExistsException ignored) {
+            // Another instance created it first
+        }
+    }
+
     private void allocateNewRange() throws Exception {
+        IdRangeAllocationEvent event = new IdRangeAllocationEvent();
+        event.begin();
+        long start = System.nanoTime();
         lock.acquire();
         try {
-            byte[] currentValue = client.getData().forPath("/url-shortener/counter");
+            byte[] currentValue = client.getData().forPath(COUNTER_PATH);
             long globalCounter = currentValue == null ? 1 : Long.parseLong(new String(currentValue));
 
             counter = new AtomicLong(globalCounter);
-            maxCounter = globalCounter + BATCH_SIZE;
+            maxCounter = globalCounter + batchSize;
 
-            client.setData().forPath("/url-shortener/counter", String.valueOf(maxCounter).getBytes());
+            client.setData().forPath(COUNTER_PATH, String.valueOf(maxCounter).getBytes());
         } finally {
             lock.release();
+            metrics.idBlockAllocationTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
-    }
-    private  String idToShortURL(long id) {
-        StringBuilder shortURL = new StringBuilder();
-        while (id > 0) {
-            shortURL.append(BASE62.charAt((int) (id % BASE)));
-            id /= BASE;
+        event.end();
+        if (event.shouldCommit()) {
+            event.rangeStart = counter.get();
+            event.rangeEnd = maxCounter;
+            event.commit();
         }
-        return shortURL.reverse().toString();
     }
     public synchronized String generateTinyURL(String originalURL) throws Exception {
       //  URLMapping existingMapping = urlMappingRepository.findByOriginalUrl(originalURL);
@@ -66,12 +108,18 @@ public class TinyURLGeneratorWithZookeeper implements TinyURLGenerator {
 //            return existingMapping.getTinyUrl();
 //        }
 
-        if (counter.get() >= maxCounter) {
+        String reused = released.poll();
+        if (reused != null) {
+            return reused;
+        }
+        if (counter == null) {
+            connect();
+        } else if (counter.get() >= maxCounter) {
             allocateNewRange();
         }
 
         long id = counter.getAndIncrement();
-        String tinyURL = idToShortURL(id);
+        String tinyURL = Base62Encoder.encode(id);
 
         // Store the new mapping in the PostgreSQL database
 //        URLMapping newMapping = new URLMapping();
@@ -81,6 +129,12 @@ public class TinyURLGeneratorWithZookeeper implements TinyURLGenerator {
 
         return tinyURL;
     }
+    @Override
+    public synchronized void release(String tinyUrl) {
+        released.push(tinyUrl);
+    }
+
+    @PreDestroy
     public void close() {
         client.close();
     }
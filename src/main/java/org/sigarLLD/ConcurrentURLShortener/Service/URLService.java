@@ -27,6 +27,17 @@ public interface URLService {
      */
     public UrlShortened createShortenedUrl(String longUrl);
 
+    /**
+     * Same as {@link #createShortenedUrl(String)}, but a retried request carrying the same idempotency key
+     * returns the URL created by the first attempt.
+     *
+     * @param longUrl        the original URL
+     * @param idempotencyKey client supplied key, or null to skip the idempotency check
+     * @return the corresponding UrlShortened entity
+     * @throws org.sigarLLD.ConcurrentURLShortener.Helper.IdempotencyKeyConflictException if the key was used for another URL
+     */
+    public UrlShortened createShortenedUrl(String longUrl, String idempotencyKey);
+
     /**
      * Updates the analytics (e.g., number of hits) for a given shortened URL.
      *